@@ -4,6 +4,7 @@ import org.voltdb.SysProcSelector;
 
 import edu.brown.statistics.Histogram;
 import edu.brown.statistics.HistogramUtil;
+import edu.brown.statistics.LatencyHistogram;
 
 /**
  * Utility methods for the BenchmarkController
@@ -81,4 +82,24 @@ public abstract class BenchmarkControllerUtil {
         return new double[]{ minLatency, maxLatency, avgLatency, stdDevLatency };
     }
     
+    /**
+     * Return an array with the latency percentiles for the values recorded in a Histogram:
+     * <ol>
+     *  <li> 50th Percentile Latency
+     *  <li> 99th Percentile Latency
+     *  <li> 99.9th Percentile Latency
+     * </ol>
+     * @param latencies
+     * @return
+     */
+    public static double[] computeLatencyPercentiles(Histogram<Integer> latencies) {
+        LatencyHistogram h = new LatencyHistogram(Integer.MAX_VALUE, 2);
+        for (Integer latency : latencies.values()) {
+            h.record(latency.longValue(), latencies.get(latency, 0));
+        } // FOR
+        return new double[]{ h.getValueAtPercentile(50d),
+                             h.getValueAtPercentile(99d),
+                             h.getValueAtPercentile(99.9d) };
+    }
+    
 }
@@ -14,6 +14,7 @@ import org.voltdb.VoltType;
 import org.voltdb.utils.Pair;
 import org.voltdb.utils.VoltTableUtil;
 
+import edu.brown.api.BenchmarkControllerUtil;
 import edu.brown.api.BenchmarkInterest;
 import edu.brown.statistics.Histogram;
 import edu.brown.statistics.HistogramUtil;
@@ -29,6 +30,10 @@ public class CSVResultsPrinter implements BenchmarkInterest {
         new ColumnInfo("THROUGHPUT", VoltType.FLOAT),
         new ColumnInfo("LATENCY", VoltType.FLOAT),
         new ColumnInfo("EVICTING", VoltType.INTEGER),
+        new ColumnInfo("LATENCY_P50", VoltType.FLOAT),
+        new ColumnInfo("LATENCY_P99", VoltType.FLOAT),
+        new ColumnInfo("LATENCY_P999", VoltType.FLOAT),
+        new ColumnInfo("LATENCY_MAX", VoltType.FLOAT),
     };
 
     private final List<Object[]> results = new ArrayList<Object[]>(); 
@@ -85,6 +90,8 @@ public class CSVResultsPrinter implements BenchmarkInterest {
         // INTERVAL LATENCY
         Histogram<Integer> lastLatencies = br.getLastSinglePartitionLatencies();
         double intervalLatency = HistogramUtil.sum(lastLatencies) / (double)lastLatencies.getSampleCount();
+        double intervalPercentiles[] = BenchmarkControllerUtil.computeLatencyPercentiles(lastLatencies);
+        Integer intervalMaxLatency = lastLatencies.getMaxValue();
         
         Object row[] = {
             this.intervalCounter++,
@@ -94,6 +101,10 @@ public class CSVResultsPrinter implements BenchmarkInterest {
             intervalThroughput,
             intervalLatency,
             0,
+            intervalPercentiles[0],
+            intervalPercentiles[1],
+            intervalPercentiles[2],
+            (intervalMaxLatency != null ? intervalMaxLatency.doubleValue() : 0d),
         };
         this.results.add(row);
         
@@ -26,16 +26,25 @@ public class EntityResult implements JSONSerializable {
     public double totalStdevLatency = 0d;
     public double totalMinLatency = 0d;
     public double totalMaxLatency = 0d;
+    public double totalP50Latency = 0d;
+    public double totalP99Latency = 0d;
+    public double totalP999Latency = 0d;
     
     public double spAvgLatency = 0d;
     public double spStdevLatency = 0d;
     public double spMinLatency = 0d;
     public double spMaxLatency = 0d;
+    public double spP50Latency = 0d;
+    public double spP99Latency = 0d;
+    public double spP999Latency = 0d;
     
     public double dtxnAvgLatency = 0d;
     public double dtxnStdevLatency = 0d;
     public double dtxnMinLatency = 0d;
     public double dtxnMaxLatency = 0d;
+    public double dtxnP50Latency = 0d;
+    public double dtxnP99Latency = 0d;
+    public double dtxnP999Latency = 0d;
     
     public EntityResult(long totalTxnCount, long duration, long txnCount, long dtxnCount,
                         Histogram<Integer> totalLatencies, Histogram<Integer> spLatencies, Histogram<Integer> dtxnLatencies) {
@@ -67,6 +76,11 @@ public class EntityResult implements JSONSerializable {
                 this.totalMaxLatency = x[i++];
                 this.totalAvgLatency = x[i++];
                 this.totalStdevLatency = x[i++];
+                x = BenchmarkControllerUtil.computeLatencyPercentiles(totalLatencies);
+                i = 0;
+                this.totalP50Latency = x[i++];
+                this.totalP99Latency = x[i++];
+                this.totalP999Latency = x[i++];
             }
             if (spLatencies.isEmpty() == false) {
                 double x[] = BenchmarkControllerUtil.computeLatencies(spLatencies);
@@ -75,6 +89,11 @@ public class EntityResult implements JSONSerializable {
                 this.spMaxLatency = x[i++];
                 this.spAvgLatency = x[i++];
                 this.spStdevLatency = x[i++];
+                x = BenchmarkControllerUtil.computeLatencyPercentiles(spLatencies);
+                i = 0;
+                this.spP50Latency = x[i++];
+                this.spP99Latency = x[i++];
+                this.spP999Latency = x[i++];
             }
             if (dtxnLatencies.isEmpty() == false) {
                 double x[] = BenchmarkControllerUtil.computeLatencies(dtxnLatencies);
@@ -83,6 +102,11 @@ public class EntityResult implements JSONSerializable {
                 this.dtxnMaxLatency = x[i++];
                 this.dtxnAvgLatency = x[i++];
                 this.dtxnStdevLatency = x[i++];
+                x = BenchmarkControllerUtil.computeLatencyPercentiles(dtxnLatencies);
+                i = 0;
+                this.dtxnP50Latency = x[i++];
+                this.dtxnP99Latency = x[i++];
+                this.dtxnP999Latency = x[i++];
             }
         }
     }
@@ -124,6 +148,15 @@ public class EntityResult implements JSONSerializable {
     public double getTotalMaxLatency() {
         return this.totalMaxLatency;
     }
+    public double getTotalP50Latency() {
+        return this.totalP50Latency;
+    }
+    public double getTotalP99Latency() {
+        return this.totalP99Latency;
+    }
+    public double getTotalP999Latency() {
+        return this.totalP999Latency;
+    }
     
     public double getSinglePartitionAvgLatency() {
         return this.totalAvgLatency;
@@ -137,6 +170,15 @@ public class EntityResult implements JSONSerializable {
     public double getSinglePartitionMaxLatency() {
         return this.totalMaxLatency;
     }
+    public double getSinglePartitionP50Latency() {
+        return this.spP50Latency;
+    }
+    public double getSinglePartitionP99Latency() {
+        return this.spP99Latency;
+    }
+    public double getSinglePartitionP999Latency() {
+        return this.spP999Latency;
+    }
     
     public double getDistributedAvgLatency() {
         return this.totalAvgLatency;
@@ -150,6 +192,15 @@ public class EntityResult implements JSONSerializable {
     public double getDistributedMaxLatency() {
         return this.totalMaxLatency;
     }
+    public double getDistributedP50Latency() {
+        return this.dtxnP50Latency;
+    }
+    public double getDistributedP99Latency() {
+        return this.dtxnP99Latency;
+    }
+    public double getDistributedP999Latency() {
+        return this.dtxnP999Latency;
+    }
 
     // ----------------------------------------------------------------------------
     // SERIALIZATION METHODS
@@ -46,16 +46,25 @@ public class FinalResult implements JSONSerializable {
     public double totalStdevLatency;
     public double totalMinLatency;
     public double totalMaxLatency;
+    public double totalP50Latency;
+    public double totalP99Latency;
+    public double totalP999Latency;
     
     public double spAvgLatency;
     public double spStdevLatency;
     public double spMinLatency;
     public double spMaxLatency;
+    public double spP50Latency;
+    public double spP99Latency;
+    public double spP999Latency;
     
     public double dtxnAvgLatency;
     public double dtxnStdevLatency;
     public double dtxnMinLatency;
     public double dtxnMaxLatency;
+    public double dtxnP50Latency;
+    public double dtxnP99Latency;
+    public double dtxnP999Latency;
     
     /** TransactionName -> Results */
     public final Map<String, EntityResult> txnResults = new HashMap<String, EntityResult>();
@@ -151,6 +160,11 @@ public class FinalResult implements JSONSerializable {
             this.totalMaxLatency = x[i++];
             this.totalAvgLatency = x[i++];
             this.totalStdevLatency = x[i++];
+            x = BenchmarkControllerUtil.computeLatencyPercentiles(totalLatencies);
+            i = 0;
+            this.totalP50Latency = x[i++];
+            this.totalP99Latency = x[i++];
+            this.totalP999Latency = x[i++];
         }
         if (spLatencies.isEmpty() == false) {
             double x[] = BenchmarkControllerUtil.computeLatencies(spLatencies);
@@ -159,6 +173,11 @@ public class FinalResult implements JSONSerializable {
             this.spMaxLatency = x[i++];
             this.spAvgLatency = x[i++];
             this.spStdevLatency = x[i++];
+            x = BenchmarkControllerUtil.computeLatencyPercentiles(spLatencies);
+            i = 0;
+            this.spP50Latency = x[i++];
+            this.spP99Latency = x[i++];
+            this.spP999Latency = x[i++];
         }
         if (dtxnLatencies.isEmpty() == false) {
             double x[] = BenchmarkControllerUtil.computeLatencies(dtxnLatencies);
@@ -167,6 +186,11 @@ public class FinalResult implements JSONSerializable {
             this.dtxnMaxLatency = x[i++];
             this.dtxnAvgLatency = x[i++];
             this.dtxnStdevLatency = x[i++];
+            x = BenchmarkControllerUtil.computeLatencyPercentiles(dtxnLatencies);
+            i = 0;
+            this.dtxnP50Latency = x[i++];
+            this.dtxnP99Latency = x[i++];
+            this.dtxnP999Latency = x[i++];
         }
         
         // CLIENTS RESULTS
@@ -227,6 +251,15 @@ public class FinalResult implements JSONSerializable {
     public double getTotalMaxLatency() {
         return this.totalMaxLatency;
     }
+    public double getTotalP50Latency() {
+        return this.totalP50Latency;
+    }
+    public double getTotalP99Latency() {
+        return this.totalP99Latency;
+    }
+    public double getTotalP999Latency() {
+        return this.totalP999Latency;
+    }
 
     public EntityResult getTransactionResult(String txnName) {
         return this.txnResults.get(txnName);
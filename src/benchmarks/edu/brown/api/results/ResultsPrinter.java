@@ -107,6 +107,12 @@ public class ResultsPrinter implements BenchmarkInterest {
              .append(String.format("max:" + RESULT_FORMAT, fr.getTotalMaxLatency()))
              .append(" / ")
              .append(String.format("stdev:" + RESULT_FORMAT, fr.getTotalStdDevLatency()))
+             .append(" / ")
+             .append(String.format("p50:" + RESULT_FORMAT, fr.getTotalP50Latency()))
+             .append(" / ")
+             .append(String.format("p99:" + RESULT_FORMAT, fr.getTotalP99Latency()))
+             .append(" / ")
+             .append(String.format("p99.9:" + RESULT_FORMAT, fr.getTotalP999Latency()))
              .append("]");
         
         String txnInfo = String.format("Total:%d / Distributed:%d (%.1f%%) / SpecExec:%d (%.1f%%)",
@@ -5,6 +5,7 @@ package org.voltdb.benchmark;
 
 import java.io.IOException;
 import java.net.UnknownHostException;
+import java.util.Collection;
 import java.util.concurrent.Semaphore;
 
 import org.apache.log4j.Logger;
@@ -160,6 +161,15 @@ public class BlockingClient extends Semaphore implements Client {
         return this.inner.callProcedure(callback, expectedSerializedSize, procName, hints, parameters);
     }
 
+    /* (non-Javadoc)
+     * @see org.voltdb.client.Client#callProcedureBatch(org.voltdb.client.ProcedureCallback, java.lang.String, java.util.Collection)
+     */
+    @Override
+    public boolean callProcedureBatch(ProcedureCallback callback, String procName, Collection<Object[]> parameters)
+            throws IOException, NoConnectionsException {
+        return this.inner.callProcedureBatch(callback, procName, parameters);
+    }
+
     /* (non-Javadoc)
      * @see org.voltdb.client.Client#close()
      */
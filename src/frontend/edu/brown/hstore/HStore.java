@@ -53,6 +53,7 @@ import edu.brown.utils.ClassUtil;
 import edu.brown.utils.PartitionEstimator;
 import edu.brown.utils.StringBoxUtil;
 import edu.brown.utils.ThreadUtil;
+import edu.brown.workload.BinaryWorkload;
 import edu.brown.workload.Workload;
 
 /**
@@ -189,7 +190,9 @@ public abstract class HStore {
             TransactionEstimator t_estimator = null;
             if (hstore_conf.site.markov_enable) {
                 if (hstore_conf.site.markov_fixed == false && markovs != null) {
-                    t_estimator = new MarkovEstimator(catalogContext, p_estimator, local_markovs);
+                    MarkovEstimator markovEstimator = new MarkovEstimator(catalogContext, p_estimator, local_markovs);
+                    markovEstimator.setMarkovLearner(singleton.getMarkovLearner());
+                    t_estimator = markovEstimator;
                 } else if (hstore_conf.site.markov_fixed) {
                     t_estimator = AbstractFixedEstimator.factory(p_estimator, singleton.getCatalogContext());
                 }
@@ -249,7 +252,7 @@ public abstract class HStore {
         // ----------------------------------------------------------------------------
         if (args.hasParam(ArgumentsParser.PARAM_WORKLOAD_OUTPUT)) {
             ProcedureProfiler.profilingLevel = ProcedureProfiler.Level.INTRUSIVE;
-            String traceClass = Workload.class.getName();
+            String traceClass = (hstore_conf.site.trace_binary ? BinaryWorkload.class : Workload.class).getName();
             String tracePath = args.getParam(ArgumentsParser.PARAM_WORKLOAD_OUTPUT) + "-" + site_id;
             String traceIgnore = args.getParam(ArgumentsParser.PARAM_WORKLOAD_PROC_EXCLUDE);
             ProcedureProfiler.initializeWorkloadTrace(args.catalog, traceClass, tracePath, traceIgnore);
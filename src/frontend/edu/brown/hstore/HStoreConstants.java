@@ -50,7 +50,9 @@ public abstract class HStoreConstants {
     public static final String THREAD_NAME_QUEUE_INIT = "queueinit";
     public static final String THREAD_NAME_QUEUE_RESTART = "queuerestart";
     public static final String THREAD_NAME_COMMANDLOGGER = "cmdlg";
+    public static final String THREAD_NAME_COMMANDLOG_REPLAY = "replay";
     public static final String THREAD_NAME_ANTICACHE = "anticache";
+    public static final String THREAD_NAME_MARKOVLEARNER = "learner";
     public static final String THREAD_NAME_LOGGING = "logging";
     public static final String THREAD_NAME_MAPREDUCE = "mr";
     public static final String THREAD_NAME_DEBUGSTATUS = "status";
@@ -78,6 +80,11 @@ public abstract class HStoreConstants {
      */
     public static final int NULL_PARTITION_ID = -1;
     
+    /**
+     * Null Site Id
+     */
+    public static final int NULL_SITE_ID = -1;
+    
     /**
      * Default token used to indicate that a txn is not using undo buffers
      * when executing PlanFragments in the EE
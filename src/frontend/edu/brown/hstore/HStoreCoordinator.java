@@ -12,6 +12,7 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.log4j.Logger;
 import org.voltdb.CatalogContext;
@@ -30,6 +31,7 @@ import org.voltdb.utils.EstTime;
 import org.voltdb.utils.Pair;
 
 import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.MethodDescriptor;
 import com.google.protobuf.RpcCallback;
 import com.google.protobuf.RpcController;
 
@@ -98,6 +100,7 @@ import edu.brown.hstore.util.TransactionCounter;
 import edu.brown.interfaces.Shutdownable;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.profilers.HStoreSiteProfiler;
 import edu.brown.protorpc.NIOEventLoop;
 import edu.brown.protorpc.ProtoRpcChannel;
 import edu.brown.protorpc.ProtoRpcController;
@@ -133,10 +136,29 @@ public class HStoreCoordinator implements Shutdownable {
     /** SiteId -> HStoreService */
     private final HStoreService channels[];
     
-    private final Thread listener_thread;
+    /**
+     * The event loops for inter-site RPC messages. The first loop also accepts
+     * incoming connections. The connections to remote sites are sharded across them.
+     */
+    private final NIOEventLoop eventLoops[];
+    private final Thread listener_threads[];
     private final ProtoServer listener;
     private final HStoreService remoteService;
-    private final NIOEventLoop eventLoop = new NIOEventLoop();
+    
+    /**
+     * SiteId -> ProtoRpcChannel
+     * We keep the raw channels so that the flusher thread can send out
+     * any coalesced messages. This is only set once all of the connections
+     * have been established.
+     */
+    private volatile ProtoRpcChannel rpcChannels[];
+    private final Thread flusher_thread;
+    
+    /**
+     * Set to true whenever a ProtoRpcChannel buffers its first coalesced request.
+     * The flusher thread stays parked until this is set.
+     */
+    private volatile boolean flushPending = false;
     
     private Shutdownable.ShutdownState state = ShutdownState.INITIALIZED;
     
@@ -186,18 +208,37 @@ public class HStoreCoordinator implements Shutdownable {
     // ----------------------------------------------------------------------------
     
     /**
-     * 
+     * Runs one of the HStoreCoordinator's event loops
      */
     private class MessengerListener implements Runnable {
+        private final int loopId;
+        
+        private MessengerListener(int loopId) {
+            this.loopId = loopId;
+        }
+        
         @Override
         public void run() {
             Thread self = Thread.currentThread();
-            self.setName(HStoreThreadManager.getThreadName(hstore_site, HStoreConstants.THREAD_NAME_COORDINATOR));
+            if (this.loopId == 0) {
+                self.setName(HStoreThreadManager.getThreadName(hstore_site, HStoreConstants.THREAD_NAME_COORDINATOR));
+            } else {
+                self.setName(HStoreThreadManager.getThreadName(hstore_site, HStoreConstants.THREAD_NAME_COORDINATOR,
+                                                               Integer.toString(this.loopId)));
+            }
             hstore_site.getThreadManager().registerProcessingThread();
             
+            // Keep track of how busy this loop is
+            HStoreSiteProfiler profiler = hstore_site.getProfiler();
+            if (hstore_conf.site.profiling && profiler != null &&
+                this.loopId < profiler.coordinator_processing.length) {
+                eventLoops[this.loopId].setProfileMeasurements(profiler.coordinator_idle[this.loopId],
+                                                               profiler.coordinator_processing[this.loopId]);
+            }
+            
             Throwable error = null;
             try {
-                HStoreCoordinator.this.eventLoop.run();
+                HStoreCoordinator.this.eventLoops[this.loopId].run();
             } catch (Throwable ex) {
                 error = ex;
             }
@@ -230,6 +271,56 @@ public class HStoreCoordinator implements Shutdownable {
         }
     }
     
+    // ----------------------------------------------------------------------------
+    // MESSENGER FLUSHER THREAD
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * Sends out the TransactionInit, TransactionPrepare, and TransactionFinish
+     * requests that were buffered in the ProtoRpcChannels. The requests for a
+     * remote site are never held for longer than the batch window.
+     */
+    private class MessengerFlusher implements Runnable {
+        private final long window;
+        
+        private MessengerFlusher(int window) {
+            this.window = TimeUnit.MICROSECONDS.toNanos(window);
+        }
+        
+        @Override
+        public void run() {
+            Thread self = Thread.currentThread();
+            self.setName(HStoreThreadManager.getThreadName(hstore_site, HStoreConstants.THREAD_NAME_COORDINATOR, "flush"));
+            hstore_site.getThreadManager().registerProcessingThread();
+            
+            while (self.isInterrupted() == false && HStoreCoordinator.this.state != ShutdownState.SHUTDOWN) {
+                // Don't wake up until somebody has buffered a request
+                if (flushPending == false) {
+                    LockSupport.park(this);
+                    continue;
+                }
+                // Give the other requests in this window a chance to show up
+                LockSupport.parkNanos(this, this.window);
+                flushPending = false;
+                
+                ProtoRpcChannel channels[] = rpcChannels;
+                if (channels == null) continue;
+                for (ProtoRpcChannel channel : channels) {
+                    if (channel == null) continue;
+                    try {
+                        channel.flush();
+                    } catch (Throwable ex) {
+                        if (isShutdownOrPrepareShutDown() == false) {
+                            LOG.error("Failed to flush coalesced messages for " + channel, ex);
+                        }
+                    }
+                } // FOR
+            } // WHILE
+            if (trace.val)
+                LOG.trace("Flusher Thread for Site #" + catalog_site.getId() + " has stopped!");
+        }
+    }
+    
     // ----------------------------------------------------------------------------
     // HEARTBEAT CALLBACK
     // ----------------------------------------------------------------------------
@@ -295,6 +386,13 @@ public class HStoreCoordinator implements Shutdownable {
         this.local_site_id = this.catalog_site.getId();
         this.num_sites = this.hstore_site.getCatalogContext().numberOfSites;
         this.channels = new HStoreService[this.num_sites];
+        
+        // There is no point in having more loops than remote sites
+        int num_loops = Math.max(1, Math.min(hstore_conf.site.coordinator_event_loops, this.num_sites - 1));
+        this.eventLoops = new NIOEventLoop[num_loops];
+        for (int i = 0; i < num_loops; i++) {
+            this.eventLoops[i] = new NIOEventLoop();
+        } // FOR
 
         if (debug.val)
             LOG.debug(String.format("Local Partitions for Site #%d: %s",
@@ -304,7 +402,7 @@ public class HStoreCoordinator implements Shutdownable {
         this.remoteService = this.initHStoreService();
         
         // This listener thread will process incoming messages
-        this.listener = new ProtoServer(this.eventLoop);
+        this.listener = new ProtoServer(this.eventLoops[0], this.eventLoops);
         
         // Special dispatcher threads to handle incoming requests
         // These are used so that we can process messages in a different thread than the main HStoreCoordinator thread
@@ -348,10 +446,22 @@ public class HStoreCoordinator implements Shutdownable {
         this.transactionFinish_handler = new TransactionFinishHandler(hstore_site, this, this.transactionFinish_dispatcher);
         this.sendData_handler = new SendDataHandler(hstore_site, this);
         
-        // Wrap the listener in a daemon thread
-        this.listener_thread = new Thread(new MessengerListener());
-        this.listener_thread.setDaemon(true);
-        this.eventLoop.setExitOnSigInt(true);
+        // Wrap each event loop in a daemon thread
+        this.listener_threads = new Thread[num_loops];
+        for (int i = 0; i < num_loops; i++) {
+            this.listener_threads[i] = new Thread(new MessengerListener(i));
+            this.listener_threads[i].setDaemon(true);
+        } // FOR
+        this.eventLoops[0].setExitOnSigInt(true);
+        if (hstore_conf.site.coordinator_batch_window > 0) {
+            this.flusher_thread = new Thread(new MessengerFlusher(hstore_conf.site.coordinator_batch_window));
+            this.flusher_thread.setDaemon(true);
+        } else {
+            this.flusher_thread = null;
+        }
+        if (hstore_conf.site.profiling && hstore_site.getProfiler() != null) {
+            hstore_site.getProfiler().initCoordinatorLoops(num_loops);
+        }
         
         // Initialize the PrefetchQueryPlanner if we're allowed to execute
         // speculative queries and we actually have some in the catalog 
@@ -395,8 +505,15 @@ public class HStoreCoordinator implements Shutdownable {
             t.start();
         } // FOR
         
-        if (debug.val) LOG.debug("Starting listener thread");
-        this.listener_thread.start();
+        if (debug.val) LOG.debug(String.format("Starting %d listener threads", this.listener_threads.length));
+        for (Thread t : this.listener_threads) {
+            t.start();
+        } // FOR
+        if (this.flusher_thread != null) {
+            if (debug.val) LOG.debug(String.format("Starting flusher thread [window=%dus]",
+                                     hstore_conf.site.coordinator_batch_window));
+            this.flusher_thread.start();
+        }
         
         // If we're at site zero, then we'll announce our instanceId
         // to everyone in the cluster
@@ -447,14 +564,24 @@ public class HStoreCoordinator implements Shutdownable {
                 thread.interrupt();
             } // FOR
             
-            if (trace.val) LOG.trace("Stopping eventLoop for Site #" + this.getLocalSiteId());
-            this.eventLoop.exitLoop();
+            if (trace.val) LOG.trace("Stopping eventLoops for Site #" + this.getLocalSiteId());
+            for (NIOEventLoop eventLoop : this.eventLoops) {
+                eventLoop.exitLoop();
+            } // FOR
 
-            if (trace.val) LOG.trace("Stopping listener thread for Site #" + this.getLocalSiteId());
-            this.listener_thread.interrupt();
+            if (trace.val) LOG.trace("Stopping listener threads for Site #" + this.getLocalSiteId());
+            for (Thread t : this.listener_threads) {
+                t.interrupt();
+            } // FOR
+            
+            if (this.flusher_thread != null) {
+                this.flusher_thread.interrupt();
+            }
             
-            if (trace.val) LOG.trace("Joining on listener thread for Site #" + this.getLocalSiteId());
-            this.listener_thread.join();
+            if (trace.val) LOG.trace("Joining on listener threads for Site #" + this.getLocalSiteId());
+            for (Thread t : this.listener_threads) {
+                t.join();
+            } // FOR
         } catch (InterruptedException ex) {
             // IGNORE
         } catch (Throwable ex) {
@@ -484,8 +611,15 @@ public class HStoreCoordinator implements Shutdownable {
     protected int getLocalMessengerPort() {
         return (this.hstore_site.getSite().getMessenger_port());
     }
+    /**
+     * Returns the thread for the first event loop. This is the one
+     * that accepts new connections.
+     */
     protected final Thread getListenerThread() {
-        return (this.listener_thread);
+        return (this.listener_threads[0]);
+    }
+    protected final Thread[] getListenerThreads() {
+        return (this.listener_threads);
     }
     
     public HStoreService getChannel(int site_id) {
@@ -532,44 +666,103 @@ public class HStoreCoordinator implements Shutdownable {
         }
         else {
             if (debug.val) LOG.debug("Connecting to " + destinations.size() + " remote site messengers");
-            ProtoRpcChannel[] channels = null;
-            InetSocketAddress arr[] = new InetSocketAddress[destinations.size()];
-            for (int i = 0; i < arr.length; i++) {
-                arr[i] = destinations.get(i).getSecond();
-                if (debug.val) LOG.debug("Attemping to connect to " + arr[i]);
+            
+            // Shard the remote sites across our event loops. The responses from
+            // each remote site will be processed by the loop that owns its channel.
+            ProtoRpcChannel rpcChannels[] = new ProtoRpcChannel[this.num_sites];
+            for (int loop = 0; loop < this.eventLoops.length; loop++) {
+                List<Pair<Integer, InetSocketAddress>> loopDestinations = new ArrayList<Pair<Integer,InetSocketAddress>>();
+                for (int i = loop; i < destinations.size(); i += this.eventLoops.length) {
+                    loopDestinations.add(destinations.get(i));
+                } // FOR
+                if (loopDestinations.isEmpty()) continue;
+                this.initConnections(this.eventLoops[loop], loopDestinations, rpcChannels);
             } // FOR
-                    
-            int tries = hstore_conf.site.network_startup_retries;
-            boolean success = false;
-            Throwable error = null;
-            while (tries-- > 0 && success == false) {
-                try {
-                    channels = ProtoRpcChannel.connectParallel(this.eventLoop,
-                                                               arr,
-                                                               hstore_conf.site.network_startup_wait);
-                    success = true;
-                } catch (Throwable ex) {
-                    if (tries > 0) {
-                        LOG.warn("Failed to connect to remote sites. Going to try again...");
-                        continue;
-                    }
+            this.rpcChannels = rpcChannels;
+            
+            if (debug.val) LOG.debug("Site #" + this.getLocalSiteId() + " is fully connected to all sites");
+        }
+    }
+    
+    /**
+     * Connect to the given remote sites using the given event loop 
+     * @param eventLoop
+     * @param destinations
+     * @param rpcChannels SiteId -> ProtoRpcChannel for the new connections
+     */
+    private void initConnections(NIOEventLoop eventLoop, List<Pair<Integer, InetSocketAddress>> destinations, ProtoRpcChannel rpcChannels[]) {
+        ProtoRpcChannel[] channels = null;
+        InetSocketAddress arr[] = new InetSocketAddress[destinations.size()];
+        for (int i = 0; i < arr.length; i++) {
+            arr[i] = destinations.get(i).getSecond();
+            if (debug.val) LOG.debug("Attemping to connect to " + arr[i]);
+        } // FOR
+                
+        int tries = hstore_conf.site.network_startup_retries;
+        boolean success = false;
+        Throwable error = null;
+        while (tries-- > 0 && success == false) {
+            try {
+                channels = ProtoRpcChannel.connectParallel(eventLoop,
+                                                           arr,
+                                                           hstore_conf.site.network_startup_wait);
+                success = true;
+            } catch (Throwable ex) {
+                if (tries > 0) {
+                    LOG.warn("Failed to connect to remote sites. Going to try again...");
+                    continue;
                 }
-            } // WHILE
-            if (success == false) {
-                LOG.fatal("Site #" + this.getLocalSiteId() + " failed to connect to remote sites");
-                this.listener.close();
-                throw new RuntimeException(error);
             }
-            assert channels.length == destinations.size();
-            for (int i = 0; i < channels.length; i++) {
-                Pair<Integer, InetSocketAddress> p = destinations.get(i);
-                this.channels[p.getFirst()] = HStoreService.newStub(channels[i]);
+        } // WHILE
+        if (success == false) {
+            LOG.fatal("Site #" + this.getLocalSiteId() + " failed to connect to remote sites");
+            this.listener.close();
+            throw new RuntimeException(error);
+        }
+        assert channels.length == destinations.size();
+        List<MethodDescriptor> coalesced = null;
+        if (hstore_conf.site.coordinator_batch_window > 0) {
+            coalesced = new ArrayList<MethodDescriptor>();
+            for (String name : COALESCED_METHODS) {
+                MethodDescriptor method = HStoreService.getDescriptor().findMethodByName(name);
+                assert(method != null) : "Invalid HStoreService method '" + name + "'";
+                coalesced.add(method);
             } // FOR
-            
-            if (debug.val) LOG.debug("Site #" + this.getLocalSiteId() + " is fully connected to all sites");
         }
+        HStoreSiteProfiler profiler = (hstore_conf.site.profiling ? hstore_site.getProfiler() : null);
+        for (int i = 0; i < channels.length; i++) {
+            Pair<Integer, InetSocketAddress> p = destinations.get(i);
+            if (coalesced != null) {
+                channels[i].setCoalescedMethods(coalesced);
+                channels[i].setBufferListener(this.flushListener);
+                if (profiler != null) channels[i].setBatchSizeHistogram(profiler.coordinator_batch_sizes);
+            }
+            rpcChannels[p.getFirst()] = channels[i];
+            this.channels[p.getFirst()] = HStoreService.newStub(channels[i]);
+        } // FOR
     }
     
+    /**
+     * Wakes up the flusher thread when a channel starts buffering requests
+     */
+    private final Runnable flushListener = new Runnable() {
+        @Override
+        public void run() {
+            flushPending = true;
+            if (flusher_thread != null) LockSupport.unpark(flusher_thread);
+        }
+    };
+    
+    /**
+     * The HStoreService methods whose requests can be held back and sent
+     * together when coordinator_batch_window is enabled.
+     */
+    private static final String COALESCED_METHODS[] = {
+        "TransactionInit",
+        "TransactionPrepare",
+        "TransactionFinish",
+    };
+    
     protected void initCluster() {
         long instanceId = EstTime.currentTimeMillis();
         hstore_site.setInstanceId(instanceId);
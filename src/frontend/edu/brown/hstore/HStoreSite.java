@@ -35,12 +35,15 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.ConcurrentModificationException;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.TreeMap;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
@@ -79,8 +82,10 @@ import org.voltdb.messaging.FastDeserializer;
 import org.voltdb.messaging.FastSerializer;
 import org.voltdb.network.Connection;
 import org.voltdb.network.VoltNetwork;
+import org.voltdb.sysprocs.SnapshotRestore;
 import org.voltdb.sysprocs.SnapshotSave;
-import org.voltdb.utils.DBBPool;
+import org.voltdb.sysprocs.saverestore.SnapshotUtil;
+import org.voltdb.utils.DirectBufferSlabPool;
 import org.voltdb.utils.EstTime;
 import org.voltdb.utils.EstTimeUpdater;
 import org.voltdb.utils.Pair;
@@ -95,21 +100,26 @@ import edu.brown.hstore.HStoreThreadManager.ThreadGroupType;
 import edu.brown.hstore.Hstoreservice.QueryEstimate;
 import edu.brown.hstore.Hstoreservice.Status;
 import edu.brown.hstore.Hstoreservice.WorkFragment;
+import edu.brown.hstore.callbacks.ClientResponseBatchCallback;
 import edu.brown.hstore.callbacks.ClientResponseCallback;
 import edu.brown.hstore.callbacks.LocalFinishCallback;
 import edu.brown.hstore.callbacks.LocalInitQueueCallback;
 import edu.brown.hstore.callbacks.PartitionCountingCallback;
 import edu.brown.hstore.callbacks.RedirectCallback;
+import edu.brown.hstore.cmdlog.CommandLogReplayer;
 import edu.brown.hstore.cmdlog.CommandLogWriter;
 import edu.brown.hstore.conf.HStoreConf;
 import edu.brown.hstore.estimators.EstimatorState;
 import edu.brown.hstore.estimators.TransactionEstimator;
+import edu.brown.hstore.estimators.markov.MarkovLearner;
 import edu.brown.hstore.estimators.remote.RemoteEstimator;
 import edu.brown.hstore.estimators.remote.RemoteEstimatorState;
 import edu.brown.hstore.internal.SetDistributedTxnMessage;
 import edu.brown.hstore.stats.AntiCacheManagerProfilerStats;
 import edu.brown.hstore.stats.BatchPlannerProfilerStats;
+import edu.brown.hstore.stats.CommandLogWriterStats;
 import edu.brown.hstore.stats.MarkovEstimatorProfilerStats;
+import edu.brown.hstore.stats.MarkovLearnerStats;
 import edu.brown.hstore.stats.PartitionExecutorProfilerStats;
 import edu.brown.hstore.stats.SiteProfilerStats;
 import edu.brown.hstore.stats.SpecExecProfilerStats;
@@ -177,10 +187,22 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
     private final String site_name;
     
     /**
-     * This buffer pool is used to serialize ClientResponses to send back
-     * to clients.
+     * These buffer pools are used to serialize ClientResponses to send back
+     * to clients. The buffers are direct and pooled, so they can be handed
+     * off to the network threads as-is. Each thread gets its own pool so that
+     * they don't all contend on the same lock. The periodic work thread trims
+     * these pools and throws away the ones whose threads have exited.
+     * @see HStoreConf.site.network_direct_responses
      */
-    private final DBBPool buffer_pool = new DBBPool(false, false);
+    private final Map<Thread, DirectBufferSlabPool> buffer_pools = new ConcurrentHashMap<Thread, DirectBufferSlabPool>();
+    private final ThreadLocal<DirectBufferSlabPool> buffer_pool = new ThreadLocal<DirectBufferSlabPool>() {
+        @Override
+        protected DirectBufferSlabPool initialValue() {
+            DirectBufferSlabPool pool = new DirectBufferSlabPool();
+            HStoreSite.this.buffer_pools.put(Thread.currentThread(), pool);
+            return (pool);
+        }
+    };
     
     /**
      * Incoming request deserializer
@@ -192,13 +214,25 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         }
     };
     
+    /**
+     * Incoming request ParameterSets
+     * A network thread keeps reusing its ParameterSet for requests that get redirected
+     * to another site. It only needs a new one once it hands it off to a txn.
+     */
+    private final ThreadLocal<ParameterSet> incomingParameterSets = new ThreadLocal<ParameterSet>() {
+        @Override
+        protected ParameterSet initialValue() {
+            return (new ParameterSet());
+        }
+    };
+    
     /**
      * Outgoing response serializers
      */
     private final ThreadLocal<FastSerializer> outgoingSerializers = new ThreadLocal<FastSerializer>() {
         @Override
         protected FastSerializer initialValue() {
-            return (new FastSerializer(HStoreSite.this.buffer_pool));
+            return (new FastSerializer(HStoreSite.this.buffer_pool.get()));
         }
     };
     
@@ -320,7 +354,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
      * the clients without blocking
      */
     private List<TransactionPostProcessor> postProcessors = null;
-    private BlockingQueue<Object[]> postProcessorQueue = null;
+    private BlockingQueue<TransactionPostProcessor.QueuedResponse> postProcessorQueue = null;
     
     /**
      * Transaction Handle Cleaner
@@ -334,9 +368,29 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
     private final MapReduceHelperThread mr_helper;
     
     /**
-     * Transaction Command Logger (WAL)
+     * Transaction Command Loggers (WAL)
+     * There is one CommandLogWriter per log stream at this site
      */
-    private final CommandLogWriter commandLogger;
+    private final CommandLogWriter commandLoggers[];
+    
+    /**
+     * PartitionId -> CommandLogWriter
+     */
+    private final CommandLogWriter partitionCommandLoggers[];
+    
+    /**
+     * Set to true while we are replaying the command log during recovery.
+     * The replayed txns are already in the log, so we must not write them out again.
+     */
+    private volatile boolean commandLogReplaying = false;
+    
+    /**
+     * During logical recovery, the sites that do not invoke @SnapshotRestore
+     * wait on this latch until the restore txn has finished at their partitions.
+     * This is created up front because the restore txn could reach us before
+     * we start recovery ourselves.
+     */
+    private final CountDownLatch snapshotRestoreLatch;
 
     /**
      * AdHoc: This thread waits for AdHoc queries. 
@@ -349,6 +403,11 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
      */
     private final AntiCacheManager anticacheManager;
     
+    /**
+     * Background thread that updates the Markov models for the MarkovEstimators
+     */
+    private final MarkovLearner markovLearner;
+    
     /**
      * This catches any exceptions that are thrown in the various
      * threads spawned by this HStoreSite
@@ -601,16 +660,38 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
             Timestamp current = new Timestamp(date.getTime());
             String nonce = Long.toString(current.getTime());            
             
-            File logFile = new File(hstore_conf.site.commandlog_dir +
-                                    File.separator +
-                                    this.getSiteName().toLowerCase() +
-                                    "_" + nonce +
-                                    CommandLogWriter.LOG_OUTPUT_EXT);                      
-                     
-            this.commandLogger = new CommandLogWriter(this, logFile);
+            // Assign our local partitions to the log streams in a round-robin manner
+            int num_streams = Math.max(1, Math.min(hstore_conf.site.commandlog_streams, this.local_partitions.size()));
+            PartitionSet streamPartitions[] = new PartitionSet[num_streams];
+            for (int i = 0; i < num_streams; i++) {
+                streamPartitions[i] = new PartitionSet();
+            } // FOR
+            int i = 0;
+            for (int partition : this.local_partitions.values()) {
+                streamPartitions[i++ % num_streams].add(partition);
+            } // FOR
+            
+            this.commandLoggers = new CommandLogWriter[num_streams];
+            this.partitionCommandLoggers = new CommandLogWriter[this.catalogContext.numberOfPartitions];
+            for (int stream = 0; stream < num_streams; stream++) {
+                // The first stream always uses the same file name as before so that
+                // a site with a single stream looks exactly the same
+                File logFile = new File(hstore_conf.site.commandlog_dir +
+                                        File.separator +
+                                        this.getSiteName().toLowerCase() +
+                                        "_" + nonce +
+                                        (stream > 0 ? "-s" + stream : "") +
+                                        CommandLogWriter.LOG_OUTPUT_EXT);                      
+                this.commandLoggers[stream] = new CommandLogWriter(this, logFile, stream, streamPartitions[stream]);
+                for (int partition : streamPartitions[stream].values()) {
+                    this.partitionCommandLoggers[partition] = this.commandLoggers[stream];
+                } // FOR
+            } // FOR
         } else {
-            this.commandLogger = null;
+            this.commandLoggers = null;
+            this.partitionCommandLoggers = null;
         }
+        this.snapshotRestoreLatch = (hstore_conf.site.commandlog_replay ? new CountDownLatch(1) : null);
 
         // AdHoc Support
         if (hstore_conf.site.exec_adhoc_sql) {
@@ -627,11 +708,18 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
             this.anticacheManager = null;
         }
         
+        // The MarkovLearner will update the MarkovGraphs outside of the PartitionExecutors
+        if (hstore_conf.site.markov_enable && hstore_conf.site.markov_learning_enable && hstore_conf.site.markov_learning_async) {
+            this.markovLearner = new MarkovLearner(this);
+        } else {
+            this.markovLearner = null;
+        }
+        
         // -------------------------------
         // NETWORK SETUP
         // -------------------------------
         
-        this.voltNetwork = new VoltNetwork(this);
+        this.voltNetwork = new VoltNetwork(this, hstore_conf.site.network_selector_threads);
         this.clientInterface = new ClientInterface(this, this.catalog_site.getProc_port());
         
         // -------------------------------
@@ -699,11 +787,15 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         t.setUncaughtExceptionHandler(this.exceptionHandler);
         t.start();
         
-        // Start CommandLogWriter
-        t = new Thread(auxGroup, this.commandLogger);
-        t.setDaemon(true);
-        t.setUncaughtExceptionHandler(this.exceptionHandler);
-        t.start();
+        // Start CommandLogWriters
+        if (this.commandLoggers != null) {
+            for (CommandLogWriter commandLogger : this.commandLoggers) {
+                t = new Thread(auxGroup, commandLogger);
+                t.setDaemon(true);
+                t.setUncaughtExceptionHandler(this.exceptionHandler);
+                t.start();
+            } // FOR
+        }
         
         // Start AntiCacheManager Queue Processor
         if (this.anticacheManager != null && this.anticacheManager.getEvictableTables().isEmpty() == false) {
@@ -713,6 +805,14 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
             t.start();
         }
         
+        // Start MarkovLearner
+        if (this.markovLearner != null) {
+            t = new Thread(auxGroup, this.markovLearner);
+            t.setDaemon(true);
+            t.setUncaughtExceptionHandler(this.exceptionHandler);
+            t.start();
+        }
+        
         // TransactionPreProcessors
         if (this.preProcessors != null) {
             for (TransactionPreProcessor tpp : this.preProcessors) {
@@ -802,9 +902,9 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
             num_preProcessors = num_available_cores;
         }
         
-        // We only need one TransactionPostProcessor per HStoreSite
+        // We usually only need one TransactionPostProcessor per HStoreSite
         if (hstore_conf.site.exec_postprocessing_threads) {
-            num_postProcessors = 1;
+            num_postProcessors = Math.max(1, hstore_conf.site.exec_postprocessing_threads_count);
         }
         
         // Overrides
@@ -830,7 +930,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
                 LOG.debug(String.format("Starting %d %s threads",
                           num_postProcessors, TransactionPostProcessor.class.getSimpleName()));
             this.postProcessors = new ArrayList<TransactionPostProcessor>();
-            this.postProcessorQueue = new LinkedBlockingQueue<Object[]>();
+            this.postProcessorQueue = new LinkedBlockingQueue<TransactionPostProcessor.QueuedResponse>();
             for (int i = 0; i < num_postProcessors; i++) {
                 TransactionPostProcessor t = new TransactionPostProcessor(this, this.postProcessorQueue);
                 this.postProcessors.add(t);
@@ -884,6 +984,13 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         statsSource = new BatchPlannerProfilerStats(this, this.catalogContext);
         this.statsAgent.registerStatsSource(SysProcSelector.PLANNERPROFILER, 0, statsSource);
         
+        // COMMAND LOG SEGMENTS
+        statsSource = new CommandLogWriterStats(this);
+        this.statsAgent.registerStatsSource(SysProcSelector.COMMANDLOG, 0, statsSource);
+        
+        // MARKOV LEARNER
+        statsSource = new MarkovLearnerStats(this);
+        this.statsAgent.registerStatsSource(SysProcSelector.MARKOVLEARNER, 0, statsSource);
     }
     
     // -------------------------------
@@ -1298,6 +1405,9 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
     public AntiCacheManager getAntiCacheManager() {
         return (this.anticacheManager);
     }
+    public MarkovLearner getMarkovLearner() {
+        return (this.markovLearner);
+    }
     public ClientInterface getClientInterface() {
         return (this.clientInterface);
     }
@@ -1313,11 +1423,34 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
     public HStoreSiteProfiler getProfiler() {
         return (this.profiler);
     }
-    public DBBPool getBufferPool() {
-        return (this.buffer_pool);
+    /**
+     * Returns the response buffer pool for the current thread
+     */
+    public DirectBufferSlabPool getBufferPool() {
+        return (this.buffer_pool.get());
     }
-    public CommandLogWriter getCommandLogWriter() {
-        return (this.commandLogger);
+    /**
+     * Returns the response buffer pools of all of the threads at this site
+     */
+    public Collection<DirectBufferSlabPool> getBufferPools() {
+        return (Collections.unmodifiableCollection(this.buffer_pools.values()));
+    }
+    /**
+     * Returns all of the CommandLogWriters at this site (one per log stream).
+     * Returns null if command logging is disabled.
+     */
+    public CommandLogWriter[] getCommandLogWriters() {
+        return (this.commandLoggers);
+    }
+    /**
+     * Returns the CommandLogWriter that is responsible for logging
+     * the txns whose base partition is the given local partition. 
+     * Returns null if command logging is disabled.
+     * @param partition
+     */
+    public CommandLogWriter getCommandLogWriter(int partition) {
+        if (this.partitionCommandLoggers == null) return (null);
+        return (this.partitionCommandLoggers[partition]);
     }
     protected final Map<Long, AbstractTransaction> getInflightTxns() {
         return (this.inflight_txns);
@@ -1482,7 +1615,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         }
         
         // LOGICAL
-        if (this.hstore_conf.site.snapshot){
+        if (this.hstore_conf.site.commandlog_replay) {
             doLogicalRecovery();
         }
         
@@ -1595,12 +1728,147 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
     // LOGICAL
     public void doLogicalRecovery() {        
         LOG.warn("Logical : recovery at site with min id :" + this.site_id);
-                
-        //XXX Load snapshot using @SnapshotRestore
-        //XXX Load command log and redo all entires
+        
+        // Load snapshot using @SnapshotRestore
+        long snapshotTxnId = this.restoreLatestSnapshot();
+        
+        // Load command log and redo all entries that came after the snapshot
+        File logDir = new File(FileUtil.realpath(hstore_conf.site.commandlog_dir));
+        List<File> excludeFiles = new ArrayList<File>();
+        if (this.commandLoggers != null) {
+            for (CommandLogWriter commandLogger : this.commandLoggers) {
+                excludeFiles.add(commandLogger.getOutputFile());
+            } // FOR
+        }
+        List<File> logFiles = CommandLogReplayer.getLogFiles(this, logDir,
+                                    excludeFiles.toArray(new File[excludeFiles.size()]));
+        if (logFiles.isEmpty()) {
+            LOG.warn("Logical : no command log files found for site " + this.getSiteName() + " in " + logDir);
+        } else {
+            if (this.catalogContext.numberOfSites > 1) {
+                LOG.warn(String.format("Logical : %s will replay its command log independently of the " +
+                                       "other %d sites in the cluster. Distributed txns are not ordered " +
+                                       "against the other sites' single-partition txns during replay.",
+                                       this.getSiteName(), this.catalogContext.numberOfSites - 1));
+            }
+            CommandLogReplayer replayer = new CommandLogReplayer(this, logFiles, snapshotTxnId);
+            long count;
+            this.commandLogReplaying = true;
+            try {
+                count = replayer.replay();
+            } finally {
+                this.commandLogReplaying = false;
+            }
+            LOG.warn(String.format("Logical : replayed %d txns at site %s [%.2f txn/sec]",
+                     count, this.getSiteName(), replayer.getThroughput()));
+        }
      
         LOG.warn("Logical : recovery completed on site with min id :" + this.site_id);
     }
+    
+    /**
+     * Restore the most recent snapshot in the snapshot directory using @SnapshotRestore.
+     * Only the site with the lowest id in the cluster will invoke the restore txn,
+     * since @SnapshotRestore already runs at every partition. All of the other sites
+     * (including those on other hosts) will wait until the restore txn has finished
+     * at their partitions. This is a blocking call.
+     * @return the id of the txn that took the restored snapshot, or -1 if there was no snapshot
+     */
+    private long restoreLatestSnapshot() {
+        File snapshotDir = new File(FileUtil.realpath(hstore_conf.site.snapshot_dir));
+        if (snapshotDir.exists() == false) {
+            LOG.warn("Logical : snapshot directory " + snapshotDir + " does not exist");
+            return (-1);
+        }
+        
+        TreeMap<Long, SnapshotUtil.Snapshot> snapshots = new TreeMap<Long, SnapshotUtil.Snapshot>();
+        SnapshotUtil.retrieveSnapshotFiles(snapshotDir, snapshots, new SnapshotUtil.SnapshotFilter(), 0, false);
+        File digest = null;
+        for (Long time : snapshots.descendingKeySet()) {
+            SnapshotUtil.Snapshot s = snapshots.get(time);
+            if (s.m_digests.isEmpty() == false) {
+                digest = CollectionUtil.first(s.m_digests);
+                break;
+            }
+        } // FOR
+        if (digest == null) {
+            LOG.warn("Logical : no snapshots found in " + snapshotDir);
+            return (-1);
+        }
+        String path = digest.getParentFile().getAbsolutePath();
+        String nonce = digest.getName().substring(0, digest.getName().lastIndexOf(".digest"));
+        
+        // We need the txn id of the snapshot to figure out which command log entries
+        // were serialized before it. Wall-clock time is not good enough for that.
+        long snapshotTxnId;
+        try {
+            snapshotTxnId = SnapshotUtil.retrieveSnapshotTxnId(digest);
+        } catch (Exception ex) {
+            throw new ServerFaultException("Failed to read snapshot digest " + digest, ex);
+        }
+        if (snapshotTxnId < 0) {
+            String msg = String.format("The snapshot digest %s does not contain the snapshot's txn id. " +
+                                       "Unable to determine which command log entries it includes", digest);
+            throw new ServerFaultException(msg, (Throwable)null);
+        }
+
+        // Do this only on the site with the lowest id in the entire cluster
+        // so that we only execute one restore txn
+        int lowest_site_id = Integer.MAX_VALUE;
+        for (Site st : this.catalogContext.sites) {
+            lowest_site_id = Math.min(st.getId(), lowest_site_id);
+        } // FOR
+        if (this.site_id != lowest_site_id) {
+            LOG.warn("Logical : waiting for snapshot " + nonce + " to be restored");
+            try {
+                this.snapshotRestoreLatch.await();
+            } catch (InterruptedException ex) {
+                throw new ServerFaultException("Unexpected interruption while restoring snapshot", ex);
+            }
+            return (snapshotTxnId);
+        }
+        
+        LOG.warn("Logical : restoring snapshot " + nonce + " from " + path);
+        String procName = VoltSystemProcedure.procCallName(SnapshotRestore.class);
+        Procedure catalog_proc = this.catalogContext.procedures.getIgnoreCase(procName);
+        ParameterSet params = new ParameterSet();
+        params.setParameters(
+                path,  // snapshot dir
+                nonce, // nonce - timestamp
+                0      // allowExport
+        );
+        
+        final CountDownLatch latch = new CountDownLatch(1);
+        final ClientResponseImpl result[] = new ClientResponseImpl[1];
+        RpcCallback<ClientResponseImpl> callback = new RpcCallback<ClientResponseImpl>() {
+            @Override
+            public void run(ClientResponseImpl parameter) {
+                result[0] = parameter;
+                latch.countDown();
+            }
+        };
+        LocalTransaction ts = this.txnInitializer.createLocalTransaction(
+                null, 
+                EstTime.currentTimeMillis(), 
+                99999999, 
+                Collections.min(this.local_partitions), 
+                catalog_proc, 
+                params, 
+                callback
+        );
+        this.transactionQueue(ts);
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            throw new ServerFaultException("Unexpected interruption while restoring snapshot", ex);
+        }
+        if (result[0].getStatus() != Status.OK) {
+            String msg = String.format("Failed to restore snapshot %s from %s: %s",
+                                       nonce, path, result[0].getStatusString());
+            throw new ServerFaultException(msg, result[0].getException());
+        }
+        return (snapshotTxnId);
+    }
 
         
     // ----------------------------------------------------------------------------
@@ -1644,12 +1912,17 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         if (this.mr_helper != null) {
             this.mr_helper.prepareShutdown(error);
         }
-        if (this.commandLogger != null) {
-            this.commandLogger.prepareShutdown(error);
+        if (this.commandLoggers != null) {
+            for (CommandLogWriter commandLogger : this.commandLoggers) {
+                commandLogger.prepareShutdown(error);
+            } // FOR
         }
         if (this.anticacheManager != null) {
             this.anticacheManager.prepareShutdown(error);
         }
+        if (this.markovLearner != null) {
+            this.markovLearner.prepareShutdown(error);
+        }
         for (TransactionCleaner t : this.txnCleaners) {
             t.prepareShutdown(error);
         } // FOR
@@ -1722,12 +1995,17 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         if (this.mr_helper_started && this.mr_helper != null) {
             this.mr_helper.shutdown();
         }
-        if (this.commandLogger != null) {
-            this.commandLogger.shutdown();
+        if (this.commandLoggers != null) {
+            for (CommandLogWriter commandLogger : this.commandLoggers) {
+                commandLogger.shutdown();
+            } // FOR
         }
         if (this.anticacheManager != null) {
             this.anticacheManager.shutdown();
         }
+        if (this.markovLearner != null) {
+            this.markovLearner.shutdown();
+        }
         for (TransactionCleaner t : this.txnCleaners) {
             t.shutdown();
         } // FOR
@@ -1790,8 +2068,13 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
     // ----------------------------------------------------------------------------
     
     protected void invocationQueue(ByteBuffer buffer, ClientInputHandler handler, Connection c) {
+        if (StoredProcedureInvocation.isBatch(buffer)) {
+            this.invocationQueueBatch(buffer, c);
+            return;
+        }
         int messageSize = buffer.capacity();
-        RpcCallback<ClientResponseImpl> callback = new ClientResponseCallback(this.clientInterface, c, messageSize);
+        RpcCallback<ClientResponseImpl> callback = new ClientResponseCallback(this.clientInterface, c, messageSize,
+                                                   (hstore_conf.site.network_direct_responses ? this : null));
         this.clientInterface.increaseBackpressure(messageSize);
         
         if (this.preProcessorQueue != null) {
@@ -1801,6 +2084,38 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         }
     }
     
+    /**
+     * Unpack a message that contains a batch of StoredProcedureInvocations from a client
+     * and queue each of them up for execution in one pass. The ClientResponses for the
+     * batch will be sent back to the client together in a single message.
+     * @param buffer
+     * @param c
+     */
+    private void invocationQueueBatch(ByteBuffer buffer, Connection c) {
+        ByteBuffer requests[] = StoredProcedureInvocation.getBatch(buffer);
+        if (debug.val)
+            LOG.debug(String.format("Received batch of %d invocations from %s [bytes=%d]",
+                      requests.length, c, buffer.capacity()));
+        if (requests.length == 0) return;
+        
+        int messageSizes[] = new int[requests.length];
+        for (int i = 0; i < requests.length; i++) {
+            messageSizes[i] = requests[i].capacity();
+            this.clientInterface.increaseBackpressure(messageSizes[i]);
+        } // FOR
+        RpcCallback<ClientResponseImpl> callback = new ClientResponseBatchCallback(this.clientInterface, c, messageSizes,
+                                                   (hstore_conf.site.network_direct_responses ? this : null),
+                                                   this.threadManager,
+                                                   hstore_conf.site.network_response_batch_timeout);
+        for (ByteBuffer request : requests) {
+            if (this.preProcessorQueue != null) {
+                this.preProcessorQueue.add(Pair.of(request, callback));
+            } else {
+                this.invocationProcess(request, callback);
+            }
+        } // FOR
+    }
+    
     /**
      * This is legacy method needed for using Evan's VoltProcedureListener.
      */
@@ -1893,7 +2208,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         
         // Extract just the ParameterSet from the StoredProcedureInvocation
         // We will deserialize the rest of it later
-        ParameterSet procParams = new ParameterSet();
+        ParameterSet procParams = this.incomingParameterSets.get();
         try {
             StoredProcedureInvocation.seekToParameterSet(buffer);
             incomingDeserializer.setBuffer(buffer);
@@ -1910,8 +2225,11 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         // System Procedure Check
         // If this method returns true, then we want to halt processing the
         // request any further and immediately return
-        if (sysproc && this.processSysProc(client_handle, catalog_proc, procParams, clientCallback)) {
-            return;
+        if (sysproc) {
+            this.incomingParameterSets.remove();
+            if (this.processSysProc(client_handle, catalog_proc, procParams, clientCallback)) {
+                return;
+            }
         }
         
         // If this is the first non-sysproc transaction that we've seen, then
@@ -1954,6 +2272,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         // 2012-12-24 - We always want the network threads to do the initialization
         if (trace.val)
             LOG.trace("Initializing transaction request using network processing thread");
+        if (sysproc == false) this.incomingParameterSets.remove();
         LocalTransaction ts = this.txnInitializer.createLocalTransaction(
                                         buffer,
                                         timestamp,
@@ -2744,12 +3063,15 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         //  (1) We have a CommandLogWriter
         //  (2) The txn completed successfully
         //  (3) It is not a sysproc
-        LOG.trace("Command logger :"+this.commandLogger);
+        CommandLogWriter commandLogger = this.getCommandLogWriter(ts.getBasePartition());
+        LOG.trace("Command logger :"+commandLogger);
         LOG.trace("Status :"+status);
         LOG.trace("Is SysProc :"+ts.isSysProc());
         
-        if (this.commandLogger != null && status == Status.OK && ts.isSysProc() == false) {
-            sendResponse = this.commandLogger.appendToLog(ts, cresponse);
+        //  (4) We are not replaying the command log
+        if (commandLogger != null && status == Status.OK && ts.isSysProc() == false &&
+            this.commandLogReplaying == false) {
+            sendResponse = commandLogger.appendToLog(ts, cresponse);
         }
 
         if (sendResponse) {
@@ -2784,12 +3106,11 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
             LOG.debug(String.format("Adding ClientResponse for %s from partition %d " +
                       "to processing queue [status=%s, size=%d]",
                       ts, ts.getBasePartition(), cresponse.getStatus(), this.postProcessorQueue.size()));
-        this.postProcessorQueue.add(new Object[]{
+        this.postProcessorQueue.add(new TransactionPostProcessor.QueuedResponse(
                                             cresponse,
                                             ts.getClientCallback(),
                                             ts.getInitiateTime(),
-                                            ts.getRestartCounter()
-        });
+                                            ts.getRestartCounter()));
     }
 
     /**
@@ -2803,12 +3124,11 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
                               RpcCallback<ClientResponseImpl> clientCallback,
                               long initiateTime,
                               int restartCounter) {
-        this.postProcessorQueue.add(new Object[]{
+        this.postProcessorQueue.add(new TransactionPostProcessor.QueuedResponse(
                                             cresponse,
                                             clientCallback,
                                             initiateTime,
-                                            restartCounter
-        });
+                                            restartCounter));
     }
 
     /**
@@ -2846,6 +3166,28 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
                              RpcCallback<ClientResponseImpl> clientCallback,
                              long initiateTime,
                              int restartCounter) {
+        this.responsePrepare(cresponse, initiateTime, restartCounter);
+        try {
+            clientCallback.run(cresponse);
+        } catch (ClientConnectionLostException ex) {
+            // There is nothing else we can really do here. We'll clean up
+            // the transaction just as normal and report the error
+            // in our logs if they have debugging turned on
+            if (trace.val)
+                LOG.warn("Failed to send back ClientResponse for txn #" + cresponse.getTransactionId(), ex);
+        }
+    }
+
+    /**
+     * Set the cluster round trip time and restart counter in the ClientResponse
+     * right before it is sent back to the client.
+     * This should not be called directly by anything but the HStoreSite or
+     * the TransactionPostProcessors
+     * @param cresponse
+     * @param initiateTime
+     * @param restartCounter
+     */
+    public void responsePrepare(ClientResponseImpl cresponse, long initiateTime, int restartCounter) {
         Status status = cresponse.getStatus();
  
         // If the txn committed/aborted, then we can send the response directly back to the
@@ -2873,15 +3215,6 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         }
         cresponse.setClusterRoundtrip((int)(now - initiateTime));
         cresponse.setRestartCounter(restartCounter);
-        try {
-            clientCallback.run(cresponse);
-        } catch (ClientConnectionLostException ex) {
-            // There is nothing else we can really do here. We'll clean up
-            // the transaction just as normal and report the error
-            // in our logs if they have debugging turned on
-            if (trace.val)
-                LOG.warn("Failed to send back ClientResponse for txn #" + cresponse.getTransactionId(), ex);
-        }
     }
     
     // ----------------------------------------------------------------------------
@@ -2923,6 +3256,14 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         AbstractTransaction rm = this.inflight_txns.remove(txn_id);
         if (debug.val) LOG.debug(String.format("Deleted %s [%s / inflightRemoval:%s]", ts, status, (rm != null)));
         
+        // Let doLogicalRecovery() know that the snapshot restore txn
+        // has finished at all of our partitions
+        if (this.snapshotRestoreLatch != null && this.snapshotRestoreLatch.getCount() > 0 &&
+            ts.getProcedure() != null &&
+            ts.getProcedure().getName().equals(VoltSystemProcedure.procCallName(SnapshotRestore.class))) {
+            this.snapshotRestoreLatch.countDown();
+        }
+        
         EstimatorState t_state = ts.getEstimatorState(); 
         if (t_state != null) {
             this.remoteTxnEstimator.destroyEstimatorState(t_state);
@@ -3155,6 +3496,10 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
             this.clientInterface.checkForDeadConnections(EstTime.currentTimeMillis());
         }
         
+        // A thread only releases the idle slabs in its response buffer pool when it
+        // acquires a new buffer, so we have to trim the pools of idle threads for them
+        this.trimBufferPools(EstTime.currentTimeMillis());
+        
         // poll planner queue
         if (this.asyncCompilerWorkThread != null) {
             this.checkForFinishedCompilerWork();
@@ -3171,6 +3516,28 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         return;
     }
 
+    /**
+     * Release the idle slabs in the threads' response buffer pools. The pools 
+     * of threads that have exited are removed and cleared. Clearing a pool only
+     * releases the slabs that have nothing loaned out, so any of its buffers
+     * that are still waiting to be written out are not affected.
+     * @param now
+     */
+    protected void trimBufferPools(long now) {
+        Iterator<Map.Entry<Thread, DirectBufferSlabPool>> it = this.buffer_pools.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Thread, DirectBufferSlabPool> e = it.next();
+            if (e.getKey().isAlive() == false) {
+                if (debug.val)
+                    LOG.debug("Removing response buffer pool for exited thread " + e.getKey().getName());
+                it.remove();
+                e.getValue().clear();
+            } else {
+                e.getValue().trim(now);
+            }
+        } // WHILE
+    }
+
     /**
      * Added for @AdHoc processes
      * 
@@ -22,6 +22,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.log4j.Logger;
 import org.voltdb.catalog.Database;
 import org.voltdb.catalog.Procedure;
+import org.voltdb.utils.DirectBufferSlabPool;
 
 import edu.brown.hstore.callbacks.PartitionCountingCallback;
 import edu.brown.hstore.cmdlog.CommandLogWriter;
@@ -343,6 +344,16 @@ public class HStoreSiteStatus extends ExceptionHandlingRunnable implements Shutd
             
             pm = profiler.network_backup_on;
             siteInfo.put("Back Pressure On", ProfileMeasurementUtil.formatComparison(pm, null, true));
+            
+            // HStoreCoordinator event loop utilization
+            if (profiler.coordinator_processing.length > 0) {
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < profiler.coordinator_processing.length; i++) {
+                    if (i > 0) sb.append(" / ");
+                    sb.append(String.format("%.1f%%", profiler.getCoordinatorUtilization(i) * 100));
+                } // FOR
+                siteInfo.put("Coordinator Loops", sb.toString());
+            }
         }
 
         
@@ -356,9 +367,11 @@ public class HStoreSiteStatus extends ExceptionHandlingRunnable implements Shutd
         
         // CommandLogWriter
         int inflight_cmdlog = 0;
-        CommandLogWriter cmdLogger = hstore_site.getCommandLogWriter();
-        if (cmdLogger != null) {
-            inflight_cmdlog = cmdLogger.getTotalTxnCount();
+        CommandLogWriter cmdLoggers[] = hstore_site.getCommandLogWriters();
+        if (cmdLoggers != null) {
+            for (CommandLogWriter cmdLogger : cmdLoggers) {
+                inflight_cmdlog += cmdLogger.getTotalTxnCount();
+            } // FOR
         }
         
         siteInfo.put("InFlight Txns",
@@ -391,6 +404,24 @@ public class HStoreSiteStatus extends ExceptionHandlingRunnable implements Shutd
             siteInfo.put("Network Processing", value);
             this.lastNetworkProcessing = new ProfileMeasurement(pm);
         }
+
+        int bufferSlabs = 0;
+        long bufferAllocated = 0, bufferAllocatedHWM = 0;
+        long bufferLoaned = 0, bufferLoanedHWM = 0;
+        for (DirectBufferSlabPool bufferPool : hstore_site.getBufferPools()) {
+            bufferSlabs += bufferPool.getSlabCount();
+            bufferAllocated += bufferPool.bytesAllocatedLocally();
+            bufferAllocatedHWM += bufferPool.getBytesAllocatedHighWaterMark();
+            bufferLoaned += bufferPool.bytesLoanedLocally();
+            bufferLoanedHWM += bufferPool.getBytesLoanedHighWaterMark();
+        } // FOR
+        siteInfo.put("Response Buffers", String.format("%d pools / %d slabs / %s allocated [hwm=%s] / %s loaned [hwm=%s]",
+                                                       hstore_site.getBufferPools().size(),
+                                                       bufferSlabs,
+                                                       StringUtil.formatSize(bufferAllocated),
+                                                       StringUtil.formatSize(bufferAllocatedHWM),
+                                                       StringUtil.formatSize(bufferLoaned),
+                                                       StringUtil.formatSize(bufferLoanedHWM)));
         
         if (hstore_conf.site.exec_postprocessing_threads) {
             int processing_cur = siteDebug.getQueuedResponseCount();
@@ -637,6 +668,21 @@ public class HStoreSiteStatus extends ExceptionHandlingRunnable implements Shutd
                 execInfoMaps.put("Incoming Txns\nBase Partitions", incoming.toString(50, 10) + "\n");
             }
         }
+        // Coordinator Batch Sizes
+        if (siteDebug.getProfiler() != null) {
+            Histogram<Integer> batches = siteDebug.getProfiler().coordinator_batch_sizes;
+            if (batches.isEmpty() == false) {
+                synchronized (batches) {
+                    execInfoMaps.put("Coordinator\nBatch Sizes", batches.toString(50, 10) + "\n");
+                }
+            }
+            batches = siteDebug.getProfiler().response_batch_sizes;
+            if (batches.isEmpty() == false) {
+                synchronized (batches) {
+                    execInfoMaps.put("Response\nBatch Sizes", batches.toString(50, 10) + "\n");
+                }
+            }
+        }
         if (invokedTxns.isEmpty() == false) {
             invokedTxns.setDebugLabels(partitionLabels);
             invokedTxns.enablePercentages();
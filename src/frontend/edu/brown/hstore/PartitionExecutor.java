@@ -149,6 +149,7 @@ import edu.brown.hstore.internal.UtilityWorkMessage.UpdateMemoryMessage;
 import edu.brown.hstore.internal.WorkFragmentMessage;
 import edu.brown.hstore.specexec.QueryTracker;
 import edu.brown.hstore.specexec.checkers.AbstractConflictChecker;
+import edu.brown.hstore.specexec.checkers.KeyConflictChecker;
 import edu.brown.hstore.specexec.checkers.MarkovConflictChecker;
 import edu.brown.hstore.specexec.checkers.OptimisticConflictChecker;
 import edu.brown.hstore.specexec.checkers.TableConflictChecker;
@@ -427,6 +428,7 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
     private SpeculationConflictCheckerType specExecCheckerType;
     private AbstractConflictChecker specExecChecker;
     private boolean specExecSkipAfter = false;
+    private boolean specExecTrackQueries = false;
     private SpecExecScheduler specExecScheduler;
     
     /**
@@ -455,6 +457,19 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
      */
     private boolean specExecIgnoreCurrent = false;
     
+    /**
+     * The distributed transaction that was allowed to start executing at this partition
+     * while the current distributed transaction is still running. This will become the
+     * current dtxn once the other one finishes. See ${site.specexec_dtxn}
+     */
+    private AbstractTransaction specExecDtxn = null;
+    
+    /**
+     * The last undo token used at this partition before the specExecDtxn started.
+     * When the current dtxn finishes, we can only commit up to this token.
+     */
+    private long specExecDtxnUndoToken = HStoreConstants.NULL_UNDO_LOGGING_TOKEN;
+    
     // ----------------------------------------------------------------------------
     // SHARED VOLTPROCEDURE DATA MEMBERS
     // ----------------------------------------------------------------------------
@@ -956,6 +971,7 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
     private void setSpecExecChecker(AbstractConflictChecker checker) {
         this.specExecChecker = checker;
         this.specExecSkipAfter = this.specExecChecker.skipConflictAfter();
+        this.specExecTrackQueries = this.specExecChecker.needsQueryTracking();
         
         if (this.specExecScheduler != null) {
             this.specExecScheduler.getDebugContext().setConflictChecker(checker);
@@ -980,6 +996,11 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
                 // at this site can reuse the same one.
                 checker = MarkovConflictChecker.singleton(this.catalogContext, this.thresholds);
                 break;
+            case KEY:
+                // Same for the KeyConflictChecker. The keys that the txns access
+                // are stored in their handles and not in the checker.
+                checker = KeyConflictChecker.singleton(this.catalogContext);
+                break;
             // -------------------------------
             // TABLE-LEVEL
             // -------------------------------
@@ -1306,7 +1327,10 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
         InternalMessage work = null;
         
         // Check whether there is something we can speculatively execute right now
-        if (this.specExecIgnoreCurrent == false && this.lockQueue.approximateIsEmpty() == false) {
+        // We can't do this while there is a speculative dtxn running, because then 
+        // its changes would not be at the end of the undo log anymore.
+        if (this.specExecIgnoreCurrent == false && this.specExecDtxn == null &&
+                this.lockQueue.approximateIsEmpty() == false) {
 //            if (trace.val)
 //                LOG.trace(String.format("Checking %s for something to do at partition %d while %s",
 //                          this.specExecScheduler.getClass().getSimpleName(),
@@ -1379,8 +1403,35 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
 //                      this.currentDtxn, this.partitionId, this.lockQueue.size(), this.specExecIgnoreCurrent));
 //        }
         
+        // Check whether the next dtxn in our lock queue can start running while
+        // we are still waiting for the current dtxn to finish
+        AbstractTransaction specDtxn = null;
+        if (specTxn == null && hstore_conf.site.specexec_dtxn &&
+                this.currentDtxn != null && this.specExecDtxn == null &&
+                this.lockQueue.approximateIsEmpty() == false) {
+            specDtxn = this.specExecScheduler.nextDistributed(this.currentDtxn);
+            if (specDtxn != null) {
+                // Remember what the last undo token was before the dtxn gets
+                // its locks. The current dtxn cannot commit anything after this.
+                long undoToken = this.lastUndoToken;
+                try {
+                    specDtxn = this.queueManager.checkLockQueue(this.partitionId, specDtxn); // NON-BLOCKING
+                } catch (InterruptedException ex) {
+                    specDtxn = null;
+                }
+                if (specDtxn != null) {
+                    if (debug.val)
+                        LOG.debug(String.format("%s - Starting %s at partition %d before the current " +
+                                  "dtxn finishes [undoToken=%d]",
+                                  this.currentDtxn, specDtxn, this.partitionId, undoToken));
+                    this.specExecDtxn = specDtxn;
+                    this.specExecDtxnUndoToken = undoToken;
+                }
+            }
+        }
+        
         if (hstore_conf.site.exec_profiling) this.profiler.util_time.stopIfStarted();
-        return (specTxn != null || work != null);
+        return (specTxn != null || specDtxn != null || work != null);
     }
     
     // ----------------------------------------------------------------------------
@@ -1541,6 +1592,15 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
                     LOG.debug(String.format("Marking %s as current DTXN on partition %d [nextMode=%s]",
                               ts, this.partitionId, newMode));                    
             }
+            // We were allowed to start before the current DTXN finished, so we
+            // can execute this fragment without changing the execution mode
+            else if (this.specExecDtxn == ts) {
+                if (debug.val)
+                    LOG.debug(String.format("%s - Executing fragment on partition %d before current Dtxn %s finishes",
+                              ts, this.partitionId, this.currentDtxn));
+                this.processWorkFragment(ts, fragment, parameters);
+                return;
+            }
             // There is a current DTXN but it's not us!
             // That means we need to block ourselves until it finishes
             else if (this.currentDtxn != ts) {
@@ -2547,7 +2607,7 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
         try {
             this.currentVoltProc = volt_proc;
             ts.markControlCodeExecuted();
-            cresponse = volt_proc.call(ts, ts.getProcedureParameters().toArray()); // Blocking...
+            cresponse = volt_proc.call(ts, ts.getProcedureParameters()); // Blocking...
         // VoltProcedure.call() should handle any exceptions thrown by the transaction
         // If we get anything out here then that's bad news
         } catch (Throwable ex) {
@@ -3243,6 +3303,10 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
                     if (tableIds != null) ts.markTableIdsWritten(this.partitionId, tableIds);
                 }
             }
+            // Let the ConflictChecker see what rows the dtxn accessed
+            if (this.specExecTrackQueries && singlePartition == false) {
+                this.specExecChecker.trackQuery(ts, this.partitionId, fragmentIds[i], parameterSets[i]);
+            }
             readonly = readonly && fragReadOnly;
         }
         
@@ -4607,7 +4671,10 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
                 profiler.sp3_remote_time.start();
             }
             
-            if (hstore_conf.site.specexec_enable) {
+            // If this txn started before the current dtxn finished, then none of the speculative
+            // txns were executed after it and it cannot change the execution mode
+            boolean isSpecDtxn = (this.specExecDtxn == ts);
+            if (hstore_conf.site.specexec_enable && isSpecDtxn == false) {
                 // Check to see if there were any conflicts with the dtxn and any of its speculative
                 // txns at this partition. If there were, then we know that we can't commit the txn here.
                 if (this.specExecSkipAfter == false) {
@@ -4641,7 +4708,7 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
                     newMode = ExecutionMode.COMMIT_READONLY;
                 }
             }
-            if (this.currentDtxn != null) this.setExecutionMode(ts, newMode);
+            if (this.currentDtxn != null && isSpecDtxn == false) this.setExecutionMode(ts, newMode);
         }
         // It's ok if they try to prepare the txn twice. That might just mean that they never
         // got the acknowledgement back in time if they tried to send an early commit message.
@@ -4975,21 +5042,26 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
                     // to commit any changes that came before it. Note that we are using our
                     // special 'finishWorkEE' method that does not require us to provide
                     // the transaction that we're committing.
-                    long undoToken = this.lastUndoToken;
+                    //
+                    // If there is a dtxn that started before this one finished, then we can only
+                    // commit up to the last undoToken that was used before it started.
+                    long undoToken = (this.specExecDtxn != null ? this.specExecDtxnUndoToken : this.lastUndoToken);
                     if (debug.val)
                         LOG.debug(String.format("%s - Last undoToken at partition %d => %d",
                                   ts, this.partitionId, undoToken));
                     // Bombs away!
                     if (undoToken != this.lastCommittedUndoToken) {
-                        this.finishWorkEE(ts, undoToken, true);
-                        
-                        // IMPORTANT: Make sure that we remove the dtxn from the lock queue!
-                        // This is normally done in finishTransaction() but because we're trying
-                        // to be clever and invoke the EE directly, we have to make sure that
-                        // we call it ourselves.
-                        this.queueManager.lockQueueFinished(ts, status, this.partitionId);
+                        if (this.specExecDtxn == null || undoToken > this.lastCommittedUndoToken)
+                            this.finishWorkEE(ts, undoToken, true);
                     }
                     
+                    // IMPORTANT: Make sure that we remove the dtxn from the lock queue!
+                    // This is normally done in finishTransaction() but because we're trying
+                    // to be clever and invoke the EE directly, we have to make sure that
+                    // we call it ourselves. This has to happen even if there was nothing
+                    // to commit, otherwise the next dtxn would never get the lock.
+                    this.queueManager.lockQueueFinished(ts, status, this.partitionId);
+                    
                     // Make sure that we mark the dtxn as finished so that we don't
                     // try to do anything with it later on.
                     if (hstore_conf.site.exec_readwrite_tracking)
@@ -5057,6 +5129,15 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
     
                 // Release blocked transactions
                 this.releaseBlockedTransactions(ts);
+                
+                // If another dtxn already started, then it is now our current dtxn
+                if (this.specExecDtxn != null) {
+                    AbstractTransaction next = this.specExecDtxn;
+                    this.specExecDtxn = null;
+                    this.specExecDtxnUndoToken = HStoreConstants.NULL_UNDO_LOGGING_TOKEN;
+                    this.setCurrentDtxn(next);
+                    this.setExecutionMode(next, ExecutionMode.COMMIT_NONE);
+                }
             } catch (Throwable ex) {
                 String msg = String.format("Failed to finish %s at partition %d", ts, this.partitionId);
                 throw new ServerFaultException(msg, ex, ts.getTransactionId());
@@ -5067,6 +5148,17 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
                 this.profiler.sp3_remote_time.stopIfStarted();
             }
         }
+        // The dtxn that started before the current one finished is done first.
+        // The current dtxn is read-only, so we can commit or abort this one
+        // by itself since nothing else was executed after it.
+        else if (this.specExecDtxn == ts) {
+            if (debug.val)
+                LOG.debug(String.format("%s - Finishing txn at partition %d before current dtxn %s [status=%s]",
+                          ts, this.partitionId, this.currentDtxn, status));
+            this.finishTransaction(ts, status);
+            this.specExecDtxn = null;
+            this.specExecDtxnUndoToken = HStoreConstants.NULL_UNDO_LOGGING_TOKEN;
+        }
         // We were told told to finish a dtxn that is not the current one
         // at this partition. That's ok as long as it's aborting and not trying
         // to commit.
@@ -5349,6 +5441,13 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
         public Long getCurrentTxnId() {
             return (PartitionExecutor.this.currentTxnId);
         }
+        /**
+         * Get the distributed transaction that started before the current one finished
+         * <B>FOR TESTING ONLY</B>
+         */
+        public AbstractTransaction getSpeculativeDtxn() {
+            return (PartitionExecutor.this.specExecDtxn);
+        }
         public int getBlockedWorkCount() {
             return (PartitionExecutor.this.currentBlockedTxns.size());
         }
@@ -2,7 +2,6 @@ package edu.brown.hstore;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
@@ -11,8 +10,10 @@ import org.apache.log4j.Logger;
 import org.voltdb.TransactionIdManager;
 
 import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.hstore.specexec.SpecExecCandidateIndex;
 import edu.brown.hstore.txns.AbstractTransaction;
 import edu.brown.hstore.util.ThrottlingQueue;
+import edu.brown.hstore.util.TxnIdPriorityQueue;
 import edu.brown.interfaces.DebugContext;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
@@ -31,6 +32,9 @@ import edu.brown.utils.StringUtil;
  *
  * <p>This class manages all that state.</p>
  * 
+ * <p>Adding a txn to the queue never blocks. If another thread is already holding
+ * the queue's lock, then that thread will update the queue state for the new
+ * txn before it releases the lock.</p>
  */
 public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
     protected static final Logger LOG = Logger.getLogger(PartitionLockQueue.class);
@@ -57,6 +61,11 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
      */
     private static final long NULL_BLOCK_TIMESTAMP = -1l;
     
+    /**
+     * Special marker for when we have not seen a txn id yet.
+     */
+    private static final long NULL_TXN_ID = -1l;
+    
     // ----------------------------------------------------------------------------
     // INTERNAL STATE
     // ----------------------------------------------------------------------------
@@ -67,6 +76,13 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
     private final ReentrantLock lock = new ReentrantLock(true);
     private final Condition isReady = lock.newCondition();
     
+    /**
+     * If this flag is set to true, then a txn was added to the queue
+     * by a thread that could not acquire the lock. Whoever is holding the lock
+     * must call checkQueueState() before it goes away.
+     */
+    private volatile boolean pendingCheck = false;
+    
     /**
      * This is the timestamp (in milliseconds) when we can unblock
      * the next transaction in the queue.
@@ -81,12 +97,18 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
     private QueueState state = QueueState.BLOCKED_EMPTY;
     
     private long txnsPopped = 0;
-    private Long lastSeenTxnId = -1l;
-    private Long lastSafeTxnId = -1l;
-    private Long lastTxnPopped = -1l;
+    private volatile long lastSeenTxnId = NULL_TXN_ID;
+    private volatile long lastSafeTxnId = NULL_TXN_ID;
+    private volatile long lastTxnPopped = NULL_TXN_ID;
     
     private final PartitionLockQueueProfiler profiler;
     
+    /**
+     * Optional index of the single-partition txns in this queue
+     * that the SpecExecScheduler uses to find candidates.
+     */
+    private volatile SpecExecCandidateIndex candidateIndex;
+    
     // ----------------------------------------------------------------------------
     // INITIALIZATION
     // ----------------------------------------------------------------------------
@@ -100,7 +122,7 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
      * @param hstore_site
      */
     public PartitionLockQueue(int partitionId, int maxWaitTime, int throttle_threshold, double throttle_release) {
-        super(new PriorityBlockingQueue<AbstractTransaction>(), throttle_threshold, throttle_release);
+        super(new TxnIdPriorityQueue(), throttle_threshold, throttle_release);
         
         this.partitionId = partitionId;
         this.maxWaitTime = maxWaitTime;
@@ -129,10 +151,63 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
         return (this.partitionId);
     }
     
-    public Long getLastTransactionId() {
+    /**
+     * Set the SpecExecCandidateIndex that this queue will keep up to date.
+     * Any txns that are already in the queue will be added to it.
+     * Pass null to stop maintaining the index.
+     * @param index
+     */
+    public void setCandidateIndex(SpecExecCandidateIndex index) {
+        this.lock.lock();
+        try {
+            if (index != null) {
+                for (AbstractTransaction ts : this) {
+                    index.add(ts);
+                } // FOR
+            }
+            this.candidateIndex = index;
+        } finally {
+            this.unlock();
+        }
+    }
+    
+    public SpecExecCandidateIndex getCandidateIndex() {
+        return (this.candidateIndex);
+    }
+    
+    public long getLastTransactionId() {
         return (this.lastTxnPopped);
     }
     
+    /**
+     * Release the lock and then process any txns that were added
+     * while we were holding it.
+     */
+    private void unlock() {
+        if (trace.val)
+            LOG.trace(String.format("Partition %d :: Releasing lock", this.partitionId));
+        this.lock.unlock();
+        this.processPendingCheck();
+    }
+    
+    /**
+     * Update the queue state for any txns that were added without
+     * holding the lock. If somebody else has the lock, then they will
+     * take care of it for us when they call unlock().
+     */
+    private void processPendingCheck() {
+        while (this.pendingCheck && this.lock.tryLock()) {
+            try {
+                if (this.pendingCheck) {
+                    this.pendingCheck = false;
+                    this.checkQueueState(false);
+                }
+            } finally {
+                this.lock.unlock();
+            }
+        } // WHILE
+    }
+    
     // ----------------------------------------------------------------------------
     // POLL/TAKE METHODS
     // ----------------------------------------------------------------------------
@@ -165,7 +240,9 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
                         if (debug.val)
                             LOG.debug(String.format("Partition %d :: poll() -> %s",
                                       this.partitionId, retval));
-                        this.lastTxnPopped = retval.getTransactionId();
+                        if (this.candidateIndex != null) this.candidateIndex.remove(retval);
+                        Long txnId = retval.getTransactionId();
+                        if (txnId != null) this.lastTxnPopped = txnId.longValue();
                         this.txnsPopped++;
                     }
                     // call this again to prime the next txn
@@ -173,13 +250,47 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
                 }
             }
         } finally {
-            if (trace.val)
-                LOG.trace(String.format("Partition %d :: Releasing lock", this.partitionId));
-            this.lock.unlock();
+            this.unlock();
         } // SYNCH
         return (retval);
     }
     
+    /**
+     * Release the given txn only if it is the next txn in the queue and it is ready to run.
+     * This is non-blocking. If the txn is not next, then this will return null.
+     * <B>Note:</B> This should only be allowed to be called by one thread.
+     * @param ts
+     * @return
+     */
+    public AbstractTransaction pollIfNext(AbstractTransaction ts) {
+        AbstractTransaction retval = null;
+        
+        if (trace.val)
+            LOG.trace(String.format("Partition %d :: Attempting to acquire lock", this.partitionId));
+        this.lock.lock();
+        try {
+            if (this.state == QueueState.BLOCKED_SAFETY || this.state == QueueState.BLOCKED_ORDERING) {
+                this.checkQueueState(false);
+            }
+            if (this.state == QueueState.UNBLOCKED && ts.equals(super.peek()) && super.remove(ts)) {
+                retval = ts;
+                if (this.candidateIndex != null) this.candidateIndex.remove(retval);
+                Long txnId = retval.getTransactionId();
+                if (txnId != null) this.lastTxnPopped = txnId.longValue();
+                this.txnsPopped++;
+                
+                // Call this again to prime the next txn
+                this.checkQueueState(true);
+            }
+        } finally {
+            this.unlock();
+        } // SYNCH
+        if (debug.val)
+            LOG.debug(String.format("Partition %d :: pollIfNext(%s) -> %s",
+                      this.partitionId, ts, retval));
+        return (retval);
+    }
+    
     /**
      * Only return transaction state objects that are ready to run.
      * This method will wait until the transaction's block time has passed.
@@ -276,7 +387,9 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
             // txns are removed by another thread right before we try to
             // poll our queue.
             if (retval != null) {
-                this.lastTxnPopped = retval.getTransactionId();
+                if (this.candidateIndex != null) this.candidateIndex.remove(retval);
+                Long txnId = retval.getTransactionId();
+                if (txnId != null) this.lastTxnPopped = txnId.longValue();
                 this.txnsPopped++;
                 
                 // Call this again to prime the next txn
@@ -287,9 +400,7 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
                 LOG.trace(String.format("Partition %d :: take() -> Leaving blocking section",
                           this.partitionId));
         } finally {
-            if (trace.val)
-                LOG.trace(String.format("Partition %d :: Releasing lock", this.partitionId));
-            this.lock.unlock();
+            this.unlock();
         }
         if (debug.val)
             LOG.debug(String.format("Partition %d :: take() -> %s",
@@ -315,6 +426,19 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
         return (retval);
     }
     
+    /**
+     * Return the txn at the front of the queue even if it is not ready to run yet.
+     * This does not change the state of the queue, so the caller still has to go
+     * through pollIfNext() to actually acquire the lock for the txn.
+     * It is safe to call this from any thread if you need to
+     */
+    public AbstractTransaction peekNext() {
+        AbstractTransaction retval = super.peek();
+        if (debug.val)
+            LOG.debug(String.format("Partition %d :: peekNext() -> %s", this.partitionId, retval));
+        return (retval);
+    }
+    
     // ----------------------------------------------------------------------------
     // OFFER METHODS
     // ----------------------------------------------------------------------------
@@ -329,21 +453,23 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
         assert(ts.isInitialized()) :
             String.format("Unexpected uninitialized transaction %s [partition=%d]", ts, this.partitionId);
         
+        // The txn has to be in the index before it goes into the queue. Otherwise somebody
+        // could poll it from the queue before we added it and the index would be left
+        // with an entry that never gets removed.
+        SpecExecCandidateIndex index = this.candidateIndex;
+        boolean indexed = (index != null && index.add(ts));
+        
         boolean retval = super.offer(ts, force);
         if (debug.val)
             LOG.debug(String.format("Partition %d :: offer(%s) -> %s", this.partitionId, ts, retval));
 
-        if (retval) {
-            if (trace.val)
-                LOG.trace(String.format("Partition %d :: Attempting to acquire lock", this.partitionId));
-            this.lock.lock();
-            try {
-                if (retval) this.checkQueueState(false);
-            } finally {
-                if (trace.val)
-                    LOG.trace(String.format("Partition %d :: Releasing lock", this.partitionId));
-                this.lock.unlock();
-            }
+        if (retval == false) {
+            if (indexed) index.remove(ts);
+        } else {
+            // We don't want to block here if somebody else is holding the lock.
+            // They will update the queue state for us when they release it.
+            this.pendingCheck = true;
+            this.processPendingCheck();
         }
         return (retval);
     }
@@ -379,34 +505,53 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
                 assert(super.contains(txn) == false) : 
                     "Failed to remove " + txn + "???\n" + this.debug();
             }
-            if (retval) this.checkQueueState(reset);
+            if (retval) {
+                if (this.candidateIndex != null) this.candidateIndex.remove(txn);
+                this.checkQueueState(reset);
+            }
         } finally {
-            if (trace.val)
-                LOG.trace(String.format("Partition %d :: Releasing lock", this.partitionId));
-            this.lock.unlock();
+            this.unlock();
         }
         return (retval);
     }
     
+    @Override
+    public void clear() {
+        this.lock.lock();
+        try {
+            super.clear();
+            if (this.candidateIndex != null) this.candidateIndex.clear();
+        } finally {
+            this.unlock();
+        }
+    }
+    
     /**
      * Update the information stored about the latest transaction
      * seen from each initiator. Compute the newest safe transaction id.
      */
-    public Long noteTransactionRecievedAndReturnLastSafeTxnId(Long txnId) {
-        assert(txnId != null);
+    public long noteTransactionRecievedAndReturnLastSafeTxnId(long txnId) {
         if (debug.val)
             LOG.debug(String.format("Partition %d :: noteTransactionRecievedAndReturnLastSeen(%d)",
                       this.partitionId, txnId));
 
         this.lastSeenTxnId = txnId;
-        if (trace.val) {
+        if (trace.val)
             LOG.trace(String.format("Partition %d :: SET lastSeenTxnId = %d",
                       this.partitionId, this.lastSeenTxnId));
-            LOG.trace(String.format("Partition %d :: Attempting to acquire lock", this.partitionId));
+        
+        // Most of the time the new txn will be greater than everything that
+        // we've already seen, so we don't need the lock to figure that out.
+        long lastSafe = this.lastSafeTxnId;
+        if (txnId > lastSafe && txnId >= this.lastTxnPopped) {
+            return (lastSafe);
         }
+        
+        if (trace.val)
+            LOG.trace(String.format("Partition %d :: Attempting to acquire lock", this.partitionId));
         this.lock.lock();
         try {
-            if (this.lastTxnPopped.compareTo(txnId) > 0) {
+            if (this.lastTxnPopped > txnId) {
                 if (debug.val)
                     LOG.warn(String.format("Partition %d :: Txn ordering deadlock --> LastTxn:%d / NewTxn:%d",
                              this.partitionId, this.lastTxnPopped, txnId));
@@ -415,7 +560,7 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
             
             // We always need to check whether this new txnId is less than our next safe txnID
             // If it is, then we know that we need to replace it.
-            if (txnId.compareTo(this.lastSafeTxnId) < 0) {
+            if (txnId < this.lastSafeTxnId) {
                 // 2013-01-15
                 // Instead of calling checkQueueState() here, we'll 
                 // just change the state real quickly. This should be ok because
@@ -432,9 +577,7 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
                 // this.checkQueueState(false);
             }
         } finally {
-            if (trace.val)
-                LOG.trace(String.format("Partition %d :: Releasing lock", this.partitionId));
-            this.lock.unlock();
+            this.unlock();
         } // SYNCH
         return (this.lastSafeTxnId);
     }
@@ -482,7 +625,7 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
             // If this txnId is greater than the last safe one that we've seen, then we know
             // that the lastSafeTxnId has been polled. That means that we need to 
             // wait for an appropriate amount of time before we're allow to be executed.
-            if (txnId.compareTo(this.lastSafeTxnId) > 0 && afterRemoval == false) {
+            if (txnId.longValue() > this.lastSafeTxnId && afterRemoval == false) {
                 newState = QueueState.BLOCKED_ORDERING;
                 if (debug.val)
                     LOG.debug(String.format("Partition %d :: txnId[%d] > lastSafeTxnId[%d]",
@@ -544,7 +687,7 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
                 if (this.blockTimestamp <= currentTimestamp) {
                     newState = QueueState.UNBLOCKED;
                 }
-                if (this.profiler != null && this.lastSafeTxnId.equals(txnId) == false)
+                if (this.profiler != null && this.lastSafeTxnId != txnId.longValue())
                     this.profiler.waitTimes.put(newState == QueueState.UNBLOCKED ? 0 : waitTime);
                 
                 if (debug.val) {
@@ -576,7 +719,7 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
         // a new txn with a lower id. But that's ok because we've synchronized setting
         // the id up above. This is actually probably the only part of this entire method
         // that needs to be protected...
-        if (txnId != null) this.lastSafeTxnId = txnId;
+        if (txnId != null) this.lastSafeTxnId = txnId.longValue();
         
         // Set the new state
         if (newState != this.state) {
@@ -633,7 +776,7 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
             try {
                 ret = PartitionLockQueue.this.checkQueueState(false);
             } finally {
-                lock.unlock();
+                PartitionLockQueue.this.unlock();
             }
             return (ret);
         }
@@ -1,108 +1,451 @@
 package edu.brown.hstore;
 
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 import edu.brown.hstore.internal.FinishTxnMessage;
 import edu.brown.hstore.internal.InternalMessage;
 import edu.brown.hstore.internal.InternalTxnMessage;
 import edu.brown.hstore.internal.PrepareTxnMessage;
 import edu.brown.hstore.internal.SetDistributedTxnMessage;
-import edu.brown.hstore.internal.WorkFragmentMessage;
 import edu.brown.hstore.internal.UtilityWorkMessage;
+import edu.brown.hstore.internal.WorkFragmentMessage;
 
-public class PartitionMessageQueue extends PriorityBlockingQueue<InternalMessage> {
-    
-    private static final long serialVersionUID = 1L;
-//    private List<InternalMessage> swap = null;
-    
-    public PartitionMessageQueue() {
-        super(100000, WORK_COMPARATOR); // FIXME
-    }
-    
-//    @Override
-//    public int drainTo(Collection<? super InternalMessage> c) {
-//        assert(c != null);
-//        InternalMessage msg = null;
-//        int ctr = 0;
-//        
-//        if (this.swap == null) {
-//            this.swap = new ArrayList<InternalMessage>();
-//        } else {
-//            this.swap.clear();
-//        }
-//        
-//        while ((msg = this.poll()) != null) {
-//            // All new transaction requests must be put in the new collection
-//            if (msg instanceof InitializeRequestMessage) {
-//                c.add(msg);
-//                ctr++;
-//            // Everything else will get added back in afterwards 
-//            } else {
-//                this.swap.add(msg);
-//            }
-//        } // WHILE
-//        if (this.swap.isEmpty() == false) this.addAll(this.swap);
-//        return (ctr);
-//    }
-    
-    private static final Comparator<InternalMessage> WORK_COMPARATOR = new Comparator<InternalMessage>() {
-        @SuppressWarnings("unchecked")
-        private final Class<? extends InternalMessage> compareOrder[] = (Class<? extends InternalMessage>[])new Class<?>[]{
-            SetDistributedTxnMessage.class,
-            PrepareTxnMessage.class,
-            FinishTxnMessage.class,
-            WorkFragmentMessage.class,
-        };
-        
+/**
+ * The queue of InternalMessages for a single PartitionExecutor.
+ * <p>
+ * Each kind of message is added to its own lane. Each lane is a lock-free
+ * linked list that any number of threads can append to at the same time, so the
+ * network, coordinator, and callback threads never contend with each other on
+ * a single lock when they queue new work.
+ * <p>
+ * Only the PartitionExecutor's thread is supposed to remove messages. When it does,
+ * it moves all of the new txn messages into a private heap that is ordered by
+ * their txn ids. The messages are released in the following order:
+ * <ol>
+ * <li> TableStatsRequestMessages
+ * <li> Txn messages in txn id order. If there are multiple messages for the same txn, then
+ *      they are ordered SetDistributedTxnMessage, PrepareTxnMessage, FinishTxnMessage,
+ *      WorkFragmentMessage, and then everything else.
+ * <li> All other messages in the order that they were added.
+ * </ol>
+ * The methods that remove or inspect messages are guarded by a lock that is only
+ * contended when another thread is looking at the queue (e.g., for debugging).
+ */
+public class PartitionMessageQueue extends AbstractQueue<InternalMessage> implements BlockingQueue<InternalMessage> {
+
+    // ----------------------------------------------------------------------------
+    // LANES
+    // ----------------------------------------------------------------------------
+
+    private static final int LANE_UTILITY = 0;
+    private static final int LANE_SETDTXN = 1;
+    private static final int LANE_PREPARE = 2;
+    private static final int LANE_FINISH = 3;
+    private static final int LANE_WORK = 4;
+    private static final int LANE_TXN = 5;
+    private static final int LANE_OTHER = 6;
+    private static final int NUM_LANES = 7;
+
+    /**
+     * Returns the lane for the given message. For txn messages, the lane is
+     * also the message's rank when comparing messages for the same txn.
+     * @param msg
+     * @return
+     */
+    private static int getLane(InternalMessage msg) {
+        if (msg instanceof InternalTxnMessage) {
+            if (msg instanceof WorkFragmentMessage) return (LANE_WORK);
+            if (msg instanceof SetDistributedTxnMessage) return (LANE_SETDTXN);
+            if (msg instanceof PrepareTxnMessage) return (LANE_PREPARE);
+            if (msg instanceof FinishTxnMessage) return (LANE_FINISH);
+            return (LANE_TXN);
+        }
+        if (msg instanceof UtilityWorkMessage.TableStatsRequestMessage) return (LANE_UTILITY);
+        return (LANE_OTHER);
+    }
+
+    /**
+     * A queued message.
+     * We grab the txn id when the message is added so that we never have
+     * to look at the txn handle again when we sort them.
+     */
+    private static final class Node {
+        private final InternalMessage msg;
+        private final long txnId;
+        private final int lane;
+        private volatile Node next;
+
+        private Node(InternalMessage msg, long txnId, int lane) {
+            this.msg = msg;
+            this.txnId = txnId;
+            this.lane = lane;
+        }
+    } // CLASS
+
+    private static final Comparator<Node> NODE_COMPARATOR = new Comparator<Node>() {
         @Override
-        public int compare(InternalMessage msg0, InternalMessage msg1) {
-            assert(msg0 != null) : "Unexpected null message [msg0]";
-            assert(msg1 != null) : "Unexpected null message [msg1]";
-
-            Class<?> class0 = msg0.getClass();
-            Class<?> class1 = msg1.getClass();
-
-            boolean isUtl0 = class0.equals(UtilityWorkMessage.TableStatsRequestMessage.class);
-            boolean isUtl1 = class1.equals(UtilityWorkMessage.TableStatsRequestMessage.class);
-            if (isUtl0 && !isUtl1) return -1;
-            if (!isUtl0 && isUtl1) return 1;
-            
-            // Always compare Transaction Ids first
-            boolean isTxn0 = (msg0 instanceof InternalTxnMessage);
-            boolean isTxn1 = (msg1 instanceof InternalTxnMessage);
-            if (isTxn0 && isTxn1) {
-                // If they're both for the same txn, then use the compareOrder
-                Long txnId0 = ((InternalTxnMessage)msg0).getTransactionId();
-                assert(txnId0 != null) : "Unexpected null txnId for " + msg0;
-                Long txnId1 = ((InternalTxnMessage)msg1).getTransactionId();
-                assert(txnId1 != null) : "Unexpected null txnId for " + msg1;
-
-                // Compare TxnIds
-                int result = txnId0.compareTo(txnId1);
-                if (result != 0) return (result);
-                
-                // Rank them based on their message type
-                // This prevents us from removing a txn before it's been added 
-                if (class0.equals(class1) == false) {
-                    for (Class<? extends InternalMessage> clazz : compareOrder) {
-                        boolean isMatch0 = class0.equals(clazz);
-                        boolean isMatch1 = class1.equals(clazz);
-                        if (isMatch0 && !isMatch1) return (-1);
-                        else if (!isMatch0 && isMatch1) return (1);                    
-                    } // FOR
-                }
+        public int compare(Node n0, Node n1) {
+            if (n0.txnId != n1.txnId) return (n0.txnId < n1.txnId ? -1 : 1);
+            return (n0.lane - n1.lane);
+        }
+    };
+
+    /**
+     * Multi-producer, single-consumer linked list.
+     * Producers swap themselves into the tail and then link the previous
+     * tail to themselves. The consumer follows the links from the head.
+     */
+    private static final class Lane {
+        private final AtomicReference<Node> tail;
+        private Node head;
+
+        private Lane() {
+            Node stub = new Node(null, 0, -1);
+            this.head = stub;
+            this.tail = new AtomicReference<Node>(stub);
+        }
+
+        private void push(Node node) {
+            Node prev = this.tail.getAndSet(node);
+            prev.next = node;
+        }
+
+        /**
+         * Remove the next node in this lane. Returns null if the lane is empty
+         * or if the next producer has not finished linking in its node.
+         * Only the consumer can invoke this.
+         */
+        private Node pop() {
+            Node next = this.head.next;
+            if (next == null) return (null);
+            this.head = next;
+            return (next);
+        }
+    } // CLASS
+
+    // ----------------------------------------------------------------------------
+    // INSTANCE MEMBERS
+    // ----------------------------------------------------------------------------
+
+    private final Lane lanes[] = new Lane[NUM_LANES];
+
+    /**
+     * The total number of messages in this queue.
+     */
+    private final AtomicInteger count = new AtomicInteger(0);
+
+    /**
+     * The thread that is blocked waiting for a new message
+     */
+    private volatile Thread waiter = null;
+
+    /**
+     * Everything below is only accessed while holding the consumerLock
+     */
+    private final ReentrantLock consumerLock = new ReentrantLock();
+    private final ArrayDeque<InternalMessage> utilityQueue = new ArrayDeque<InternalMessage>();
+    private final ArrayDeque<InternalMessage> otherQueue = new ArrayDeque<InternalMessage>();
+    private Node txnHeap[] = new Node[1024];
+    private int txnHeapSize = 0;
+
+    public PartitionMessageQueue() {
+        for (int i = 0; i < NUM_LANES; i++) {
+            this.lanes[i] = new Lane();
+        } // FOR
+    }
+
+    // ----------------------------------------------------------------------------
+    // PRODUCER METHODS
+    // ----------------------------------------------------------------------------
+
+    @Override
+    public boolean offer(InternalMessage msg) {
+        assert(msg != null) : "Unexpected null message";
+        int lane = getLane(msg);
+        long txnId = -1;
+        if (msg instanceof InternalTxnMessage) {
+            Long temp = ((InternalTxnMessage)msg).getTransactionId();
+            assert(temp != null) : "Unexpected null txnId for " + msg;
+            txnId = temp.longValue();
+        }
+        this.lanes[lane].push(new Node(msg, txnId, lane));
+        this.count.incrementAndGet();
+
+        Thread t = this.waiter;
+        if (t != null) LockSupport.unpark(t);
+        return (true);
+    }
+
+    @Override
+    public void put(InternalMessage msg) throws InterruptedException {
+        this.offer(msg);
+    }
+
+    @Override
+    public boolean offer(InternalMessage msg, long timeout, TimeUnit unit) throws InterruptedException {
+        return (this.offer(msg));
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return (Integer.MAX_VALUE);
+    }
+
+    // ----------------------------------------------------------------------------
+    // CONSUMER METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Move all of the messages that have been added to the lanes into
+     * our private queues. Must be holding the consumerLock.
+     */
+    private void transfer() {
+        Node node = null;
+        while ((node = this.lanes[LANE_UTILITY].pop()) != null) {
+            this.utilityQueue.add(node.msg);
+        } // WHILE
+        for (int lane = LANE_SETDTXN; lane <= LANE_TXN; lane++) {
+            while ((node = this.lanes[lane].pop()) != null) {
+                this.heapAdd(node);
+            } // WHILE
+        } // FOR
+        while ((node = this.lanes[LANE_OTHER].pop()) != null) {
+            this.otherQueue.add(node.msg);
+        } // WHILE
+    }
+
+    /**
+     * Return the next message without removing it. Must be holding the consumerLock.
+     */
+    private InternalMessage peekImpl() {
+        this.transfer();
+        if (this.utilityQueue.isEmpty() == false) return (this.utilityQueue.peek());
+        if (this.txnHeapSize > 0) return (this.txnHeap[0].msg);
+        return (this.otherQueue.peek());
+    }
+
+    /**
+     * Remove the next message. Must be holding the consumerLock.
+     */
+    private InternalMessage pollImpl() {
+        this.transfer();
+        InternalMessage msg = null;
+        if (this.utilityQueue.isEmpty() == false) {
+            msg = this.utilityQueue.poll();
+        } else if (this.txnHeapSize > 0) {
+            msg = this.heapPoll().msg;
+        } else {
+            msg = this.otherQueue.poll();
+        }
+        if (msg != null) this.count.decrementAndGet();
+        return (msg);
+    }
+
+    @Override
+    public InternalMessage poll() {
+        this.consumerLock.lock();
+        try {
+            return (this.pollImpl());
+        } finally {
+            this.consumerLock.unlock();
+        }
+    }
+
+    @Override
+    public InternalMessage peek() {
+        this.consumerLock.lock();
+        try {
+            return (this.peekImpl());
+        } finally {
+            this.consumerLock.unlock();
+        }
+    }
+
+    /**
+     * Wait until a message is available or the timeout expires.
+     * We only hold the consumerLock while we check for messages and never
+     * while we are parked, so other threads can still peek at the queue.
+     */
+    @Override
+    public InternalMessage poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        final long deadline = System.nanoTime() + nanos;
+        while (true) {
+            InternalMessage msg = this.poll();
+            if (msg != null) return (msg);
+
+            nanos = deadline - System.nanoTime();
+            if (nanos <= 0) return (null);
+
+            // A producer may still be linking in its message
+            this.waiter = Thread.currentThread();
+            if (this.count.get() > 0) {
+                this.waiter = null;
+                Thread.yield();
+                continue;
             }
-            else if (isTxn0) {
-                return (-1); 
-            } else if (isTxn1) {
-                return (1);
+            LockSupport.parkNanos(this, nanos);
+            this.waiter = null;
+            if (Thread.interrupted()) throw new InterruptedException();
+        } // WHILE
+    }
+
+    @Override
+    public InternalMessage take() throws InterruptedException {
+        InternalMessage msg = null;
+        while ((msg = this.poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS)) == null) {
+            // Keep waiting
+        } // WHILE
+        return (msg);
+    }
+
+    @Override
+    public int drainTo(Collection<? super InternalMessage> c) {
+        return (this.drainTo(c, Integer.MAX_VALUE));
+    }
+
+    @Override
+    public int drainTo(Collection<? super InternalMessage> c, int maxElements) {
+        assert(c != this);
+        int ctr = 0;
+        this.consumerLock.lock();
+        try {
+            InternalMessage msg = null;
+            while (ctr < maxElements && (msg = this.pollImpl()) != null) {
+                c.add(msg);
+                ctr++;
+            } // WHILE
+        } finally {
+            this.consumerLock.unlock();
+        }
+        return (ctr);
+    }
+
+    /**
+     * Remove the given message from this queue. This has to search through
+     * all of the queued messages, so it should not be used on the fast path.
+     */
+    @Override
+    public boolean remove(Object o) {
+        if (o == null) return (false);
+        boolean removed = false;
+        this.consumerLock.lock();
+        try {
+            this.transfer();
+            if (this.utilityQueue.remove(o) || this.otherQueue.remove(o)) {
+                removed = true;
+            } else {
+                for (int i = 0; i < this.txnHeapSize; i++) {
+                    if (o.equals(this.txnHeap[i].msg)) {
+                        this.heapRemove(i);
+                        removed = true;
+                        break;
+                    }
+                } // FOR
             }
+            if (removed) this.count.decrementAndGet();
+        } finally {
+            this.consumerLock.unlock();
+        }
+        return (removed);
+    }
+
+    @Override
+    public int size() {
+        return (this.count.get());
+    }
 
-            // Last Resort: Just use hashCode
-            return msg0.hashCode() - msg1.hashCode();
+    /**
+     * Returns a snapshot of the messages in this queue, in the
+     * order that they would be released. The iterator does not support remove().
+     */
+    @Override
+    public Iterator<InternalMessage> iterator() {
+        List<InternalMessage> msgs = new ArrayList<InternalMessage>();
+        this.consumerLock.lock();
+        try {
+            this.transfer();
+            msgs.addAll(this.utilityQueue);
+            Node nodes[] = Arrays.copyOf(this.txnHeap, this.txnHeapSize);
+            Arrays.sort(nodes, NODE_COMPARATOR);
+            for (Node node : nodes) {
+                msgs.add(node.msg);
+            } // FOR
+            msgs.addAll(this.otherQueue);
+        } finally {
+            this.consumerLock.unlock();
         }
-    };
+        return (Collections.unmodifiableList(msgs).iterator());
+    }
+
+    // ----------------------------------------------------------------------------
+    // TXN HEAP
+    // ----------------------------------------------------------------------------
+
+    private void heapAdd(Node node) {
+        if (this.txnHeapSize == this.txnHeap.length) {
+            this.txnHeap = Arrays.copyOf(this.txnHeap, this.txnHeap.length * 2);
+        }
+        // Sift up
+        int idx = this.txnHeapSize++;
+        while (idx > 0) {
+            int parent = (idx - 1) >>> 1;
+            Node p = this.txnHeap[parent];
+            if (NODE_COMPARATOR.compare(node, p) >= 0) break;
+            this.txnHeap[idx] = p;
+            idx = parent;
+        } // WHILE
+        this.txnHeap[idx] = node;
+    }
 
+    /**
+     * Remove the node at the given position in the heap and then
+     * re-add all of the nodes that came after it.
+     */
+    private void heapRemove(int idx) {
+        Node rest[] = Arrays.copyOfRange(this.txnHeap, idx + 1, this.txnHeapSize);
+        Arrays.fill(this.txnHeap, idx, this.txnHeapSize, null);
+        this.txnHeapSize = idx;
+        for (Node node : rest) {
+            this.heapAdd(node);
+        } // FOR
+    }
 
+    private Node heapPoll() {
+        Node result = this.txnHeap[0];
+        int size = --this.txnHeapSize;
+        Node last = this.txnHeap[size];
+        this.txnHeap[size] = null;
+        if (size > 0) {
+            // Sift down
+            int idx = 0;
+            int half = size >>> 1;
+            while (idx < half) {
+                int child = (idx << 1) + 1;
+                int right = child + 1;
+                if (right < size && NODE_COMPARATOR.compare(this.txnHeap[right], this.txnHeap[child]) < 0) {
+                    child = right;
+                }
+                if (NODE_COMPARATOR.compare(last, this.txnHeap[child]) <= 0) break;
+                this.txnHeap[idx] = this.txnHeap[child];
+                idx = child;
+            } // WHILE
+            this.txnHeap[idx] = last;
+        }
+        return (result);
+    }
 }
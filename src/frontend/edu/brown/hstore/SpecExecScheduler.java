@@ -6,15 +6,19 @@ import java.util.Random;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
+import org.voltdb.catalog.ConflictSet;
+import org.voltdb.catalog.Procedure;
 import org.voltdb.types.SpecExecSchedulerPolicyType;
 import org.voltdb.types.SpeculationType;
 
 import edu.brown.hstore.conf.HStoreConf;
 import edu.brown.hstore.estimators.EstimatorState;
 import edu.brown.hstore.internal.InternalMessage;
+import edu.brown.hstore.specexec.SpecExecCandidateIndex;
 import edu.brown.hstore.specexec.checkers.AbstractConflictChecker;
 import edu.brown.hstore.txns.AbstractTransaction;
 import edu.brown.hstore.txns.LocalTransaction;
+import edu.brown.hstore.txns.MapReduceTransaction;
 import edu.brown.interfaces.Configurable;
 import edu.brown.interfaces.DebugContext;
 import edu.brown.logging.LoggerUtil;
@@ -51,6 +55,12 @@ public class SpecExecScheduler implements Configurable {
     private int lastSize = 0;
     private boolean interrupted = false;
     private Class<? extends InternalMessage> latchMsg;
+    
+    /**
+     * If this is not null, then we will use it to find candidates instead of
+     * scanning through the queue. See ${site.specexec_scheduler_index}
+     */
+    private SpecExecCandidateIndex index;
 
     // ----------------------------------------------------------------------------
     // CONFIGURATION PARAMETERS
@@ -140,6 +150,8 @@ public class SpecExecScheduler implements Configurable {
         
         if (this.checker.isDisabled())
             this.setDisabled(true);
+        if (HStoreConf.singleton().site.specexec_scheduler_index)
+            this.enableCandidateIndex(true);
         
         if (debug.val)
             LOG.debug(String.format("Initialized %s for partition %d with %s",
@@ -201,6 +213,33 @@ public class SpecExecScheduler implements Configurable {
         this.lastIterator = null;
     }
     
+    /**
+     * Enable or disable the SpecExecCandidateIndex for this scheduler.
+     * The index is only enabled if our ConflictChecker is Procedure-based. 
+     * Returns true if the index is enabled.
+     * @param enable
+     * @return
+     */
+    protected boolean enableCandidateIndex(boolean enable) {
+        if (enable && this.checker.isProcedureBased() == false) {
+            LOG.warn(String.format("Unable to use %s at partition %d because %s is not Procedure-based",
+                     SpecExecCandidateIndex.class.getSimpleName(), this.partitionId,
+                     this.checker.getClass().getSimpleName()));
+            enable = false;
+        }
+        if (enable) {
+            if (this.index == null) {
+                this.index = new SpecExecCandidateIndex();
+                this.queue.setCandidateIndex(this.index);
+            }
+        } else if (this.index != null) {
+            this.queue.setCandidateIndex(null);
+            this.index = null;
+        }
+        this.lastIterator = null;
+        return (this.index != null);
+    }
+    
     public void setDisabled(boolean disabled) {
         this.disabled = disabled;
         if (debug.val && this.disabled == true)
@@ -320,6 +359,13 @@ public class SpecExecScheduler implements Configurable {
             }
         }
         
+        // If we have an index, then we only need to check the first txn of each Procedure
+        if (this.index != null) {
+            LocalTransaction next = this.searchIndex(dtxn, specType, profiler);
+            if (profiler != null) profiler.total_time.stop();
+            return (next);
+        }
+        
         // Now peek in the queue looking for single-partition txns that do not
         // conflict with the current dtxn
         LocalTransaction next = null;
@@ -464,11 +510,9 @@ public class SpecExecScheduler implements Configurable {
                 this.profilerExecuteCounter.put(specType.ordinal());
                 profiler.success++;
             }
-            if (this.policyType == SpecExecSchedulerPolicyType.FIRST) {
-                this.lastIterator.remove();
-            } else {
-                this.queue.remove(next);
-            }
+            // The queue's iterator is a snapshot that does not support remove(),
+            // so we always have to go back to the queue itself
+            this.queue.remove(next);
             if (debug.val)
                 LOG.debug(dtxn + " - Found next non-conflicting speculative txn " + next);
         }
@@ -493,6 +537,208 @@ public class SpecExecScheduler implements Configurable {
         return (next);
     }
     
+    /**
+     * Returns the next distributed txn in the queue that can start executing at this
+     * partition while the given dtxn is still running. This does not remove the txn
+     * from the queue. The candidate can only start if all of the following are true:
+     * <ol>
+     *  <li>The current dtxn's Procedure is read-only, so it never needs to roll back
+     *      anything at this partition.</li>
+     *  <li>The candidate is the next txn in the queue and its base partition is not
+     *      this partition.</li>
+     *  <li>The two Procedures do not have any conflicts in the catalog.</li>
+     * </ol>
+     * @param dtxn The current distributed txn at this partition.
+     * @return
+     */
+    public AbstractTransaction nextDistributed(AbstractTransaction dtxn) {
+        if (this.disabled || dtxn == null) return (null);
+        // We can't use peek() here because it will not return anything until
+        // the queue has been unblocked, which only happens when somebody polls it
+        AbstractTransaction next = this.queue.peekNext();
+        if (next == null || this.canStartDistributed(dtxn, next) == false) {
+            return (null);
+        }
+        if (debug.val)
+            LOG.debug(String.format("%s - Found next non-conflicting distributed txn %s at partition %d",
+                      dtxn, next, this.partitionId));
+        return (next);
+    }
+    
+    /**
+     * Returns true if the given distributed txn is allowed to start executing at
+     * this partition while the current dtxn is still running.
+     * See nextDistributed() for the rules.
+     * @param dtxn The current distributed txn at this partition.
+     * @param next
+     * @return
+     */
+    protected boolean canStartDistributed(AbstractTransaction dtxn, AbstractTransaction next) {
+        Procedure dtxnProc = dtxn.getProcedure();
+        if (dtxn.isSysProc() || dtxnProc.getReadonly() == false) {
+            return (false);
+        }
+        if (next.isPredictSinglePartition() ||
+            next.isSysProc() ||
+            next.isAborted() ||
+            next.getBasePartition() == this.partitionId ||
+            next instanceof MapReduceTransaction) {
+            return (false);
+        }
+        Procedure nextProc = next.getProcedure();
+        if (hasConflicts(dtxnProc, nextProc) || hasConflicts(nextProc, dtxnProc)) {
+            if (debug.val)
+                LOG.debug(String.format("%s - Unable to start %s at partition %d because of conflicts",
+                          dtxn, next, this.partitionId));
+            return (false);
+        }
+        return (true);
+    }
+    
+    private static boolean hasConflicts(Procedure proc0, Procedure proc1) {
+        ConflictSet cs = proc0.getConflicts().get(proc1.getName());
+        return (cs != null && (cs.getReadwriteconflicts().isEmpty() == false ||
+                               cs.getWritewriteconflicts().isEmpty() == false));
+    }
+    
+    /**
+     * Find the next non-conflicting txn using our SpecExecCandidateIndex.
+     * Since the ConflictChecker is Procedure-based, we only need to check
+     * for conflicts once per Procedure. Every txn in a bucket that does not conflict
+     * is a match, so then we pick a txn from the matching buckets based on our policy.
+     * @param dtxn
+     * @param specType
+     * @param profiler
+     * @return
+     */
+    private LocalTransaction searchIndex(AbstractTransaction dtxn, SpeculationType specType, SpecExecProfiler profiler) {
+        LocalTransaction next = null;
+        int bucket_ctr = 0;
+        int examined_ctr = 0;
+        int matched_ctr = 0;
+        boolean was_interrupted = false;
+        long bestTime = (this.policyType == SpecExecSchedulerPolicyType.LONGEST ? Long.MIN_VALUE : Long.MAX_VALUE);
+        
+        if (profiler != null) profiler.queue_size.put(this.queue.size());
+        if (trace.val) LOG.trace(StringUtil.header("BEGIN INDEX CHECK :: " + dtxn));
+        for (SpecExecCandidateIndex.Bucket bucket : this.index.getBuckets()) {
+            if (this.interrupted && was_interrupted == false) {
+                if (debug.val)
+                    LOG.warn(String.format("Search interrupted after %d examinations [%s]",
+                             bucket_ctr, this.latchMsg.getSimpleName()));
+                if (profiler != null) profiler.interrupts++;
+                was_interrupted = true;
+                if (this.ignore_interrupts == false) break;
+            }
+            
+            LocalTransaction head = bucket.first();
+            if (head == null) continue;
+            bucket_ctr++;
+            
+            if (profiler != null) profiler.compute_time.start();
+            try {
+                switch (specType) {
+                    // See the comments in next()
+                    case IDLE:
+                    case SP2_REMOTE_BEFORE:
+                    case SP3_LOCAL:
+                    case SP3_REMOTE: {
+                        break;
+                    }
+                    case SP1_LOCAL:
+                    case SP2_REMOTE_AFTER: {
+                        if (this.checker.hasConflictBefore(dtxn, head, this.partitionId)) {
+                            if (debug.val)
+                                LOG.debug(String.format("Skipping %s because it conflicts with current transaction",
+                                          bucket.getProcedure().getName()));
+                            continue;
+                        }
+                        break;
+                    }
+                    // BUSTED!
+                    default:
+                        String msg = String.format("Unexpected %s.%s", specType.getClass().getSimpleName(), specType);
+                        throw new RuntimeException(msg);
+                } // SWITCH
+            } finally {
+                if (profiler != null) profiler.compute_time.stop();
+            }
+            
+            // Scheduling Policy: FIRST MATCH
+            if (this.policyType == SpecExecSchedulerPolicyType.FIRST) {
+                for (LocalTransaction localTxn : bucket.getTransactions()) {
+                    if (localTxn.isMarkedControlCodeExecuted()) continue;
+                    matched_ctr++;
+                    if (next == null || localTxn.compareTo(next) < 0) next = localTxn;
+                    break;
+                } // FOR
+            }
+            // Scheduling Policy: LAST MATCH
+            else if (this.policyType == SpecExecSchedulerPolicyType.LAST) {
+                for (LocalTransaction localTxn : bucket.getTransactionsDescending()) {
+                    if (localTxn.isMarkedControlCodeExecuted()) continue;
+                    matched_ctr++;
+                    if (next == null || localTxn.compareTo(next) > 0) next = localTxn;
+                    break;
+                } // FOR
+            }
+            // Scheduling Policy: SHORTEST/LONGEST TIME
+            else {
+                for (LocalTransaction localTxn : bucket.getTransactions()) {
+                    if (examined_ctr == this.windowSize) break;
+                    if (localTxn.isMarkedControlCodeExecuted()) continue;
+                    examined_ctr++;
+                    matched_ctr++;
+                    EstimatorState es = localTxn.getEstimatorState();
+                    if (es != null) {
+                        long remainingTime = es.getLastEstimate().getRemainingExecutionTime();
+                        if ((this.policyType == SpecExecSchedulerPolicyType.SHORTEST && remainingTime < bestTime) ||
+                            (this.policyType == SpecExecSchedulerPolicyType.LONGEST && remainingTime > bestTime)) {
+                            bestTime = remainingTime;
+                            next = localTxn;
+                        }
+                    }
+                } // FOR
+                // Stop if we've reached our window size
+                if (examined_ctr == this.windowSize) break;
+            }
+        } // FOR
+        if (trace.val) LOG.trace(StringUtil.header("END INDEX CHECK"));
+        if (profiler != null) {
+            profiler.num_comparisons.put(bucket_ctr);
+            profiler.num_matches.put(matched_ctr);
+        }
+        if (was_interrupted) next = null;
+        
+        // The index is updated separately from the queue, so it is possible that
+        // the txn that we picked was already removed by somebody else or that it
+        // has not made it into the queue yet. We leave the index alone in both cases,
+        // because the queue will remove the txn from the index when it leaves.
+        if (next != null && this.queue.remove(next) == false) {
+            if (debug.val)
+                LOG.debug(String.format("%s - Ignoring stale speculative candidate %s", dtxn, next));
+            next = null;
+        }
+        if (next != null) {
+            next.markReleased(this.partitionId);
+            if (profiler != null) {
+                this.profilerExecuteCounter.put(specType.ordinal());
+                profiler.success++;
+            }
+            if (debug.val)
+                LOG.debug(dtxn + " - Found next non-conflicting speculative txn " + next);
+        }
+        else if (debug.val && this.queue.isEmpty() == false) {
+            LOG.debug(String.format("Failed to find non-conflicting speculative txn " +
+                      "[dtxn=%s, bucketCtr=%d, interrupted=%s]",
+                      dtxn, bucket_ctr, was_interrupted));
+        }
+        this.lastDtxn = dtxn;
+        this.lastSpecType = specType;
+        this.lastIterator = null;
+        return (next);
+    }
+    
     // ----------------------------------------------------------------------------
     // DEBUG METHODS
     // ----------------------------------------------------------------------------
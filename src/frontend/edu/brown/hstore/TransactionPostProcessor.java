@@ -1,21 +1,39 @@
 package edu.brown.hstore;
 
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 
 import org.apache.log4j.Logger;
 import org.voltdb.ClientResponseImpl;
+import org.voltdb.exceptions.ClientConnectionLostException;
+import org.voltdb.messaging.FastSerializer;
+import org.voltdb.network.Connection;
+import org.voltdb.utils.DBBPool.BBContainer;
 
 import com.google.protobuf.RpcCallback;
 
+import edu.brown.hstore.callbacks.ClientResponseCallback;
 import edu.brown.hstore.util.AbstractProcessingRunnable;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.profilers.HStoreSiteProfiler;
 
 /**
- * Special thread that will process ClientResponses and send them back to clients 
+ * Special thread that will process ClientResponses and send them back to clients.
+ * Each time the thread wakes up it will grab all of the queued ClientResponses
+ * (up to ${site.exec_postprocessing_batch_size}). The responses in that batch that
+ * are going to the same client connection are serialized into a single buffer
+ * that is written to the connection all at once.
+ * <B>Note:</B> All of the TransactionPostProcessors at a site pull from the same
+ * queue. The responses for a connection are written out in order within a batch,
+ * but if ${site.exec_postprocessing_threads_count} is greater than one, then two
+ * threads may write their batches for the same connection in the opposite order.
  * @author pavlo
  */
-public final class TransactionPostProcessor extends AbstractProcessingRunnable<Object[]> {
+public final class TransactionPostProcessor extends AbstractProcessingRunnable<TransactionPostProcessor.QueuedResponse> {
     private static final Logger LOG = Logger.getLogger(TransactionPostProcessor.class);
     private static final LoggerBoolean debug = new LoggerBoolean();
     static {
@@ -23,36 +41,153 @@ public final class TransactionPostProcessor extends AbstractProcessingRunnable<O
     }
 
     /**
-     * 
+     * A ClientResponse that is waiting to be sent back to the client
+     */
+    public static final class QueuedResponse {
+        private final ClientResponseImpl cresponse;
+        private final RpcCallback<ClientResponseImpl> clientCallback;
+        private final long initiateTime;
+        private final int restartCounter;
+
+        public QueuedResponse(ClientResponseImpl cresponse,
+                              RpcCallback<ClientResponseImpl> clientCallback,
+                              long initiateTime,
+                              int restartCounter) {
+            assert(cresponse != null);
+            assert(clientCallback != null);
+            this.cresponse = cresponse;
+            this.clientCallback = clientCallback;
+            this.initiateTime = initiateTime;
+            this.restartCounter = restartCounter;
+        }
+    }
+
+    /**
+     * The ClientResponses for a single Connection that are waiting to be written
+     */
+    private static final class PendingWrite {
+        private final FastSerializer fs;
+        private final List<ClientResponseCallback> callbacks = new ArrayList<ClientResponseCallback>();
+
+        private PendingWrite(FastSerializer fs) {
+            this.fs = fs;
+        }
+    }
+
+    private final int batchSize;
+    private final List<QueuedResponse> batch = new ArrayList<QueuedResponse>();
+
+    /**
+     * Connection -> Serialized ClientResponses
+     */
+    private final Map<Connection, PendingWrite> buffers = new IdentityHashMap<Connection, PendingWrite>();
+
+    /**
+     *
      * @param hstore_site
      */
     public TransactionPostProcessor(HStoreSite hstore_site,
-                                    BlockingQueue<Object[]> queue) {
+                                    BlockingQueue<QueuedResponse> queue) {
         super(hstore_site,
               HStoreConstants.THREAD_NAME_POSTPROCESSOR,
               queue,
               hstore_site.getHStoreConf().site.status_exec_info);
+        this.batchSize = Math.max(1, hstore_site.getHStoreConf().site.exec_postprocessing_batch_size);
     }
-    
+
     @Override
-    protected void processingCallback(Object data[]) {
-        ClientResponseImpl cresponse = (ClientResponseImpl)data[0];
-        @SuppressWarnings("unchecked")
-        RpcCallback<ClientResponseImpl> clientCallback = (RpcCallback<ClientResponseImpl>)data[1];
-        long initiateTime = (Long)data[2];
-        int restartCounter = (Integer)data[3];
-        
-        assert(cresponse != null);
-        assert(clientCallback != null);
-        
+    protected void processingCallback(QueuedResponse next) {
+        this.batch.add(next);
+        if (this.batchSize > 1) {
+            this.queue.drainTo(this.batch, this.batchSize - 1);
+        }
+        HStoreSiteProfiler profiler = (hstore_conf.site.profiling ? this.hstore_site.getProfiler() : null);
+        if (profiler != null) profiler.network_response_dispatch.start();
+
         if (debug.val)
-            LOG.debug(String.format("Processing ClientResponse for txn #%d at partition %d [status=%s]",
-                      cresponse.getTransactionId(), cresponse.getBasePartition(), cresponse.getStatus()));
+            LOG.debug(String.format("Processing batch of %d ClientResponses", this.batch.size()));
         try {
-            this.hstore_site.responseSend(cresponse, clientCallback, initiateTime, restartCounter);
+            this.sendBatch();
         } catch (Throwable ex) {
             if (this.isShuttingDown() == false) throw new RuntimeException(ex);
             this.shutdown();
+        } finally {
+            if (profiler != null) {
+                profiler.network_response_dispatch.stop();
+                synchronized (profiler.response_batch_sizes) {
+                    profiler.response_batch_sizes.put(this.batch.size());
+                } // SYNCH
+            }
+            this.batch.clear();
+            // Anything left here was never written out, so give the buffers back
+            for (PendingWrite pending : this.buffers.values()) {
+                pending.fs.getBBContainer().discard();
+            } // FOR
+            this.buffers.clear();
+        }
+    }
+
+    private void sendBatch() {
+        for (QueuedResponse r : this.batch) {
+            this.hstore_site.responsePrepare(r.cresponse, r.initiateTime, r.restartCounter);
+
+            // If this response is going directly back to a client connection, then
+            // we'll serialize it with the other responses for that connection
+            if (r.clientCallback instanceof ClientResponseCallback) {
+                ClientResponseCallback callback = (ClientResponseCallback)r.clientCallback;
+                PendingWrite pending = this.buffers.get(callback.getConnection());
+                if (pending == null) {
+                    pending = new PendingWrite(new FastSerializer(this.hstore_site.getBufferPool()));
+                    this.buffers.put(callback.getConnection(), pending);
+                }
+                if (callback.appendTo(pending.fs, r.cresponse)) {
+                    pending.callbacks.add(callback);
+                    continue;
+                }
+                // The responses that we already have for this connection
+                // have to go out before this one
+                this.write(callback.getConnection(), this.buffers.remove(callback.getConnection()));
+            } else {
+                // We don't know where this callback will send its response,
+                // so everything that we have buffered has to go out first
+                this.writeAll();
+            }
+            try {
+                r.clientCallback.run(r.cresponse);
+            } catch (ClientConnectionLostException ex) {
+                if (debug.val)
+                    LOG.warn("Failed to send back ClientResponse for txn #" + r.cresponse.getTransactionId(), ex);
+            }
+        } // FOR
+        this.writeAll();
+    }
+
+    /**
+     * Write out all of the buffered ClientResponses
+     */
+    private void writeAll() {
+        for (Map.Entry<Connection, PendingWrite> e : this.buffers.entrySet()) {
+            this.write(e.getKey(), e.getValue());
+        } // FOR
+        this.buffers.clear();
+    }
+
+    /**
+     * Hand the buffered ClientResponses for the given Connection off to its write stream.
+     * We release the backpressure for their requests once that is done.
+     * @param conn
+     * @param pending
+     */
+    private void write(Connection conn, PendingWrite pending) {
+        BBContainer c = pending.fs.getBBContainer();
+        if (c.b.remaining() == 0) {
+            c.discard();
+        } else if (conn.writeStream().enqueue(c) == false) {
+            LOG.warn(String.format("Failed to send back %d ClientResponses to %s",
+                     pending.callbacks.size(), conn));
         }
+        for (ClientResponseCallback callback : pending.callbacks) {
+            callback.reduceBackpressure();
+        } // FOR
     }
 }
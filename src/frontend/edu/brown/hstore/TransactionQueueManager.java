@@ -416,19 +416,19 @@ public class TransactionQueueManager extends ExceptionHandlingRunnable implement
         // might be null. A better way to do this is to only have each PartitionExecutor
         // insert the new transaction into its queue. 
         Long txn_id = ts.getTransactionId();
-        Long next_safe_id = null;
+        long next_safe_id;
         Status status = Status.OK;
         
         this.lockQueueBarriers[partition].lock();
         try {
-            next_safe_id = this.lockQueues[partition].noteTransactionRecievedAndReturnLastSafeTxnId(txn_id);
+            next_safe_id = this.lockQueues[partition].noteTransactionRecievedAndReturnLastSafeTxnId(txn_id.longValue());
         } finally {
             this.lockQueueBarriers[partition].unlock();
         } // SYNCH
         
         // The next txnId that we're going to try to execute is already greater
         // than this new txnId that we were given! Rejection!
-        if (next_safe_id != null && next_safe_id.compareTo(txn_id) > 0) {
+        if (next_safe_id > txn_id.longValue()) {
              if (debug.val)
                 LOG.warn(String.format("The next safe lockQueue txn for partition #%d is %s but this " +
                          "is greater than our new txn %s. Rejecting...",
@@ -477,6 +477,17 @@ public class TransactionQueueManager extends ExceptionHandlingRunnable implement
      * Returns true if we released a transaction at at least one partition
      */
     protected AbstractTransaction checkLockQueue(int partition) throws InterruptedException {
+        return (this.checkLockQueue(partition, null));
+    }
+    
+    /**
+     * Release the given txn at the partition if it is the next txn in the lock queue.
+     * If the expected txn is null, then this will release whatever txn is next.
+     * Returns the txn that was released, otherwise null.
+     * @param partition
+     * @param expected
+     */
+    protected AbstractTransaction checkLockQueue(int partition, AbstractTransaction expected) throws InterruptedException {
         if (hstore_conf.site.queue_profiling) profilers[partition].lock_time.start();
         if (trace.val)
             LOG.trace(String.format("Checking lock queue for partition %d [queueSize=%d]",
@@ -486,7 +497,11 @@ public class TransactionQueueManager extends ExceptionHandlingRunnable implement
         AbstractTransaction nextTxn = null;
         this.lockQueueBarriers[partition].lockInterruptibly();
         try {
-            nextTxn = this.lockQueues[partition].poll();
+            if (expected == null) {
+                nextTxn = this.lockQueues[partition].poll();
+            } else {
+                nextTxn = this.lockQueues[partition].pollIfNext(expected);
+            }
         } finally {
             this.lockQueueBarriers[partition].unlock();
         } // SYNCH
@@ -0,0 +1,179 @@
+package edu.brown.hstore.callbacks;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.voltdb.ClientResponseImpl;
+import org.voltdb.exceptions.ClientConnectionLostException;
+import org.voltdb.exceptions.ServerFaultException;
+import org.voltdb.messaging.FastSerializer;
+import org.voltdb.network.Connection;
+import org.voltdb.utils.DBBPool.BBContainer;
+
+import com.google.protobuf.RpcCallback;
+
+import edu.brown.hstore.ClientInterface;
+import edu.brown.hstore.HStoreSite;
+import edu.brown.hstore.HStoreThreadManager;
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+
+/**
+ * Collects the ClientResponses for a batch of invocations that arrived in a
+ * single network message and sends them back to the client in a single message.
+ * Each response is serialized into the outgoing batch as soon as it arrives.
+ * The batch is written to the Connection once we have all of the responses.
+ * If the batch is still missing responses after the timeout, then the responses
+ * that we already have are sent out in their own (smaller) batch message so that
+ * they are not held up by the slowest txn.
+ * @see ClientResponseImpl#BATCH_MARKER
+ */
+public class ClientResponseBatchCallback implements RpcCallback<ClientResponseImpl> {
+    private static final Logger LOG = Logger.getLogger(ClientResponseBatchCallback.class);
+    private static final LoggerBoolean debug = new LoggerBoolean();
+    private static final LoggerBoolean trace = new LoggerBoolean();
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    /**
+     * Where the number of responses is stored in an outgoing message.
+     * This comes after the message length and the batch marker.
+     */
+    private static final int COUNT_OFFSET = 4 + 1;
+
+    private final ClientInterface clientInterface;
+    private final Connection conn;
+    private final int messageSizes[];
+    private final HStoreSite hstore_site;
+    private final HStoreThreadManager threadManager;
+    private final long timeout;
+    private int received = 0;
+
+    /**
+     * The message that we are currently adding responses to.
+     * This is null if there are no responses waiting to be sent.
+     */
+    private FastSerializer fs;
+    private int fsCount = 0;
+    private ScheduledFuture<?> fsTimeout;
+
+    private final Runnable timeoutFlusher = new Runnable() {
+        @Override
+        public void run() {
+            BBContainer c = null;
+            synchronized (ClientResponseBatchCallback.this) {
+                fsTimeout = null;
+                c = closeMessage();
+            } // SYNCH
+            if (c != null) {
+                if (debug.val)
+                    LOG.debug(String.format("Sending partial batch of ClientResponses after %dms [received=%d/%d]",
+                              timeout, received, messageSizes.length));
+                if (conn.writeStream().enqueue(c) == false) {
+                    LOG.warn("Failed to send partial batch of ClientResponses to " + conn);
+                }
+            }
+        }
+    };
+
+    /**
+     * Constructor
+     * @param clientInterface
+     * @param conn
+     * @param messageSizes The size of each invocation in the batch
+     * @param hstore_site If not null, then each outgoing message is allocated from the
+     *                    response pool of the thread that starts it
+     * @param threadManager Used to schedule sending partial batches (may be null)
+     * @param timeout How long to wait in milliseconds before sending a partial batch (zero disables)
+     */
+    public ClientResponseBatchCallback(ClientInterface clientInterface, Connection conn, int messageSizes[],
+                                       HStoreSite hstore_site, HStoreThreadManager threadManager, long timeout) {
+        this.clientInterface = clientInterface;
+        this.conn = conn;
+        this.messageSizes = messageSizes;
+        this.hstore_site = hstore_site;
+        this.threadManager = threadManager;
+        this.timeout = (threadManager != null ? timeout : 0);
+    }
+
+    @Override
+    public void run(ClientResponseImpl parameter) {
+        BBContainer c = null;
+        int messageSize;
+        synchronized (this) {
+            if (this.fs == null) this.openMessage();
+            try {
+                ClientResponseImpl.writeBatchEntry(this.fs, parameter);
+            } catch (IOException ex) {
+                // Give the message back to the pool. Nothing in it can be sent.
+                this.fs.getBBContainer().discard();
+                this.fs = null;
+                this.fsCount = 0;
+                if (this.fsTimeout != null) this.fsTimeout.cancel(false);
+                this.fsTimeout = null;
+                String msg = "Failed to serialize ClientResponse for batch";
+                throw new ServerFaultException(msg, ex, parameter.getTransactionId());
+            }
+            this.fsCount++;
+            messageSize = this.messageSizes[this.received++];
+            if (this.received == this.messageSizes.length) {
+                c = this.closeMessage();
+            } else if (this.fsCount == 1 && this.timeout > 0) {
+                this.fsTimeout = this.threadManager.scheduleWork(this.timeoutFlusher, this.timeout, TimeUnit.MILLISECONDS);
+            }
+        } // SYNCH
+        this.clientInterface.reduceBackpressure(messageSize);
+        if (trace.val)
+            LOG.trace(String.format("Added ClientResponse for txn #%d to batch [%d/%d]",
+                      parameter.getTransactionId(), this.received, this.messageSizes.length));
+        if (c == null) return;
+
+        if (debug.val)
+            LOG.debug(String.format("Sending batch of ClientResponses [bytes=%d]", c.b.remaining()));
+        if (this.conn.writeStream().enqueue(c) == false) {
+            throw new ClientConnectionLostException(parameter.getTransactionId());
+        }
+    }
+
+    /**
+     * Start a new outgoing message. Must be holding the lock.
+     */
+    private void openMessage() {
+        this.fs = (this.hstore_site != null ? new FastSerializer(this.hstore_site.getBufferPool()) : new FastSerializer());
+        this.fsCount = 0;
+        try {
+            // Leave room for the message length. We fill in the
+            // number of responses when we send the message.
+            this.fs.writeInt(0);
+            ClientResponseImpl.writeBatchHeader(this.fs, 0);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Finish the current outgoing message and return its buffer.
+     * Returns null if there is nothing to send. Must be holding the lock.
+     */
+    private BBContainer closeMessage() {
+        if (this.fs == null || this.fsCount == 0) return (null);
+        if (this.fsTimeout != null) {
+            this.fsTimeout.cancel(false);
+            this.fsTimeout = null;
+        }
+        this.fs.writeIntAt(COUNT_OFFSET, this.fsCount);
+        this.fs.writeIntAt(0, this.fs.getPosition() - 4);
+        BBContainer c = this.fs.getBBContainer();
+        this.fs = null;
+        this.fsCount = 0;
+        return (c);
+    }
+
+    public String toString() {
+        return (this.conn.toString());
+    }
+
+}
@@ -3,41 +3,141 @@
  */
 package edu.brown.hstore.callbacks;
 
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
 import org.voltdb.ClientResponseImpl;
 import org.voltdb.exceptions.ClientConnectionLostException;
+import org.voltdb.messaging.FastSerializer;
 import org.voltdb.network.Connection;
+import org.voltdb.utils.DBBPool.BBContainer;
 
 import com.google.protobuf.RpcCallback;
 
 import edu.brown.hstore.ClientInterface;
+import edu.brown.hstore.HStoreSite;
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
 
 /**
  * Thin wrapper to sent a ClientResponse back to the client over a Connection handle
+ * <P>
+ * If we are given a DBBPool, then the ClientResponses for single-partition txns
+ * will be serialized and framed directly into a pooled buffer by the calling thread.
+ * That buffer is handed off to the Connection's write stream as-is, so the network
+ * thread does not need to serialize the result tables again.
  * @author pavlo
  */
 public class ClientResponseCallback implements RpcCallback<ClientResponseImpl> {
+    private static final Logger LOG = Logger.getLogger(ClientResponseCallback.class);
+    private static final LoggerBoolean debug = new LoggerBoolean();
+    private static final LoggerBoolean trace = new LoggerBoolean();
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
 
     private final ClientInterface clientInterface;
     private final Connection conn;
     private final int messageSize;
+    private final HStoreSite hstore_site;
     
     public ClientResponseCallback(ClientInterface clientInterface, Connection conn, int messageSize) {
+        this(clientInterface, conn, messageSize, null);
+    }
+    
+    /**
+     * Constructor
+     * @param clientInterface
+     * @param conn
+     * @param messageSize
+     * @param hstore_site If not null, then single-partition responses are serialized into 
+     *                    a buffer from the response pool of whatever thread sends them
+     */
+    public ClientResponseCallback(ClientInterface clientInterface, Connection conn, int messageSize, HStoreSite hstore_site) {
         this.clientInterface = clientInterface;
         this.conn = conn;
         this.messageSize = messageSize;
+        this.hstore_site = hstore_site;
     }
     
-    
     @Override
     public void run(ClientResponseImpl parameter) {
         // Always reduce backpressure before we throw the exception
-        boolean ret = this.conn.writeStream().enqueue(parameter);
+        boolean ret;
+        BBContainer c = null;
+        if (this.hstore_site != null && parameter.isSinglePartition()) {
+            c = this.serialize(parameter);
+        }
+        if (c != null) {
+            ret = this.conn.writeStream().enqueue(c);
+        } else {
+            ret = this.conn.writeStream().enqueue(parameter);
+        }
         this.clientInterface.reduceBackpressure(this.messageSize);
         if (ret == false) {
             throw new ClientConnectionLostException(parameter.getTransactionId());
         }
     }
     
+    /**
+     * Serialize the ClientResponse into a framed buffer from the current thread's pool.
+     * Returns null if the serialization failed, in which case the caller
+     * should let the network thread serialize it instead.
+     * @param cresponse
+     * @return
+     */
+    private BBContainer serialize(ClientResponseImpl cresponse) {
+        // Include the length prefix for the message
+        int size = 4 + cresponse.getEstimatedSerializedSize();
+        FastSerializer fs = new FastSerializer(this.hstore_site.getBufferPool(), size);
+        try {
+            return (fs.writeObjectForMessaging(cresponse));
+        } catch (IOException ex) {
+            fs.getBBContainer().discard();
+            if (debug.val)
+                LOG.warn("Failed to serialize ClientResponse for txn #" + cresponse.getTransactionId(), ex);
+        }
+        return (null);
+    }
+    
+    /**
+     * Serialize the ClientResponse with its length prefix at the end of the given
+     * FastSerializer so that it can be written to our Connection together with
+     * other ClientResponses. Returns false if the serialization failed, in which case
+     * the FastSerializer is unchanged and the caller should use run() instead.
+     * The caller must invoke reduceBackpressure() once it has handed the buffer
+     * off to the Connection.
+     * @param fs
+     * @param cresponse
+     * @return
+     */
+    public boolean appendTo(FastSerializer fs, ClientResponseImpl cresponse) {
+        int start = fs.getPosition();
+        try {
+            fs.writeInt(0);
+            cresponse.writeExternal(fs);
+        } catch (IOException ex) {
+            fs.setPosition(start);
+            if (debug.val)
+                LOG.warn("Failed to serialize ClientResponse for txn #" + cresponse.getTransactionId(), ex);
+            return (false);
+        }
+        fs.writeIntAt(start, fs.getPosition() - start - 4);
+        return (true);
+    }
+    
+    /**
+     * Release the backpressure for the request that this callback is for.
+     * This is only needed for ClientResponses that were added with appendTo().
+     */
+    public void reduceBackpressure() {
+        this.clientInterface.reduceBackpressure(this.messageSize);
+    }
+    
+    public Connection getConnection() {
+        return (this.conn);
+    }
+    
     public String toString() {
         return (this.conn.toString());
     }
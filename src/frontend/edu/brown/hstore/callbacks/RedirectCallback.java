@@ -78,6 +78,11 @@ public class RedirectCallback implements RpcCallback<TransactionRedirectResponse
             }
             
             assert(cresponse != null);
+            
+            // Let the client know that it sent this request to the wrong
+            // site and which site actually executed it so that it can 
+            // update its routing information
+            cresponse.setRedirectSite(parameter.getSenderSite());
             if (debug.val) 
                 LOG.debug("Returning redirected ClientResponse to client:\n" + cresponse);
             try {
@@ -32,8 +32,10 @@ import java.io.RandomAccessFile;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
@@ -69,6 +71,7 @@ public class CommandLogReader implements Iterable<LogEntry> {
     final FastDeserializer fd;
     final Map<Integer, String> procedures;
     boolean groupCommit;
+    boolean mapped;
     
     public CommandLogReader(String path) {
         FileChannel roChannel = null;
@@ -96,71 +99,143 @@ public class CommandLogReader implements Iterable<LogEntry> {
     
     @Override
     public Iterator<LogEntry> iterator() {
+        final Iterator<List<LogEntry>> batches = this.batchIterator();
         Iterator<LogEntry> it = new Iterator<LogEntry>() {
-            FastDeserializer decompressedFd;
-            private LogEntry _next;
-            {
-                decompressedFd = new FastDeserializer(ByteBuffer.allocate(0));
-                
-                this.next();
-            }
+            private Iterator<LogEntry> current = null;
+            
             @Override
             public boolean hasNext() {
-                return _next != null;
-                //return fd.buffer().hasRemaining();
+                while (this.current == null || this.current.hasNext() == false) {
+                    if (batches.hasNext() == false) return (false);
+                    this.current = batches.next().iterator();
+                } // WHILE
+                return (true);
             }
 
             @Override
             public LogEntry next() {
-                LogEntry ret = _next;
-                _next = null;
+                if (this.hasNext() == false) return (null);
+                return (this.current.next());
+            }
+
+            @Override
+            public void remove() {
+                throw new NotImplementedException("Can't call remove! You crazy!");
+            }
+        };
+        return (it);
+    }
+    
+    /**
+     * Returns an iterator over the group commit batches stored in the log file.
+     * Each batch contains the LogEntries that were written out to disk together
+     * in a single CommandLogWriter.groupCommit() invocation. If the log was
+     * written without group commit, then each batch contains a single entry.
+     * @return
+     */
+    public Iterator<List<LogEntry>> batchIterator() {
+        Iterator<List<LogEntry>> it = new Iterator<List<LogEntry>>() {
+            private final FastDeserializer decompressedFd = new FastDeserializer(ByteBuffer.allocate(0));
+            private List<LogEntry> _next = this.readBatch();
+            
+            @Override
+            public boolean hasNext() {
+                return (_next != null);
+            }
+
+            @Override
+            public List<LogEntry> next() {
+                List<LogEntry> ret = _next;
+                _next = this.readBatch();
+                return (ret);
+            }
+
+            @Override
+            public void remove() {
+                throw new NotImplementedException("Can't call remove! You crazy!");
+            }
+            
+            private List<LogEntry> readBatch() {
+                List<LogEntry> batch = new ArrayList<LogEntry>();
+                
+                // Without group commit, every entry is its own batch 
+                if (groupCommit == false) {
+                    try {
+                        if (fd.buffer().hasRemaining()) {
+                            batch.add(fd.readObject(LogEntry.class));
+                        }
+                    } catch (IOException ex) {
+                        throw new RuntimeException("Failed to deserialize LogEntry!", ex);
+                    } catch (BufferUnderflowException ex) {
+                        // Truncated entry at the end of the log
+                    }
+                    return (batch.isEmpty() ? null : batch);
+                }
                 
-                //Fill the decompressed buffer if it is empty
-                if (groupCommit && !decompressedFd.buffer().hasRemaining()) {                    
-                    int sizeCompressed = 0;
+                // Memory-mapped log files are not compressed, but they
+                // may have gaps in them that we need to skip
+                if (mapped) {
                     try {
-                        sizeCompressed = fd.readInt();
+                        while (true) {
+                            int length = fd.buffer().getInt();
+                            if (length == 0) return (null);
+                            int position = fd.buffer().position();
+                            if (length < 0) {
+                                // The skip length includes the four bytes of the marker
+                                fd.buffer().position(position - 4 - length);
+                                continue;
+                            }
+                            ByteBuffer b = fd.buffer().slice();
+                            b.limit(length);
+                            this.decompressedFd.setBuffer(b);
+                            fd.buffer().position(position + length);
+                            break;
+                        } // WHILE
+                    } catch (BufferUnderflowException ex) {
+                        return (null);
+                    } catch (IllegalArgumentException ex) {
+                        LOG.warn("Unexpected truncated group commit batch in memory-mapped log");
+                        return (null);
+                    }
+                }
+                // Decompress the next group commit batch
+                else {
+                    try {
+                        int sizeCompressed = fd.readInt();
                         byte[] b = new byte[sizeCompressed];
                         fd.readFully(b);
                         byte[] decompressed = CompressionService.decompressBytes(b);
                         this.decompressedFd.setBuffer(ByteBuffer.wrap(decompressed));
                     } catch (IOException ex) {
-                        //ex.printStackTrace();
                         throw new RuntimeException("Failed to decompress data from the WAL file!", ex);
                     } catch (BufferUnderflowException ex) {
-                        //ex.printStackTrace();
-                        this.decompressedFd.setBuffer(ByteBuffer.allocate(0));
+                        return (null);
                     }
                 }
-                
                 try {
-                    if (groupCommit)
-                        _next = decompressedFd.readObject(LogEntry.class);
-                    else
-                        _next = fd.readObject(LogEntry.class);
+                    while (this.decompressedFd.buffer().hasRemaining()) {
+                        batch.add(this.decompressedFd.readObject(LogEntry.class));
+                    } // WHILE
                 } catch (IOException ex) {
                     throw new RuntimeException("Failed to deserialize LogEntry!", ex);
-                } catch (BufferUnderflowException ex) {                    
-                    _next = null;
+                } catch (BufferUnderflowException ex) {
+                    LOG.warn("Unexpected truncated LogEntry in group commit batch");
                 }
-                
-                return (ret);
-            }
-
-            @Override
-            public void remove() {
-                throw new NotImplementedException("Can't call remove! You crazy!");
+                if (debug.val)
+                    LOG.debug(String.format("Read group commit batch with %d entries", batch.size()));
+                return (batch);
             }
         };
         return (it);
-        
-        // TODO: We need to figure out how we want to read these entries
-        // back in. I suppose we could just make a new LocalTransaction
-        // entry each time. What we really should do is recreate
-        // the StoredProcedureInvocation and then pass that into
-        // the HStoreSite so that we can replay the transaction
-        // 
-        // So maybe we want to make this a StoredProcedure Invocation iterator?
+    }
+    
+    /**
+     * Returns the mapping from ProcedureIds to Procedure names that was
+     * stored in the header of this log file
+     * @return
+     */
+    public Map<Integer, String> getProcedures() {
+        return (this.procedures);
     }
     
     /**
@@ -171,7 +246,9 @@ public class CommandLogReader implements Iterable<LogEntry> {
         Map<Integer, String> procedures = new HashMap<Integer, String>();
         
         try {
-            this.groupCommit = fd.readBoolean();
+            byte format = fd.readByte();
+            this.groupCommit = (format != CommandLogWriter.FORMAT_SINGLE);
+            this.mapped = (format == CommandLogWriter.FORMAT_MAPPED);
             int num_procs = fd.readInt();
             for (int i = 0; i < num_procs; i++){
                 Integer proc_id = fd.readInt();
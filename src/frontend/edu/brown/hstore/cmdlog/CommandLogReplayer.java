@@ -0,0 +1,526 @@
+/***************************************************************************
+ *   Copyright (C) 2012 by H-Store Project                                 *
+ *   Brown University                                                      *
+ *   Massachusetts Institute of Technology                                 *
+ *   Yale University                                                       *
+ *                                                                         *
+ *   Permission is hereby granted, free of charge, to any person obtaining *
+ *   a copy of this software and associated documentation files (the       *
+ *   "Software"), to deal in the Software without restriction, including   *
+ *   without limitation the rights to use, copy, modify, merge, publish,   *
+ *   distribute, sublicense, and/or sell copies of the Software, and to    *
+ *   permit persons to whom the Software is furnished to do so, subject to *
+ *   the following conditions:                                             *
+ *                                                                         *
+ *   The above copyright notice and this permission notice shall be        *
+ *   included in all copies or substantial portions of the Software.       *
+ *                                                                         *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,       *
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF    *
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.*
+ *   IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR     *
+ *   OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, *
+ *   ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR *
+ *   OTHER DEALINGS IN THE SOFTWARE.                                       *
+ ***************************************************************************/
+package edu.brown.hstore.cmdlog;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.voltdb.CatalogContext;
+import org.voltdb.ClientResponseImpl;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.exceptions.ServerFaultException;
+import org.voltdb.utils.EstTime;
+
+import com.google.protobuf.RpcCallback;
+
+import edu.brown.hstore.HStoreConstants;
+import edu.brown.hstore.HStoreSite;
+import edu.brown.hstore.HStoreThreadManager;
+import edu.brown.hstore.Hstoreservice.Status;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.hstore.txns.LocalTransaction;
+import edu.brown.interfaces.Shutdownable;
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.utils.ExceptionHandlingRunnable;
+
+/**
+ * Command Log Replayer
+ * Re-executes the transactions stored in one or more command log files
+ * at the HStoreSite. The log entries are replayed in txn id order. If the site
+ * wrote out multiple parallel log streams, then the entries from all of the streams
+ * are merged together by their txn ids so that the replay order is deterministic.
+ * Single-partition txns are dispatched to a separate replay thread for each local
+ * partition so that all of the partitions can replay in parallel. Distributed txns
+ * act as barriers: we wait until all of the partitions have finished replaying
+ * their earlier txns before we execute them.
+ * <B>NOTE:</B> Each HStoreSite replays its own command log files independently.
+ * The barrier for a distributed txn only covers the partitions at the local site,
+ * so if the cluster has more than one site then a distributed txn may execute at
+ * a remote partition before that site has replayed its own single-partition txns
+ * with smaller txn ids. Deterministic replay is only guaranteed for a single site.
+ */
+public class CommandLogReplayer implements Shutdownable {
+    private static final Logger LOG = Logger.getLogger(CommandLogReplayer.class);
+    private static final LoggerBoolean debug = new LoggerBoolean();
+    private static final LoggerBoolean trace = new LoggerBoolean();
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    /**
+     * Orders LogEntries by their original txn id
+     */
+    private static final Comparator<LogEntry> TXNID_COMPARATOR = new Comparator<LogEntry>() {
+        @Override
+        public int compare(LogEntry o1, LogEntry o2) {
+            return o1.getTransactionId().compareTo(o2.getTransactionId());
+        }
+    };
+
+    /**
+     * Sequential reader over all of the segment files of a single log stream.
+     * The entries within each group commit batch are returned in txn id order.
+     */
+    private class LogStreamCursor {
+        private final Iterator<File> files;
+        private Iterator<List<LogEntry>> batches;
+        private Iterator<LogEntry> entries;
+        private LogEntry head;
+
+        public LogStreamCursor(List<File> files) {
+            this.files = files.iterator();
+            this.advance();
+        }
+
+        /**
+         * Returns the next LogEntry in this stream without removing it
+         */
+        public LogEntry peek() {
+            return (this.head);
+        }
+
+        /**
+         * Move to the next LogEntry in this stream. Returns false if
+         * there are no more entries.
+         */
+        public boolean advance() {
+            this.head = null;
+            while (this.entries == null || this.entries.hasNext() == false) {
+                while (this.batches == null || this.batches.hasNext() == false) {
+                    if (this.files.hasNext() == false) return (false);
+                    File logFile = this.files.next();
+                    LOG.info(String.format("Replaying command log file '%s'", logFile.getAbsolutePath()));
+                    this.batches = new CommandLogReader(logFile.getAbsolutePath()).batchIterator();
+                } // WHILE
+                // The entries in a group commit batch are grouped by partition,
+                // so we need to sort them to get them back in txn id order
+                List<LogEntry> batch = this.batches.next();
+                Collections.sort(batch, TXNID_COMPARATOR);
+                this.entries = batch.iterator();
+            } // WHILE
+            this.head = this.entries.next();
+            return (true);
+        }
+    } // CLASS
+
+    /**
+     * Replay thread for a single partition.
+     * Each partition is allowed to have up to ${site.commandlog_replay_window}
+     * txns outstanding at the same time. Since the txn handles are created
+     * by the dispatcher in txn id order, the PartitionExecutor will still
+     * execute them in the same order that they are queued here.
+     */
+    private class PartitionReplayer extends ExceptionHandlingRunnable {
+        private final int partition;
+        private final LinkedBlockingQueue<LocalTransaction> queue = new LinkedBlockingQueue<LocalTransaction>();
+        private final Semaphore window;
+        private final AtomicInteger outstanding = new AtomicInteger(0);
+
+        public PartitionReplayer(int partition) {
+            this.partition = partition;
+            this.window = new Semaphore(Math.max(1, hstore_conf.site.commandlog_replay_window));
+        }
+
+        public void queue(LocalTransaction ts) {
+            this.outstanding.incrementAndGet();
+            this.queue.offer(ts);
+        }
+
+        /**
+         * Block until all of the txns queued at this partition have finished
+         * or until the replayer is stopped
+         */
+        public void waitUntilIdle() {
+            synchronized (this) {
+                while (this.outstanding.get() > 0 && stop == false) {
+                    try {
+                        this.wait();
+                    } catch (InterruptedException ex) {
+                        if (stop) break;
+                    }
+                } // WHILE
+            } // SYNCH
+        }
+
+        @Override
+        public void runImpl() {
+            Thread self = Thread.currentThread();
+            self.setName(HStoreThreadManager.getThreadName(hstore_site, this.partition,
+                                                           HStoreConstants.THREAD_NAME_COMMANDLOG_REPLAY));
+            while (stop == false) {
+                LocalTransaction ts = null;
+                try {
+                    ts = this.queue.take();
+                    this.window.acquire();
+                } catch (InterruptedException ex) {
+                    if (stop) break;
+                    continue;
+                }
+                if (trace.val)
+                    LOG.trace(String.format("Replaying %s at partition %d", ts, this.partition));
+                hstore_site.transactionQueue(ts);
+            } // WHILE
+        }
+
+        private void finished() {
+            this.window.release();
+            if (this.outstanding.decrementAndGet() == 0) {
+                synchronized (this) {
+                    this.notifyAll();
+                } // SYNCH
+            }
+        }
+
+        private void wakeUp() {
+            synchronized (this) {
+                this.notifyAll();
+            } // SYNCH
+        }
+    } // CLASS
+
+    /**
+     * Callback that is invoked when a replayed txn finishes
+     */
+    private class ReplayCallback implements RpcCallback<ClientResponseImpl> {
+        /**
+         * The PartitionReplayer to notify for single-partition txns
+         */
+        private PartitionReplayer replayer;
+        /**
+         * The barrier to release for distributed txns
+         */
+        private Semaphore barrier;
+
+        @Override
+        public void run(ClientResponseImpl cresponse) {
+            if (cresponse.getStatus() == Status.OK) {
+                txnReplayed.incrementAndGet();
+            } else {
+                // We only log txns that committed, so this means that
+                // something is different from when it executed the first time
+                txnAborted.incrementAndGet();
+                LOG.warn(String.format("Replayed txn #%d finished with status %s",
+                         cresponse.getTransactionId(), cresponse.getStatus()));
+            }
+            if (this.replayer != null) this.replayer.finished();
+            if (this.barrier != null) this.barrier.release();
+        }
+    } // CLASS
+
+    // ----------------------------------------------------------------------------
+    // INSTANCE MEMBERS
+    // ----------------------------------------------------------------------------
+
+    private final HStoreSite hstore_site;
+    private final HStoreConf hstore_conf;
+    private final CatalogContext catalogContext;
+    private final List<File> logFiles = new ArrayList<File>();
+
+    /**
+     * The txn id of the snapshot that was restored. Any LogEntry with a smaller
+     * txn id was serialized before the snapshot and is already included in it,
+     * so we will skip it.
+     */
+    private final long snapshotTxnId;
+
+    /**
+     * One replay thread per local partition (indexed by partition id)
+     */
+    private final PartitionReplayer replayers[];
+    private final Thread replayerThreads[];
+
+    private final AtomicLong txnReplayed = new AtomicLong(0);
+    private final AtomicLong txnAborted = new AtomicLong(0);
+    private long txnSkipped = 0;
+    private long txnQueued = 0;
+    private long startTime = -1;
+    private long stopTime = -1;
+    private volatile boolean stop = false;
+
+    /**
+     * Constructor
+     * @param hstore_site
+     * @param logFiles The command log files to replay, in the order that they were written.
+     *                 These can include files from multiple log streams.
+     * @param snapshotTxnId Skip any LogEntry whose txn id is less than this txn id
+     */
+    public CommandLogReplayer(HStoreSite hstore_site, Collection<File> logFiles, long snapshotTxnId) {
+        this.hstore_site = hstore_site;
+        this.hstore_conf = hstore_site.getHStoreConf();
+        this.catalogContext = hstore_site.getCatalogContext();
+        this.logFiles.addAll(logFiles);
+        this.snapshotTxnId = snapshotTxnId;
+
+        this.replayers = new PartitionReplayer[this.catalogContext.numberOfPartitions];
+        this.replayerThreads = new Thread[this.catalogContext.numberOfPartitions];
+        for (int partition : hstore_site.getLocalPartitionIds().values()) {
+            this.replayers[partition] = new PartitionReplayer(partition);
+        } // FOR
+    }
+
+    /**
+     * Return the list of command log files for the given HStoreSite that are
+     * stored in the given directory, sorted by the order that they were created.
+     * Any file that is included in the exclude list will be ignored.
+     * @param hstore_site
+     * @param dir
+     * @param exclude
+     * @return
+     */
+    public static List<File> getLogFiles(HStoreSite hstore_site, File dir, File...exclude) {
+        final String prefix = hstore_site.getSiteName().toLowerCase() + "_";
+        List<File> files = new ArrayList<File>();
+        File contents[] = dir.listFiles();
+        if (contents == null) return (files);
+
+        List<File> excludeFiles = Arrays.asList(exclude);
+        for (File f : contents) {
+            if (f.isFile() &&
+                f.getName().startsWith(prefix) &&
+                f.getName().endsWith(CommandLogWriter.LOG_OUTPUT_EXT) &&
+                excludeFiles.contains(f) == false) {
+                files.add(f);
+            }
+        } // FOR
+        // The file names contain the timestamp of when they were created
+        Collections.sort(files);
+        return (files);
+    }
+
+    /**
+     * Group the given command log files by the log stream that wrote them out.
+     * The segment files for a stream share the same base name as the first file
+     * in the stream (i.e., "<base>.cmdlog", "<base>_00001.cmdlog", ...). Within each
+     * stream the files are sorted by the order that they were written.
+     * @param logFiles
+     * @return
+     */
+    public static Collection<List<File>> getLogStreams(Collection<File> logFiles) {
+        Map<String, List<File>> streams = new TreeMap<String, List<File>>();
+        for (File f : logFiles) {
+            String name = f.getName();
+            if (name.endsWith(CommandLogWriter.LOG_OUTPUT_EXT)) {
+                name = name.substring(0, name.length() - CommandLogWriter.LOG_OUTPUT_EXT.length());
+            }
+            // Remove the segment id
+            name = name.replaceFirst("_\\d{5}$", "");
+            String key = new File(f.getParentFile(), name).getAbsolutePath();
+            List<File> files = streams.get(key);
+            if (files == null) {
+                files = new ArrayList<File>();
+                streams.put(key, files);
+            }
+            files.add(f);
+        } // FOR
+        for (List<File> files : streams.values()) {
+            Collections.sort(files);
+        } // FOR
+        return (streams.values());
+    }
+
+    /**
+     * Replay all of the txns in our command log files.
+     * This is a blocking call that will not return until all of the
+     * txns have been executed. This does not coordinate with the replayers
+     * at any other site in the cluster.
+     * @return the number of txns that were replayed
+     */
+    public long replay() {
+        this.startTime = System.currentTimeMillis();
+        for (int i = 0; i < this.replayers.length; i++) {
+            if (this.replayers[i] == null) continue;
+            this.replayerThreads[i] = new Thread(this.replayers[i]);
+            this.replayerThreads[i].setDaemon(true);
+            this.replayerThreads[i].start();
+        } // FOR
+
+        try {
+            Collection<List<File>> streams = getLogStreams(this.logFiles);
+            if (debug.val)
+                LOG.debug(String.format("Merging %d command log files from %d log streams",
+                          this.logFiles.size(), streams.size()));
+            List<LogStreamCursor> cursors = new ArrayList<LogStreamCursor>();
+            for (List<File> files : streams) {
+                cursors.add(new LogStreamCursor(files));
+            } // FOR
+            this.replay(cursors);
+            this.waitForAll();
+        } finally {
+            this.stopTime = System.currentTimeMillis();
+            this.shutdown();
+        }
+
+        LOG.info(String.format("Replayed %d/%d txns from %d command log files in %.2f sec " +
+                               "[throughput=%.2f txn/sec, aborted=%d, skipped=%d]",
+                               this.getReplayedCount(), this.txnQueued, this.logFiles.size(),
+                               (this.stopTime - this.startTime) / 1000d,
+                               this.getThroughput(), this.txnAborted.get(), this.txnSkipped));
+        return (this.getReplayedCount());
+    }
+
+    /**
+     * Replay all of the entries in the given log streams. The streams are 
+     * merged together so that we always replay the entry with the smallest
+     * txn id out of the next entries of all of the streams.
+     * @param cursors
+     */
+    protected void replay(Collection<LogStreamCursor> cursors) {
+        PriorityQueue<LogStreamCursor> heap = new PriorityQueue<LogStreamCursor>(
+                Math.max(1, cursors.size()), new Comparator<LogStreamCursor>() {
+            @Override
+            public int compare(LogStreamCursor o1, LogStreamCursor o2) {
+                return TXNID_COMPARATOR.compare(o1.peek(), o2.peek());
+            }
+        });
+        for (LogStreamCursor cursor : cursors) {
+            if (cursor.peek() != null) heap.add(cursor);
+        } // FOR
+        while (heap.isEmpty() == false && this.stop == false) {
+            LogStreamCursor cursor = heap.poll();
+            this.replay(cursor.peek());
+            if (cursor.advance()) heap.add(cursor);
+        } // WHILE
+    }
+
+    /**
+     * Queue a single LogEntry to be re-executed.
+     * @param entry
+     */
+    protected void replay(LogEntry entry) {
+        if (entry.getTransactionId().longValue() < this.snapshotTxnId) {
+            this.txnSkipped++;
+            return;
+        }
+        int base_partition = entry.getBasePartition();
+        if (hstore_site.isLocalPartition(base_partition) == false) {
+            LOG.warn(String.format("Unable to replay %s because partition %d is not local to %s",
+                     entry, base_partition, hstore_site.getSiteName()));
+            this.txnSkipped++;
+            return;
+        }
+        Procedure catalog_proc = this.catalogContext.getProcedureById(entry.getProcedureId());
+        if (catalog_proc == null) {
+            String msg = String.format("Invalid procedure id %d for %s", entry.getProcedureId(), entry);
+            throw new ServerFaultException(msg, entry.getTransactionId());
+        }
+
+        PartitionReplayer replayer = this.replayers[base_partition];
+        ReplayCallback callback = new ReplayCallback();
+        LocalTransaction ts = hstore_site.getTransactionInitializer()
+                                         .createLocalTransaction(null,
+                                                                 EstTime.currentTimeMillis(),
+                                                                 entry.getTransactionId().longValue(),
+                                                                 base_partition,
+                                                                 catalog_proc,
+                                                                 entry.getProcedureParams(),
+                                                                 callback);
+        this.txnQueued++;
+        if (ts.isPredictSinglePartition()) {
+            callback.replayer = replayer;
+            replayer.queue(ts);
+        }
+        // Distributed txns have to wait until all of the partitions
+        // have caught up with the txns that came before them
+        else {
+            callback.barrier = new Semaphore(0);
+            this.waitForAll();
+            hstore_site.transactionQueue(ts);
+            callback.barrier.acquireUninterruptibly();
+        }
+    }
+
+    /**
+     * Block until all of the partition replayers are idle
+     */
+    private void waitForAll() {
+        for (PartitionReplayer replayer : this.replayers) {
+            if (replayer != null) replayer.waitUntilIdle();
+        } // FOR
+    }
+
+    // ----------------------------------------------------------------------------
+    // STATISTICS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Returns the number of txns that were replayed (including any that aborted)
+     */
+    public long getReplayedCount() {
+        return (this.txnReplayed.get() + this.txnAborted.get());
+    }
+
+    /**
+     * Returns the number of replayed txns per second
+     */
+    public double getThroughput() {
+        long stop = (this.stopTime > 0 ? this.stopTime : System.currentTimeMillis());
+        if (this.startTime < 0 || stop == this.startTime) return (0d);
+        return (this.getReplayedCount() / ((stop - this.startTime) / 1000d));
+    }
+
+    // ----------------------------------------------------------------------------
+    // SHUTDOWN METHODS
+    // ----------------------------------------------------------------------------
+
+    @Override
+    public void prepareShutdown(boolean error) {
+        this.stop = true;
+        for (PartitionReplayer replayer : this.replayers) {
+            if (replayer != null) replayer.wakeUp();
+        } // FOR
+    }
+
+    @Override
+    public void shutdown() {
+        this.stop = true;
+        for (Thread t : this.replayerThreads) {
+            if (t != null) t.interrupt();
+        } // FOR
+        for (PartitionReplayer replayer : this.replayers) {
+            if (replayer != null) replayer.wakeUp();
+        } // FOR
+    }
+
+    @Override
+    public boolean isShuttingDown() {
+        return (this.stop);
+    }
+}
@@ -28,12 +28,25 @@ package edu.brown.hstore.cmdlog;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.voltdb.CatalogContext;
@@ -58,10 +71,16 @@ import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.profilers.CommandLogWriterProfiler;
 import edu.brown.profilers.ProfileMeasurementUtil;
 import edu.brown.utils.ExceptionHandlingRunnable;
+import edu.brown.utils.FileUtil;
+import edu.brown.utils.PartitionSet;
 import edu.brown.utils.StringUtil;
 
 /**
  * Transaction Command Log Writer
+ * Each CommandLogWriter is responsible for logging the txns for a subset of 
+ * the local partitions at an HStoreSite. If ${site.commandlog_streams} is greater 
+ * than one, then there will be multiple CommandLogWriters at the site that each 
+ * write to their own log file using their own thread.
  * 
  * @author mkirsch
  * @author pavlo
@@ -80,6 +99,52 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
      */
     public static final String LOG_OUTPUT_EXT = ".cmdlog"; 
     
+    /**
+     * Log file formats. This is the first byte of the header in each log file.
+     * <B>FORMAT_SINGLE</B>: Each LogEntry is written out uncompressed by itself
+     * <B>FORMAT_GROUP_COMMIT</B>: Each group commit batch is a length-prefixed Snappy-compressed block
+     * <B>FORMAT_MAPPED</B>: Each group commit batch is a length-prefixed uncompressed block in
+     *                       a pre-allocated file. A negative length means that the reader should 
+     *                       skip that many bytes and a zero length means the end of the log.
+     */
+    public static final byte FORMAT_SINGLE = 0;
+    public static final byte FORMAT_GROUP_COMMIT = 1;
+    public static final byte FORMAT_MAPPED = 2;
+    
+    /**
+     * The number of sets of entry buffers used in the group commit pipeline.
+     * One set is being filled by the partitions, one is being serialized and
+     * compressed by the writer thread, and one is being written out to disk
+     * by the sync thread.
+     */
+    private static final int NUM_PIPELINE_BUFFERS = 3;
+    
+    /**
+     * For memory-mapped log files, the size of each region of the file that 
+     * we map in at a time. A group commit batch never spans more than one region,
+     * so each region can be synced separately.
+     */
+    private static final int MAPPED_CHUNK_SIZE = 4 * 1024 * 1024; // 4MB
+    private static final int MAPPED_MIN_CHUNK_SIZE = 64 * 1024; // 64KB
+    
+    /**
+     * The amount of space that we will pre-allocate for a memory-mapped log file
+     * if ${site.commandlog_segment_size} is disabled.
+     */
+    private static final long MAPPED_DEFAULT_FILE_SIZE = 128 * 1024 * 1024; // 128MB
+    
+    /**
+     * The smallest group commit window (in milliseconds) that we will use
+     * when ${site.commandlog_target_latency} is enabled
+     */
+    private static final long MIN_COMMIT_WINDOW = 1;
+    
+    /**
+     * How much weight to give to new observations in the moving averages that
+     * we use to compute the group commit window 
+     */
+    private static final double EWMA_WEIGHT = 0.2;
+    
     /**
      * Special LogEntry that holds additional data that we need in order to send
      * back a ClientResponse
@@ -171,25 +236,176 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
             return String.format("%s[start=%d / next=%s]@%d", this.getClass().getSimpleName(), this.startPos, this.nextPos, this.hashCode());
         }
     } // CLASS
+    
+    /**
+     * A serialized and compressed group commit batch that is waiting
+     * to be written out to disk by the sync thread
+     */
+    private class CommitBatch {
+        private final long batchId;
+        private final CircularLogEntryBuffer buffers[];
+        private final int txnCount;
+        private final int size;
+        /** The compressed data to write out to the log file */
+        private final ByteBuffer data;
+        /** The region of a memory-mapped log file that the batch was written into */
+        private final MappedByteBuffer mapped;
+        /** A previous region that needs to be synced before this batch */
+        private final MappedByteBuffer prevMapped;
+        private final LogSegment segment;
+        private final FileChannel channel;
+        
+        public CommitBatch(long batchId, CircularLogEntryBuffer buffers[], ByteBuffer data, int txnCount) {
+            this.batchId = batchId;
+            this.buffers = buffers;
+            this.txnCount = txnCount;
+            this.size = data.limit();
+            this.data = data;
+            this.mapped = null;
+            this.prevMapped = null;
+            this.segment = null;
+            this.channel = null;
+        }
+        
+        public CommitBatch(long batchId, CircularLogEntryBuffer buffers[], int txnCount, int size,
+                           MappedByteBuffer mapped, MappedByteBuffer prevMapped,
+                           LogSegment segment, FileChannel channel) {
+            this.batchId = batchId;
+            this.buffers = buffers;
+            this.txnCount = txnCount;
+            this.size = size;
+            this.data = null;
+            this.mapped = mapped;
+            this.prevMapped = prevMapped;
+            this.segment = segment;
+            this.channel = channel;
+        }
+    } // CLASS
+    
+    /**
+     * The second stage of the group commit pipeline. This thread writes out the
+     * batches that were prepared by the writer thread, forces them to disk, and then
+     * sends out the client responses for the txns in the batch. This allows the
+     * writer thread to prepare the next batch while we are waiting on the disk.
+     */
+    private class SyncThread extends ExceptionHandlingRunnable {
+        @Override
+        public void runImpl() {
+            Thread self = Thread.currentThread();
+            self.setName(HStoreThreadManager.getThreadName(hstore_site, HStoreConstants.THREAD_NAME_COMMANDLOGGER,
+                                                           Integer.toString(streamId), "sync"));
+            hstore_site.getThreadManager().registerProcessingThread();
+            
+            while (true) {
+                CommitBatch batch = null;
+                try {
+                    batch = syncQueue.poll(hstore_conf.site.commandlog_timeout, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ex) {
+                    // Check whether the writer thread is finished
+                }
+                if (batch != null) {
+                    sync(batch);
+                }
+                // Only stop once the writer thread is done and we have
+                // written out everything that it gave us
+                else if (writerFinished && syncQueue.isEmpty()) {
+                    break;
+                }
+            } // WHILE
+        }
+    } // CLASS
 
     private final HStoreSite hstore_site;
     private final HStoreConf hstore_conf;
     private final CatalogContext catalogContext;
     private final File outputFile;
-    private final FileChannel fstream;
+    private FileChannel fstream;
+
+    /**
+     * The id of this writer's log stream at the HStoreSite
+     */
+    private final int streamId;
+
+    /**
+     * The local partitions whose txns are written out by this writer
+     */
+    private final PartitionSet partitions;
+
+    /**
+     * PartitionId -> Offset in our entry buffers
+     * Partitions that are not handled by this writer will be -1 
+     */
+    private final int partitionOffsets[];
+
+    /**
+     * The maximum size of each log segment file (zero means unlimited)
+     */
+    private final long segmentSize;
+
+    /**
+     * All of the log segments that are still needed for recovery.
+     * The last element is the segment that we are currently writing to.
+     */
+    private final LinkedList<LogSegment> segments = new LinkedList<LogSegment>();
+    private LogSegment currentSegment;
+    
+    /**
+     * Memory-mapped log files
+     * The writer thread serializes the LogEntries directly into the mapped region 
+     * of the current segment file. The sync thread then only has to force that region
+     * out to disk. The sync thread closes a segment once it has synced all of 
+     * the batches that were written to it.
+     */
+    private final boolean useMappedFile;
+    private long mappedCapacity;
+    private long mappedChunkStart;
+    private MappedByteBuffer mappedChunk;
+    private MappedByteBuffer mappedPrevChunk;
+    private FastSerializer mappedSerializer;
+    private LogSegment lastSyncedSegment;
+    private FileChannel lastSyncedChannel;
 
     private final Semaphore writingEntry;
     private final int numWritingLocks;
 
     private final boolean useGroupCommit;
+    private final int entriesPerPartition;
+    
+    /**
+     * The current group commit window in milliseconds. If ${site.commandlog_target_latency} 
+     * is disabled, then this is always ${site.commandlog_timeout}. 
+     */
+    private volatile long commitWindow;
+    
+    /**
+     * Moving average of how long it takes to force a batch out to disk (ms)
+     */
+    private volatile double avgFsyncTime = 0;
+    
+    /**
+     * Moving average of the number of txns that are added to our buffers per ms 
+     */
+    private double avgTxnRate = 0;
     private boolean usePostProcessor;
     private final int group_commit_size;
     private final FastSerializer singletonSerializer;
     private final LogEntry singletonLogEntry;
 
-    private int commitBatchCounter = 0;
+    private volatile long commitBatchCounter = 0;
     private boolean stop = false;
     private Thread self;
+    
+    /**
+     * Group commit pipeline.
+     * The writer thread hands off batches to the sync thread through the syncQueue.
+     * Once the sync thread is finished with a batch, it returns its entry buffers
+     * back to the writer thread through the freeEntries queue.
+     */
+    private Thread syncThread;
+    private volatile boolean writerFinished = false;
+    private final BlockingQueue<CommitBatch> syncQueue = new ArrayBlockingQueue<CommitBatch>(1);
+    private final BlockingQueue<CircularLogEntryBuffer[]> freeEntries = new LinkedBlockingQueue<CircularLogEntryBuffer[]>();
+    private final AtomicLong syncedBatchCounter = new AtomicLong(0);
 
     /**
      * If set to true, then the WriterThread is in the middle of writing out
@@ -198,32 +414,55 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
     private final AtomicBoolean flushInProgress = new AtomicBoolean(false);
 
     /**
-     * The log entry buffers (one per partition)
+     * The log entry buffers (one per partition) that the partitions are currently
+     * adding entries to. All of the buffer sets in the pipeline are in allEntries.
      */
     private CircularLogEntryBuffer entries[];
-    private CircularLogEntryBuffer entriesFlushing[];
+    private final List<CircularLogEntryBuffer[]> allEntries = new ArrayList<CircularLogEntryBuffer[]>();
 
     private CommandLogWriterProfiler profiler;
 
     /**
      * Constructor
-     * 
-     * @param catalog_db
-     * @param path
+     * This writer will log the txns for all of the site's local partitions 
+     * @param hstore_site
+     * @param outputFile
      */
     public CommandLogWriter(HStoreSite hstore_site, File outputFile) {
+        this(hstore_site, outputFile, 0, hstore_site.getLocalPartitionIds());
+    }
+    
+    /**
+     * Constructor
+     * @param hstore_site
+     * @param outputFile
+     * @param streamId
+     * @param partitions The local partitions whose txns will be logged by this writer
+     */
+    public CommandLogWriter(HStoreSite hstore_site, File outputFile, int streamId, PartitionSet partitions) {
         this.hstore_site = hstore_site;
         this.hstore_conf = hstore_site.getHStoreConf();
         this.catalogContext = hstore_site.getCatalogContext();
         this.outputFile = outputFile;
+        this.streamId = streamId;
+        this.partitions = new PartitionSet(partitions);
         this.singletonSerializer = new FastSerializer(true, true);
         // this.group_commit_size = Math.max(1,
         // hstore_conf.site.exec_command_logging_group_commit); //Group commit
         // threshold, or 1 if group commit is turned off
 
-        // Number of local partitions
-        int num_partitions = hstore_site.getLocalPartitionIds().size();
+        // Number of partitions that we are responsible for
+        int num_partitions = this.partitions.size();
+        assert(num_partitions > 0) : "No partitions assigned to command log stream #" + streamId;
         this.numWritingLocks = num_partitions;
+        this.partitionOffsets = new int[this.catalogContext.numberOfPartitions];
+        Arrays.fill(this.partitionOffsets, -1);
+        int offset = 0;
+        for (int partition : this.partitions.values()) {
+            assert(hstore_site.isLocalPartition(partition)) :
+                "Trying to log txns for remote partition " + partition;
+            this.partitionOffsets[partition] = offset++;
+        } // FOR
 
         // Number of log entries per partition
         // hack, set arbitrarily high to avoid contention for log buffer
@@ -231,6 +470,8 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
 
         // The global number of txns we will commit in a batch
         this.group_commit_size = num_entries * num_partitions;
+        this.entriesPerPartition = num_entries;
+        this.commitWindow = hstore_conf.site.commandlog_timeout;
 
         if (debug.val) {
             LOG.debug("group_commit_size: " + this.group_commit_size);
@@ -244,11 +485,17 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
             // Make one entry buffer per partition SO THAT SYNCHRONIZATION ON
             // EACH BUFFER IS NOT REQUIRED
             this.writingEntry = new Semaphore(this.numWritingLocks, false);
-            this.entries = new CircularLogEntryBuffer[num_partitions];
-            this.entriesFlushing = new CircularLogEntryBuffer[num_partitions];
-            for (int partition = 0; partition < num_partitions; partition++) {
-                this.entries[partition] = new CircularLogEntryBuffer(num_entries);
-                this.entriesFlushing[partition] = new CircularLogEntryBuffer(num_entries);
+            for (int i = 0; i < NUM_PIPELINE_BUFFERS; i++) {
+                CircularLogEntryBuffer buffers[] = new CircularLogEntryBuffer[num_partitions];
+                for (int partition = 0; partition < num_partitions; partition++) {
+                    buffers[partition] = new CircularLogEntryBuffer(num_entries);
+                } // FOR
+                this.allEntries.add(buffers);
+                if (i == 0) {
+                    this.entries = buffers;
+                } else {
+                    this.freeEntries.add(buffers);
+                }
             } // FOR
             this.singletonLogEntry = null;
         } else {
@@ -257,19 +504,10 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
             this.singletonLogEntry = new LogEntry();
         }
 
-        FileOutputStream f = null;
-        try {
-            this.outputFile.getParentFile().mkdirs();
-            LOG.info("Command Log File: " + this.outputFile.getAbsolutePath());
-            this.outputFile.createNewFile();
-            f = new FileOutputStream(this.outputFile, false);
-        } catch (IOException ex) {
-            throw new RuntimeException(ex);
-        }
-        this.fstream = f.getChannel();
-
-        // Write out a header to the file
-        this.writeHeader();
+        // Open up our first log segment
+        this.segmentSize = hstore_conf.site.commandlog_segment_size;
+        this.useMappedFile = (this.useGroupCommit && hstore_conf.site.commandlog_mmap);
+        this.openSegment(0);
 
         // Writer Profiling
         if (hstore_conf.site.commandlog_profiling) {
@@ -283,28 +521,51 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
     @Override
     public void runImpl() {
         this.self = Thread.currentThread();
-        this.self.setName(HStoreThreadManager.getThreadName(hstore_site, HStoreConstants.THREAD_NAME_COMMANDLOGGER));
+        if (this.streamId == 0) {
+            this.self.setName(HStoreThreadManager.getThreadName(hstore_site, HStoreConstants.THREAD_NAME_COMMANDLOGGER));
+        } else {
+            this.self.setName(HStoreThreadManager.getThreadName(hstore_site, HStoreConstants.THREAD_NAME_COMMANDLOGGER,
+                                                                Integer.toString(this.streamId)));
+        }
         this.hstore_site.getThreadManager().registerProcessingThread();
 
         this.usePostProcessor = hstore_site.hasTransactionPostProcessors();
+        
+        // Start the second stage of our pipeline
+        this.syncThread = new Thread(new SyncThread());
+        this.syncThread.setDaemon(true);
+        this.syncThread.start();
 
         CircularLogEntryBuffer temp[] = null;
-        long next = System.currentTimeMillis() + hstore_conf.site.commandlog_timeout;
+        long lastSwap = System.currentTimeMillis();
         while (this.stop == false) {
-            // Sleep until our timeout period, at which point a
+            // Sleep until our group commit window is over, at which point a
             // flush will be initiated
             try {
-                long sleep = Math.max(0, System.currentTimeMillis() - next);
+                long sleep = Math.max(0, (lastSwap + this.commitWindow) - System.currentTimeMillis());
                 Thread.sleep(sleep);
             } catch (InterruptedException e) {
                 if (this.stop)
                     break;
-            } finally {
-                next = System.currentTimeMillis() + hstore_conf.site.commandlog_timeout;
-                // if (debug.val)
-                // LOG.debug("Group commit timeout occurred, writing buffer to disk.");
             }
 
+            // Get an empty set of buffers to swap in. This will block if the sync 
+            // thread is still holding on to all of the other sets
+            CircularLogEntryBuffer empty[] = null;
+            if (hstore_conf.site.commandlog_profiling && this.profiler != null)
+                this.profiler.stallTime.start();
+            do {
+                try {
+                    empty = this.freeEntries.take();
+                } catch (InterruptedException ex) {
+                    continue;
+                }
+                break;
+            } while (this.stop == false);
+            if (hstore_conf.site.commandlog_profiling && this.profiler != null)
+                this.profiler.stallTime.stopIfStarted();
+            if (empty == null) break;
+            
             // Take all of the writing permits. This will stop any other
             // thread from appending to the buffer that we're about to swap
             int free_permits = this.numWritingLocks - this.writingEntry.drainPermits();
@@ -329,9 +590,11 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
             // buffer is exchanged for an empty one and the full
             // buffer is written out to disk.
             temp = this.entries;
-            this.entries = this.entriesFlushing;
-            this.entriesFlushing = temp;
-            assert (this.entries != this.entriesFlushing);
+            this.entries = empty;
+            assert (this.entries != temp);
+            long now = System.currentTimeMillis();
+            long elapsed = now - lastSwap;
+            lastSwap = now;
 
             // Release our entry permits so that other threads can
             // start filling up their Entry buffers
@@ -341,13 +604,391 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
             // Write the entries out to disk
             // if (debug.val) LOG.debug("Executing group commit");
             this.flushInProgress.set(true);
-            if (this.groupCommit(this.entriesFlushing) == 0) {
-                next = System.currentTimeMillis() + hstore_conf.site.commandlog_timeout;
+            int txnCounter = this.groupCommit(temp);
+            if (txnCounter == 0) {
+                // Nothing to write, so we can reuse these buffers right away
+                this.freeEntries.offer(temp);
             }
+            this.updateCommitWindow(txnCounter, elapsed);
             this.flushInProgress.lazySet(false);
         } // WHILE
+        
+        // Let the sync thread finish writing out whatever we have given it
+        this.writerFinished = true;
+        try {
+            this.syncThread.join();
+        } catch (InterruptedException ex) {
+            LOG.warn("Interrupted while waiting for the command log sync thread to finish");
+        }
+    }
+
+    // ----------------------------------------------------------------------------
+    // GROUP COMMIT WINDOW
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * Compute the length of the next group commit window based on the
+     * rate that txns are arriving and how long it takes to sync them to disk.
+     * We want each txn to wait for at most ${site.commandlog_target_latency} ms 
+     * before it is durable, so the window is whatever is left over from that 
+     * target after the fsync. If we don't expect any other txns to arrive
+     * during that window, then there is no point in waiting for them. We also 
+     * make sure that the window is short enough that the partitions' 
+     * buffers will not fill up.
+     * @param txnCounter The number of txns that were in the last batch
+     * @param elapsed The length of the last window (ms)
+     */
+    protected void updateCommitWindow(int txnCounter, long elapsed) {
+        int target = hstore_conf.site.commandlog_target_latency;
+        if (target <= 0) {
+            this.commitWindow = hstore_conf.site.commandlog_timeout;
+        } else {
+            if (elapsed > 0) {
+                double rate = txnCounter / (double)elapsed;
+                this.avgTxnRate = (EWMA_WEIGHT * rate) + ((1 - EWMA_WEIGHT) * this.avgTxnRate);
+            }
+            double window = target - this.avgFsyncTime;
+            if (this.avgTxnRate * window < 1.0) {
+                window = MIN_COMMIT_WINDOW;
+            } else {
+                // Only fill up our buffers halfway at most
+                window = Math.min(window, (this.entriesPerPartition / 2.0) / this.avgTxnRate);
+            }
+            this.commitWindow = Math.max(MIN_COMMIT_WINDOW,
+                                         Math.min(hstore_conf.site.commandlog_timeout, Math.round(window)));
+            if (trace.val)
+                LOG.trace(String.format("Group commit window is %d ms [txnRate=%.2f txn/ms, avgFsync=%.2f ms]",
+                          this.commitWindow, this.avgTxnRate, this.avgFsyncTime));
+        }
+        if (hstore_conf.site.commandlog_profiling && this.profiler != null)
+            this.profiler.windowTime.appendTime(0, this.commitWindow * 1000000l);
+    }
+    
+    /**
+     * Record how long it took for the sync thread to force a batch out to disk
+     * @param fsyncTime (ms)
+     */
+    protected void updateFsyncTime(double fsyncTime) {
+        this.avgFsyncTime = (EWMA_WEIGHT * fsyncTime) + ((1 - EWMA_WEIGHT) * this.avgFsyncTime);
+    }
+    
+    /**
+     * Returns the current group commit window (ms)
+     */
+    public long getCommitWindow() {
+        return (this.commitWindow);
+    }
+    
+    /**
+     * Returns the moving average of the amount of time it takes to 
+     * force a group commit batch out to disk (ms) 
+     */
+    public double getAverageFsyncTime() {
+        return (this.avgFsyncTime);
+    }
+    
+    /**
+     * Returns the number of txns that each partition can add to
+     * a single group commit batch
+     */
+    protected int getEntriesPerPartition() {
+        return (this.entriesPerPartition);
     }
 
+    // ----------------------------------------------------------------------------
+    // LOG SEGMENTS
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * Returns the file for the log segment with the given id. The first
+     * segment is always the outputFile that was passed into the constructor.
+     * The file names are constructed so that sorting them by name will 
+     * put them in the order that they were written.
+     * @param id
+     * @return
+     */
+    protected File getSegmentFile(int id) {
+        if (id == 0) return (this.outputFile);
+        String name = this.outputFile.getName();
+        if (name.endsWith(LOG_OUTPUT_EXT)) {
+            name = name.substring(0, name.length() - LOG_OUTPUT_EXT.length());
+        }
+        return new File(this.outputFile.getParentFile(),
+                        String.format("%s_%05d%s", name, id, LOG_OUTPUT_EXT));
+    }
+    
+    /**
+     * Open a new log segment file and write out its header
+     * @param id
+     */
+    private void openSegment(int id) {
+        File file = this.getSegmentFile(id);
+        try {
+            file.getParentFile().mkdirs();
+            LOG.info("Command Log File: " + file.getAbsolutePath());
+            file.createNewFile();
+            if (this.useMappedFile) {
+                this.fstream = new RandomAccessFile(file, "rw").getChannel();
+                this.fstream.truncate(0);
+                this.mappedCapacity = (this.segmentSize > 0 ? this.segmentSize : MAPPED_DEFAULT_FILE_SIZE);
+                preallocate(this.fstream, 0, this.mappedCapacity);
+            } else {
+                this.fstream = new FileOutputStream(file, false).getChannel();
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        
+        LogSegment segment = new LogSegment(this.streamId, id, file);
+        synchronized (this.segments) {
+            this.segments.add(segment);
+            this.currentSegment = segment;
+        } // SYNC
+
+        // Write out a header to the file
+        this.writeHeader();
+        
+        // Map in the first region after the header
+        if (this.useMappedFile) {
+            try {
+                long start = this.fstream.position();
+                this.mapChunk(start, this.getChunkSize(start));
+            } catch (IOException ex) {
+                String message = "Failed to map command log segment " + file;
+                throw new ServerFaultException(message, ex);
+            }
+        }
+    }
+    
+    /**
+     * Record that the given number of bytes and txns were made durable 
+     * in the current segment. If the segment is now full, then we will 
+     * close it and start writing to a new one.
+     * @param bytes
+     * @param txns
+     */
+    private void segmentWritten(long bytes, int txns) {
+        this.currentSegment.update(bytes, txns);
+        if (this.segmentSize > 0 && this.currentSegment.getSize() >= this.segmentSize) {
+            if (debug.val)
+                LOG.debug("Rotating full command log segment " + this.currentSegment);
+            try {
+                this.fstream.close();
+            } catch (IOException ex) {
+                String message = "Failed to close command log segment " + this.currentSegment.getFile();
+                throw new ServerFaultException(message, ex);
+            }
+            this.currentSegment.close();
+            this.openSegment(this.currentSegment.getId() + 1);
+        }
+    }
+    
+    // ----------------------------------------------------------------------------
+    // MEMORY-MAPPED LOG FILES
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * Fill the given region of the file with zeros so that the file system
+     * allocates all of its blocks now instead of when we sync.
+     * This does not change the channel's position.
+     * @param channel
+     * @param start
+     * @param stop
+     * @throws IOException
+     */
+    private static void preallocate(FileChannel channel, long start, long stop) throws IOException {
+        ByteBuffer zeros = ByteBuffer.allocateDirect(1024 * 1024);
+        long position = start;
+        while (position < stop) {
+            zeros.clear();
+            zeros.limit((int)Math.min(zeros.capacity(), stop - position));
+            position += channel.write(zeros, position);
+        } // WHILE
+        channel.force(true);
+    }
+    
+    /**
+     * Returns the size of the region that we should map in at the
+     * given position of the current segment file
+     * @param start
+     * @return
+     */
+    private long getChunkSize(long start) {
+        return Math.max(MAPPED_MIN_CHUNK_SIZE, Math.min(MAPPED_CHUNK_SIZE, this.mappedCapacity - start));
+    }
+    
+    /**
+     * Map in a new region of the current segment file. If the region goes past
+     * the end of what we pre-allocated, then we will pre-allocate more space.
+     * @param start
+     * @param size
+     * @throws IOException
+     */
+    private void mapChunk(long start, long size) throws IOException {
+        if (start + size > this.mappedCapacity) {
+            preallocate(this.fstream, this.mappedCapacity, start + size);
+            this.mappedCapacity = start + size;
+        }
+        this.mappedChunkStart = start;
+        this.mappedChunk = this.fstream.map(FileChannel.MapMode.READ_WRITE, start, size);
+        // Always leave room at the end of the region for a skip marker
+        this.mappedChunk.limit(this.mappedChunk.capacity() - 4);
+        this.mappedSerializer = new FastSerializer(this.mappedChunk);
+    }
+    
+    /**
+     * Serialize the given buffer set directly into the current mapped region
+     * of our log file. If the batch does not fit in what is left of the region,
+     * then we will move on to the next region (or next segment file).
+     * @param eb
+     * @param txnCounter
+     * @return
+     */
+    private CommitBatch writeMappedBatch(CircularLogEntryBuffer eb[], int txnCounter) {
+        while (true) {
+            MappedByteBuffer chunk = this.mappedChunk;
+            int start = chunk.position();
+            try {
+                if (chunk.remaining() < 4) throw new BufferOverflowException();
+                chunk.position(start + 4);
+                for (int i = 0; i < eb.length; i++) {
+                    int size = eb[i].buffer.length;
+                    int position = eb[i].startPos;
+                    while (position != eb[i].nextPos) {
+                        WriterLogEntry entry = eb[i].buffer[position++];
+                        this.mappedSerializer.writeObject(entry);
+                        if (position >= size)
+                            position = 0;
+                    } // WHILE
+                } // FOR
+                int length = chunk.position() - start - 4;
+                chunk.putInt(start, length);
+                
+                CommitBatch batch = new CommitBatch(this.commitBatchCounter, eb, txnCounter, length + 4,
+                                                    chunk, this.mappedPrevChunk,
+                                                    this.currentSegment, this.fstream);
+                this.mappedPrevChunk = null;
+                return (batch);
+            } catch (BufferOverflowException ex) {
+                chunk.position(start);
+            } catch (IOException ex) {
+                String message = "Failed to serialize buffer during group commit";
+                throw new ServerFaultException(message, ex);
+            }
+            
+            // The batch doesn't fit in an empty region, so we need a bigger one
+            try {
+                if (start == 0) {
+                    if (debug.val)
+                        LOG.debug(String.format("Group commit batch #%d is too big for a %d byte region",
+                                  this.commitBatchCounter, chunk.capacity()));
+                    this.mapChunk(this.mappedChunkStart, chunk.capacity() * 2l);
+                    continue;
+                }
+                
+                // Otherwise tell the reader to skip the rest of this region
+                // and then move on to the next one. This region has to be
+                // synced again before the next batch. The skip length includes
+                // the marker itself so that it is never zero (which means EOF)
+                // even if there are only four bytes left in the region.
+                chunk.limit(chunk.capacity());
+                chunk.putInt(start, -(chunk.capacity() - start));
+                if (this.mappedPrevChunk != null && this.mappedPrevChunk != chunk) this.mappedPrevChunk.force();
+                this.mappedPrevChunk = chunk;
+                
+                long next = this.mappedChunkStart + chunk.capacity();
+                if (this.segmentSize > 0 && this.mappedCapacity - next < MAPPED_MIN_CHUNK_SIZE) {
+                    if (debug.val)
+                        LOG.debug("Rotating full command log segment " + this.currentSegment);
+                    this.openSegment(this.currentSegment.getId() + 1);
+                } else {
+                    this.mapChunk(next, this.getChunkSize(next));
+                }
+            } catch (IOException ex) {
+                String message = "Failed to map next region of command log segment " + this.currentSegment.getFile();
+                throw new ServerFaultException(message, ex);
+            }
+        } // WHILE
+    }
+    
+    /**
+     * Force the given memory-mapped batch out to disk.
+     * Once we have synced all of the batches in a segment, we can close it. 
+     * This is only invoked by the sync thread.
+     * @param batch
+     * @throws IOException
+     */
+    private void syncMappedBatch(CommitBatch batch) throws IOException {
+        if (batch.prevMapped != null) batch.prevMapped.force();
+        batch.mapped.force();
+        batch.segment.update(batch.size, batch.txnCount);
+        
+        if (this.lastSyncedSegment != null && this.lastSyncedSegment != batch.segment) {
+            this.lastSyncedSegment.close();
+            this.lastSyncedChannel.close();
+        }
+        this.lastSyncedSegment = batch.segment;
+        this.lastSyncedChannel = batch.channel;
+    }
+    
+    /**
+     * Remove all of the closed log segments that were completely written out
+     * before the given snapshot was started. These segments are no longer needed
+     * for recovery. If ${site.commandlog_archive_dir} is set, then the segment
+     * files will be moved into that directory. Otherwise they are deleted.
+     * @param snapshotTime The time that the last completed snapshot started
+     * @return the number of segments that were removed
+     */
+    public int truncate(long snapshotTime) {
+        List<LogSegment> removed = new ArrayList<LogSegment>();
+        synchronized (this.segments) {
+            Iterator<LogSegment> it = this.segments.iterator();
+            while (it.hasNext()) {
+                LogSegment segment = it.next();
+                if (segment.isClosed() == false || segment.getLastWriteTime() >= snapshotTime) break;
+                removed.add(segment);
+                it.remove();
+            } // WHILE
+        } // SYNC
+        
+        File archiveDir = null;
+        if (hstore_conf.site.commandlog_archive_dir != null) {
+            archiveDir = new File(FileUtil.realpath(hstore_conf.site.commandlog_archive_dir));
+            FileUtil.makeDirIfNotExists(archiveDir);
+        }
+        for (LogSegment segment : removed) {
+            File file = segment.getFile();
+            boolean ret;
+            if (archiveDir != null) {
+                ret = file.renameTo(new File(archiveDir, file.getName()));
+            } else {
+                ret = file.delete();
+            }
+            if (ret == false) {
+                LOG.warn(String.format("Failed to %s command log segment %s",
+                         (archiveDir != null ? "archive" : "delete"), file.getAbsolutePath()));
+            } else if (debug.val) {
+                LOG.debug(String.format("Truncated command log segment %s [snapshotTime=%d]",
+                          segment, snapshotTime));
+            }
+        } // FOR
+        if (removed.isEmpty() == false)
+            LOG.info(String.format("Truncated %d command log segments that were written before snapshot at %d",
+                     removed.size(), snapshotTime));
+        return (removed.size());
+    }
+    
+    /**
+     * Returns a copy of the list of the log segments that are still
+     * needed for recovery. The last segment is the one currently being written to.
+     * @return
+     */
+    public List<LogSegment> getSegments() {
+        synchronized (this.segments) {
+            return (new ArrayList<LogSegment>(this.segments));
+        } // SYNC
+    }
+    
     @Override
     public void prepareShutdown(boolean error) {
         this.stop = true;
@@ -368,6 +1009,30 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
         while (this.flushInProgress.get()) {
             Thread.yield();
         } // WHILE
+        
+        // And then wait until the sync thread has written out
+        // everything that the writer thread has prepared 
+        while (this.syncedBatchCounter.get() < this.commitBatchCounter) {
+            Thread.yield();
+        } // WHILE
+    }
+
+    /**
+     * Returns the number of group commit batches that the writer thread
+     * has handed off to the sync thread
+     * @return
+     */
+    protected long getCommitBatchCount() {
+        return (this.commitBatchCounter);
+    }
+    
+    /**
+     * Returns the number of group commit batches that the sync thread
+     * has forced out to disk and sent the responses for
+     * @return
+     */
+    protected long getSyncedBatchCount() {
+        return (this.syncedBatchCounter.get());
     }
 
     /**
@@ -379,11 +1044,10 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
      */
     public int getTotalTxnCount() {
         int total = 0;
-        for (CircularLogEntryBuffer c : this.entries) {
-            total += c.size();
-        } // FOR
-        for (CircularLogEntryBuffer c : this.entriesFlushing) {
-            total += c.size();
+        for (CircularLogEntryBuffer buffers[] : this.allEntries) {
+            for (CircularLogEntryBuffer c : buffers) {
+                total += c.size();
+            } // FOR
         } // FOR
         return (total);
     }
@@ -399,7 +1063,10 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
             if (debug.val) {
                 Map<String, Object> m = new LinkedHashMap<String, Object>();
                 m.put("Current Buffer", StringUtil.join("\n", this.entries));
-                m.put("Flushing Buffer", StringUtil.join("\n", this.entriesFlushing));
+                for (CircularLogEntryBuffer buffers[] : this.allEntries) {
+                    if (buffers == this.entries) continue;
+                    m.put("Pipeline Buffer " + this.allEntries.indexOf(buffers), StringUtil.join("\n", buffers));
+                } // FOR
                 LOG.debug("Closing WAL file\n" + StringUtil.formatMaps(m).trim() + " File :" + this.outputFile.getAbsolutePath());
             }
         }
@@ -407,7 +1074,13 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
             LOG.trace("Closing stream  :: size :" + this.fstream.size());
             
             this.fstream.close();
-                
+            
+            // In mmap mode the sync thread only closes the channel of a previous
+            // segment once it syncs a batch from the next one, so the channel
+            // of the last segment that it synced may still be open
+            if (this.lastSyncedChannel != null && this.lastSyncedChannel != this.fstream) {
+                this.lastSyncedChannel.close();
+            }
         } catch (IOException ex) {
             String message = "Failed to close WAL file";
             throw new ServerFaultException(message, ex);
@@ -419,25 +1092,63 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
         return (this.stop);
     }
 
+    /**
+     * Returns the file that this CommandLogWriter is writing to
+     * @return
+     */
+    public File getOutputFile() {
+        return (this.outputFile);
+    }
+    
+    /**
+     * Returns the id of this writer's log stream at the HStoreSite
+     * @return
+     */
+    public int getStreamId() {
+        return (this.streamId);
+    }
+    
+    /**
+     * Returns the local partitions whose txns are logged by this writer
+     * @return
+     */
+    public PartitionSet getPartitions() {
+        return (this.partitions);
+    }
+
     public CommandLogWriterProfiler getProfiler() {
         return this.profiler;
     }
 
+    /**
+     * Write the header for the current segment file. This is invoked whenever we
+     * open a new segment: by the sync thread when it rotates a full segment in
+     * segmentWritten(), or by the writer thread in writeMappedBatch() when using 
+     * memory-mapped files. The sync thread never touches fstream in mmap mode 
+     * (it only forces the batches' mapped regions), so there is always only one 
+     * thread writing to the current segment. But since this can run on the sync 
+     * thread, it cannot share the singletonSerializer with groupCommit(). 
+     * Segments are rotated rarely, so a new heap-backed FastSerializer is 
+     * created every time.
+     */
     public boolean writeHeader() {
-        assert (this.singletonSerializer != null);
+        FastSerializer fs = new FastSerializer(true, false);
         try {
-            this.singletonSerializer.clear();
-            this.singletonSerializer.writeBoolean(this.group_commit_size > 0);// Using
-                                                                              // group
-                                                                              // commit
-            this.singletonSerializer.writeInt(this.catalogContext.procedures.size());
+            if (this.useMappedFile) {
+                fs.writeByte(FORMAT_MAPPED);
+            } else if (this.group_commit_size > 0) {
+                fs.writeByte(FORMAT_GROUP_COMMIT);
+            } else {
+                fs.writeByte(FORMAT_SINGLE);
+            }
+            fs.writeInt(this.catalogContext.procedures.size());
             for (Procedure catalog_proc : this.catalogContext.procedures.values()) {
                 int procId = catalog_proc.getId();
-                this.singletonSerializer.writeInt(procId);
-                this.singletonSerializer.writeString(catalog_proc.getName());
+                fs.writeInt(procId);
+                fs.writeString(catalog_proc.getName());
             } // FOR
 
-            BBContainer b = this.singletonSerializer.getBBContainer();
+            BBContainer b = fs.getBBContainer();
             this.fstream.write(b.b.asReadOnlyBuffer());
             this.fstream.force(true);
         } catch (Exception e) {
@@ -449,15 +1160,36 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
     }
     
     /**
-     * GroupCommits the given buffer set all at once
+     * Serialize and compress the given buffer set and then hand it off to
+     * the sync thread to be written out to disk. The sync thread will return
+     * the buffer set back to the freeEntries queue once it is done with it.
+     * If there are no txns in the buffer set, then nothing is handed off.
      * 
      * @param eb
+     * @return the number of txns in the batch
      */
     public int groupCommit(CircularLogEntryBuffer[] eb) {
         if (hstore_conf.site.commandlog_profiling) {
             if (this.profiler == null)
                 this.profiler = new CommandLogWriterProfiler();
-            this.profiler.writingTime.start();
+            this.profiler.serializeTime.start();
+        }
+        
+        // Write directly into our memory-mapped log file
+        if (this.useMappedFile) {
+            int txnCounter = 0;
+            for (int i = 0; i < eb.length; i++) {
+                txnCounter += eb[i].size();
+            } // FOR
+            CommitBatch batch = null;
+            try {
+                if (txnCounter > 0) batch = this.writeMappedBatch(eb, txnCounter);
+            } finally {
+                if (hstore_conf.site.commandlog_profiling && this.profiler != null)
+                    this.profiler.serializeTime.stop();
+            }
+            if (batch != null) this.queueCommitBatch(batch);
+            return (txnCounter);
         }
 
         // Write all to a single FastSerializer buffer
@@ -489,33 +1221,85 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
         if (txnCounter == 0) {
             // if (debug.val)
             // LOG.debug("No transactions are in the current buffers. Not writing anything to disk");
+            if (hstore_conf.site.commandlog_profiling && this.profiler != null)
+                this.profiler.serializeTime.stop();
             return (txnCounter);
         }
+        if (hstore_conf.site.commandlog_profiling && this.profiler != null)
+            ProfileMeasurementUtil.swap(this.profiler.serializeTime, this.profiler.compressTime);
         
-        // Compress and force out to disk
+        // Compress
         ByteBuffer compressed;
         try {
             compressed = CompressionService.compressBufferForMessaging(this.singletonSerializer.getBBContainer().b);
         } catch (IOException e) {
             throw new RuntimeException("Failed to compress WAL buffer");
+        } finally {
+            if (hstore_conf.site.commandlog_profiling && this.profiler != null)
+                this.profiler.compressTime.stop();
+        }
+        
+        this.queueCommitBatch(new CommitBatch(this.commitBatchCounter, eb, compressed, txnCounter));
+        return (txnCounter);
+    }
+    
+    /**
+     * Hand off the given batch to the sync thread. This will block if the sync
+     * thread has not started writing out the previous batch yet
+     * @param batch
+     */
+    private void queueCommitBatch(CommitBatch batch) {
+        if (hstore_conf.site.commandlog_profiling && this.profiler != null)
+            this.profiler.stallTime.start();
+        try {
+            this.syncQueue.put(batch);
+        } catch (InterruptedException ex) {
+            String message = "Unexpected interruption while queuing group commit batch";
+            throw new ServerFaultException(message, ex);
+        } finally {
+            if (hstore_conf.site.commandlog_profiling && this.profiler != null)
+                this.profiler.stallTime.stop();
         }
+        this.commitBatchCounter++;
+    }
+    
+    /**
+     * Write out the given batch to the log file, force it to disk and then
+     * send out the client responses for all of the txns in the batch.
+     * This is only invoked by the sync thread.
+     * @param batch
+     */
+    private void sync(CommitBatch batch) {
+        final CommandLogWriterProfiler profiler = this.profiler;
+        if (hstore_conf.site.commandlog_profiling && profiler != null)
+            profiler.writingTime.start();
         
         if (debug.val)
-            LOG.debug(String.format("Writing out %d bytes for %d txns [batchCtr=%d]", compressed.limit(), txnCounter, this.commitBatchCounter));
+            LOG.debug(String.format("Writing out %d bytes for %d txns [batchCtr=%d]",
+                      batch.size, batch.txnCount, batch.batchId));
         try {
-            this.fstream.write(compressed);
-            this.fstream.force(true);
+            if (batch.mapped == null) this.fstream.write(batch.data);
+            if (hstore_conf.site.commandlog_profiling && profiler != null)
+                ProfileMeasurementUtil.swap(profiler.writingTime, profiler.fsyncTime);
+            long fsyncStart = System.nanoTime();
+            if (batch.mapped != null) {
+                this.syncMappedBatch(batch);
+            } else {
+                this.fstream.force(true);
+                this.segmentWritten(batch.size, batch.txnCount);
+            }
+            this.updateFsyncTime((System.nanoTime() - fsyncStart) / 1000000d);
         } catch (IOException ex) {
             ex.printStackTrace();
             String message = "Failed to group commit for buffer";
             throw new ServerFaultException(message, ex);
         }
         if (hstore_conf.site.commandlog_profiling && profiler != null)
-            ProfileMeasurementUtil.swap(profiler.writingTime, profiler.networkTime);
+            ProfileMeasurementUtil.swap(profiler.fsyncTime, profiler.networkTime);
         try {
             // Send responses
-            for (int i = 0; i < eb.length; i++) {
-                CircularLogEntryBuffer buffer = eb[i];
+            for (int i = 0; i < batch.buffers.length; i++) {
+                CircularLogEntryBuffer buffer = batch.buffers[i];
                 int start = buffer.getStart();
                 for (int j = 0, size = buffer.size(); j < size; j++) {
                     WriterLogEntry entry = buffer.buffer[(start + j) % buffer.buffer.length];
@@ -536,9 +1320,10 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
             if (hstore_conf.site.commandlog_profiling && profiler != null)
                 profiler.networkTime.stop();
         }
-
-        this.commitBatchCounter++;
-        return (txnCounter);
+        
+        // Give the buffers back to the writer thread
+        this.freeEntries.offer(batch.buffers);
+        this.syncedBatchCounter.incrementAndGet();
     }
     
     /**
@@ -559,8 +1344,10 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
                 LOG.trace(ts + " - Attempting to queue txn to write out to command log using group commit");
         
             int basePartition = ts.getBasePartition();
-            assert(this.hstore_site.isLocalPartition(basePartition));
-            int offset = this.hstore_site.getLocalPartitionOffset(basePartition);
+            int offset = this.partitionOffsets[basePartition];
+            assert(offset != -1) :
+                String.format("%s - Partition %d is not handled by command log stream #%d",
+                              ts, basePartition, this.streamId);
 
             // get the buffer for the partition of the current transaction
             CircularLogEntryBuffer buffer = this.entries[offset];
@@ -605,6 +1392,7 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
                 BBContainer b = fs.getBBContainer();
                 this.fstream.write(b.b.asReadOnlyBuffer());
                 this.fstream.force(true);
+                this.segmentWritten(b.b.limit(), 1);
                 this.singletonLogEntry.finish();
             } catch (Exception e) {
                 String message = "Failed to write single log entry for " + ts.toString();
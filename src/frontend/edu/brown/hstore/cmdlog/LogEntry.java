@@ -56,6 +56,7 @@ public class LogEntry implements FastSerializable, Poolable {
     
     private Long txnId;
     private long timestamp;
+    private int basePartition;
     private int procId;
     private ParameterSet procParams;
     
@@ -68,6 +69,7 @@ public class LogEntry implements FastSerializable, Poolable {
      */
     public LogEntry init(AbstractTransaction ts) {
         this.txnId = ts.getTransactionId();
+        this.basePartition = ts.getBasePartition();
         this.procId = ts.getProcedure().getId();
         this.procParams = ts.getProcedureParameters();
         assert(this.isInitialized()) : 
@@ -77,6 +79,7 @@ public class LogEntry implements FastSerializable, Poolable {
 
     public LogEntry init(AbstractTransaction ts, Boolean type) {
         this.txnId = ts.getTransactionId();
+        this.basePartition = ts.getBasePartition();
         this.procId = ts.getProcedure().getId();
         this.procParams = ts.getProcedureParameters();
         assert(this.isInitialized()) : 
@@ -90,6 +93,9 @@ public class LogEntry implements FastSerializable, Poolable {
     public long getTimestamp() {
         return timestamp;
     }
+    public int getBasePartition() {
+        return basePartition;
+    }
     public int getProcedureId() {
         return procId;
     }
@@ -106,6 +112,7 @@ public class LogEntry implements FastSerializable, Poolable {
     public void finish() {
         this.txnId = null;
         this.timestamp = -1;
+        this.basePartition = -1;
         this.procId = -1;
         this.procParams = null;
     }
@@ -114,6 +121,7 @@ public class LogEntry implements FastSerializable, Poolable {
     public void readExternal(FastDeserializer in) throws IOException {
         this.txnId = Long.valueOf(in.readLong());
         this.timestamp = in.readLong();
+        this.basePartition = in.readInt();
         this.procId = in.readInt();
         this.procParams = in.readObject(ParameterSet.class);
     }
@@ -124,6 +132,7 @@ public class LogEntry implements FastSerializable, Poolable {
             "Unexpected uninitialized " + this.getClass().getSimpleName();               
         out.writeLong(this.txnId.longValue());
         out.writeLong(EstTime.currentTimeMillis());
+        out.writeInt(this.basePartition);
         out.writeInt(this.procId);
         out.writeObject(this.procParams);
     }
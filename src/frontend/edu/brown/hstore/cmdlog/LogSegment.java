@@ -0,0 +1,108 @@
+/***************************************************************************
+ *   Copyright (C) 2012 by H-Store Project                                 *
+ *   Brown University                                                      *
+ *   Massachusetts Institute of Technology                                 *
+ *   Yale University                                                       *
+ *                                                                         *
+ *   Permission is hereby granted, free of charge, to any person obtaining *
+ *   a copy of this software and associated documentation files (the       *
+ *   "Software"), to deal in the Software without restriction, including   *
+ *   without limitation the rights to use, copy, modify, merge, publish,   *
+ *   distribute, sublicense, and/or sell copies of the Software, and to    *
+ *   permit persons to whom the Software is furnished to do so, subject to *
+ *   the following conditions:                                             *
+ *                                                                         *
+ *   The above copyright notice and this permission notice shall be        *
+ *   included in all copies or substantial portions of the Software.       *
+ *                                                                         *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,       *
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF    *
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.*
+ *   IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR     *
+ *   OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, *
+ *   ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR *
+ *   OTHER DEALINGS IN THE SOFTWARE.                                       *
+ ***************************************************************************/
+package edu.brown.hstore.cmdlog;
+
+import java.io.File;
+
+/**
+ * Information about a single command log segment file
+ */
+public class LogSegment {
+
+    private final int streamId;
+    private final int id;
+    private final File file;
+    private final long createTime;
+    private long lastWriteTime;
+    private long size = 0;
+    private long txnCount = 0;
+    private boolean closed = false;
+
+    public LogSegment(int streamId, int id, File file) {
+        this.streamId = streamId;
+        this.id = id;
+        this.file = file;
+        this.createTime = System.currentTimeMillis();
+        this.lastWriteTime = this.createTime;
+    }
+
+    /**
+     * Update this segment's information after a write has been made durable
+     * @param bytes
+     * @param txns
+     */
+    protected void update(long bytes, int txns) {
+        this.size += bytes;
+        this.txnCount += txns;
+        this.lastWriteTime = System.currentTimeMillis();
+    }
+
+    protected void close() {
+        this.closed = true;
+    }
+
+    /**
+     * Returns the id of the command log stream that this segment belongs to
+     */
+    public int getStreamId() {
+        return (this.streamId);
+    }
+    public int getId() {
+        return (this.id);
+    }
+    public File getFile() {
+        return (this.file);
+    }
+    public long getCreateTime() {
+        return (this.createTime);
+    }
+    /**
+     * Returns the last time that data was forced out to this segment.
+     * Every LogEntry in this segment was committed before this time.
+     */
+    public long getLastWriteTime() {
+        return (this.lastWriteTime);
+    }
+    public long getSize() {
+        return (this.size);
+    }
+    public long getTransactionCount() {
+        return (this.txnCount);
+    }
+    /**
+     * Returns true if the CommandLogWriter is no longer writing to this segment
+     */
+    public boolean isClosed() {
+        return (this.closed);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s{stream=%d, id=%d, file=%s, size=%d, txns=%d, closed=%s}",
+                             this.getClass().getSimpleName(), this.streamId, this.id, this.file.getName(),
+                             this.size, this.txnCount, this.closed);
+    }
+}
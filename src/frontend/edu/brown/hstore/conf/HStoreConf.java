@@ -375,6 +375,29 @@ public final class HStoreConf {
             experimental=false
         )
         public boolean exec_postprocessing_threads;
+
+        @ConfigProperty(
+            description="The number of TransactionPostProcessor threads to use per HStoreSite. " +
+                        "The ${site.exec_postprocessing_threads} parameter must be set to true. " +
+                        "If this is greater than one, then the threads all pull from the same queue, " +
+                        "so the ClientResponses for the same client connection may be sent back in a " +
+                        "different order than the txns finished in. Clients match responses to their " +
+                        "requests by the client handle, so this only affects the order that their " +
+                        "callbacks are invoked in.",
+            defaultInt=1,
+            experimental=true
+        )
+        public int exec_postprocessing_threads_count;
+
+        @ConfigProperty(
+            description="The maximum number of queued ClientResponses that a TransactionPostProcessor thread " +
+                        "will send out together. All of the responses in a batch that are for the same client " +
+                        "connection are serialized into a single buffer and written with one network write. " +
+                        "The ${site.exec_postprocessing_threads} parameter must be set to true.",
+            defaultInt=64,
+            experimental=true
+        )
+        public int exec_postprocessing_batch_size;
         
         @ConfigProperty(
             description="If this enabled with speculative execution, then HStoreSite only invoke the commit " +
@@ -409,6 +432,17 @@ public final class HStoreConf {
         )
         public boolean exec_early_prepare;
 
+        @ConfigProperty(
+            description="If this parameter is enabled, then the PartitionExecutor will invoke each " +
+                        "stored procedure's run() method through a MethodHandle that is built once when " +
+                        "the procedure is initialized, instead of using reflection for every transaction. " +
+                        "The handle converts the procedure's input parameters directly into the run() " +
+                        "method's primitive argument types.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean exec_procedure_invokers;
+
         @ConfigProperty(
             description="Setting this configuration parameter to true allows clients to " +
                         "issue ad hoc query requests use the @AdHoc sysproc. This should be " +
@@ -494,6 +528,17 @@ public final class HStoreConf {
         )
         public int specexec_scheduler_window;
         
+        @ConfigProperty(
+            description="If this parameter is true, then each partition's lock queue will maintain an index " +
+                        "of its queued single-partition transactions grouped by their Procedure. " +
+                        "The SpecExecScheduler will then only check one candidate per Procedure for conflicts " +
+                        "instead of scanning through the queue. This is only used if the " +
+                        "${site.specexec_scheduler_checker} computes conflicts at the Procedure level (e.g., TABLE).",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean specexec_scheduler_index;
+        
         @ConfigProperty(
             description="If this parameter is true, then the SpecExecScheduler will not attempt to " +
                         "speculatively execute any transactions if the current distributed transaction " +
@@ -542,6 +587,19 @@ public final class HStoreConf {
         )
         public boolean specexec_nonblocking;
         
+        @ConfigProperty(
+            description="If this parameter is true, then a PartitionExecutor will allow the next distributed " +
+                        "transaction in its lock queue to start executing at its partition while the " +
+                        "current distributed transaction is still running. This is only allowed if the " +
+                        "current distributed transaction's procedure is read-only, the next one's base partition " +
+                        "is not this partition, and the two procedures do not have any conflicts in the catalog. " +
+                        "Single-partition transactions will not be speculatively executed at the partition " +
+                        "until the current distributed transaction finishes.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean specexec_dtxn;
+        
         @ConfigProperty(
             description="" +
                         "Note that ${site.markov_enable} must be set to true.",
@@ -600,6 +658,17 @@ public final class HStoreConf {
             experimental=true
         )
         public int commandlog_timeout;
+
+        @ConfigProperty(
+            description="Target latency in milliseconds for a txn to be made durable in the command log. " +
+                        "If this is greater than zero, then the CommandLogWriter will adjust its group " +
+                        "commit window based on how long it takes to sync to disk and the rate that txns " +
+                        "are arriving. The window will never be longer than ${site.commandlog_timeout}. " +
+                        "If this is disabled, then the window is always ${site.commandlog_timeout}.",
+            defaultInt=-1,
+            experimental=true
+        )
+        public int commandlog_target_latency;
         
         @ConfigProperty(
             description="If enabled, then the CommandLogWriter will keep track of various internal " +
@@ -608,7 +677,68 @@ public final class HStoreConf {
             experimental=true
         )
         public boolean commandlog_profiling;
-        
+
+        @ConfigProperty(
+            description="The size (in bytes) of each command log segment file. Once the current " +
+                        "segment reaches this size, the CommandLogWriter will close it and start " +
+                        "writing to a new segment. If this is set to zero, then the CommandLogWriter " +
+                        "will write everything out to a single file.",
+            defaultLong=134217728, // 128MB
+            experimental=true
+        )
+        public long commandlog_segment_size;
+
+        @ConfigProperty(
+            description="If enabled, then the CommandLogWriter will pre-allocate each command log " +
+                        "segment file and serialize the log entries directly into a memory-mapped " +
+                        "region of that file instead of appending to it. Only the region that was " +
+                        "written to is synced to disk. The log entries are not compressed in this mode.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean commandlog_mmap;
+
+        @ConfigProperty(
+            description="The number of parallel command log streams at each HStoreSite. Each stream " +
+                        "has its own CommandLogWriter thread and log file and is responsible for a " +
+                        "subset of the site's local partitions. The partitions are assigned to the " +
+                        "streams in a round-robin manner. If this is greater than the number of local " +
+                        "partitions, then each partition will get its own stream.",
+            defaultInt=1,
+            experimental=true
+        )
+        public int commandlog_streams;
+
+        @ConfigProperty(
+            description="Directory where the CommandLogWriter will move command log segments that " +
+                        "are no longer needed for recovery because a snapshot was taken after they " +
+                        "were written. If this is not set, then these segments are deleted.",
+            defaultNull=true,
+            experimental=true
+        )
+        public String commandlog_archive_dir;
+
+        @ConfigProperty(
+            description="If enabled, then the HStoreSite will perform logical recovery when it starts. " +
+                        "It will first restore the latest snapshot in ${site.snapshot_dir} using " +
+                        "@SnapshotRestore and then replay all of the transactions in the command log " +
+                        "files in ${site.commandlog_dir} that were committed after that snapshot was taken. " +
+                        "Each site replays its own command log without coordinating with the other sites, " +
+                        "so the replay order of distributed transactions is only deterministic when the " +
+                        "cluster has a single site.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean commandlog_replay;
+
+        @ConfigProperty(
+            description="The maximum number of replayed transactions that each partition is allowed " +
+                        "to have outstanding at the same time during command log recovery.",
+            defaultInt=100,
+            experimental=true
+        )
+        public int commandlog_replay_window;
+
         // ----------------------------------------------------------------------------
         // AntiCache Options
         // ----------------------------------------------------------------------------
@@ -951,6 +1081,38 @@ public final class HStoreConf {
         )
         public long network_incoming_limit_bytes;
         
+        @ConfigProperty(
+            description="If this parameter is set to true, then the ClientResponse for a single-partition " +
+                        "transaction will be serialized once into a pooled direct buffer by the thread " +
+                        "that sends it back to the client. The framed buffer is then handed off to the " +
+                        "network thread as-is instead of being serialized again when it is written out.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean network_direct_responses;
+        
+        @ConfigProperty(
+            description="When a client sends a batch of invocations in a single message, the HStoreSite " +
+                        "sends their ClientResponses back together in a single message. This is the " +
+                        "longest time (in milliseconds) that a response will be held waiting for the rest " +
+                        "of the batch. Any responses that have arrived by then are sent right away in " +
+                        "a partial batch. If set to zero, then responses are held until the whole batch " +
+                        "has finished.",
+            defaultInt=10,
+            experimental=true
+        )
+        public int network_response_batch_timeout;
+        
+        @ConfigProperty(
+            description="The number of selector threads that the HStoreSite will use for client connections. " +
+                        "Each new connection is assigned to one of these threads in round-robin order and " +
+                        "that thread will perform all of the reads and writes for that connection. " +
+                        "The per-selector byte counts are included in the IOSTATS output of @Statistics.",
+            defaultInt=1,
+            experimental=true
+        )
+        public int network_selector_threads;
+        
         // ----------------------------------------------------------------------------
         // Transaction Execution Options
         // ----------------------------------------------------------------------------
@@ -1137,6 +1299,37 @@ public final class HStoreConf {
             experimental=true
         )
         public boolean markov_learning_enable;
+
+        @ConfigProperty(
+            description="If ${site.markov_learning_enable} is set to true, then the paths of completed " +
+                        "transactions are handed off to a separate MarkovLearner thread instead of being " +
+                        "applied to the Markov models inside of the PartitionExecutor. The learner thread " +
+                        "updates a private copy of each model and periodically publishes a new version of " +
+                        "that model to the site's MarkovEstimators.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean markov_learning_async;
+
+        @ConfigProperty(
+            description="The minimum amount of time in milliseconds that the MarkovLearner will wait " +
+                        "between publishing new versions of the same Markov model. " +
+                        "This is only used if ${site.markov_learning_async} is set to true.",
+            defaultInt=1000,
+            experimental=true
+        )
+        public int markov_learning_publish_interval;
+
+        @ConfigProperty(
+            description="Allow the MarkovPathEstimator to estimate a transaction's path using a compiled, " +
+                        "read-only copy of its Markov model that stores the model's states and transitions " +
+                        "in primitive arrays. The compiled model is rebuilt whenever the original model changes, " +
+                        "so this is ignored if ${site.markov_learning_enable} is set to true unless " +
+                        "${site.markov_learning_async} is also set to true.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean markov_compiled;
         
         @ConfigProperty(
             description="If this parameter is set to true, then the PartitionExecutor will use its " +
@@ -1316,6 +1509,27 @@ public final class HStoreConf {
             experimental=false
         )
         public boolean coordinator_sync_time;
+        
+        @ConfigProperty(
+            description="The number of event loop threads that the HStoreCoordinator will use for " +
+                        "inter-site RPC messages. The connections to remote sites are spread across " +
+                        "these loops, and each loop invokes the RemoteServiceHandler for the messages " +
+                        "that arrive on its connections. The first loop also accepts new connections.",
+            defaultInt=1,
+            experimental=true
+        )
+        public int coordinator_event_loops;
+
+        @ConfigProperty(
+            description="The number of microseconds that the HStoreCoordinator will hold on to outgoing " +
+                        "TransactionInit, TransactionPrepare, and TransactionFinish requests for a remote " +
+                        "site so that they can be sent together in a single write. Any other message sent " +
+                        "to that site will also send the buffered requests right away. " +
+                        "Setting this to zero disables this feature.",
+            defaultInt=0,
+            experimental=true
+        )
+        public int coordinator_batch_window;
 
         // ----------------------------------------------------------------------------
         // Output Tracing
@@ -1336,6 +1550,15 @@ public final class HStoreConf {
             experimental=false
         )
         public boolean trace_query_output;
+
+        @ConfigProperty(
+            description="When this property is set to true, the workload trace that each HStoreSite writes out " +
+                        "when it is started with the 'workload.output' parameter will use the compact binary " +
+                        "trace format instead of JSON. See edu.brown.workload.BinaryTraceWriter",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean trace_binary;
         
         // ----------------------------------------------------------------------------
         // HSTORESITE STATUS UPDATES
@@ -1713,7 +1936,18 @@ public final class HStoreConf {
             experimental=false
         )
         public boolean txn_hints;
-        
+
+        @ConfigProperty(
+            description="If this parameter is set to true and the client was not given a catalog, then it will " +
+                        "retrieve the catalog from the cluster using @GetCatalog when it makes its first connection. " +
+                        "This allows the client to calculate the base partition of each transaction request " +
+                        "for ${client.txn_hints}. The client will also update its partition-to-site routing table " +
+                        "whenever one of its requests is redirected by an HStoreSite.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean txn_hints_fetch_catalog;
+
         @ConfigProperty(
             description="If a node is executing multiple client processes, then the node may become overloaded if " +
                         "all the clients are started at the same time. This parameter defines the threshold for when " +
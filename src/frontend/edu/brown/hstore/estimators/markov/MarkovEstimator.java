@@ -3,6 +3,7 @@ package edu.brown.hstore.estimators.markov;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -26,6 +27,7 @@ import edu.brown.hstore.txns.TransactionUtil;
 import edu.brown.interfaces.DebugContext;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.markov.CompiledMarkovGraph;
 import edu.brown.markov.MarkovEdge;
 import edu.brown.markov.MarkovGraph;
 import edu.brown.markov.MarkovGraphTimes;
@@ -90,6 +92,12 @@ public class MarkovEstimator extends TransactionEstimator {
     
     private transient boolean enable_recomputes = false;
     
+    /**
+     * If this is set, then we will send the paths of completed txns to the
+     * MarkovLearner instead of updating the MarkovGraphs ourselves
+     */
+    private MarkovLearner learner;
+    
     /**
      * If we're using the TransactionEstimator, then we need to convert all 
      * primitive array ProcParameters into object arrays...
@@ -150,6 +158,12 @@ public class MarkovEstimator extends TransactionEstimator {
     public void enableGraphRecomputes() {
        this.enable_recomputes = true;
     }
+    public void setMarkovLearner(MarkovLearner learner) {
+        this.learner = learner;
+    }
+    public MarkovLearner getMarkovLearner() {
+        return (this.learner);
+    }
     public MarkovGraphsContainer getMarkovGraphsContainer() {
         return (this.markovs);
     }
@@ -334,7 +348,8 @@ public class MarkovEstimator extends TransactionEstimator {
             } // FOR
             
             // Update our cache if we tried and failed before
-            if (hstore_conf.site.markov_endpoint_caching && stmt_idxs != null) {
+            if (hstore_conf.site.markov_endpoint_caching && stmt_idxs != null &&
+                (this.learner == null || markov.containsVertex(state.getCurrent()))) {
                 if (debug.val)
                     LOG.debug(String.format("Updating cache batch end for %s: %s -> %s",
                               markov, current, state.getCurrent()));
@@ -367,7 +382,9 @@ public class MarkovEstimator extends TransactionEstimator {
         
         // Once the workload shifts we detect it and trigger this method. Recomputes
         // the graph with the data we collected with the current workload method.
-        if (this.enable_recomputes && markov.shouldRecompute(this.txn_count.get(), RECOMPUTE_TOLERANCE)) {
+        // The MarkovLearner will recompute the graph for us if we have one.
+        if (this.enable_recomputes && this.learner == null &&
+                markov.shouldRecompute(this.txn_count.get(), RECOMPUTE_TOLERANCE)) {
             markov.calculateProbabilities(catalogContext.getAllPartitionIds());
         }
         
@@ -388,6 +405,9 @@ public class MarkovEstimator extends TransactionEstimator {
         // The transaction for the given txn_id is in limbo, so we just want to remove it
         if (status == Status.ABORT_MISPREDICT) {
             state.getMarkovGraph().incrementMispredictionCount();
+            if (this.learner != null && hstore_conf.site.markov_mispredict_recompute) {
+                this.learner.queueRecompute(this.markovs, state.getMarkovGraph());
+            }
             if (this.profiler != null) this.profiler.finish_time.appendTime(timestamp);
             return;
         }
@@ -418,6 +438,14 @@ public class MarkovEstimator extends TransactionEstimator {
                 return;
             }
             
+            // Let the MarkovLearner update the graph for us
+            if (this.learner != null) {
+                state.setCurrent(next_v, null);
+                this.learner.queuePath(this.markovs, markov, state.actual_path);
+                if (this.profiler != null) this.profiler.finish_time.appendTime(timestamp);
+                return;
+            }
+            
             // If no edge exists to the next vertex, then we need to create one
             MarkovEdge next_e = null;
             synchronized (next_v) {
@@ -441,6 +469,13 @@ public class MarkovEstimator extends TransactionEstimator {
             MarkovEstimate initialEst = s.getInitialEstimate();
             synchronized (this.cached_paths) {
                 if (this.cached_paths.containsKey(markov) == false) {
+                    // Throw out the paths for any graph that the MarkovLearner replaced
+                    if (this.learner != null) {
+                        Iterator<MarkovGraph> it = this.cached_paths.keySet().iterator();
+                        while (it.hasNext()) {
+                            if (this.markovs.contains(it.next()) == false) it.remove();
+                        } // WHILE
+                    }
                     if (debug.val)
                         LOG.debug(String.format("Storing cached path through %s[#%d] that was used by txn #%d",
                                   markov, markov.getGraphId(), txn_id));
@@ -553,13 +588,25 @@ public class MarkovEstimator extends TransactionEstimator {
                           TransactionUtil.formatTxnName(catalog_proc, state.getTransactionId()),
                           markov, markov.getGraphId(),
                           MarkovPathEstimator.class.getSimpleName()));
+            CompiledMarkovGraph compiled = null;
+            int compiledStart = -1;
+            if (hstore_conf.site.markov_compiled &&
+                    (hstore_conf.site.markov_learning_enable == false || this.learner != null)) {
+                compiled = markov.getCompiledGraph();
+                compiledStart = compiled.getVertexIndex(est.getVertex());
+                if (compiledStart < 0) compiled = null;
+            }
             MarkovPathEstimator pathEstimator = null;
             try {
                 pathEstimator = (MarkovPathEstimator)this.pathEstimatorsPool.borrowObject();
-                pathEstimator.init(state.getMarkovGraph(), est, args, state.getBasePartition());
+                if (compiled != null) {
+                    pathEstimator.init(compiled, est, args, state.getBasePartition());
+                } else {
+                    pathEstimator.init(state.getMarkovGraph(), est, args, state.getBasePartition());
+                }
                 
                 pathEstimator.setForceTraversal(hstore_conf.site.markov_force_traversal);
-                pathEstimator.setLearningEnabled(hstore_conf.site.markov_learning_enable);
+                pathEstimator.setLearningEnabled(hstore_conf.site.markov_learning_enable && this.learner == null);
             } catch (Throwable ex) {
                 String txnName = TransactionUtil.formatTxnName(catalog_proc, state.getTransactionId());
                 String msg = "Failed to intitialize new MarkovPathEstimator for " + txnName; 
@@ -569,7 +616,11 @@ public class MarkovEstimator extends TransactionEstimator {
             
             if (this.profiler != null) timestamp = ProfileMeasurement.getTime();
             try {
-                pathEstimator.traverse(est.getVertex());
+                if (compiled != null) {
+                    pathEstimator.traverse(compiledStart);
+                } else {
+                    pathEstimator.traverse(est.getVertex());
+                }
             } catch (Throwable ex) {
                 try {
                     GraphvizExport<MarkovVertex, MarkovEdge> gv = MarkovUtil.exportGraphviz(markov, true, markov.getPath(pathEstimator.getVisitPath()));
@@ -661,15 +712,19 @@ public class MarkovEstimator extends TransactionEstimator {
                                           queryCounter,
                                           partitions,
                                           touchedPartitions);
-                assert(markov.containsVertex(current)) :
-                    String.format("%s does not have current vertex %s for %s",
-                                  markov, current,
-                                  TransactionUtil.formatTxnName(markov.getProcedure(), state.getTransactionId())); 
-                markov.addVertex(next_v);
-                next_e = markov.addToEdge(current, next_v);
-                if (debug.val)
-                    LOG.debug(String.format("Created new edge from %s to new vertex %s for txn #%d", 
-                              state.getCurrent(), next_v, state.getTransactionId()));
+                // If we have a MarkovLearner, then we can't modify the graph. The new vertex
+                // will only be in this txn's path until the MarkovLearner adds it for us.
+                if (this.learner == null) {
+                    assert(markov.containsVertex(current)) :
+                        String.format("%s does not have current vertex %s for %s",
+                                      markov, current,
+                                      TransactionUtil.formatTxnName(markov.getProcedure(), state.getTransactionId())); 
+                    markov.addVertex(next_v);
+                    next_e = markov.addToEdge(current, next_v);
+                    if (debug.val)
+                        LOG.debug(String.format("Created new edge from %s to new vertex %s for txn #%d", 
+                                  state.getCurrent(), next_v, state.getTransactionId()));
+                }
                 // assert(state.getCurrent().getPartitions().size() <= touchedPartitions.size());
             }
         } // SYNCH
@@ -0,0 +1,271 @@
+package edu.brown.hstore.estimators.markov;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.log4j.Logger;
+
+import edu.brown.hstore.HStoreConstants;
+import edu.brown.hstore.HStoreSite;
+import edu.brown.hstore.util.AbstractProcessingRunnable;
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.markov.MarkovGraph;
+import edu.brown.markov.MarkovVertex;
+import edu.brown.markov.containers.MarkovGraphsContainer;
+import edu.brown.utils.PartitionSet;
+
+/**
+ * Special thread that updates the MarkovGraphs used by the MarkovEstimators at a site.
+ * The MarkovEstimators queue up the paths of completed transactions instead of
+ * modifying their MarkovGraphs while the transactions are running. This thread
+ * replays each path into a private copy of the original MarkovGraph (its shadow).
+ * Every ${site.markov_learning_publish_interval} milliseconds, the thread
+ * recomputes the probabilities for any shadow that has changed and then publishes
+ * a new copy of it into its MarkovGraphsContainer. If the queue is empty, then the
+ * thread wakes up after the publish interval so that the last changes still get
+ * published. Transactions that already started keep using the version of the graph
+ * that they started with.
+ */
+public class MarkovLearner extends AbstractProcessingRunnable<MarkovLearner.QueuedPath> {
+    private static final Logger LOG = Logger.getLogger(MarkovLearner.class);
+    private static final LoggerBoolean debug = new LoggerBoolean();
+    private static final LoggerBoolean trace = new LoggerBoolean();
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    /**
+     * The path of a completed txn through a MarkovGraph.
+     * If the path is null, then this is a request to recompute the graph's probabilities.
+     */
+    public static final class QueuedPath {
+        private final MarkovGraphsContainer markovs;
+        private final MarkovGraph markov;
+        private final List<MarkovVertex> path;
+        private final long queueTime;
+
+        private QueuedPath(MarkovGraphsContainer markovs, MarkovGraph markov, List<MarkovVertex> path) {
+            this.markovs = markovs;
+            this.markov = markov;
+            this.path = path;
+            this.queueTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * The private copy of a MarkovGraph that this thread updates
+     */
+    private static final class Shadow {
+        private final MarkovGraphsContainer markovs;
+        private final MarkovGraph shadow;
+        /** The last version of the graph that was published to the MarkovGraphsContainer */
+        private MarkovGraph published;
+        private boolean dirty = false;
+        /** The time that the oldest path not included in the published graph was queued */
+        private long pendingTime = -1;
+        private long publishTime;
+
+        private Shadow(MarkovGraphsContainer markovs, MarkovGraph published) {
+            this.markovs = markovs;
+            this.published = published;
+            this.shadow = published.copy();
+            this.publishTime = System.currentTimeMillis();
+        }
+    }
+
+    // ----------------------------------------------------------------------------
+    // DATA MEMBERS
+    // ----------------------------------------------------------------------------
+
+    private final PartitionSet allPartitions;
+    private final long publishInterval;
+
+    /**
+     * Every version of a MarkovGraph that we published -> Shadow
+     * Older versions are removed once there are no more txns using them.
+     */
+    private final Map<MarkovGraph, Shadow> shadows = new WeakHashMap<MarkovGraph, Shadow>();
+    private final List<Shadow> dirtyShadows = new ArrayList<Shadow>();
+
+    private volatile int shadowCount = 0;
+    private volatile long pathCount = 0;
+    private volatile long publishCount = 0;
+    private volatile long lastPublishLag = 0;
+    private volatile long maxPublishLag = 0;
+    private volatile long totalPublishLag = 0;
+
+    // ----------------------------------------------------------------------------
+    // INITIALIZATION
+    // ----------------------------------------------------------------------------
+
+    public MarkovLearner(HStoreSite hstore_site) {
+        this(hstore_site, new LinkedBlockingQueue<QueuedPath>());
+    }
+
+    public MarkovLearner(HStoreSite hstore_site, BlockingQueue<QueuedPath> queue) {
+        super(hstore_site, HStoreConstants.THREAD_NAME_MARKOVLEARNER, queue);
+        this.allPartitions = hstore_site.getCatalogContext().getAllPartitionIds();
+        this.publishInterval = hstore_site.getHStoreConf().site.markov_learning_publish_interval;
+    }
+
+    // ----------------------------------------------------------------------------
+    // QUEUE METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Queue the path that a completed txn took through the given MarkovGraph.
+     * The path is copied, so the caller is allowed to reuse the list.
+     * @param markovs The container that the MarkovGraph was retrieved from
+     * @param markov
+     * @param path
+     */
+    public void queuePath(MarkovGraphsContainer markovs, MarkovGraph markov, List<MarkovVertex> path) {
+        assert(path.isEmpty() == false);
+        this.queue.offer(new QueuedPath(markovs, markov, new ArrayList<MarkovVertex>(path)));
+    }
+
+    /**
+     * Request that the probabilities of the given MarkovGraph are recomputed
+     * the next time that it is published, even if no new paths have been queued for it.
+     * @param markovs The container that the MarkovGraph was retrieved from
+     * @param markov
+     */
+    public void queueRecompute(MarkovGraphsContainer markovs, MarkovGraph markov) {
+        this.queue.offer(new QueuedPath(markovs, markov, null));
+    }
+
+    // ----------------------------------------------------------------------------
+    // PROCESSING METHODS
+    // ----------------------------------------------------------------------------
+
+    @Override
+    protected void processingCallback(QueuedPath next) {
+        Shadow s = this.shadows.get(next.markov);
+        if (s == null) {
+            if (debug.val)
+                LOG.debug(String.format("Creating shadow for %s [graphId=%d]",
+                          next.markov, next.markov.getGraphId()));
+            s = new Shadow(next.markovs, next.markov);
+            this.shadows.put(next.markov, s);
+            this.shadowCount++;
+        }
+        if (next.path != null) {
+            s.shadow.processPath(next.path);
+            this.pathCount++;
+        }
+        if (s.dirty == false) {
+            s.dirty = true;
+            s.pendingTime = next.queueTime;
+            this.dirtyShadows.add(s);
+        }
+        this.publishDirtyShadows();
+    }
+
+    @Override
+    protected long getPollTimeout() {
+        // Only wake up on our own if there are changes that still need to be published
+        return (this.dirtyShadows.isEmpty() ? -1 : this.publishInterval);
+    }
+
+    @Override
+    protected void idleCallback() {
+        this.publishDirtyShadows();
+    }
+
+    /**
+     * Publish every shadow that has changed and that has not been published
+     * within the last publish interval
+     */
+    private void publishDirtyShadows() {
+        long now = System.currentTimeMillis();
+        Iterator<Shadow> it = this.dirtyShadows.iterator();
+        while (it.hasNext()) {
+            Shadow dirty = it.next();
+            if (now - dirty.publishTime >= this.publishInterval) {
+                this.publish(dirty, now);
+                it.remove();
+            }
+        } // WHILE
+    }
+
+    /**
+     * Recompute the probabilities for the given shadow graph and then
+     * swap a copy of it into the MarkovGraphsContainer
+     * @param s
+     * @param now
+     */
+    private void publish(Shadow s, long now) {
+        s.shadow.calculateProbabilities(this.allPartitions);
+        MarkovGraph markov = s.shadow.copy();
+        if (s.markovs.replace(s.published, markov) == false) {
+            // Somebody else replaced the graph, so we'll keep our shadow around
+            // in case there are still txns using it but we won't publish it anymore
+            LOG.warn(String.format("Failed to publish new version of %s [graphId=%d]",
+                     s.published, s.published.getGraphId()));
+            s.dirty = false;
+            return;
+        }
+        this.shadows.put(markov, s);
+        s.published = markov;
+        s.dirty = false;
+        s.publishTime = now;
+
+        long lag = now - s.pendingTime;
+        this.lastPublishLag = lag;
+        if (lag > this.maxPublishLag) this.maxPublishLag = lag;
+        this.totalPublishLag += lag;
+        this.publishCount++;
+        if (debug.val)
+            LOG.debug(String.format("Published new version of %s [graphId=%d, vertices=%d, lag=%dms]",
+                      markov, markov.getGraphId(), markov.getVertexCount(), lag));
+    }
+
+    // ----------------------------------------------------------------------------
+    // STATISTICS METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Returns the number of txn paths waiting to be processed
+     */
+    public int getQueueSize() {
+        return (this.queue.size());
+    }
+    /**
+     * Returns the number of MarkovGraphs that this thread is maintaining a shadow for
+     */
+    public int getShadowCount() {
+        return (this.shadowCount);
+    }
+    /**
+     * Returns the total number of txn paths that have been applied to the shadow graphs
+     */
+    public long getPathCount() {
+        return (this.pathCount);
+    }
+    /**
+     * Returns the total number of new MarkovGraph versions published
+     */
+    public long getPublishCount() {
+        return (this.publishCount);
+    }
+    /**
+     * Returns the time in milliseconds between when the oldest path included in
+     * the last published MarkovGraph was queued and when that graph was published
+     */
+    public long getLastPublishLag() {
+        return (this.lastPublishLag);
+    }
+    public long getMaxPublishLag() {
+        return (this.maxPublishLag);
+    }
+    public double getAvgPublishLag() {
+        long cnt = this.publishCount;
+        return (cnt > 0 ? this.totalPublishLag / (double)cnt : 0);
+    }
+}
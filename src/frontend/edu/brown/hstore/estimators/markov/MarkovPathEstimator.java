@@ -3,6 +3,7 @@ package edu.brown.hstore.estimators.markov;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -27,6 +28,7 @@ import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.mappings.ParameterMapping;
 import edu.brown.mappings.ParameterMappingsSet;
+import edu.brown.markov.CompiledMarkovGraph;
 import edu.brown.markov.MarkovEdge;
 import edu.brown.markov.MarkovGraph;
 import edu.brown.markov.MarkovVertex;
@@ -117,6 +119,42 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
     private final SortedSet<MarkovEdge> candidate_edges = new TreeSet<MarkovEdge>();
     private final Collection<CountedStatement> next_statements = new HashSet<CountedStatement>();
     
+    // ----------------------------------------------------------------------------
+    // COMPILED TRAVERSAL MEMBERS
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * The CompiledMarkovGraph to traverse (if any)
+     */
+    private CompiledMarkovGraph compiled;
+    
+    /**
+     * Pre-computed ParameterMappings for each Statement+Counter pair
+     * that we have seen. This allows us to map the txn's ProcParameters
+     * to StmtParameters without needing to go through the ParameterMappingsSet.
+     */
+    private final Map<Statement, MappingPlan[]> mappingPlans = new IdentityHashMap<Statement, MappingPlan[]>();
+    
+    /**
+     * The list of StmtParameters that we can map for a single Statement+Counter pair.
+     * For each StmtParameter offset, we store all of the ProcParameters (and their array
+     * indexes) that it is mapped to in the same order as the ParameterMappingsSet.
+     */
+    private static class MappingPlan {
+        private final Object stmt_args[];
+        private final int stmt_offsets[];
+        private final int proc_params[][];
+        private final int proc_param_idxs[][];
+        
+        private MappingPlan(int num_params, int stmt_offsets[], int proc_params[][], int proc_param_idxs[][]) {
+            this.stmt_args = new Object[num_params];
+            this.stmt_offsets = stmt_offsets;
+            this.proc_params = proc_params;
+            this.proc_param_idxs = proc_param_idxs;
+        }
+    }
+    private static final MappingPlan NULL_PLAN = new MappingPlan(0, null, null, null);
+    
     // ----------------------------------------------------------------------------
     // CONSTRUCTORS
     // ----------------------------------------------------------------------------
@@ -165,6 +203,29 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
         return (this);
     }
     
+    /**
+     * Initialize this MarkovPathEstimator for a new traversal run over a CompiledMarkovGraph.
+     * Use traverse(int) to estimate the path.
+     * @param compiled The CompiledMarkovGraph to use for this txn.
+     * @param estimate The MarkovEstimate to populate while we traverse the model.
+     * @param procParams The txn's Procedure input parameters
+     * @param base_partition The txn's bases partition.
+     * @return
+     */
+    public MarkovPathEstimator init(CompiledMarkovGraph compiled, MarkovEstimate estimate, Object procParams[], int base_partition) {
+        this.compiled = compiled;
+        this.estimate = estimate;
+        this.base_partition = base_partition;
+        this.procParams = procParams;
+        assert(this.base_partition >= 0);
+        
+        if (trace.val)
+            LOG.trace(String.format("Initialized %s for %s [hashCode=%d, basePartition=%d, params=%s]",
+                      this.getClass().getSimpleName(), compiled, this.hashCode(),
+                      this.base_partition, StringUtil.toString(this.procParams, true, true)));
+        return (this);
+    }
+    
     @Override
     public boolean isInitialized() {
         return (this.estimate != null);
@@ -177,6 +238,7 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
                       this.hashCode()));
         super.finish();
         this.estimate = null;
+        this.compiled = null;
         this.past_partitions.clear();
         this.stmt_partitions.clear();
         if (this.forced_vertices != null) this.forced_vertices.clear();
@@ -569,6 +631,250 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
         MarkovPathEstimator.populateMarkovEstimate(this.estimate, this.estimate.getVertex());
     }
     
+    // ----------------------------------------------------------------------------
+    // COMPILED TRAVERSAL METHODS
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * Estimate the path of the txn through the CompiledMarkovGraph starting at the
+     * given vertex index. This makes the same decisions as the MarkovGraph traversal,
+     * except that we will never create new vertices because the compiled graph is immutable.
+     * @param start
+     */
+    public void traverse(int start) {
+        final CompiledMarkovGraph compiled = this.compiled;
+        assert(compiled != null) : "Not initialized with a " + CompiledMarkovGraph.class.getSimpleName();
+        
+        this.estimate.path.add(compiled.getVertex(start));
+        int current = start;
+        for (int depth = 0, cnt = compiled.getVertexCount(); depth < cnt; depth++) {
+            if (compiled.isEndingVertex(current)) {
+                if (trace.val) LOG.trace("Reached " + compiled.getType(current) + ". Stopping...");
+                break;
+            }
+            int next = this.selectNext(compiled, current);
+            if (next < 0) break;
+            current = next;
+        } // FOR
+        MarkovPathEstimator.populateMarkovEstimate(this.estimate, compiled, start);
+    }
+    
+    /**
+     * Figure out which vertex the txn will transition to from the given vertex.
+     * Returns -1 if we do not have a candidate.
+     * @param compiled
+     * @param current
+     * @return
+     */
+    private int selectNext(CompiledMarkovGraph compiled, int current) {
+        for (int i = compiled.getPartitionsStart(current), end = compiled.getPartitionsEnd(current); i < end; i++) {
+            this.past_partitions.add(compiled.getPartition(i));
+        } // FOR
+        
+        final int e_start = compiled.getEdgesStart(current);
+        final int e_end = compiled.getEdgesEnd(current);
+        if (e_start == e_end) {
+            if (debug.val) LOG.debug("No succesors were found for " + compiled.getVertex(current) + ". Halting traversal");
+            return (-1);
+        }
+        
+        // The outbound edges are sorted by their probability, so the first
+        // candidate that we find is the one that we will take
+        int next_edge = -1;
+        int num_candidates = 0;
+        int num_next_statements = 0;
+        double total_probability = 0.0;
+        
+        for (int e = e_start; e < e_end; e++) {
+            int next = compiled.getEdgeDest(e);
+            
+            // COMMIT/ABORT
+            if (compiled.isEndingVertex(next)) {
+                if (next_edge == -1) next_edge = e;
+                total_probability += compiled.getEdgeProbability(e);
+                num_candidates++;
+                continue;
+            }
+            assert(compiled.getStatement(next).equals(compiled.getStatement(current)) == false ||
+                   compiled.getQueryCounter(next) > compiled.getQueryCounter(current)) :
+                String.format("%s[#%d] > %s[#%d]",
+                              compiled.getStatement(next).fullName(), compiled.getQueryCounter(next),
+                              compiled.getStatement(current).fullName(), compiled.getQueryCounter(current));
+            
+            // Only examine each unique Statement+Counter pair once
+            int cstmt = compiled.getCountedStatementId(next);
+            boolean seen = false;
+            for (int e0 = e_start; e0 < e; e0++) {
+                int prev = compiled.getEdgeDest(e0);
+                if (compiled.isEndingVertex(prev) == false && compiled.getCountedStatementId(prev) == cstmt) {
+                    seen = true;
+                    break;
+                }
+            } // FOR
+            if (seen) continue;
+            num_next_statements++;
+            
+            Statement catalog_stmt = compiled.getStatement(next);
+            int catalog_stmt_index = compiled.getQueryCounter(next);
+            try {
+                if (this.estimatePartitions(catalog_stmt, catalog_stmt_index) == false) continue;
+            } catch (Exception ex) {
+                LOG.error("Failed to calculate partitions for " + catalog_stmt, ex);
+                return (-1);
+            }
+            if (this.stmt_partitions.isEmpty()) continue;
+            
+            // Now for this given list of partitions, find a vertex in our next set
+            // that has the same partitions
+            for (int e1 = e; e1 < e_end; e1++) {
+                int next_v = compiled.getEdgeDest(e1);
+                if (compiled.isEndingVertex(next_v) == false &&
+                    compiled.getCountedStatementId(next_v) == cstmt &&
+                    compiled.equalsPartitions(next_v, this.stmt_partitions) &&
+                    compiled.equalsPastPartitions(next_v, this.past_partitions)) {
+                    if (next_edge == -1 || e1 < next_edge) next_edge = e1;
+                    total_probability += compiled.getEdgeProbability(e1);
+                    num_candidates++;
+                    break;
+                }
+            } // FOR
+        } // FOR
+        
+        // If we don't have any candidate edges and the FORCE TRAVERSAL flag is set,
+        // then we'll just grab all of the edges from our current vertex
+        boolean was_forced = false;
+        if (num_candidates == 0 && this.force_traversal) {
+            if (trace.val)
+                LOG.trace("No candidate edges were found. Force travesal flag is set to true, so taking all");
+            next_edge = e_start;
+            for (int e = e_start; e < e_end; e++) {
+                total_probability += compiled.getEdgeProbability(e);
+            } // FOR
+            num_candidates = e_end - e_start;
+            was_forced = true;
+        }
+        if (num_candidates == 0) {
+            if (trace.val) LOG.trace("No matching children found. We have to stop...");
+            return (-1);
+        }
+        
+        int next = compiled.getEdgeDest(next_edge);
+        MarkovVertex next_vertex = compiled.getVertex(next);
+        this.estimate.path.add(next_vertex);
+        if (was_forced) {
+            if (this.forced_vertices == null) this.forced_vertices = new HashSet<MarkovVertex>();
+            this.forced_vertices.add(next_vertex);
+        }
+        
+        // If there was only one next Statement that we could possibly execute here,
+        // and if our ParameterMappings allowed us to know exactly what path we took,
+        // then we don't need to compute the confidence based on the candidate edges.
+        if (was_forced || num_next_statements != 1 || num_candidates != 1) {
+            this.estimate.confidence *= compiled.getEdgeProbability(next_edge) / total_probability;
+        }
+        MarkovPathEstimator.populateProbabilities(this.estimate, compiled, next);
+        
+        if (debug.val)
+            LOG.debug("SELECTED: " + next_vertex + " [confidence=" + this.estimate.confidence + "]");
+        return (next);
+    }
+    
+    /**
+     * Use the ParameterMappings for the given Statement to populate stmt_partitions.
+     * Returns false if we were unable to map any of the Statement's parameters.
+     * @param catalog_stmt
+     * @param catalog_stmt_index
+     * @return
+     * @throws Exception
+     */
+    private boolean estimatePartitions(Statement catalog_stmt, int catalog_stmt_index) throws Exception {
+        MappingPlan plan = this.getMappingPlan(catalog_stmt, catalog_stmt_index);
+        if (plan == NULL_PLAN) {
+            if (debug.val) LOG.warn("No parameter mappings for " + catalog_stmt);
+            return (false);
+        }
+        Object stmt_args[] = plan.stmt_args;
+        Arrays.fill(stmt_args, null);
+        boolean stmt_args_set = false;
+        for (int i = 0; i < plan.stmt_offsets.length; i++) {
+            int proc_params[] = plan.proc_params[i];
+            int proc_param_idxs[] = plan.proc_param_idxs[i];
+            for (int m = 0; m < proc_params.length; m++) {
+                Object value = this.procParams[proc_params[m]];
+                if (proc_param_idxs[m] >= 0) {
+                    Object proc_inner_args[] = (Object[])value;
+                    if (proc_inner_args.length <= proc_param_idxs[m]) continue;
+                    value = proc_inner_args[proc_param_idxs[m]];
+                }
+                stmt_args[plan.stmt_offsets[i]] = value;
+                stmt_args_set = true;
+                break;
+            } // FOR (Mapping)
+        } // FOR (StmtParameter)
+        if (stmt_args_set == false) {
+            if (trace.val) LOG.trace("No stmt_args for " + catalog_stmt + ". Skipping...");
+            return (false);
+        }
+        
+        this.stmt_partitions.clear();
+        this.p_estimator.getAllPartitions(this.stmt_partitions, catalog_stmt, stmt_args, this.base_partition);
+        if (trace.val)
+            LOG.trace("Estimated Partitions for " + catalog_stmt + ": " + this.stmt_partitions);
+        return (true);
+    }
+    
+    /**
+     * Return the cached MappingPlan for the given Statement+Counter pair.
+     * @param catalog_stmt
+     * @param catalog_stmt_index
+     * @return
+     */
+    private MappingPlan getMappingPlan(Statement catalog_stmt, int catalog_stmt_index) {
+        MappingPlan plans[] = this.mappingPlans.get(catalog_stmt);
+        if (plans == null || plans.length <= catalog_stmt_index) {
+            MappingPlan new_plans[] = new MappingPlan[catalog_stmt_index + 1];
+            if (plans != null) System.arraycopy(plans, 0, new_plans, 0, plans.length);
+            plans = new_plans;
+            this.mappingPlans.put(catalog_stmt, plans);
+        }
+        MappingPlan plan = plans[catalog_stmt_index];
+        if (plan == null) {
+            plan = this.createMappingPlan(catalog_stmt, catalog_stmt_index);
+            plans[catalog_stmt_index] = plan;
+        }
+        return (plan);
+    }
+    
+    private MappingPlan createMappingPlan(Statement catalog_stmt, int catalog_stmt_index) {
+        Map<StmtParameter, SortedSet<ParameterMapping>> stmtMappings = this.allMappings.get(catalog_stmt, catalog_stmt_index);
+        if (stmtMappings == null) return (NULL_PLAN);
+        
+        StmtParameter stmt_params[] = catalog_stmt.getParameters().values();
+        int stmt_args_offsets[] = this.p_estimator.getStatementEstimationParameters(catalog_stmt);
+        if (stmt_args_offsets == null) {
+            stmt_args_offsets = new int[stmt_params.length];
+            for (int i = 0; i < stmt_args_offsets.length; i++)
+                stmt_args_offsets[i] = i;
+        }
+        int proc_params[][] = new int[stmt_args_offsets.length][];
+        int proc_param_idxs[][] = new int[stmt_args_offsets.length][];
+        for (int i = 0; i < stmt_args_offsets.length; i++) {
+            Collection<ParameterMapping> mappings = stmtMappings.get(stmt_params[stmt_args_offsets[i]]);
+            int num_mappings = (mappings != null ? mappings.size() : 0);
+            proc_params[i] = new int[num_mappings];
+            proc_param_idxs[i] = new int[num_mappings];
+            if (num_mappings == 0) continue;
+            int m = 0;
+            for (ParameterMapping mapping : mappings) {
+                ProcParameter catalog_proc_param = mapping.getProcParameter();
+                proc_params[i][m] = catalog_proc_param.getIndex();
+                proc_param_idxs[i][m] = (catalog_proc_param.getIsarray() ? mapping.getProcParameterIndex() : -1);
+                m++;
+            } // FOR
+        } // FOR
+        return (new MappingPlan(stmt_params.length, stmt_args_offsets, proc_params, proc_param_idxs));
+    }
+    
     // ----------------------------------------------------------------------------
     // PROBABILITY CALCULATION METHODS
     // ----------------------------------------------------------------------------
@@ -703,6 +1009,65 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
         }
     }
     
+    /**
+     * Same as populateProbabilities() but for a vertex in a CompiledMarkovGraph
+     * @param estimate
+     * @param compiled
+     * @param v
+     */
+    protected static void populateProbabilities(MarkovEstimate estimate, CompiledMarkovGraph compiled, int v) {
+        boolean readQuery = compiled.isReadOnly(v);
+        for (int i = compiled.getPartitionsStart(v), end = compiled.getPartitionsEnd(v); i < end; i++) {
+            int partition = compiled.getPartition(i);
+            if (estimate.isDoneProbabilitySet(partition) == false) {
+                estimate.setDoneProbability(partition, compiled.getDoneProbability(v, partition));
+            }
+            if (estimate.isWriteProbabilitySet(partition) == false) {
+                estimate.setWriteProbability(partition, compiled.getWriteProbability(v, partition));
+            }
+            (readQuery ? estimate.read_partitions : estimate.write_partitions).add(partition);
+            estimate.incrementTouchedCounter(partition);
+            estimate.touched_partitions.add(partition);
+        } // FOR
+        for (int i = compiled.getPastPartitionsStart(v), end = compiled.getPastPartitionsEnd(v); i < end; i++) {
+            int partition = compiled.getPastPartition(i);
+            if (compiled.containsPartition(v, partition) == false) {
+                if (estimate.isDoneProbabilitySet(partition) == false) {
+                    estimate.setDoneProbability(partition, compiled.getDoneProbability(v, partition));
+                }
+                if (estimate.isWriteProbabilitySet(partition) == false) {
+                    estimate.setWriteProbability(partition, compiled.getWriteProbability(v, partition));
+                }
+            }
+        } // FOR
+        if (compiled.isQueryVertex(v) && compiled.getAbortProbability(v) > estimate.greatest_abort) {
+            estimate.greatest_abort = compiled.getAbortProbability(v);
+        }
+    }
+    
+    /**
+     * Same as populateMarkovEstimate() but for a vertex in a CompiledMarkovGraph
+     * @param estimate
+     * @param compiled
+     * @param v
+     */
+    protected static void populateMarkovEstimate(MarkovEstimate estimate, CompiledMarkovGraph compiled, int v) {
+        for (int partition : estimate.getCatalogContext().getAllPartitionIds().values()) {
+            if (estimate.isDoneProbabilitySet(partition) == false) {
+                estimate.setDoneProbability(partition, compiled.getDoneProbability(v, partition));
+            }
+            if (estimate.isWriteProbabilitySet(partition) == false) {
+                estimate.setWriteProbability(partition, compiled.getWriteProbability(v, partition));
+            }
+        } // FOR
+        if (compiled.getTotalHits(v) >= MarkovGraph.MIN_HITS_FOR_NO_ABORT) {
+            if (estimate.greatest_abort == EstimatorUtil.NULL_MARKER) estimate.greatest_abort = 0.0f;
+            estimate.setAbortProbability(estimate.greatest_abort);
+        } else {
+            estimate.setAbortProbability(1.0f);
+        }
+    }
+    
     // ----------------------------------------------------------------------------
     // CONVENIENCE METHODS
     // ----------------------------------------------------------------------------
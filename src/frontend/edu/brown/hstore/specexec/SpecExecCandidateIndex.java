@@ -0,0 +1,145 @@
+package edu.brown.hstore.specexec;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.voltdb.catalog.Procedure;
+
+import edu.brown.hstore.txns.AbstractTransaction;
+import edu.brown.hstore.txns.LocalTransaction;
+
+/**
+ * An index of the single-partition LocalTransactions that are waiting in a
+ * PartitionLockQueue, grouped into buckets by their Procedure. The TableConflictChecker
+ * precomputes its read/write conflict bitmaps per Procedure, so every txn in a bucket
+ * conflicts with a distributed txn in the same way. This means that the SpecExecScheduler
+ * only has to check one txn per bucket instead of scanning through the queue.
+ * The txns in each bucket are sorted by their txn ids.
+ * <B>Note:</B> It is safe to add and remove txns from any thread.
+ */
+public class SpecExecCandidateIndex {
+
+    /**
+     * The queued txns for a single Procedure
+     */
+    public static final class Bucket {
+        private final Procedure catalog_proc;
+        private final ConcurrentSkipListMap<Long, LocalTransaction> txns = new ConcurrentSkipListMap<Long, LocalTransaction>();
+
+        private Bucket(Procedure catalog_proc) {
+            this.catalog_proc = catalog_proc;
+        }
+        public Procedure getProcedure() {
+            return (this.catalog_proc);
+        }
+        /**
+         * Returns the txns in this bucket in txn id order
+         */
+        public Collection<LocalTransaction> getTransactions() {
+            return (this.txns.values());
+        }
+        /**
+         * Returns the txns in this bucket in reverse txn id order
+         */
+        public Collection<LocalTransaction> getTransactionsDescending() {
+            return (this.txns.descendingMap().values());
+        }
+        /**
+         * Returns the txn in this bucket with the lowest txn id
+         * or null if the bucket is empty.
+         */
+        public LocalTransaction first() {
+            Map.Entry<Long, LocalTransaction> e = this.txns.firstEntry();
+            return (e != null ? e.getValue() : null);
+        }
+        public boolean isEmpty() {
+            return (this.txns.isEmpty());
+        }
+        public int size() {
+            return (this.txns.size());
+        }
+        @Override
+        public String toString() {
+            return (String.format("%s%s", this.catalog_proc.getName(), this.txns.keySet()));
+        }
+    } // CLASS
+
+    private final Map<Procedure, Bucket> buckets = new ConcurrentHashMap<Procedure, Bucket>();
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    /**
+     * Add the given txn to the index if it is a single-partition LocalTransaction.
+     * Returns true if the txn was added.
+     * @param ts
+     * @return
+     */
+    public boolean add(AbstractTransaction ts) {
+        if ((ts instanceof LocalTransaction) == false || ts.isPredictSinglePartition() == false) {
+            return (false);
+        }
+        Long txnId = ts.getTransactionId();
+        if (txnId == null) return (false);
+
+        Procedure catalog_proc = ts.getProcedure();
+        Bucket bucket = this.buckets.get(catalog_proc);
+        if (bucket == null) {
+            synchronized (this.buckets) {
+                bucket = this.buckets.get(catalog_proc);
+                if (bucket == null) {
+                    bucket = new Bucket(catalog_proc);
+                    this.buckets.put(catalog_proc, bucket);
+                }
+            } // SYNCH
+        }
+        if (bucket.txns.put(txnId, (LocalTransaction)ts) == null) {
+            this.size.incrementAndGet();
+        }
+        return (true);
+    }
+
+    /**
+     * Remove the given txn from the index.
+     * Returns true if the txn was in the index.
+     * @param ts
+     * @return
+     */
+    public boolean remove(AbstractTransaction ts) {
+        Long txnId = ts.getTransactionId();
+        if (txnId == null) return (false);
+        Bucket bucket = this.buckets.get(ts.getProcedure());
+        if (bucket != null && bucket.txns.remove(txnId, ts)) {
+            this.size.decrementAndGet();
+            return (true);
+        }
+        return (false);
+    }
+
+    public void clear() {
+        for (Bucket bucket : this.buckets.values()) {
+            this.size.addAndGet(-bucket.size());
+            bucket.txns.clear();
+        } // FOR
+    }
+
+    /**
+     * Returns all of the buckets in this index. Some of them may be empty.
+     */
+    public Collection<Bucket> getBuckets() {
+        return (this.buckets.values());
+    }
+
+    /**
+     * Returns the total number of txns in the index
+     */
+    public int size() {
+        return (this.size.get());
+    }
+
+    @Override
+    public String toString() {
+        return (this.buckets.values().toString());
+    }
+}
@@ -1,6 +1,7 @@
 package edu.brown.hstore.specexec.checkers;
 
 import org.voltdb.CatalogContext;
+import org.voltdb.ParameterSet;
 
 import edu.brown.hstore.txns.AbstractTransaction;
 import edu.brown.hstore.txns.LocalTransaction;
@@ -36,6 +37,37 @@ public abstract class AbstractConflictChecker {
         return (false);
     }
     
+    /**
+     * Returns true if hasConflictBefore() only depends on the candidate txn's
+     * Procedure and not on its parameters or other runtime state. If this is true,
+     * then the SpecExecScheduler only needs to check one candidate per Procedure.
+     * @return
+     */
+    public boolean isProcedureBased() {
+        return (false);
+    }
+    
+    /**
+     * Returns true if this checker needs the PartitionExecutor to pass it every 
+     * PlanFragment that a distributed txn executes through trackQuery()
+     * @return
+     */
+    public boolean needsQueryTracking() {
+        return (false);
+    }
+    
+    /**
+     * Record that the given distributed txn executed the PlanFragment with the
+     * given input parameters at the partition.
+     * @param ts
+     * @param partitionId
+     * @param fragmentId
+     * @param params
+     */
+    public void trackQuery(AbstractTransaction ts, int partitionId, long fragmentId, ParameterSet params) {
+        // Nothing...
+    }
+    
     /**
      * Returns true if the given transaction should be ignored from conflict checking
      * @param ts
@@ -0,0 +1,553 @@
+package edu.brown.hstore.specexec.checkers;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+
+import org.apache.log4j.Logger;
+import org.voltdb.CatalogContext;
+import org.voltdb.ParameterSet;
+import org.voltdb.catalog.Column;
+import org.voltdb.catalog.PlanFragment;
+import org.voltdb.catalog.ProcParameter;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+import org.voltdb.catalog.StmtParameter;
+import org.voltdb.catalog.Table;
+import org.voltdb.expressions.AbstractExpression;
+import org.voltdb.types.ExpressionType;
+import org.voltdb.utils.Pair;
+
+import edu.brown.catalog.CatalogPair;
+import edu.brown.catalog.CatalogUtil;
+import edu.brown.expressions.ExpressionUtil;
+import edu.brown.hstore.txns.AbstractTransaction;
+import edu.brown.hstore.txns.LocalTransaction;
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.mappings.ParameterMapping;
+import edu.brown.mappings.ParameterMappingsSet;
+import edu.brown.utils.CollectionUtil;
+import edu.brown.utils.PredicatePairs;
+
+/**
+ * A row-level ConflictChecker that compares the primary key values that a queued
+ * single-partition txn will access against the primary key values that the distributed
+ * txn has read and written so far at the partition.
+ * <p>
+ * The keys for the distributed txn come from the input parameters of the PlanFragments
+ * that it has already executed (see trackQuery()). The keys for the candidate txn are
+ * derived from its ProcParameters using the exact mappings in the ParameterMappingsSet.
+ * Whenever we cannot figure out exactly what key a query will access (e.g., a range scan
+ * or a missing ParameterMapping), we treat that query as if it could touch any row
+ * in the table. This means that in the worst case this checker behaves the same
+ * as the TableConflictChecker.
+ */
+public class KeyConflictChecker extends TableConflictChecker {
+    private static final Logger LOG = Logger.getLogger(KeyConflictChecker.class);
+    private static final LoggerBoolean debug = new LoggerBoolean();
+    private static final LoggerBoolean trace = new LoggerBoolean();
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    /**
+     * Special marker key for when we don't know what rows a query will access
+     */
+    protected static final Object ANY_KEY = new Object() {
+        @Override
+        public String toString() {
+            return ("*ANY*");
+        }
+    };
+
+    /**
+     * The max number of candidate keys that we will generate for a single
+     * Statement before we give up and treat it as accessing any row.
+     */
+    protected static final int MAX_CANDIDATE_KEYS = 256;
+
+    // ----------------------------------------------------------------------------
+    // PRE-COMPUTED CACHE
+    // ----------------------------------------------------------------------------
+
+    /**
+     * For each Statement, we maintain the StmtParameters that are used in
+     * equality predicates for each column in the primary key of the tables
+     * that it references.
+     */
+    protected static class StatementCache {
+        final Statement catalog_stmt;
+
+        /**
+         * TableId -> StmtParameter per primary key column
+         * If the StmtParameters for a table are missing, then we don't
+         * know what rows that the Statement will access in that table.
+         */
+        final Map<Integer, StmtParameter[]> keyParams = new HashMap<Integer, StmtParameter[]>();
+
+        StatementCache(Statement catalog_stmt) {
+            this.catalog_stmt = catalog_stmt;
+        }
+    } // CLASS
+
+    /**
+     * A table that one of a Procedure's Statements will access and the ProcParameters
+     * that the primary key values of the rows that it accesses come from.
+     */
+    protected static class TableAccess {
+        final Table catalog_tbl;
+        final int tableId;
+        final boolean write;
+
+        /**
+         * Each element is the list of ProcParameters for the primary key columns
+         * for one invocation of the Statement. If this is null, then the Statement
+         * could access any row in the table.
+         */
+        final ProcParameter sources[][];
+
+        TableAccess(Table catalog_tbl, boolean write, ProcParameter sources[][]) {
+            this.catalog_tbl = catalog_tbl;
+            this.tableId = catalog_tbl.getRelativeIndex();
+            this.write = write;
+            this.sources = sources;
+        }
+        @Override
+        public String toString() {
+            return String.format("%s[%s/%s]", this.catalog_tbl.getName(),
+                                 (this.write ? "WRITE" : "READ"),
+                                 (this.sources != null ? this.sources.length : "ANY"));
+        }
+    } // CLASS
+
+    /**
+     * PlanFragmentId -> StatementCache
+     */
+    protected final Map<Long, StatementCache> fragmentCache = new HashMap<Long, StatementCache>();
+
+    /**
+     * Procedure -> TableAccesses
+     */
+    protected final Map<Procedure, TableAccess[]> procCache = new HashMap<Procedure, TableAccess[]>();
+
+    // ----------------------------------------------------------------------------
+    // INITIALIZATION
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Constructor
+     * @param catalogContext
+     */
+    protected KeyConflictChecker(CatalogContext catalogContext) {
+        super(catalogContext);
+        ParameterMappingsSet paramMappings = catalogContext.paramMappings;
+        if (paramMappings == null) {
+            LOG.warn(String.format("The %s in the %s is null. %s will only be able to detect " +
+                     "conflicts at the table level",
+                     ParameterMappingsSet.class.getSimpleName(),
+                     catalogContext.getClass().getSimpleName(),
+                     this.getClass().getSimpleName()));
+        }
+
+        Map<Table, Column[]> pkeysCache = new HashMap<Table, Column[]>();
+        for (Table catalog_tbl : CatalogUtil.getDataTables(this.catalogContext.database)) {
+            pkeysCache.put(catalog_tbl, CatalogUtil.getPrimaryKeyColumns(catalog_tbl).toArray(new Column[0]));
+        } // FOR (table)
+
+        for (Procedure proc : this.catalogContext.getRegularProcedures()) {
+            List<TableAccess> accesses = new ArrayList<TableAccess>();
+            Set<Pair<Table, Boolean>> seen = new HashSet<Pair<Table, Boolean>>();
+            for (Statement stmt : proc.getStatements()) {
+                StatementCache cache = this.createStatementCache(stmt, pkeysCache);
+
+                Collection<PlanFragment> frags = new HashSet<PlanFragment>();
+                frags.addAll(stmt.getFragments());
+                frags.addAll(stmt.getMs_fragments());
+                seen.clear();
+                for (PlanFragment frag : frags) {
+                    this.fragmentCache.put(Long.valueOf(frag.getId()), cache);
+
+                    boolean write = (frag.getReadonly() == false);
+                    for (Table tbl : CatalogUtil.getReferencedTables(frag)) {
+                        if (seen.add(Pair.of(tbl, write)) == false) continue;
+                        ProcParameter sources[][] = null;
+                        if (paramMappings != null) {
+                            sources = this.getKeySources(paramMappings, cache, tbl.getRelativeIndex());
+                        }
+                        accesses.add(new TableAccess(tbl, write, sources));
+                    } // FOR (tbl)
+                } // FOR (frag)
+            } // FOR (stmt)
+            this.procCache.put(proc, accesses.toArray(new TableAccess[0]));
+            if (debug.val)
+                LOG.debug(String.format("%s -> %s", proc.getName(), accesses));
+        } // FOR (proc)
+    }
+
+    /**
+     * Figure out what StmtParameters are used in equality predicates on the primary
+     * keys of each table referenced in the given Statement.
+     * @param stmt
+     * @param pkeysCache
+     * @return
+     */
+    private StatementCache createStatementCache(Statement stmt, Map<Table, Column[]> pkeysCache) {
+        StatementCache cache = new StatementCache(stmt);
+
+        // We can't use the predicates if the WHERE clause has a disjunction because
+        // the query may access rows other than the ones with the keys that we find
+        if (stmt.getExptree() != null && stmt.getExptree().isEmpty() == false) {
+            try {
+                AbstractExpression exp = ExpressionUtil.deserializeExpression(this.catalogContext.database,
+                                                                              stmt.getExptree());
+                if (ExpressionUtil.getExpressionTypes(exp).contains(ExpressionType.CONJUNCTION_OR)) {
+                    if (debug.val)
+                        LOG.debug(String.format("%s contains a disjunction. Marking as accessing any row",
+                                  stmt.fullName()));
+                    return (cache);
+                }
+            } catch (Exception ex) {
+                LOG.warn("Failed to deserialize the WHERE clause for " + stmt.fullName(), ex);
+                return (cache);
+            }
+        }
+
+        PredicatePairs cset = CatalogUtil.extractStatementPredicates(stmt, false);
+        for (Table tbl : CatalogUtil.getReferencedTables(stmt)) {
+            Column pkeys[] = pkeysCache.get(tbl);
+            if (pkeys == null || pkeys.length == 0) {
+                if (trace.val)
+                    LOG.trace(String.format("%s does not have a primary key [stmt=%s]", tbl, stmt.fullName()));
+                continue;
+            }
+            StmtParameter params[] = new StmtParameter[pkeys.length];
+            for (int i = 0; i < pkeys.length; i++) {
+                // There must be exactly one predicate on this column and it must
+                // be an equality comparison with a StmtParameter
+                Collection<CatalogPair> pairs = cset.findAll(pkeys[i]);
+                if (pairs.size() != 1) break;
+                CatalogPair pair = CollectionUtil.first(pairs);
+                if (pair.getComparisonExp() != ExpressionType.COMPARE_EQUAL) break;
+                if ((pair.getOther(pkeys[i]) instanceof StmtParameter) == false) break;
+                params[i] = (StmtParameter)pair.getOther(pkeys[i]);
+            } // FOR
+            if (params[params.length-1] == null) {
+                if (trace.val)
+                    LOG.trace(String.format("Missing primary key %s for %s in %s",
+                              StmtParameter.class.getSimpleName(), tbl, stmt.fullName()));
+                continue;
+            }
+            cache.keyParams.put(tbl.getRelativeIndex(), params);
+        } // FOR (tbl)
+        return (cache);
+    }
+
+    /**
+     * Returns the list of ProcParameters that the primary key values for the
+     * given table in the Statement come from for each time that the Statement
+     * is invoked. Returns null if we don't know where the key comes from for
+     * any of the invocations.
+     * @param paramMappings
+     * @param cache
+     * @param tableId
+     * @return
+     */
+    private ProcParameter[][] getKeySources(ParameterMappingsSet paramMappings, StatementCache cache, int tableId) {
+        StmtParameter params[] = cache.keyParams.get(tableId);
+        if (params == null) return (null);
+
+        List<List<ProcParameter>> sources = new ArrayList<List<ProcParameter>>();
+        for (int counter = 0; ; counter++) {
+            Map<StmtParameter, SortedSet<ParameterMapping>> mappings = paramMappings.get(cache.catalog_stmt, counter);
+            if (mappings == null) break;
+
+            List<ProcParameter> procParams = new ArrayList<ProcParameter>();
+            for (StmtParameter param : params) {
+                ProcParameter procParam = getExactSource(mappings.get(param));
+                if (procParam == null) {
+                    if (trace.val)
+                        LOG.trace(String.format("No unique exact %s for %s [counter=%d]",
+                                  ParameterMapping.class.getSimpleName(), param.fullName(), counter));
+                    return (null);
+                }
+                procParams.add(procParam);
+            } // FOR
+            // For array ProcParameters we will use all of the elements
+            // at runtime, so we don't care about the offsets here
+            if (sources.contains(procParams) == false) sources.add(procParams);
+        } // FOR
+        if (sources.isEmpty()) return (null);
+
+        ProcParameter ret[][] = new ProcParameter[sources.size()][];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = sources.get(i).toArray(new ProcParameter[0]);
+        } // FOR
+        return (ret);
+    }
+
+    /**
+     * Returns the ProcParameter that the given ParameterMappings say that a
+     * StmtParameter always comes from. We can only use a mapping if it is exact.
+     * If there is more than one exact mapping to different ProcParameters, then we
+     * don't know which one the txn will actually use, so we will return null.
+     * @param mappings
+     * @return
+     */
+    protected static ProcParameter getExactSource(Collection<ParameterMapping> mappings) {
+        if (mappings == null) return (null);
+        ProcParameter procParam = null;
+        for (ParameterMapping pm : mappings) {
+            if (pm.procedure_parameter == null || pm.coefficient < 1.0) continue;
+            if (procParam != null && procParam.equals(pm.procedure_parameter) == false) {
+                return (null);
+            }
+            procParam = pm.procedure_parameter;
+        } // FOR
+        return (procParam);
+    }
+
+    // ----------------------------------------------------------------------------
+    // KEY TRACKING
+    // ----------------------------------------------------------------------------
+
+    @Override
+    public boolean isProcedureBased() {
+        return (false);
+    }
+
+    @Override
+    public boolean needsQueryTracking() {
+        return (true);
+    }
+
+    @Override
+    public void trackQuery(AbstractTransaction ts, int partitionId, long fragmentId, ParameterSet params) {
+        Long fragId = Long.valueOf(fragmentId);
+        StatementCache cache = this.fragmentCache.get(fragId);
+        Object values[] = (params != null ? params.toArray() : null);
+
+        int tableIds[] = this.catalogContext.getReadTableIds(fragId);
+        if (tableIds != null) {
+            for (int tableId : tableIds) {
+                ts.markKeyRead(partitionId, tableId, getKey(cache, tableId, values));
+            } // FOR
+        }
+        tableIds = this.catalogContext.getWriteTableIds(fragId);
+        if (tableIds != null) {
+            for (int tableId : tableIds) {
+                ts.markKeyWritten(partitionId, tableId, getKey(cache, tableId, values));
+            } // FOR
+        }
+    }
+
+    /**
+     * Return the primary key value that the Statement accessed in the given table
+     * using the Statement's input parameters.
+     * @param cache
+     * @param tableId
+     * @param values
+     * @return
+     */
+    private static Object getKey(StatementCache cache, int tableId, Object values[]) {
+        if (cache == null || values == null) return (ANY_KEY);
+        StmtParameter params[] = cache.keyParams.get(tableId);
+        if (params == null) return (ANY_KEY);
+
+        if (params.length == 1) {
+            return (normalize(values[params[0].getIndex()]));
+        }
+        Object key[] = new Object[params.length];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = normalize(values[params[i].getIndex()]);
+            if (key[i] == ANY_KEY) return (ANY_KEY);
+        } // FOR
+        return (Arrays.asList(key));
+    }
+
+    /**
+     * Convert the given parameter value into the form that we use for keys.
+     * The Statement and ProcParameters may use different Number types for
+     * the same column, so we always store integers as Longs.
+     * @param value
+     * @return
+     */
+    private static Object normalize(Object value) {
+        if (value == null || value.getClass().isArray()) {
+            return (ANY_KEY);
+        }
+        else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return (Long.valueOf(((Number)value).longValue()));
+        }
+        else if (value instanceof Float) {
+            return (Double.valueOf(((Float)value).doubleValue()));
+        }
+        return (value);
+    }
+
+    // ----------------------------------------------------------------------------
+    // CONFLICT CHECKING
+    // ----------------------------------------------------------------------------
+
+    @Override
+    public boolean hasConflictBefore(AbstractTransaction dtxn, LocalTransaction candidate, int partitionId) {
+        // If the TableConflictChecker says that there is no conflict, then we know that
+        // we don't need to check anything else.
+        if (super.hasConflictBefore(dtxn, candidate, partitionId) == false) {
+            if (debug.val)
+                LOG.debug(String.format("No table-level conflicts between %s and %s. Safe to execute!",
+                          dtxn, candidate));
+            return (false);
+        }
+
+        TableAccess accesses[] = this.procCache.get(candidate.getProcedure());
+        ParameterSet params = candidate.getProcedureParameters();
+        if (accesses == null || params == null) {
+            if (debug.val)
+                LOG.debug(String.format("Missing key information for candidate %s", candidate));
+            return (true);
+        }
+        Object values[] = params.toArray();
+
+        for (TableAccess access : accesses) {
+            // If the dtxn modified a row that the candidate reads or writes,
+            // or if the candidate modifies a row that the dtxn read, then we
+            // have a conflict.
+            if (this.hasConflict(dtxn, partitionId, access, true, values)) {
+                if (debug.val)
+                    LOG.debug(String.format("%s -> %s has a key conflict with rows written by %s",
+                              candidate, access, dtxn));
+                return (true);
+            }
+            if (access.write && this.hasConflict(dtxn, partitionId, access, false, values)) {
+                if (debug.val)
+                    LOG.debug(String.format("%s -> %s has a key conflict with rows read by %s",
+                              candidate, access, dtxn));
+                return (true);
+            }
+        } // FOR
+
+        // If we get to this point, then we know that these two txns do not
+        // access the same rows in any of the tables
+        return (false);
+    }
+
+    /**
+     * Returns true if any of the keys that the candidate txn will access for the
+     * given TableAccess were either written (if dtxnWrite is true) or read (if
+     * dtxnWrite is false) by the dtxn at the given partition.
+     * @param dtxn
+     * @param partitionId
+     * @param access
+     * @param dtxnWrite
+     * @param values
+     * @return
+     */
+    private boolean hasConflict(AbstractTransaction dtxn, int partitionId, TableAccess access, boolean dtxnWrite, Object values[]) {
+        Set<Object> dtxnKeys = null;
+        boolean touched;
+        if (dtxnWrite) {
+            dtxnKeys = dtxn.getKeysWritten(partitionId, access.tableId);
+            touched = dtxn.isTableWritten(partitionId, access.catalog_tbl);
+        } else {
+            dtxnKeys = dtxn.getKeysRead(partitionId, access.tableId);
+            touched = dtxn.isTableRead(partitionId, access.catalog_tbl);
+        }
+        if (dtxnKeys == null || dtxnKeys.isEmpty()) {
+            // The dtxn touched this table but we didn't get to see what keys
+            // it used. We have to assume the worst...
+            return (touched);
+        }
+        if (access.sources == null || dtxnKeys.contains(ANY_KEY)) {
+            return (true);
+        }
+
+        for (ProcParameter procParams[] : access.sources) {
+            if (procParams.length == 1) {
+                Object keys[] = getValues(procParams[0], values);
+                if (keys == null || keys.length > MAX_CANDIDATE_KEYS) return (true);
+                for (Object key : keys) {
+                    key = normalize(key);
+                    if (key == ANY_KEY || dtxnKeys.contains(key)) return (true);
+                } // FOR
+            }
+            // Composite primary key
+            // We have to check all of the combinations of the values
+            else {
+                Object keyValues[][] = new Object[procParams.length][];
+                int total = 1;
+                for (int i = 0; i < procParams.length; i++) {
+                    keyValues[i] = getValues(procParams[i], values);
+                    if (keyValues[i] == null) return (true);
+                    total *= keyValues[i].length;
+                    if (total > MAX_CANDIDATE_KEYS) return (true);
+                } // FOR
+                if (this.hasCompositeConflict(dtxnKeys, keyValues, new Object[procParams.length], 0)) {
+                    return (true);
+                }
+            }
+        } // FOR
+        return (false);
+    }
+
+    private boolean hasCompositeConflict(Set<Object> dtxnKeys, Object keyValues[][], Object key[], int offset) {
+        if (offset == key.length) {
+            return (dtxnKeys.contains(Arrays.asList(key)));
+        }
+        for (Object value : keyValues[offset]) {
+            key[offset] = normalize(value);
+            if (key[offset] == ANY_KEY) return (true);
+            if (this.hasCompositeConflict(dtxnKeys, keyValues, key, offset+1)) return (true);
+        } // FOR
+        return (false);
+    }
+
+    /**
+     * Return all of the possible values for the given ProcParameter.
+     * If the ProcParameter is an array, then we will return all of its elements.
+     * @param procParam
+     * @param values
+     * @return
+     */
+    private static Object[] getValues(ProcParameter procParam, Object values[]) {
+        int idx = procParam.getIndex();
+        if (idx < 0 || idx >= values.length) return (null);
+        Object value = values[idx];
+        if (procParam.getIsarray() && value != null && value.getClass().isArray()) {
+            Object ret[] = new Object[Array.getLength(value)];
+            for (int i = 0; i < ret.length; i++) {
+                ret[i] = Array.get(value, i);
+            } // FOR
+            return (ret);
+        }
+        return (new Object[]{ value });
+    }
+
+    @Override
+    public boolean hasConflictAfter(AbstractTransaction ts0, LocalTransaction ts1, int partitionId) {
+        return (false);
+    }
+
+    // ----------------------------------------------------------------------------
+    // SINGLETON
+    // ----------------------------------------------------------------------------
+
+    private static KeyConflictChecker SINGLETON;
+    public static KeyConflictChecker singleton(CatalogContext catalogContext) {
+        if (SINGLETON == null) {
+            synchronized (KeyConflictChecker.class) {
+                if (SINGLETON == null) {
+                    SINGLETON = new KeyConflictChecker(catalogContext);
+                }
+            } // SYNCH
+        }
+        return (SINGLETON);
+    }
+}
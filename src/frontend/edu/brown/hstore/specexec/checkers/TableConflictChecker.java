@@ -63,6 +63,11 @@ public class TableConflictChecker extends AbstractConflictChecker {
         } // FOR
     }
 
+    @Override
+    public boolean isProcedureBased() {
+        return (true);
+    }
+
     @Override
     public boolean shouldIgnoreTransaction(AbstractTransaction ts) {
         return (this.hasConflicts[ts.getProcedure().getId()] == false);
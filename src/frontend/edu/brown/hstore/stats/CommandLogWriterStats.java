@@ -0,0 +1,117 @@
+/***************************************************************************
+ *   Copyright (C) 2012 by H-Store Project                                 *
+ *   Brown University                                                      *
+ *   Massachusetts Institute of Technology                                 *
+ *   Yale University                                                       *
+ *                                                                         *
+ *   Permission is hereby granted, free of charge, to any person obtaining *
+ *   a copy of this software and associated documentation files (the       *
+ *   "Software"), to deal in the Software without restriction, including   *
+ *   without limitation the rights to use, copy, modify, merge, publish,   *
+ *   distribute, sublicense, and/or sell copies of the Software, and to    *
+ *   permit persons to whom the Software is furnished to do so, subject to *
+ *   the following conditions:                                             *
+ *                                                                         *
+ *   The above copyright notice and this permission notice shall be        *
+ *   included in all copies or substantial portions of the Software.       *
+ *                                                                         *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,       *
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF    *
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.*
+ *   IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR     *
+ *   OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, *
+ *   ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR *
+ *   OTHER DEALINGS IN THE SOFTWARE.                                       *
+ ***************************************************************************/
+package edu.brown.hstore.stats;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.voltdb.StatsSource;
+import org.voltdb.SysProcSelector;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltTable.ColumnInfo;
+import org.voltdb.VoltType;
+
+import edu.brown.hstore.HStoreSite;
+import edu.brown.hstore.cmdlog.CommandLogWriter;
+import edu.brown.hstore.cmdlog.LogSegment;
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+
+/**
+ * Information about the live command log segments at an HStoreSite
+ */
+public class CommandLogWriterStats extends StatsSource {
+    private static final Logger LOG = Logger.getLogger(CommandLogWriterStats.class);
+    private static final LoggerBoolean debug = new LoggerBoolean();
+    static {
+        LoggerUtil.attachObserver(LOG, debug);
+    }
+
+    private final HStoreSite hstore_site;
+
+    public CommandLogWriterStats(HStoreSite hstore_site) {
+        super(SysProcSelector.COMMANDLOG.name(), false);
+        this.hstore_site = hstore_site;
+    }
+
+    @Override
+    protected Iterator<Object> getStatsRowKeyIterator(boolean interval) {
+        CommandLogWriter writers[] = this.hstore_site.getCommandLogWriters();
+        List<LogSegment> segments = new ArrayList<LogSegment>();
+        if (writers != null) {
+            for (CommandLogWriter writer : writers) {
+                segments.addAll(writer.getSegments());
+            } // FOR
+        }
+        final Iterator<LogSegment> it = segments.iterator();
+        return new Iterator<Object>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+            @Override
+            public Object next() {
+                return it.next();
+            }
+            @Override
+            public void remove() {
+                it.remove();
+            }
+        };
+    }
+
+    @Override
+    protected void populateColumnSchema(ArrayList<ColumnInfo> columns) {
+        super.populateColumnSchema(columns);
+        columns.add(new VoltTable.ColumnInfo("SITE", VoltType.INTEGER));
+        columns.add(new VoltTable.ColumnInfo("STREAM", VoltType.INTEGER));
+        columns.add(new VoltTable.ColumnInfo("SEGMENT", VoltType.INTEGER));
+        columns.add(new VoltTable.ColumnInfo("FILE", VoltType.STRING));
+        columns.add(new VoltTable.ColumnInfo("SIZE", VoltType.BIGINT));
+        columns.add(new VoltTable.ColumnInfo("TXNS", VoltType.BIGINT));
+        columns.add(new VoltTable.ColumnInfo("CREATED", VoltType.BIGINT));
+        columns.add(new VoltTable.ColumnInfo("LAST_WRITE", VoltType.BIGINT));
+        columns.add(new VoltTable.ColumnInfo("ACTIVE", VoltType.INTEGER));
+    }
+
+    @Override
+    protected synchronized void updateStatsRow(Object rowKey, Object[] rowValues) {
+        LogSegment segment = (LogSegment)rowKey;
+        int offset = this.columnNameToIndex.get("SITE");
+        rowValues[offset++] = this.hstore_site.getSiteId();
+        rowValues[offset++] = segment.getStreamId();
+        rowValues[offset++] = segment.getId();
+        rowValues[offset++] = segment.getFile().getAbsolutePath();
+        rowValues[offset++] = segment.getSize();
+        rowValues[offset++] = segment.getTransactionCount();
+        rowValues[offset++] = segment.getCreateTime();
+        rowValues[offset++] = segment.getLastWriteTime();
+        rowValues[offset++] = (segment.isClosed() ? 0 : 1);
+        super.updateStatsRow(rowKey, rowValues);
+    }
+}
@@ -0,0 +1,72 @@
+package edu.brown.hstore.stats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+
+import org.apache.log4j.Logger;
+import org.voltdb.StatsSource;
+import org.voltdb.SysProcSelector;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltTable.ColumnInfo;
+import org.voltdb.VoltType;
+
+import edu.brown.hstore.HStoreSite;
+import edu.brown.hstore.estimators.markov.MarkovLearner;
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+
+/**
+ * Information about the MarkovLearner at an HStoreSite
+ */
+public class MarkovLearnerStats extends StatsSource {
+    private static final Logger LOG = Logger.getLogger(MarkovLearnerStats.class);
+    private static final LoggerBoolean debug = new LoggerBoolean();
+    static {
+        LoggerUtil.attachObserver(LOG, debug);
+    }
+
+    private final HStoreSite hstore_site;
+
+    public MarkovLearnerStats(HStoreSite hstore_site) {
+        super(SysProcSelector.MARKOVLEARNER.name(), false);
+        this.hstore_site = hstore_site;
+    }
+
+    @Override
+    protected Iterator<Object> getStatsRowKeyIterator(boolean interval) {
+        MarkovLearner learner = this.hstore_site.getMarkovLearner();
+        if (learner == null) {
+            return (Collections.emptyList().iterator());
+        }
+        return (Collections.<Object>singleton(learner).iterator());
+    }
+
+    @Override
+    protected void populateColumnSchema(ArrayList<ColumnInfo> columns) {
+        super.populateColumnSchema(columns);
+        columns.add(new VoltTable.ColumnInfo("SITE", VoltType.INTEGER));
+        columns.add(new VoltTable.ColumnInfo("GRAPHS", VoltType.INTEGER));
+        columns.add(new VoltTable.ColumnInfo("QUEUE_SIZE", VoltType.INTEGER));
+        columns.add(new VoltTable.ColumnInfo("PATHS", VoltType.BIGINT));
+        columns.add(new VoltTable.ColumnInfo("PUBLISHES", VoltType.BIGINT));
+        columns.add(new VoltTable.ColumnInfo("PUBLISH_LAG_LAST", VoltType.BIGINT));
+        columns.add(new VoltTable.ColumnInfo("PUBLISH_LAG_AVG", VoltType.FLOAT));
+        columns.add(new VoltTable.ColumnInfo("PUBLISH_LAG_MAX", VoltType.BIGINT));
+    }
+
+    @Override
+    protected synchronized void updateStatsRow(Object rowKey, Object[] rowValues) {
+        MarkovLearner learner = (MarkovLearner)rowKey;
+        int offset = this.columnNameToIndex.get("SITE");
+        rowValues[offset++] = this.hstore_site.getSiteId();
+        rowValues[offset++] = learner.getShadowCount();
+        rowValues[offset++] = learner.getQueueSize();
+        rowValues[offset++] = learner.getPathCount();
+        rowValues[offset++] = learner.getPublishCount();
+        rowValues[offset++] = learner.getLastPublishLag();
+        rowValues[offset++] = learner.getAvgPublishLag();
+        rowValues[offset++] = learner.getMaxPublishLag();
+        super.updateStatsRow(rowKey, rowValues);
+    }
+}
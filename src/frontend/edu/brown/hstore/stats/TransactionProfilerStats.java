@@ -25,6 +25,7 @@ import edu.brown.profilers.ProfileMeasurement;
 import edu.brown.profilers.TransactionProfiler;
 import edu.brown.statistics.FastIntHistogram;
 import edu.brown.statistics.HistogramUtil;
+import edu.brown.statistics.LatencyHistogram;
 import edu.brown.utils.CollectionUtil;
 import edu.brown.utils.MathUtil;
 
@@ -40,8 +41,13 @@ public class TransactionProfilerStats extends StatsSource {
     private final CatalogContext catalogContext;
     private int proc_offset;
     private int stdev_offset;
+    private int latency_offset;
     private int num_rows;
     
+    /** One minute in nanoseconds */
+    private static final long LATENCY_HIGHEST_VALUE = 60000000000l;
+    private static final int LATENCY_DIGITS = 2;
+    
     private class ProcedureStats {
         /** Maintain a set of tuples for the transaction profile times **/
         final Queue<long[]> queue = new ConcurrentLinkedQueue<long[]>();
@@ -51,6 +57,8 @@ public class TransactionProfilerStats extends StatsSource {
         final FastIntHistogram num_prefetch = new FastIntHistogram();
         final FastIntHistogram num_prefetch_unused = new FastIntHistogram();
 //        final FastIntHistogram num_speculative = new FastIntHistogram();
+        /** The latency distribution of each ProfileMeasurement **/
+        LatencyHistogram latencies[];
     }
 
     private final Map<Procedure, ProcedureStats> procStats = Collections.synchronizedSortedMap(new TreeMap<Procedure, ProcedureStats>());
@@ -100,6 +108,17 @@ public class TransactionProfilerStats extends StatsSource {
                 stats.num_prefetch_unused.put(tp.getPrefetchQueryUnusedCount());
 //            if (tp.getSpeculativeTransactionCount() > 0)
 //                stats.num_speculative.put(tp.getSpeculativeTransactionCount());
+            
+            // Only include the ProfileMeasurements that were invoked by this txn
+            if (stats.latencies == null) {
+                stats.latencies = new LatencyHistogram[tuple.length / 2];
+                for (int i = 0; i < stats.latencies.length; i++) {
+                    stats.latencies[i] = new LatencyHistogram(LATENCY_HIGHEST_VALUE, LATENCY_DIGITS);
+                } // FOR
+            }
+            for (int i = 0; i < tuple.length; i += 2) {
+                if (tuple[i+1] > 0) stats.latencies[i / 2].record(tuple[i]);
+            } // FOR
         } // SYNCH
     }
     
@@ -164,6 +183,20 @@ public class TransactionProfilerStats extends StatsSource {
                     row[offset++] = 0;
                 }
             } // FOR
+            
+            // Latency percentiles
+            // These cover the same txns as the totals that we pulled out of
+            // the queue above, so we have to start over after each row
+            if (stats.latencies != null) {
+                offset = this.latency_offset - this.proc_offset - 1;
+                for (LatencyHistogram h : stats.latencies) {
+                    row[offset++] = h.getValueAtPercentile(50d);
+                    row[offset++] = h.getValueAtPercentile(99d);
+                    row[offset++] = h.getValueAtPercentile(99.9d);
+                    row[offset++] = h.getMaxValue();
+                    h.clear();
+                } // FOR
+            }
         } // SYNCH
         
         // HACK: Dump values for stdev
@@ -236,6 +269,17 @@ public class TransactionProfilerStats extends StatsSource {
             }
         } // FOR
         
+        // Then the latency percentiles for each ProfileMeasurement
+        // These are the total think time of each txn in nanoseconds
+        this.latency_offset = columns.size();
+        for (ProfileMeasurement pm : profiler.getProfileMeasurements()) {
+            String name = pm.getName().toUpperCase();
+            columns.add(new VoltTable.ColumnInfo(name+"_P50", VoltType.BIGINT));
+            columns.add(new VoltTable.ColumnInfo(name+"_P99", VoltType.BIGINT));
+            columns.add(new VoltTable.ColumnInfo(name+"_P999", VoltType.BIGINT));
+            columns.add(new VoltTable.ColumnInfo(name+"_MAX", VoltType.BIGINT));
+        } // FOR
+        
         assert(this.proc_offset >= 0);
         assert(this.stdev_offset >= 0);
         this.num_rows = columns.size() - this.proc_offset;
@@ -28,9 +28,11 @@ package edu.brown.hstore.txns;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.log4j.Logger;
@@ -242,6 +244,21 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
      * PartitionId -> TableId
      */
     protected final boolean writeTables[][];
+    
+    /**
+     * The primary key values of the rows that this txn has read from each table
+     * on each local partition. These are only populated if the ConflictChecker asks 
+     * the PartitionExecutor to track the queries that the txn executes.
+     * PartitionId -> TableId -> Keys
+     */
+    protected final Map<Integer, Set<Object>> readKeys[];
+    
+    /**
+     * The primary key values of the rows that this txn has modified in each table
+     * on each local partition.
+     * PartitionId -> TableId -> Keys
+     */
+    protected final Map<Integer, Set<Object>> writeKeys[];
     /**
      * The table that this txn needs to merge the results for in the EE
      * before it starts executing
@@ -261,6 +278,7 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
      * Constructor
      * @param executor
      */
+    @SuppressWarnings("unchecked")
     public AbstractTransaction(HStoreSite hstore_site) {
         this.hstore_site = hstore_site;
         int numPartitions = hstore_site.getCatalogContext().numberOfPartitions;
@@ -280,6 +298,8 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
         
         this.readTables = new boolean[numPartitions][];
         this.writeTables = new boolean[numPartitions][];
+        this.readKeys = (Map<Integer, Set<Object>>[])new Map<?, ?>[numPartitions];
+        this.writeKeys = (Map<Integer, Set<Object>>[])new Map<?, ?>[numPartitions];
         
         Arrays.fill(this.exec_firstUndoToken, HStoreConstants.NULL_UNDO_LOGGING_TOKEN);
         Arrays.fill(this.exec_lastUndoToken, HStoreConstants.NULL_UNDO_LOGGING_TOKEN);
@@ -386,6 +406,8 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
             
             if (this.readTables[partition] != null) Arrays.fill(this.readTables[partition], false);
             if (this.writeTables[partition] != null) Arrays.fill(this.writeTables[partition], false);
+            if (this.readKeys[partition] != null) this.readKeys[partition].clear();
+            if (this.writeKeys[partition] != null) this.writeKeys[partition].clear();
         } // FOR
 
         if (debug.val)
@@ -1114,6 +1136,63 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
         return (false);
     }
     
+    // ----------------------------------------------------------------------------
+    // KEY READ/WRITE SETS
+    // ----------------------------------------------------------------------------
+    
+    private void markKey(Map<Integer, Set<Object>> keys[], int partition, int tableId, Object key) {
+        if (keys[partition] == null) {
+            keys[partition] = new HashMap<Integer, Set<Object>>();
+        }
+        Set<Object> tableKeys = keys[partition].get(tableId);
+        if (tableKeys == null) {
+            tableKeys = new HashSet<Object>();
+            keys[partition].put(tableId, tableKeys);
+        }
+        tableKeys.add(key);
+    }
+    
+    /**
+     * Mark that this txn read the row with the given primary key value from the 
+     * tableId at the given partition
+     * @param partition
+     * @param tableId
+     * @param key
+     */
+    public final void markKeyRead(int partition, int tableId, Object key) {
+        this.markKey(this.readKeys, partition, tableId, key);
+    }
+    /**
+     * Mark that this txn executed a modifying query for the row with the given 
+     * primary key value in the tableId at the given partition
+     * @param partition
+     * @param tableId
+     * @param key
+     */
+    public final void markKeyWritten(int partition, int tableId, Object key) {
+        this.markKey(this.writeKeys, partition, tableId, key);
+    }
+    /**
+     * Return the primary key values that this txn has read from the tableId
+     * at the given partition. Returns null if nothing was recorded.
+     * @param partition
+     * @param tableId
+     * @return
+     */
+    public final Set<Object> getKeysRead(int partition, int tableId) {
+        return (this.readKeys[partition] != null ? this.readKeys[partition].get(tableId) : null);
+    }
+    /**
+     * Return the primary key values that this txn has modified in the tableId
+     * at the given partition. Returns null if nothing was recorded.
+     * @param partition
+     * @param tableId
+     * @return
+     */
+    public final Set<Object> getKeysWritten(int partition, int tableId) {
+        return (this.writeKeys[partition] != null ? this.writeKeys[partition].get(tableId) : null);
+    }
+    
     // ----------------------------------------------------------------------------
     // GLOBAL STATE TRACKING
     // ----------------------------------------------------------------------------
@@ -1361,6 +1440,8 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
             for (int i = 0; i < readTables.length; i++) {
                 if (readTables[i] != null) Arrays.fill(readTables[i], false);
                 if (writeTables[i] != null) Arrays.fill(writeTables[i], false);
+                if (readKeys[i] != null) readKeys[i].clear();
+                if (writeKeys[i] != null) writeKeys[i].clear();
             } // FOR
         }
     }
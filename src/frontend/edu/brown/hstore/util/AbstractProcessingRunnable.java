@@ -1,6 +1,7 @@
 package edu.brown.hstore.util;
 
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
@@ -64,7 +65,12 @@ public abstract class AbstractProcessingRunnable<E> extends ExceptionHandlingRun
         while (this.stop == false) {
             try {
                 if (idleTime != null) idleTime.start();
-                next = this.queue.take();
+                long timeout = this.getPollTimeout();
+                if (timeout < 0) {
+                    next = this.queue.take();
+                } else {
+                    next = this.queue.poll(timeout, TimeUnit.MILLISECONDS);
+                }
                 if (idleTime != null) idleTime.stop();
             } catch (InterruptedException ex) {
                 this.stop = true;
@@ -76,6 +82,7 @@ public abstract class AbstractProcessingRunnable<E> extends ExceptionHandlingRun
             }
             try {
                 if (next != null) this.processingCallback(next);
+                else this.idleCallback();
             } finally {
                 if (execTime != null) execTime.stop();                
             }
@@ -91,6 +98,24 @@ public abstract class AbstractProcessingRunnable<E> extends ExceptionHandlingRun
      */
     protected abstract void processingCallback(E next);
     
+    /**
+     * Returns how long (in milliseconds) the processing thread should wait for a new
+     * entry in its queue before it invokes idleCallback(). If the timeout is negative,
+     * then the processing thread will wait forever.
+     * This is checked every time the processing thread goes back to its queue.
+     */
+    protected long getPollTimeout() {
+        return (-1);
+    }
+    
+    /**
+     * Special callback for when the processing thread did not get a new entry
+     * in its queue before the timeout returned by getPollTimeout()
+     */
+    protected void idleCallback() {
+        // The default is to do nothing!
+    }
+    
     /**
      * Special callback for when an entry is removed from the processing queue.
      * This will be invoked by prepareShutdown()
@@ -0,0 +1,267 @@
+package edu.brown.hstore.util;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+import edu.brown.hstore.txns.AbstractTransaction;
+
+/**
+ * A priority queue of transaction handles ordered by their txn ids.
+ * <p>
+ * New txns are appended to a lock-free linked list, so threads that are
+ * adding txns never block each other. The txn id of each handle is grabbed
+ * when it is added to the queue so that the heap only compares primitive longs.
+ * The pending txns are moved into the heap whenever somebody looks at the head
+ * of the queue. Those operations are guarded by a non-fair lock, but in practice
+ * there is only one thread that does this.
+ */
+public class TxnIdPriorityQueue extends AbstractQueue<AbstractTransaction> {
+
+    /**
+     * Special marker for when a txn does not have a txn id.
+     * This will sort them after all of the other txns.
+     */
+    private static final long NULL_TXN_ID = Long.MAX_VALUE;
+
+    private static final int INITIAL_CAPACITY = 128;
+
+    private static final class Node {
+        private AbstractTransaction ts;
+        private final long txnId;
+        private volatile Node next;
+
+        private Node(AbstractTransaction ts, long txnId) {
+            this.ts = ts;
+            this.txnId = txnId;
+        }
+    } // CLASS
+
+    // ----------------------------------------------------------------------------
+    // PENDING TXNS
+    // ----------------------------------------------------------------------------
+
+    private final AtomicReference<Node> pendingTail;
+    private Node pendingHead;
+
+    /**
+     * The total number of txns in the pending list and the heap
+     */
+    private final AtomicInteger count = new AtomicInteger(0);
+
+    // ----------------------------------------------------------------------------
+    // HEAP
+    // ----------------------------------------------------------------------------
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private long heapIds[] = new long[INITIAL_CAPACITY];
+    private AbstractTransaction heapTxns[] = new AbstractTransaction[INITIAL_CAPACITY];
+    private int heapSize = 0;
+
+    public TxnIdPriorityQueue() {
+        Node stub = new Node(null, NULL_TXN_ID);
+        this.pendingHead = stub;
+        this.pendingTail = new AtomicReference<Node>(stub);
+    }
+
+    // ----------------------------------------------------------------------------
+    // QUEUE API METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Add a new txn to this queue. This never blocks.
+     */
+    @Override
+    public boolean offer(AbstractTransaction ts) {
+        assert(ts != null);
+        Long txnId = ts.getTransactionId();
+        Node node = new Node(ts, (txnId != null ? txnId.longValue() : NULL_TXN_ID));
+        Node prev = this.pendingTail.getAndSet(node);
+        prev.next = node;
+        this.count.incrementAndGet();
+        return (true);
+    }
+
+    @Override
+    public AbstractTransaction peek() {
+        this.lock.lock();
+        try {
+            this.transfer();
+            return (this.heapSize > 0 ? this.heapTxns[0] : null);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public AbstractTransaction poll() {
+        this.lock.lock();
+        try {
+            this.transfer();
+            if (this.heapSize == 0) return (null);
+            AbstractTransaction ts = this.heapTxns[0];
+            this.removeAt(0);
+            return (ts);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the given txn from the queue.
+     * Txns are equal if they have the same txn id.
+     */
+    @Override
+    public boolean remove(Object o) {
+        if ((o instanceof AbstractTransaction) == false) return (false);
+        this.lock.lock();
+        try {
+            this.transfer();
+            int idx = this.indexOf((AbstractTransaction)o);
+            if (idx == -1) return (false);
+            this.removeAt(idx);
+            return (true);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if ((o instanceof AbstractTransaction) == false) return (false);
+        this.lock.lock();
+        try {
+            this.transfer();
+            return (this.indexOf((AbstractTransaction)o) != -1);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        this.lock.lock();
+        try {
+            this.transfer();
+            Arrays.fill(this.heapTxns, 0, this.heapSize, null);
+            this.count.addAndGet(-this.heapSize);
+            this.heapSize = 0;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        return (this.count.get());
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return (this.count.get() == 0);
+    }
+
+    /**
+     * Returns a snapshot of the txns in this queue in txn id order.
+     * The iterator does not support remove().
+     */
+    @Override
+    public Iterator<AbstractTransaction> iterator() {
+        List<AbstractTransaction> txns;
+        this.lock.lock();
+        try {
+            this.transfer();
+            txns = new ArrayList<AbstractTransaction>(Arrays.asList(this.heapTxns).subList(0, this.heapSize));
+        } finally {
+            this.lock.unlock();
+        }
+        Collections.sort(txns);
+        return (Collections.unmodifiableList(txns).iterator());
+    }
+
+    // ----------------------------------------------------------------------------
+    // INTERNAL METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Move all of the pending txns into the heap.
+     * Must be holding the lock.
+     */
+    private void transfer() {
+        Node next = null;
+        while ((next = this.pendingHead.next) != null) {
+            this.pendingHead = next;
+            this.heapAdd(next.ts, next.txnId);
+            next.ts = null;
+        } // WHILE
+    }
+
+    private int indexOf(AbstractTransaction ts) {
+        Long txnId = ts.getTransactionId();
+        for (int i = 0; i < this.heapSize; i++) {
+            if (this.heapTxns[i] == ts) return (i);
+            if (txnId != null && this.heapIds[i] == txnId.longValue()) return (i);
+        } // FOR
+        return (-1);
+    }
+
+    private void heapAdd(AbstractTransaction ts, long txnId) {
+        if (this.heapSize == this.heapIds.length) {
+            int capacity = this.heapIds.length * 2;
+            this.heapIds = Arrays.copyOf(this.heapIds, capacity);
+            this.heapTxns = Arrays.copyOf(this.heapTxns, capacity);
+        }
+        this.siftUp(this.heapSize++, ts, txnId);
+    }
+
+    private void removeAt(int idx) {
+        int last = --this.heapSize;
+        this.count.decrementAndGet();
+        if (idx == last) {
+            this.heapTxns[last] = null;
+            return;
+        }
+        AbstractTransaction ts = this.heapTxns[last];
+        long txnId = this.heapIds[last];
+        this.heapTxns[last] = null;
+        this.siftDown(idx, ts, txnId);
+        if (this.heapTxns[idx] == ts) {
+            this.siftUp(idx, ts, txnId);
+        }
+    }
+
+    private void siftUp(int idx, AbstractTransaction ts, long txnId) {
+        while (idx > 0) {
+            int parent = (idx - 1) >>> 1;
+            if (txnId >= this.heapIds[parent]) break;
+            this.heapIds[idx] = this.heapIds[parent];
+            this.heapTxns[idx] = this.heapTxns[parent];
+            idx = parent;
+        } // WHILE
+        this.heapIds[idx] = txnId;
+        this.heapTxns[idx] = ts;
+    }
+
+    private void siftDown(int idx, AbstractTransaction ts, long txnId) {
+        int half = this.heapSize >>> 1;
+        while (idx < half) {
+            int child = (idx << 1) + 1;
+            int right = child + 1;
+            if (right < this.heapSize && this.heapIds[right] < this.heapIds[child]) {
+                child = right;
+            }
+            if (txnId <= this.heapIds[child]) break;
+            this.heapIds[idx] = this.heapIds[child];
+            this.heapTxns[idx] = this.heapTxns[child];
+            idx = child;
+        } // WHILE
+        this.heapIds[idx] = txnId;
+        this.heapTxns[idx] = ts;
+    }
+}
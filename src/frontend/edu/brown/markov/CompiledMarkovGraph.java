@@ -0,0 +1,643 @@
+package edu.brown.markov;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.voltdb.catalog.Database;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+import org.voltdb.types.QueryType;
+
+import edu.brown.catalog.CatalogUtil;
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.utils.PartitionSet;
+
+/**
+ * An immutable, compact snapshot of a trained MarkovGraph that is meant to be used
+ * at runtime by the MarkovPathEstimator. All of the vertices and edges are stored
+ * as primitive compressed-sparse-row arrays with their probabilities already
+ * computed, so walking the model does not need to touch any hash maps or
+ * allocate any objects.
+ * <B>Note:</B> The compiled graph is a snapshot. It will not reflect any changes
+ * that are made to the original MarkovGraph after it was compiled.
+ */
+public class CompiledMarkovGraph {
+    private static final Logger LOG = Logger.getLogger(CompiledMarkovGraph.class);
+    private static final LoggerBoolean debug = new LoggerBoolean();
+    static {
+        LoggerUtil.attachObserver(LOG, debug);
+    }
+
+    private static final byte MAGIC[] = { 'H', 'S', 'M', 'A', 'R', 'K', 'O', 'V' };
+    private static final int VERSION = 1;
+
+    /**
+     * The special vertices are always stored at these offsets
+     */
+    public static final int START_INDEX = 0;
+    public static final int COMMIT_INDEX = 1;
+    public static final int ABORT_INDEX = 2;
+
+    private static final MarkovVertex.Type TYPES[] = MarkovVertex.Type.values();
+    private static final byte FLAG_READONLY = 0x01;
+
+    // ----------------------------------------------------------------------------
+    // DATA MEMBERS
+    // ----------------------------------------------------------------------------
+
+    private final Procedure catalog_proc;
+    private final int graphId;
+    private final int numPartitions;
+    private final int numVertices;
+
+    /**
+     * Statement dictionary. The special vertices' Statements are included.
+     */
+    private final Statement statements[];
+
+    // VERTICES
+    private final byte v_type[];
+    private final byte v_flags[];
+    private final int v_stmt[];
+    private final int v_counter[];
+    /** Unique id for each Statement+Counter pair */
+    private final int v_cstmt[];
+    private final long v_hits[];
+    private final float v_abort[];
+    /** VertexIndex * NumPartitions + Partition */
+    private final float v_done[];
+    private final float v_write[];
+
+    // PARTITIONS (CSR)
+    private final int part_offsets[];
+    private final int parts[];
+    private final int past_offsets[];
+    private final int pasts[];
+
+    // EDGES (CSR)
+    // The outbound edges for each vertex are sorted by their probability (descending)
+    private final int edge_offsets[];
+    private final int edge_dest[];
+    private final float edge_prob[];
+
+    /**
+     * The original MarkovVertex objects for each index. If this graph was loaded from
+     * a file, then these are recreated from the arrays when the graph is constructed.
+     * Neither this array nor the index map are modified afterwards, so they
+     * can be read by multiple threads without any locking.
+     */
+    private final MarkovVertex vertices[];
+    private final Map<MarkovVertex, Integer> vertexIndexes = new IdentityHashMap<MarkovVertex, Integer>();
+
+    // ----------------------------------------------------------------------------
+    // CONSTRUCTORS
+    // ----------------------------------------------------------------------------
+
+    private CompiledMarkovGraph(Procedure catalog_proc, int graphId, int numPartitions, Statement statements[],
+                                byte v_type[], int v_stmt[], int v_counter[], long v_hits[],
+                                float v_abort[], float v_done[], float v_write[],
+                                int part_offsets[], int parts[], int past_offsets[], int pasts[],
+                                int edge_offsets[], int edge_dest[], float edge_prob[],
+                                MarkovVertex vertices[]) {
+        this.catalog_proc = catalog_proc;
+        this.graphId = graphId;
+        this.numPartitions = numPartitions;
+        this.numVertices = v_type.length;
+        this.statements = statements;
+        this.v_type = v_type;
+        this.v_stmt = v_stmt;
+        this.v_counter = v_counter;
+        this.v_hits = v_hits;
+        this.v_abort = v_abort;
+        this.v_done = v_done;
+        this.v_write = v_write;
+        this.part_offsets = part_offsets;
+        this.parts = parts;
+        this.past_offsets = past_offsets;
+        this.pasts = pasts;
+        this.edge_offsets = edge_offsets;
+        this.edge_dest = edge_dest;
+        this.edge_prob = edge_prob;
+        this.vertices = (vertices != null ? vertices : new MarkovVertex[this.numVertices]);
+
+        assert(TYPES[v_type[START_INDEX]] == MarkovVertex.Type.START);
+        assert(TYPES[v_type[COMMIT_INDEX]] == MarkovVertex.Type.COMMIT);
+        assert(TYPES[v_type[ABORT_INDEX]] == MarkovVertex.Type.ABORT);
+
+        // Derived data
+        this.v_flags = new byte[this.numVertices];
+        this.v_cstmt = new int[this.numVertices];
+        Map<Long, Integer> cstmts = new HashMap<Long, Integer>();
+        for (int v = 0; v < this.numVertices; v++) {
+            Statement catalog_stmt = this.statements[this.v_stmt[v]];
+            if (catalog_stmt.getQuerytype() == QueryType.SELECT.getValue()) {
+                this.v_flags[v] |= FLAG_READONLY;
+            }
+            Long key = ((long)this.v_stmt[v] << 32) | this.v_counter[v];
+            Integer id = cstmts.get(key);
+            if (id == null) {
+                id = cstmts.size();
+                cstmts.put(key, id);
+            }
+            this.v_cstmt[v] = id.intValue();
+            if (this.vertices[v] == null) {
+                this.vertices[v] = this.createVertex(v);
+            }
+            this.vertexIndexes.put(this.vertices[v], v);
+        } // FOR
+    }
+
+    /**
+     * Compile the given MarkovGraph. The probabilities in the graph must
+     * have already been calculated.
+     * @param markov
+     * @return
+     */
+    public static CompiledMarkovGraph compile(MarkovGraph markov) {
+        Procedure catalog_proc = markov.getProcedure();
+        @SuppressWarnings("deprecation")
+        int num_partitions = CatalogUtil.getNumberOfPartitions(catalog_proc);
+
+        // Order the vertices by a breadth-first walk from the START vertex so
+        // that vertices that are visited together are next to each other
+        List<MarkovVertex> ordered = new ArrayList<MarkovVertex>(markov.getVertexCount());
+        Map<MarkovVertex, Integer> indexes = new IdentityHashMap<MarkovVertex, Integer>();
+        for (MarkovVertex v : new MarkovVertex[]{ markov.getStartVertex(),
+                                                  markov.getCommitVertex(),
+                                                  markov.getAbortVertex() }) {
+            indexes.put(v, ordered.size());
+            ordered.add(v);
+        } // FOR
+        LinkedList<MarkovVertex> queue = new LinkedList<MarkovVertex>();
+        queue.add(markov.getStartVertex());
+        while (queue.isEmpty() == false) {
+            Collection<MarkovVertex> next = markov.getSuccessors(queue.removeFirst());
+            if (next == null) continue;
+            for (MarkovVertex v : next) {
+                if (indexes.containsKey(v)) continue;
+                indexes.put(v, ordered.size());
+                ordered.add(v);
+                queue.add(v);
+            } // FOR
+        } // WHILE
+        for (MarkovVertex v : markov.getVertices()) {
+            if (indexes.containsKey(v)) continue;
+            indexes.put(v, ordered.size());
+            ordered.add(v);
+        } // FOR
+
+        int num_vertices = ordered.size();
+        List<Statement> statements = new ArrayList<Statement>();
+        Map<Statement, Integer> stmtIndexes = new HashMap<Statement, Integer>();
+        byte v_type[] = new byte[num_vertices];
+        int v_stmt[] = new int[num_vertices];
+        int v_counter[] = new int[num_vertices];
+        long v_hits[] = new long[num_vertices];
+        float v_abort[] = new float[num_vertices];
+        float v_done[] = new float[num_vertices * num_partitions];
+        float v_write[] = new float[num_vertices * num_partitions];
+        int part_offsets[] = new int[num_vertices + 1];
+        int past_offsets[] = new int[num_vertices + 1];
+        int edge_offsets[] = new int[num_vertices + 1];
+        int num_parts = 0, num_pasts = 0, num_edges = 0;
+        for (int v = 0; v < num_vertices; v++) {
+            MarkovVertex vertex = ordered.get(v);
+            part_offsets[v] = num_parts;
+            past_offsets[v] = num_pasts;
+            edge_offsets[v] = num_edges;
+            num_parts += vertex.getPartitions().size();
+            num_pasts += vertex.getPastPartitions().size();
+            Collection<MarkovEdge> edges = markov.getOutEdges(vertex);
+            if (edges != null) num_edges += edges.size();
+        } // FOR
+        part_offsets[num_vertices] = num_parts;
+        past_offsets[num_vertices] = num_pasts;
+        edge_offsets[num_vertices] = num_edges;
+
+        int parts[] = new int[num_parts];
+        int pasts[] = new int[num_pasts];
+        int edge_dest[] = new int[num_edges];
+        float edge_prob[] = new float[num_edges];
+        for (int v = 0; v < num_vertices; v++) {
+            MarkovVertex vertex = ordered.get(v);
+            Statement catalog_stmt = vertex.getCatalogItem();
+            Integer stmtIdx = stmtIndexes.get(catalog_stmt);
+            if (stmtIdx == null) {
+                stmtIdx = statements.size();
+                stmtIndexes.put(catalog_stmt, stmtIdx);
+                statements.add(catalog_stmt);
+            }
+            v_type[v] = (byte)vertex.getType().ordinal();
+            v_stmt[v] = stmtIdx.intValue();
+            v_counter[v] = vertex.getQueryCounter();
+            v_hits[v] = vertex.getTotalHits();
+            v_abort[v] = vertex.getAbortProbability();
+            for (int p = 0; p < num_partitions; p++) {
+                v_done[v * num_partitions + p] = vertex.getDoneProbability(p);
+                v_write[v * num_partitions + p] = vertex.getWriteProbability(p);
+            } // FOR
+
+            int offset = part_offsets[v];
+            for (int p : vertex.getPartitions().values()) {
+                parts[offset++] = p;
+            } // FOR
+            offset = past_offsets[v];
+            for (int p : vertex.getPastPartitions().values()) {
+                pasts[offset++] = p;
+            } // FOR
+
+            Collection<MarkovEdge> edges = markov.getOutEdges(vertex);
+            if (edges == null || edges.isEmpty()) continue;
+            MarkovEdge sorted[] = edges.toArray(new MarkovEdge[edges.size()]);
+            final Map<MarkovEdge, Integer> dests = new IdentityHashMap<MarkovEdge, Integer>();
+            for (MarkovEdge e : sorted) {
+                dests.put(e, indexes.get(markov.getDest(e)));
+            } // FOR
+            Arrays.sort(sorted, new Comparator<MarkovEdge>() {
+                @Override
+                public int compare(MarkovEdge e0, MarkovEdge e1) {
+                    int diff = Float.compare(e1.getProbability(), e0.getProbability());
+                    if (diff == 0) diff = dests.get(e0).intValue() - dests.get(e1).intValue();
+                    return (diff);
+                }
+            });
+            offset = edge_offsets[v];
+            for (MarkovEdge e : sorted) {
+                edge_dest[offset] = dests.get(e).intValue();
+                edge_prob[offset] = e.getProbability();
+                offset++;
+            } // FOR
+        } // FOR
+
+        CompiledMarkovGraph compiled = new CompiledMarkovGraph(catalog_proc, markov.getGraphId(), num_partitions,
+                                                               statements.toArray(new Statement[statements.size()]),
+                                                               v_type, v_stmt, v_counter, v_hits,
+                                                               v_abort, v_done, v_write,
+                                                               part_offsets, parts, past_offsets, pasts,
+                                                               edge_offsets, edge_dest, edge_prob,
+                                                               ordered.toArray(new MarkovVertex[num_vertices]));
+        if (debug.val)
+            LOG.debug(String.format("Compiled %s [vertices=%d, edges=%d]", markov, num_vertices, num_edges));
+        return (compiled);
+    }
+
+    // ----------------------------------------------------------------------------
+    // GRAPH METHODS
+    // ----------------------------------------------------------------------------
+
+    public Procedure getProcedure() {
+        return (this.catalog_proc);
+    }
+    public int getGraphId() {
+        return (this.graphId);
+    }
+    public int getNumPartitions() {
+        return (this.numPartitions);
+    }
+    public int getVertexCount() {
+        return (this.numVertices);
+    }
+    public int getEdgeCount() {
+        return (this.edge_dest.length);
+    }
+
+    /**
+     * Return the index of the given MarkovVertex in this graph.
+     * Returns -1 if the vertex does not exist.
+     * @param vertex
+     * @return
+     */
+    public int getVertexIndex(MarkovVertex vertex) {
+        switch (vertex.getType()) {
+            case START:
+                return (START_INDEX);
+            case COMMIT:
+                return (COMMIT_INDEX);
+            case ABORT:
+                return (ABORT_INDEX);
+            default:
+                // Keep going...
+        } // SWITCH
+        Integer idx = this.vertexIndexes.get(vertex);
+        if (idx != null) return (idx.intValue());
+        Statement catalog_stmt = vertex.getCatalogItem();
+        for (int v = 0; v < this.numVertices; v++) {
+            if (this.v_counter[v] == vertex.getQueryCounter() &&
+                this.statements[this.v_stmt[v]].equals(catalog_stmt) &&
+                this.equalsPartitions(v, vertex.getPartitions()) &&
+                this.equalsPastPartitions(v, vertex.getPastPartitions())) {
+                return (v);
+            }
+        } // FOR
+        return (-1);
+    }
+
+    /**
+     * Return the MarkovVertex for the given index.
+     * @param v
+     * @return
+     */
+    public MarkovVertex getVertex(int v) {
+        return (this.vertices[v]);
+    }
+
+    private MarkovVertex createVertex(int v) {
+        PartitionSet partitions = new PartitionSet();
+        for (int i = this.part_offsets[v], end = this.part_offsets[v+1]; i < end; i++) {
+            partitions.add(this.parts[i]);
+        } // FOR
+        PartitionSet past_partitions = new PartitionSet();
+        for (int i = this.past_offsets[v], end = this.past_offsets[v+1]; i < end; i++) {
+            past_partitions.add(this.pasts[i]);
+        } // FOR
+        MarkovVertex vertex = new MarkovVertex(this.statements[this.v_stmt[v]], TYPES[this.v_type[v]],
+                                               this.v_counter[v], partitions, past_partitions);
+        vertex.totalhits = (int)this.v_hits[v];
+        vertex.setAbortProbability(this.v_abort[v]);
+        for (int p = 0; p < this.numPartitions; p++) {
+            vertex.setDoneProbability(p, this.v_done[v * this.numPartitions + p]);
+            vertex.setWriteProbability(p, this.v_write[v * this.numPartitions + p]);
+        } // FOR
+        return (vertex);
+    }
+
+    // ----------------------------------------------------------------------------
+    // VERTEX METHODS
+    // ----------------------------------------------------------------------------
+
+    public MarkovVertex.Type getType(int v) {
+        return (TYPES[this.v_type[v]]);
+    }
+    public boolean isQueryVertex(int v) {
+        return (TYPES[this.v_type[v]] == MarkovVertex.Type.QUERY);
+    }
+    public boolean isEndingVertex(int v) {
+        return (v == COMMIT_INDEX || v == ABORT_INDEX);
+    }
+    public Statement getStatement(int v) {
+        return (this.statements[this.v_stmt[v]]);
+    }
+    public int getQueryCounter(int v) {
+        return (this.v_counter[v]);
+    }
+    /**
+     * Returns an id that is unique for the Statement+QueryCounter pair
+     * of the given vertex.
+     * @param v
+     * @return
+     */
+    public int getCountedStatementId(int v) {
+        return (this.v_cstmt[v]);
+    }
+    public boolean isReadOnly(int v) {
+        return ((this.v_flags[v] & FLAG_READONLY) != 0);
+    }
+    public long getTotalHits(int v) {
+        return (this.v_hits[v]);
+    }
+    public float getAbortProbability(int v) {
+        return (this.v_abort[v]);
+    }
+    public float getDoneProbability(int v, int partition) {
+        return (this.v_done[v * this.numPartitions + partition]);
+    }
+    public float getWriteProbability(int v, int partition) {
+        return (this.v_write[v * this.numPartitions + partition]);
+    }
+
+    // ----------------------------------------------------------------------------
+    // PARTITION METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Return the offset of the first partition for the given vertex.
+     * Use getPartition() to retrieve the partition ids between this offset
+     * and the one returned by getPartitionsEnd()
+     */
+    public int getPartitionsStart(int v) {
+        return (this.part_offsets[v]);
+    }
+    public int getPartitionsEnd(int v) {
+        return (this.part_offsets[v+1]);
+    }
+    public int getPartition(int offset) {
+        return (this.parts[offset]);
+    }
+    public int getPastPartitionsStart(int v) {
+        return (this.past_offsets[v]);
+    }
+    public int getPastPartitionsEnd(int v) {
+        return (this.past_offsets[v+1]);
+    }
+    public int getPastPartition(int offset) {
+        return (this.pasts[offset]);
+    }
+
+    public boolean containsPartition(int v, int partition) {
+        for (int i = this.part_offsets[v], end = this.part_offsets[v+1]; i < end; i++) {
+            if (this.parts[i] == partition) return (true);
+        } // FOR
+        return (false);
+    }
+    public boolean equalsPartitions(int v, PartitionSet partitions) {
+        return (equals(this.parts, this.part_offsets[v], this.part_offsets[v+1], partitions));
+    }
+    public boolean equalsPastPartitions(int v, PartitionSet partitions) {
+        return (equals(this.pasts, this.past_offsets[v], this.past_offsets[v+1], partitions));
+    }
+    private static boolean equals(int values[], int start, int end, PartitionSet partitions) {
+        if (end - start != partitions.size()) return (false);
+        for (int i = start; i < end; i++) {
+            if (partitions.contains(values[i]) == false) return (false);
+        } // FOR
+        return (true);
+    }
+
+    // ----------------------------------------------------------------------------
+    // EDGE METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Return the offset of the first outbound edge for the given vertex.
+     * The edges between this offset and the one returned by getEdgesEnd() are
+     * sorted by their probability in descending order.
+     * @param v
+     * @return
+     */
+    public int getEdgesStart(int v) {
+        return (this.edge_offsets[v]);
+    }
+    public int getEdgesEnd(int v) {
+        return (this.edge_offsets[v+1]);
+    }
+    public int getEdgeDest(int e) {
+        return (this.edge_dest[e]);
+    }
+    public float getEdgeProbability(int e) {
+        return (this.edge_prob[e]);
+    }
+
+    @Override
+    public String toString() {
+        return (String.format("%s<%s>", this.getClass().getSimpleName(), this.catalog_proc.getName()));
+    }
+
+    // ----------------------------------------------------------------------------
+    // SERIALIZATION
+    // ----------------------------------------------------------------------------
+
+    public void save(File path) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+        try {
+            this.save(out);
+        } finally {
+            out.close();
+        }
+        if (debug.val) LOG.debug(String.format("Wrote %s to '%s'", this, path));
+    }
+
+    public void save(DataOutput out) throws IOException {
+        out.write(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(this.catalog_proc.getName());
+        out.writeInt(this.graphId);
+        out.writeInt(this.numPartitions);
+        out.writeInt(this.numVertices);
+        out.writeInt(this.edge_dest.length);
+
+        // The special vertices' Statements will be recreated when we load the graph
+        out.writeInt(this.statements.length);
+        for (int i = 0; i < this.statements.length; i++) {
+            out.writeUTF(this.statements[i].getName());
+        } // FOR
+
+        out.write(this.v_type);
+        writeArray(out, this.v_stmt);
+        writeArray(out, this.v_counter);
+        for (long hits : this.v_hits) out.writeLong(hits);
+        writeArray(out, this.v_abort);
+        writeArray(out, this.v_done);
+        writeArray(out, this.v_write);
+        writeArray(out, this.part_offsets);
+        out.writeInt(this.parts.length);
+        writeArray(out, this.parts);
+        writeArray(out, this.past_offsets);
+        out.writeInt(this.pasts.length);
+        writeArray(out, this.pasts);
+        writeArray(out, this.edge_offsets);
+        writeArray(out, this.edge_dest);
+        writeArray(out, this.edge_prob);
+    }
+
+    public static CompiledMarkovGraph load(File path, Database catalog_db) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+        try {
+            return (load(in, catalog_db));
+        } finally {
+            in.close();
+        }
+    }
+
+    public static CompiledMarkovGraph load(DataInput in, Database catalog_db) throws IOException {
+        byte magic[] = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (Arrays.equals(MAGIC, magic) == false) {
+            throw new IOException("Invalid " + CompiledMarkovGraph.class.getSimpleName() + " header");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported " + CompiledMarkovGraph.class.getSimpleName() + " version " + version);
+        }
+        String procName = in.readUTF();
+        Procedure catalog_proc = catalog_db.getProcedures().getIgnoreCase(procName);
+        if (catalog_proc == null) {
+            throw new IOException("Invalid Procedure '" + procName + "'");
+        }
+        int graphId = in.readInt();
+        int num_partitions = in.readInt();
+        int num_vertices = in.readInt();
+        int num_edges = in.readInt();
+
+        String stmtNames[] = new String[in.readInt()];
+        for (int i = 0; i < stmtNames.length; i++) {
+            stmtNames[i] = in.readUTF();
+        } // FOR
+
+        byte v_type[] = new byte[num_vertices];
+        in.readFully(v_type);
+        int v_stmt[] = readIntArray(in, num_vertices);
+        int v_counter[] = readIntArray(in, num_vertices);
+        long v_hits[] = new long[num_vertices];
+        for (int i = 0; i < num_vertices; i++) v_hits[i] = in.readLong();
+        float v_abort[] = readFloatArray(in, num_vertices);
+        float v_done[] = readFloatArray(in, num_vertices * num_partitions);
+        float v_write[] = readFloatArray(in, num_vertices * num_partitions);
+        int part_offsets[] = readIntArray(in, num_vertices + 1);
+        int parts[] = readIntArray(in, in.readInt());
+        int past_offsets[] = readIntArray(in, num_vertices + 1);
+        int pasts[] = readIntArray(in, in.readInt());
+        int edge_offsets[] = readIntArray(in, num_vertices + 1);
+        int edge_dest[] = readIntArray(in, num_edges);
+        float edge_prob[] = readFloatArray(in, num_edges);
+
+        // Resolve the Statements. The special vertices' Statements are not real
+        // catalog objects, so we have to get them from MarkovUtil
+        Statement statements[] = new Statement[stmtNames.length];
+        for (int v = 0; v < num_vertices; v++) {
+            int stmtIdx = v_stmt[v];
+            if (statements[stmtIdx] != null) continue;
+            MarkovVertex.Type type = TYPES[v_type[v]];
+            if (type == MarkovVertex.Type.QUERY) {
+                statements[stmtIdx] = catalog_proc.getStatements().getIgnoreCase(stmtNames[stmtIdx]);
+            } else {
+                statements[stmtIdx] = MarkovUtil.getSpecialStatement(catalog_db, type);
+            }
+            if (statements[stmtIdx] == null) {
+                throw new IOException(String.format("Invalid Statement '%s' for %s", stmtNames[stmtIdx], catalog_proc));
+            }
+        } // FOR
+
+        return new CompiledMarkovGraph(catalog_proc, graphId, num_partitions, statements,
+                                       v_type, v_stmt, v_counter, v_hits,
+                                       v_abort, v_done, v_write,
+                                       part_offsets, parts, past_offsets, pasts,
+                                       edge_offsets, edge_dest, edge_prob,
+                                       null);
+    }
+
+    private static void writeArray(DataOutput out, int values[]) throws IOException {
+        for (int val : values) out.writeInt(val);
+    }
+    private static void writeArray(DataOutput out, float values[]) throws IOException {
+        for (float val : values) out.writeFloat(val);
+    }
+    private static int[] readIntArray(DataInput in, int length) throws IOException {
+        int values[] = new int[length];
+        for (int i = 0; i < length; i++) values[i] = in.readInt();
+        return (values);
+    }
+    private static float[] readFloatArray(DataInput in, int length) throws IOException {
+        float values[] = new float[length];
+        for (int i = 0; i < length; i++) values[i] = in.readFloat();
+        return (values);
+    }
+}
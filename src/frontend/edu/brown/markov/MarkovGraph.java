@@ -38,6 +38,8 @@ import edu.brown.utils.PartitionSet;
 import edu.brown.utils.ProjectType;
 import edu.brown.workload.QueryTrace;
 import edu.brown.workload.TransactionTrace;
+import edu.uci.ics.jung.graph.util.EdgeType;
+import edu.uci.ics.jung.graph.util.Pair;
 
 /**
  * Markov Model Graph
@@ -158,6 +160,7 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
     private transient final MarkovVertex cache_specialVertices[] = new MarkovVertex[MarkovVertex.Type.values().length];
     private transient final Map<Statement, Collection<MarkovVertex>> cache_stmtVertices = new HashMap<Statement, Collection<MarkovVertex>>();
     private transient final Map<MarkovVertex, Collection<MarkovVertex>> cache_getSuccessors = new ConcurrentHashMap<MarkovVertex, Collection<MarkovVertex>>();
+    private transient volatile CompiledMarkovGraph cache_compiled = null;
     
     public void buildCache() {
         for (Statement catalog_stmt : this.catalog_proc.getStatements().values()) {
@@ -204,6 +207,13 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
         return (e);
     }
     
+    @Override
+    public boolean addEdge(MarkovEdge edge, Pair<? extends MarkovVertex> endpoints, EdgeType edgeType) {
+        boolean ret = super.addEdge(edge, endpoints, edgeType);
+        if (ret) this.cache_compiled = null;
+        return (ret);
+    }
+    
     /**
      * 
      */
@@ -211,6 +221,7 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
     public boolean addVertex(MarkovVertex v) {
         boolean ret = super.addVertex(v);
         if (ret) {
+            this.cache_compiled = null;
             if (v.isQueryVertex()) {
                 Collection<MarkovVertex> stmt_vertices = this.cache_stmtVertices.get(v.getCatalogItem());
                 if (stmt_vertices == null) {
@@ -311,6 +322,7 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
         if (stmt_vertices == null) {
             this.buildCache();
             stmt_vertices = this.cache_stmtVertices.get(a);
+            if (stmt_vertices == null) return (null);
         }
         for (MarkovVertex v : stmt_vertices) {
             if (v.isEqual(a, partitions, past_partitions, queryInstanceIndex)) {
@@ -366,6 +378,26 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
         this.calculateVertexProbabilities(partitions);
         
         this.recompute_count++;
+        this.cache_compiled = null;
+    }
+    
+    /**
+     * Return a CompiledMarkovGraph for the current state of this graph. The compiled
+     * graph is cached until this graph is modified or its probabilities are recalculated.
+     * @return
+     */
+    public CompiledMarkovGraph getCompiledGraph() {
+        CompiledMarkovGraph compiled = this.cache_compiled;
+        if (compiled == null) {
+            synchronized (this) {
+                compiled = this.cache_compiled;
+                if (compiled == null) {
+                    compiled = CompiledMarkovGraph.compile(this);
+                    this.cache_compiled = compiled;
+                }
+            } // SYNCH
+        }
+        return (compiled);
     }
 
     /**
@@ -600,10 +632,73 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
         return (path);
     }
     
+    /**
+     * Replay a txn's path that was recorded against another version of this graph.
+     * The path must start at the START vertex and end at either the COMMIT or ABORT vertex.
+     * Any query vertex in the path that does not exist in this graph is created, and 
+     * then the instance hits for each vertex and edge along the path are incremented.
+     * Like the instance hits updated at runtime, these changes will not affect the
+     * graph's probabilities until calculateProbabilities() is invoked.
+     * @param path
+     */
+    public void processPath(List<MarkovVertex> path) {
+        assert(path.isEmpty() == false);
+        MarkovVertex previous = null;
+        for (MarkovVertex v : path) {
+            MarkovVertex next = null;
+            if (v.isQueryVertex()) {
+                Statement catalog_stmt = (Statement)v.getCatalogItem();
+                next = this.getVertex(catalog_stmt, v.getPartitions(), v.getPastPartitions(), v.getQueryCounter());
+                if (next == null) {
+                    next = new MarkovVertex(catalog_stmt, MarkovVertex.Type.QUERY, v.getQueryCounter(),
+                                            v.getPartitions(), v.getPastPartitions());
+                    this.addVertex(next);
+                }
+            } else {
+                next = this.getSpecialVertex(v.getType());
+            }
+            next.incrementInstanceHits();
+            if (previous != null) {
+                this.addToEdge(previous, next).incrementInstanceHits();
+            }
+            previous = next;
+        } // FOR
+        this.xact_count++;
+    }
+    
     // ----------------------------------------------------------------------------
     // UTILITY METHODS
     // ----------------------------------------------------------------------------
     
+    /**
+     * Create a deep copy of this graph. The copy has its own vertex and edge
+     * objects with the same hit counters and probabilities as this graph, so 
+     * it can be modified without affecting any thread that is using this graph.
+     * @return
+     */
+    public MarkovGraph copy() {
+        MarkovGraph clone = new MarkovGraph(this.catalog_proc);
+        Map<MarkovVertex, MarkovVertex> vertexXref = new HashMap<MarkovVertex, MarkovVertex>();
+        for (MarkovVertex v : this.getVertices()) {
+            MarkovVertex clone_v = new MarkovVertex(v);
+            clone_v.totalhits = v.totalhits;
+            clone_v.instancehits = v.instancehits;
+            clone_v.execution_time = v.execution_time;
+            clone.addVertex(clone_v);
+            vertexXref.put(v, clone_v);
+        } // FOR
+        for (MarkovEdge e : this.getEdges()) {
+            MarkovEdge clone_e = new MarkovEdge(clone, e.totalhits, e.probability);
+            clone_e.instancehits = e.instancehits;
+            clone.addEdge(clone_e, vertexXref.get(this.getSource(e)), vertexXref.get(this.getDest(e)));
+        } // FOR
+        clone.xact_count = this.xact_count;
+        clone.xact_mispredict = this.xact_mispredict;
+        clone.xact_accuracy = this.xact_accuracy;
+        clone.recompute_count = this.recompute_count;
+        return (clone);
+    }
+    
     /**
      * Reset the instance hit counters
      * XXX: This assumes that this will not be manipulated concurrently, no
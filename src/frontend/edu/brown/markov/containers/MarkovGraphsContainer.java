@@ -178,7 +178,41 @@ public class MarkovGraphsContainer implements JSONSerializable {
         }
         inner.put(markov.getProcedure(), markov);
     }
-    
+
+    /**
+     * Atomically replace the given MarkovGraph with a new version of it.
+     * Returns false if the original graph is no longer stored in this container
+     * @param orig
+     * @param markov
+     * @return
+     */
+    public boolean replace(MarkovGraph orig, MarkovGraph markov) {
+        assert(orig.getProcedure().equals(markov.getProcedure()));
+        synchronized (this.markovs) {
+            for (Map<Procedure, MarkovGraph> inner : this.markovs.values()) {
+                if (inner.get(orig.getProcedure()) == orig) {
+                    return (((ConcurrentHashMap<Procedure, MarkovGraph>)inner).replace(orig.getProcedure(), orig, markov));
+                }
+            } // FOR
+        } // SYNCH
+        return (false);
+    }
+
+    /**
+     * Returns true if the given MarkovGraph is the current version of the
+     * graph for its procedure for one of the ids in this container
+     * @param markov
+     * @return
+     */
+    public boolean contains(MarkovGraph markov) {
+        synchronized (this.markovs) {
+            for (Map<Procedure, MarkovGraph> inner : this.markovs.values()) {
+                if (inner.get(markov.getProcedure()) == markov) return (true);
+            } // FOR
+        } // SYNCH
+        return (false);
+    }
+
     /**
      * 
      * @param txn_id
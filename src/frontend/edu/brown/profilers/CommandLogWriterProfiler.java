@@ -2,8 +2,38 @@ package edu.brown.profilers;
 
 public class CommandLogWriterProfiler extends AbstractProfiler {
 
+    /**
+     * The amount of time the writer thread spends serializing LogEntries
+     */
+    public final ProfileMeasurement serializeTime = new ProfileMeasurement("SERIALIZE");
+    /**
+     * The amount of time the writer thread spends compressing group commit batches
+     */
+    public final ProfileMeasurement compressTime = new ProfileMeasurement("COMPRESS");
+    /**
+     * The amount of time the writer thread spends waiting for the sync thread
+     */
+    public final ProfileMeasurement stallTime = new ProfileMeasurement("STALL");
+    /**
+     * The amount of time the sync thread spends writing batches to the log file
+     */
     public final ProfileMeasurement writingTime = new ProfileMeasurement("WRITING");
+    /**
+     * The amount of time the sync thread spends waiting for the disk to sync
+     */
+    public final ProfileMeasurement fsyncTime = new ProfileMeasurement("FSYNC");
+    /**
+     * The amount of time the partitions spend blocked waiting to add a new LogEntry
+     */
     public final ProfileMeasurement blockedTime = new ProfileMeasurement("BLOCKED");
+    /**
+     * The amount of time the sync thread spends sending out client responses
+     */
     public final ProfileMeasurement networkTime = new ProfileMeasurement("NETWORK");
+    /**
+     * The group commit window chosen by the writer thread for each batch.
+     * The average think time of this measurement is the average window.
+     */
+    public final ProfileMeasurement windowTime = new ProfileMeasurement("WINDOW");
     
 }
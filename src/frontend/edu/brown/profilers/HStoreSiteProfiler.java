@@ -25,6 +25,12 @@ public class HStoreSiteProfiler extends AbstractProfiler {
      */
     public final ProfileMeasurement network_idle = new ConcurrentProfileMeasurement("IDLE");
     
+    /**
+     * How much time the TransactionPostProcessors spend sending
+     * ClientResponses back to clients
+     */
+    public final ProfileMeasurement network_response_dispatch = new ConcurrentProfileMeasurement("RESPONSE_DISPATCH");
+    
     /**
      * How long the clean-up thread spends to delete transaction handles
      */
@@ -35,9 +41,64 @@ public class HStoreSiteProfiler extends AbstractProfiler {
      */
     public final FastIntHistogram network_incoming_partitions = new FastIntHistogram();
     
+    /**
+     * The number of inter-site RPC requests sent per write when the
+     * HStoreCoordinator is coalescing messages
+     */
+    public final FastIntHistogram coordinator_batch_sizes = new FastIntHistogram();
+    
+    /**
+     * The number of ClientResponses sent out together by the TransactionPostProcessors
+     */
+    public final FastIntHistogram response_batch_sizes = new FastIntHistogram();
+    
+    /**
+     * How much time each of the HStoreCoordinator's event loops spent handling
+     * events and how much time they spent blocked waiting for them.
+     * These are not included in the stats columns because the number of
+     * loops depends on the configuration.
+     */
+    public transient ProfileMeasurement coordinator_processing[] = new ProfileMeasurement[0];
+    public transient ProfileMeasurement coordinator_idle[] = new ProfileMeasurement[0];
+    
+    /**
+     * Create the ProfileMeasurements for the given number of coordinator event loops
+     * @param num_loops
+     */
+    public void initCoordinatorLoops(int num_loops) {
+        this.coordinator_processing = new ProfileMeasurement[num_loops];
+        this.coordinator_idle = new ProfileMeasurement[num_loops];
+        for (int i = 0; i < num_loops; i++) {
+            this.coordinator_processing[i] = new ProfileMeasurement("COORD_PROCESSING_" + i);
+            this.coordinator_idle[i] = new ProfileMeasurement("COORD_IDLE_" + i);
+        } // FOR
+    }
+    
+    /**
+     * Returns the fraction of time that the given coordinator event loop
+     * spent handling events.
+     * @param loop
+     * @return
+     */
+    public double getCoordinatorUtilization(int loop) {
+        double busy = this.coordinator_processing[loop].getTotalThinkTime();
+        double total = busy + this.coordinator_idle[loop].getTotalThinkTime();
+        return (total > 0 ? busy / total : 0d);
+    }
+    
     @Override
     public void reset() {
         super.reset();
         this.network_incoming_partitions.clear();
+        synchronized (this.coordinator_batch_sizes) {
+            this.coordinator_batch_sizes.clear();
+        }
+        synchronized (this.response_batch_sizes) {
+            this.response_batch_sizes.clear();
+        }
+        for (int i = 0; i < this.coordinator_processing.length; i++) {
+            this.coordinator_processing[i].reset();
+            this.coordinator_idle[i].reset();
+        } // FOR
     }
 }
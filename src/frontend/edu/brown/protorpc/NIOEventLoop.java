@@ -16,6 +16,8 @@ import org.apache.log4j.Logger;
 import sun.misc.Signal;
 import sun.misc.SignalHandler;
 
+import edu.brown.profilers.ProfileMeasurement;
+
 /** Wraps a Java NIO selector to dispatch events. */
 public class NIOEventLoop implements EventLoop {
     private static final Logger LOG = Logger.getLogger(NIOEventLoop.class);
@@ -157,6 +159,15 @@ public class NIOEventLoop implements EventLoop {
         if (LOG.isDebugEnabled()) LOG.debug("Completed run() loop");
     }
 
+    /**
+     * Record how much time this loop spends blocked in select() and
+     * how much time it spends handling events. Either one can be null.
+     */
+    public void setProfileMeasurements(ProfileMeasurement idle, ProfileMeasurement processing) {
+        this.idleTime = idle;
+        this.processingTime = processing;
+    }
+
     public void runOnce() {
         long timeoutMs = 0;
         if (!timers.isEmpty()) {
@@ -165,8 +176,18 @@ public class NIOEventLoop implements EventLoop {
         }
 
         try {
+            final ProfileMeasurement idle = this.idleTime;
+            final ProfileMeasurement processing = this.processingTime;
+            long start = (idle != null || processing != null ? ProfileMeasurement.getTime() : -1);
             int readyCount = selector.select(timeoutMs);
-            handleSelectedKeys();
+            if (start != -1) {
+                long selected = ProfileMeasurement.getTime();
+                if (idle != null) idle.appendTime(start, selected);
+                handleSelectedKeys();
+                if (processing != null) processing.appendTime(selected, ProfileMeasurement.getTime());
+            } else {
+                handleSelectedKeys();
+            }
             if (readyCount == 0) {
                 // TODO: Avoid checking this at both the top and the bottom of the loop.
                 triggerExpiredTimers(System.currentTimeMillis());
@@ -268,6 +289,8 @@ public class NIOEventLoop implements EventLoop {
 
     private final Selector selector;
     private SigintHandler sigintHandler;
+    private volatile ProfileMeasurement idleTime;
+    private volatile ProfileMeasurement processingTime;
     // volatile because signal handlers run in other threads
     private volatile boolean exitLoop = false;
     private final ConcurrentLinkedQueue<Runnable> threadEvents =
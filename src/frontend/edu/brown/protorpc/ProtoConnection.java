@@ -84,18 +84,33 @@ public class ProtoConnection {
     }
 
     public boolean tryWrite(MessageLite message) {
+        bufferWrite(message);
+        return connection.tryFlush();
+    }
+
+    /** Serializes the message into the connection's write buffer without trying to send it.
+     * The message will go out with the next call to tryWrite() or tryFlush(). This lets
+     * callers pack many small messages into a single write to the underlying channel.
+     */
+    public void bufferWrite(MessageLite message) {
         try {
             codedOutput.writeRawLittleEndian32(message.getSerializedSize());
             message.writeTo(codedOutput);
             // writes to the underlying output stream 
-            codedOutput.flush();  
-
-            return connection.tryFlush();
+            codedOutput.flush();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /** Attempts to write out any buffered messages.
+     * @return true if the write blocks and a write callback is needed.
+     * @see NonBlockingConnection#tryFlush()
+     */
+    public boolean tryFlush() {
+        return connection.tryFlush();
+    }
+
     // TODO: Only keep one of getConnection and getChannel?
     public NonBlockingConnection getConnection() {
         return connection;
@@ -5,7 +5,10 @@ import java.net.ConnectException;
 import java.net.InetSocketAddress;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SocketChannel;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 
@@ -20,6 +23,7 @@ import com.google.protobuf.RpcChannel;
 import com.google.protobuf.RpcController;
 
 import edu.brown.net.NonBlockingConnection;
+import edu.brown.statistics.Histogram;
 
 public class ProtoRpcChannel extends AbstractEventHandler implements RpcChannel {
     private static final Logger LOG = Logger.getLogger(ProtoRpcChannel.class);
@@ -32,6 +36,16 @@ public class ProtoRpcChannel extends AbstractEventHandler implements RpcChannel
             new HashMap<Integer, ProtoRpcController>();
     private int reconnectIntervalSeconds;
 
+    /** Requests for these methods are buffered until the next flush() */
+    private final Set<Descriptors.MethodDescriptor> coalescedMethods =
+            new HashSet<Descriptors.MethodDescriptor>();
+    /** The number of requests sitting in the connection's write buffer */
+    private int buffered = 0;
+    /** Optional histogram of the number of requests sent per write */
+    private Histogram<Integer> batchSizes;
+    /** Optional callback invoked when the first request is buffered after a flush */
+    private Runnable bufferListener;
+
     /** A factory interface for connecting to an RPC server. */
     public interface ConnectFactory {
         /** Creates a new connection that is connecting. */
@@ -130,7 +144,19 @@ public class ProtoRpcChannel extends AbstractEventHandler implements RpcChannel
             // System.err.println("Sending RPC sequence " + sequence);
             RpcRequest rpcRequest = makeRpcRequest(sequence, method, request);
             sequence += 1;
+            if (coalescedMethods.contains(method)) {
+                connection.bufferWrite(rpcRequest);
+                buffered += 1;
+                if (buffered == 1 && bufferListener != null) bufferListener.run();
+                if (debug) LOG.debug(String.format("%d: Buffered RPC %s sequence %d [buffered=%d]", hashCode(), method.getFullName(), sequence, buffered));
+                return;
+            }
             boolean blocked = connection.tryWrite(rpcRequest);
+            // This request only went out in a batch if it flushed coalesced requests with it
+            if (buffered > 0) {
+                recordBatch(buffered + 1);
+                buffered = 0;
+            }
             if (blocked) {
                 // the write blocked: wait for write callbacks
                 if (debug) LOG.debug("registering write with eventLoop: " + eventLoop);
@@ -140,6 +166,59 @@ public class ProtoRpcChannel extends AbstractEventHandler implements RpcChannel
         }
     }
 
+    /**
+     * Buffer the requests for the given methods instead of writing them out immediately.
+     * They are sent when flush() is called or when a request for some other method is sent
+     * on this channel, whichever comes first. The receiving side does not need to know about
+     * this since it already parses every request that arrives in a single read.
+     */
+    public synchronized void setCoalescedMethods(Collection<Descriptors.MethodDescriptor> methods) {
+        coalescedMethods.clear();
+        coalescedMethods.addAll(methods);
+    }
+
+    /**
+     * Invoke the given callback whenever this channel buffers a request and there
+     * was nothing buffered before it. This lets whoever calls flush() sleep until
+     * there is something for it to send.
+     */
+    public synchronized void setBufferListener(Runnable listener) {
+        this.bufferListener = listener;
+    }
+
+    /**
+     * Record the number of requests that go out with each write of coalesced requests
+     * in the given histogram. Writes of a single request for a method that is not 
+     * coalesced are not recorded. The histogram is synchronized on when it is updated.
+     */
+    public void setBatchSizeHistogram(Histogram<Integer> batchSizes) {
+        this.batchSizes = batchSizes;
+    }
+
+    /**
+     * Write out any requests that were buffered by setCoalescedMethods().
+     * @return the number of requests that were flushed
+     */
+    public synchronized int flush() {
+        if (buffered == 0 || connection == null) return 0;
+        int count = buffered;
+        buffered = 0;
+        boolean blocked = connection.tryFlush();
+        if (blocked) {
+            eventLoop.registerWrite(connection.getChannel(), this);
+        }
+        recordBatch(count);
+        return count;
+    }
+
+    private void recordBatch(int count) {
+        if (batchSizes != null) {
+            synchronized (batchSizes) {
+                batchSizes.put(count);
+            }
+        }
+    }
+
     public static RpcRequest makeRpcRequest(
             int sequence, Descriptors.MethodDescriptor method, Message request) {
         RpcRequest.Builder requestBuilder = RpcRequest.newBuilder();
@@ -229,6 +308,7 @@ public class ProtoRpcChannel extends AbstractEventHandler implements RpcChannel
         if (connection == null) throw new IllegalStateException("connection closed");
         connection.close();
         connection = null;
+        buffered = 0;
 
         // Fail all pending RPCs
         for (ProtoRpcController rpc : pendingRpcs.values()) {
@@ -24,7 +24,20 @@ public class ProtoServer extends AbstractEventHandler {
     private static final Logger LOG = Logger.getLogger(ProtoServer.class);
     
     public ProtoServer(EventLoop eventLoop) {
+        this(eventLoop, new EventLoop[]{ eventLoop });
+    }
+
+    /**
+     * Accept new connections in the given eventLoop, but spread the
+     * accepted connections across connectionLoops in a round-robin fashion.
+     * Each request is invoked in the thread of the loop that owns its connection.
+     * @param eventLoop
+     * @param connectionLoops
+     */
+    public ProtoServer(EventLoop eventLoop, EventLoop connectionLoops[]) {
+        assert(connectionLoops.length > 0);
         this.eventLoop = eventLoop;
+        this.connectionLoops = connectionLoops;
     }
 
     @Override
@@ -42,15 +55,30 @@ public class ProtoServer extends AbstractEventHandler {
         // wrap it in a message connection and register with event loop
         ProtoConnection connection = new ProtoConnection(new NonBlockingConnection(client));
 
-        eventLoop.registerRead(client, new EventCallbackWrapper(connection));
+        final EventLoop loop = connectionLoops[nextConnectionLoop++ % connectionLoops.length];
+        final SocketChannel clientChannel = client;
+        final EventCallbackWrapper handler = new EventCallbackWrapper(connection, loop);
+        if (loop == eventLoop) {
+            loop.registerRead(clientChannel, handler);
+        } else {
+            // The channel has to be registered by the thread that is running the
+            // other loop, otherwise we'll block until its select() returns
+            loop.runInEventThread(new Runnable() {
+                @Override
+                public void run() {
+                    loop.registerRead(clientChannel, handler);
+                }
+            });
+        }
 //        SelectionKey clientKey = connection.register(selector);
 //        clientKey.attach(connection);
 //        eventQueue.add(new Event(connection, null));
     }
 
     private class EventCallbackWrapper extends AbstractEventHandler {
-        public EventCallbackWrapper(ProtoConnection connection) {
+        public EventCallbackWrapper(ProtoConnection connection, EventLoop loop) {
             this.connection = connection;
+            this.loop = loop;
         }
 
         @Override
@@ -64,12 +92,13 @@ public class ProtoServer extends AbstractEventHandler {
         }
 
         private final ProtoConnection connection;
+        private final EventLoop loop;
 
         public synchronized void writeResponse(RpcResponse output) {
             boolean blocked = connection.tryWrite(output);
             if (blocked) {
                 // write blocked: wait for the write callback
-                eventLoop.registerWrite(connection.getChannel(), this);
+                loop.registerWrite(connection.getChannel(), this);
             }
         }
     }
@@ -218,6 +247,8 @@ public class ProtoServer extends AbstractEventHandler {
     }
 
     private EventLoop eventLoop;
+    private final EventLoop connectionLoops[];
+    private int nextConnectionLoop = 0;
     private ServerSocketChannel serverSocket;
     private final ServiceRegistry serviceRegistry = new ServiceRegistry();
 }
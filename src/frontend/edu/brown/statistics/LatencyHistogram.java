@@ -0,0 +1,237 @@
+package edu.brown.statistics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.brown.utils.StringUtil;
+
+/**
+ * Fixed-size histogram for latency measurements with a bounded relative error.
+ * Values are stored in exponentially growing buckets that are each split into
+ * linear sub-buckets (like HdrHistogram), so the amount of memory used only depends
+ * on the highest value that we want to track and the number of significant digits
+ * that we want to keep. Values that are greater than the highest trackable value
+ * are counted in the last bucket, but the maximum value is always exact.
+ * Two histograms with the same configuration can be merged together with add().
+ * <B>Note:</B> This class is not thread-safe.
+ */
+public class LatencyHistogram {
+
+    private final long highestTrackableValue;
+    private final int significantDigits;
+    private final int subBucketHalfCountMagnitude;
+    private final int subBucketHalfCount;
+    private final long subBucketMask;
+    private final int leadingZeroCountBase;
+    private final long counts[];
+
+    private long totalCount = 0;
+    private long totalSum = 0;
+    private long minValue = Long.MAX_VALUE;
+    private long maxValue = 0;
+
+    // ----------------------------------------------------------------------------
+    // INITIALIZATION
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Constructor
+     * @param highestTrackableValue The largest value that we can record without losing precision
+     * @param significantDigits The number of significant decimal digits to keep for each value (1-5)
+     */
+    public LatencyHistogram(long highestTrackableValue, int significantDigits) {
+        if (highestTrackableValue < 2) {
+            throw new IllegalArgumentException("Invalid highest trackable value " + highestTrackableValue);
+        }
+        if (significantDigits < 1 || significantDigits > 5) {
+            throw new IllegalArgumentException("Invalid number of significant digits " + significantDigits);
+        }
+        this.highestTrackableValue = highestTrackableValue;
+        this.significantDigits = significantDigits;
+
+        // We need enough sub-buckets in each bucket so that the difference
+        // between two neighboring values is within our precision
+        long largestValueWithSingleUnitResolution = 2 * (long)Math.pow(10, significantDigits);
+        int subBucketCountMagnitude = (int)Math.ceil(Math.log(largestValueWithSingleUnitResolution) / Math.log(2));
+        this.subBucketHalfCountMagnitude = subBucketCountMagnitude - 1;
+        this.subBucketHalfCount = 1 << this.subBucketHalfCountMagnitude;
+        this.subBucketMask = (1l << subBucketCountMagnitude) - 1;
+        this.leadingZeroCountBase = 64 - this.subBucketHalfCountMagnitude - 1;
+        this.counts = new long[this.getIndex(highestTrackableValue) + 1];
+    }
+
+    /**
+     * Copy Constructor
+     * @param copy
+     */
+    public LatencyHistogram(LatencyHistogram copy) {
+        this(copy.highestTrackableValue, copy.significantDigits);
+        this.add(copy);
+    }
+
+    // ----------------------------------------------------------------------------
+    // INDEXING
+    // ----------------------------------------------------------------------------
+
+    private int getIndex(long value) {
+        int bucketIndex = this.leadingZeroCountBase - Long.numberOfLeadingZeros(value | this.subBucketMask);
+        int subBucketIndex = (int)(value >>> bucketIndex);
+        return ((bucketIndex + 1) << this.subBucketHalfCountMagnitude) + (subBucketIndex - this.subBucketHalfCount);
+    }
+
+    private int getBucketIndex(int index) {
+        return Math.max(0, (index >> this.subBucketHalfCountMagnitude) - 1);
+    }
+
+    /**
+     * Returns the smallest value that is counted at the given index
+     */
+    private long getLowestValue(int index) {
+        int bucketIndex = (index >> this.subBucketHalfCountMagnitude) - 1;
+        int subBucketIndex = (index & (this.subBucketHalfCount - 1)) + this.subBucketHalfCount;
+        if (bucketIndex < 0) {
+            subBucketIndex -= this.subBucketHalfCount;
+            bucketIndex = 0;
+        }
+        return (((long)subBucketIndex) << bucketIndex);
+    }
+
+    /**
+     * Returns the largest value that is counted at the given index
+     */
+    private long getHighestValue(int index) {
+        return (this.getLowestValue(index) + (1l << this.getBucketIndex(index)) - 1);
+    }
+
+    // ----------------------------------------------------------------------------
+    // RECORDING
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Record a single value. Negative values are recorded as zero.
+     * @param value
+     */
+    public void record(long value) {
+        this.record(value, 1);
+    }
+
+    /**
+     * Record the given value multiple times. Negative values are recorded as zero.
+     * @param value
+     * @param count
+     */
+    public void record(long value, long count) {
+        if (count <= 0) return;
+        if (value < 0) value = 0;
+        int index = this.getIndex(Math.min(value, this.highestTrackableValue));
+        this.counts[index] += count;
+        this.totalCount += count;
+        this.totalSum += value * count;
+        if (value < this.minValue) this.minValue = value;
+        if (value > this.maxValue) this.maxValue = value;
+    }
+
+    /**
+     * Add all of the values from the given histogram into this histogram.
+     * The other histogram must have the same configuration as this one.
+     * @param other
+     */
+    public void add(LatencyHistogram other) {
+        if (this.highestTrackableValue != other.highestTrackableValue ||
+            this.significantDigits != other.significantDigits) {
+            String msg = String.format("Unable to merge %s with different configuration %s", other, this);
+            throw new IllegalArgumentException(msg);
+        }
+        if (other.totalCount == 0) return;
+        for (int i = 0; i < this.counts.length; i++) {
+            this.counts[i] += other.counts[i];
+        } // FOR
+        this.totalCount += other.totalCount;
+        this.totalSum += other.totalSum;
+        this.minValue = Math.min(this.minValue, other.minValue);
+        this.maxValue = Math.max(this.maxValue, other.maxValue);
+    }
+
+    /**
+     * Remove all of the values from this histogram
+     */
+    public void clear() {
+        for (int i = 0; i < this.counts.length; i++) {
+            this.counts[i] = 0;
+        } // FOR
+        this.totalCount = 0;
+        this.totalSum = 0;
+        this.minValue = Long.MAX_VALUE;
+        this.maxValue = 0;
+    }
+
+    // ----------------------------------------------------------------------------
+    // RESULTS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Returns the value that the given percentage of all recorded values are
+     * less than or equal to (within the precision of this histogram).
+     * Returns zero if the histogram is empty.
+     * @param percentile Between 0.0 and 100.0
+     * @return
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (this.totalCount == 0) return (0);
+        percentile = Math.min(Math.max(percentile, 0d), 100d);
+        long countAtPercentile = Math.max(1, (long)Math.ceil((percentile / 100d) * this.totalCount));
+        long runningCount = 0;
+        for (int i = 0; i < this.counts.length; i++) {
+            runningCount += this.counts[i];
+            if (runningCount >= countAtPercentile) {
+                // The last bucket that we have values for also has
+                // all of the values that were above our highest trackable value
+                if (runningCount == this.totalCount) return (this.maxValue);
+                return Math.max(this.minValue, this.getHighestValue(i));
+            }
+        } // FOR
+        return (this.maxValue);
+    }
+
+    public long getCount() {
+        return (this.totalCount);
+    }
+    public boolean isEmpty() {
+        return (this.totalCount == 0);
+    }
+    public long getMinValue() {
+        return (this.totalCount == 0 ? 0 : this.minValue);
+    }
+    public long getMaxValue() {
+        return (this.maxValue);
+    }
+    public double getMean() {
+        return (this.totalCount == 0 ? 0d : this.totalSum / (double)this.totalCount);
+    }
+    public long getHighestTrackableValue() {
+        return (this.highestTrackableValue);
+    }
+    public int getSignificantDigits() {
+        return (this.significantDigits);
+    }
+
+    /**
+     * Returns the number of counters used by this histogram
+     */
+    protected int getCountsLength() {
+        return (this.counts.length);
+    }
+
+    @Override
+    public String toString() {
+        Map<String, Object> m = new LinkedHashMap<String, Object>();
+        m.put("Count", this.totalCount);
+        m.put("Min", this.getMinValue());
+        m.put("Mean", this.getMean());
+        m.put("P50", this.getValueAtPercentile(50d));
+        m.put("P99", this.getValueAtPercentile(99d));
+        m.put("P99.9", this.getValueAtPercentile(99.9d));
+        m.put("Max", this.maxValue);
+        return (this.getClass().getSimpleName() + "\n" + StringUtil.formatMaps(m));
+    }
+}
@@ -0,0 +1,354 @@
+package edu.brown.workload;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.voltdb.VoltType;
+
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.workload.BinaryTraceUtil.ColumnInput;
+import edu.brown.workload.filters.Filter;
+import edu.brown.workload.filters.Filter.FilterResult;
+import edu.brown.workload.filters.ProcedureNameFilter;
+
+/**
+ * Streaming iterator over the TransactionTraces in a binary workload trace file.
+ * Only a single block of the trace is kept in memory at a time.
+ * If a Filter is given, then each TransactionTrace is passed through the Filter
+ * chain before it is returned, and iteration stops when the Filter says HALT.
+ * The underlying file is closed when the iterator reaches the end of the trace.
+ * @see BinaryTraceUtil
+ */
+public class BinaryTraceReader implements Iterator<TransactionTrace>, Iterable<TransactionTrace> {
+    private static final Logger LOG = Logger.getLogger(BinaryTraceReader.class);
+    private static final LoggerBoolean debug = new LoggerBoolean();
+    static {
+        LoggerUtil.attachObserver(LOG, debug);
+    }
+
+    private final File path;
+    private final InputStream in;
+    private final Filter filter;
+
+    /**
+     * The upper-case names of the procedures that the Filter will allow.
+     * If this is not null, then we won't bother building TransactionTraces
+     * for any other procedure.
+     */
+    private final Set<String> procNames;
+
+    /**
+     * DictionaryId -> CatalogItemName
+     */
+    private final List<String> dictionary = new ArrayList<String>();
+    private final List<Boolean> dictionaryAllowed = new ArrayList<Boolean>();
+
+    // Current Block
+    private ColumnInput columns[];
+    private final Map<Long, ColumnInput> paramColumns = new HashMap<Long, ColumnInput>();
+    private int blockTxns = 0;
+    private int blockOffset = 0;
+    private long lastTxnId;
+    private long lastStart;
+
+    private TransactionTrace next;
+    private boolean finished = false;
+    private long txnCount = 0;
+    private long skipCount = 0;
+
+    // ----------------------------------------------------------------------------
+    // INITIALIZATION
+    // ----------------------------------------------------------------------------
+
+    public BinaryTraceReader(File path) throws IOException {
+        this(path, null);
+    }
+
+    /**
+     * Constructor
+     * @param path The binary workload trace file
+     * @param filter Optional Filter chain to apply to each TransactionTrace
+     * @throws IOException
+     */
+    public BinaryTraceReader(File path, Filter filter) throws IOException {
+        this.path = path;
+        this.filter = filter;
+        this.in = BinaryTraceUtil.openInput(path);
+
+        byte header[] = new byte[BinaryTraceUtil.MAGIC.length];
+        BinaryTraceUtil.readFully(this.in, header);
+        for (int i = 0; i < header.length; i++) {
+            if (header[i] != BinaryTraceUtil.MAGIC[i]) {
+                this.in.close();
+                throw new IOException("The file '" + path + "' is not a binary workload trace");
+            }
+        } // FOR
+        int version = this.in.read();
+        if (version != BinaryTraceUtil.VERSION) {
+            this.in.close();
+            throw new IOException("Unsupported binary workload trace version " + version + " in '" + path + "'");
+        }
+
+        // Same trick as Workload.load(): if there are ProcedureNameFilters with
+        // a whitelist, then we can skip all of the txns for the other procedures
+        Set<String> names = null;
+        if (filter != null) {
+            for (ProcedureNameFilter f : filter.getFilters(ProcedureNameFilter.class)) {
+                if (f.getProcedureNames().isEmpty()) continue;
+                if (names == null) names = new HashSet<String>();
+                for (String name : f.getProcedureNames()) {
+                    names.add(name.toUpperCase());
+                } // FOR
+            } // FOR
+        }
+        this.procNames = names;
+    }
+
+    @Override
+    public Iterator<TransactionTrace> iterator() {
+        return (this);
+    }
+
+    public File getPath() {
+        return (this.path);
+    }
+
+    /**
+     * Returns the number of TransactionTraces that have been read so far
+     * (including the ones that were skipped by the Filter)
+     */
+    public long getTransactionCount() {
+        return (this.txnCount);
+    }
+
+    /**
+     * Returns the number of TransactionTraces that were skipped by the Filter
+     */
+    public long getSkipCount() {
+        return (this.skipCount);
+    }
+
+    public void close() {
+        if (this.finished == false) {
+            this.finished = true;
+            try {
+                this.in.close();
+            } catch (IOException ex) {
+                LOG.warn("Failed to close '" + this.path + "'", ex);
+            }
+        }
+    }
+
+    // ----------------------------------------------------------------------------
+    // ITERATOR
+    // ----------------------------------------------------------------------------
+
+    @Override
+    public boolean hasNext() {
+        if (this.next == null && this.finished == false) {
+            try {
+                this.next = this.fetchNext();
+            } catch (IOException ex) {
+                throw new RuntimeException("Failed to read binary workload trace '" + this.path + "'", ex);
+            }
+        }
+        return (this.next != null);
+    }
+
+    @Override
+    public TransactionTrace next() {
+        if (this.hasNext() == false) {
+            throw new NoSuchElementException();
+        }
+        TransactionTrace ret = this.next;
+        this.next = null;
+        return (ret);
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private TransactionTrace fetchNext() throws IOException {
+        while (true) {
+            if (this.blockOffset >= this.blockTxns && this.readBlock() == false) {
+                this.close();
+                return (null);
+            }
+            this.blockOffset++;
+            this.txnCount++;
+            TransactionTrace txn_trace = this.readTransaction();
+            if (txn_trace == null) {
+                this.skipCount++;
+                continue;
+            }
+            if (this.filter != null) {
+                FilterResult result = this.filter.apply(txn_trace);
+                if (result == FilterResult.HALT) {
+                    if (debug.val) LOG.debug("Got HALT response from filter after " + this.txnCount + " txns");
+                    this.close();
+                    return (null);
+                } else if (result == FilterResult.SKIP) {
+                    this.skipCount++;
+                    continue;
+                }
+            }
+            return (txn_trace);
+        } // WHILE
+    }
+
+    // ----------------------------------------------------------------------------
+    // DECODING
+    // ----------------------------------------------------------------------------
+
+    private boolean readBlock() throws IOException {
+        int marker = this.in.read();
+        if (marker < 0) return (false);
+        if (marker != BinaryTraceUtil.BLOCK_MARKER) {
+            throw new IOException("Invalid block marker " + marker + " in '" + this.path + "'");
+        }
+
+        // DICTIONARY
+        int num_entries = (int)BinaryTraceUtil.readVarInt(this.in);
+        for (int i = 0; i < num_entries; i++) {
+            byte bytes[] = new byte[(int)BinaryTraceUtil.readVarInt(this.in)];
+            BinaryTraceUtil.readFully(this.in, bytes);
+            String name = new String(bytes, BinaryTraceUtil.CHARSET);
+            this.dictionary.add(name);
+            this.dictionaryAllowed.add(this.procNames == null || this.procNames.contains(name.toUpperCase()));
+        } // FOR
+        this.blockTxns = (int)BinaryTraceUtil.readVarInt(this.in);
+        BinaryTraceUtil.readVarInt(this.in); // NUM QUERIES
+
+        // FIXED COLUMNS
+        this.columns = new ColumnInput[BinaryTraceUtil.NUM_COLUMNS];
+        for (int i = 0; i < this.columns.length; i++) {
+            this.columns[i] = this.readColumn();
+        } // FOR
+
+        // PARAMETER COLUMNS
+        this.paramColumns.clear();
+        int num_params = (int)BinaryTraceUtil.readVarInt(this.in);
+        for (int i = 0; i < num_params; i++) {
+            long dict_id = BinaryTraceUtil.readVarInt(this.in);
+            long param_idx = BinaryTraceUtil.readVarInt(this.in);
+            this.paramColumns.put((dict_id << 32) | param_idx, this.readColumn());
+        } // FOR
+
+        this.blockOffset = 0;
+        this.lastTxnId = 0;
+        this.lastStart = 0;
+        if (debug.val)
+            LOG.debug(String.format("Read block with %d txns / %d param columns from '%s'",
+                                    this.blockTxns, num_params, this.path.getName()));
+        return (true);
+    }
+
+    private ColumnInput readColumn() throws IOException {
+        byte bytes[] = new byte[(int)BinaryTraceUtil.readVarInt(this.in)];
+        BinaryTraceUtil.readFully(this.in, bytes);
+        return (new ColumnInput(bytes));
+    }
+
+    /**
+     * Decode the next TransactionTrace in the current block. Returns null
+     * if the txn's procedure is not allowed by the Filter. We still have to
+     * advance through all of the columns for that txn though.
+     */
+    private TransactionTrace readTransaction() {
+        ColumnInput cols[] = this.columns;
+        long txn_id = this.lastTxnId + cols[BinaryTraceUtil.COL_TXN_ID].readZigZag();
+        int proc_id = (int)cols[BinaryTraceUtil.COL_TXN_PROC].readVarLong();
+        long start = this.lastStart + cols[BinaryTraceUtil.COL_TXN_START].readZigZag();
+        this.lastTxnId = txn_id;
+        this.lastStart = start;
+        boolean allowed = this.dictionaryAllowed.get(proc_id);
+
+        TransactionTrace txn_trace = new TransactionTrace();
+        txn_trace.setTransactionId(txn_id);
+        this.readElement(txn_trace, proc_id, start, allowed,
+                         cols[BinaryTraceUtil.COL_TXN_STOP],
+                         cols[BinaryTraceUtil.COL_TXN_FLAGS],
+                         cols[BinaryTraceUtil.COL_TXN_WEIGHT]);
+
+        int num_queries = (int)cols[BinaryTraceUtil.COL_TXN_QUERIES].readVarLong();
+        for (int i = 0; i < num_queries; i++) {
+            int stmt_id = (int)cols[BinaryTraceUtil.COL_QUERY_STMT].readVarLong();
+            int batch_id = (int)cols[BinaryTraceUtil.COL_QUERY_BATCH].readVarLong();
+            long query_start = start + cols[BinaryTraceUtil.COL_QUERY_START].readZigZag();
+            QueryTrace query_trace = new QueryTrace(this.dictionary.get(stmt_id), null, batch_id);
+            this.readElement(query_trace, stmt_id, query_start, allowed,
+                             cols[BinaryTraceUtil.COL_QUERY_STOP],
+                             cols[BinaryTraceUtil.COL_QUERY_FLAGS],
+                             cols[BinaryTraceUtil.COL_QUERY_WEIGHT]);
+            if (allowed) txn_trace.addQuery(query_trace);
+        } // FOR
+        return (allowed ? txn_trace : null);
+    }
+
+    private void readElement(AbstractTraceElement<?> element, int dict_id, long start, boolean allowed,
+                             ColumnInput stopCol, ColumnInput flagsCol, ColumnInput weightCol) {
+        Long stop = stopCol.readNullableDelta(start);
+        int flags = flagsCol.readByte();
+        int weight = (int)weightCol.readVarLong();
+        int num_params = (int)this.columns[BinaryTraceUtil.COL_PARAM_COUNTS].readVarLong();
+
+        // We always have to decode the parameters and output so that the
+        // columns stay in sync, even if we are going to throw this txn away
+        Object params[] = new Object[num_params];
+        for (int i = 0; i < num_params; i++) {
+            ColumnInput col = this.paramColumns.get(((long)dict_id << 32) | i);
+            if (col == null) {
+                throw new IllegalStateException("Missing parameter column #" + i + " for " + this.dictionary.get(dict_id));
+            }
+            params[i] = col.readValue();
+        } // FOR
+        if ((flags & BinaryTraceUtil.FLAG_OUTPUT) != 0) {
+            this.readOutput(element);
+        }
+        if (allowed == false) return;
+
+        element.catalog_item_name = this.dictionary.get(dict_id);
+        element.params = params;
+        element.setTimestamps(start, stop);
+        element.aborted = (flags & BinaryTraceUtil.FLAG_ABORTED) != 0;
+        element.setWeight(weight);
+    }
+
+    private void readOutput(AbstractTraceElement<?> element) {
+        ColumnInput col = this.columns[BinaryTraceUtil.COL_OUTPUT];
+        int num_tables = (int)col.readVarLong();
+        element.output = new Object[num_tables][][];
+        element.output_types = new VoltType[num_tables][];
+        for (int i = 0; i < num_tables; i++) {
+            int num_cols = (int)col.readVarLong() - 1;
+            if (num_cols < 0) continue;
+            element.output_types[i] = new VoltType[num_cols];
+            for (int k = 0; k < num_cols; k++) {
+                int type = col.readByte();
+                element.output_types[i][k] = (type != 0 ? VoltType.get(type) : null);
+            } // FOR
+            element.output[i] = new Object[(int)col.readVarLong()][];
+            for (int j = 0; j < element.output[i].length; j++) {
+                int length = (int)col.readVarLong() - 1;
+                if (length < 0) continue;
+                element.output[i][j] = new Object[length];
+                for (int k = 0; k < length; k++) {
+                    element.output[i][j][k] = col.readValue();
+                } // FOR
+            } // FOR
+        } // FOR
+    }
+}
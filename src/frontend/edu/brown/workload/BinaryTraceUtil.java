@@ -0,0 +1,450 @@
+package edu.brown.workload;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.voltdb.types.TimestampType;
+
+/**
+ * Encoding utility methods for the binary workload trace format used by
+ * {@link BinaryTraceWriter} and {@link BinaryTraceReader}.
+ * <P>
+ * A binary trace file starts with a magic header and is followed by a sequence of blocks.
+ * Each block contains the new entries for the catalog item name dictionary, followed by a
+ * fixed set of columns for the transactions and queries in that block and then one column
+ * per (catalog item, parameter index) pair. Integers are written as variable-length
+ * zigzag-encoded longs and timestamps are delta-encoded within a block.
+ * Every parameter value starts with a type tag so that we get back exactly the
+ * same Java classes that were written out, including primitive arrays.
+ * If the file name ends with ".gz", then the whole file is compressed.
+ */
+public abstract class BinaryTraceUtil {
+
+    /** The first bytes of every binary trace file */
+    public static final byte MAGIC[] = { 'H', 'S', 'T', 'R', 'A', 'C', 'E' };
+    public static final byte VERSION = 1;
+
+    protected static final byte BLOCK_MARKER = 1;
+    protected static final Charset CHARSET = Charset.forName("UTF-8");
+
+    // ----------------------------------------------------------------------------
+    // COLUMN IDS
+    // ----------------------------------------------------------------------------
+
+    protected static final int COL_TXN_ID       = 0;
+    protected static final int COL_TXN_PROC     = 1;
+    protected static final int COL_TXN_START    = 2;
+    protected static final int COL_TXN_STOP     = 3;
+    protected static final int COL_TXN_FLAGS    = 4;
+    protected static final int COL_TXN_WEIGHT   = 5;
+    protected static final int COL_TXN_QUERIES  = 6;
+    protected static final int COL_QUERY_STMT   = 7;
+    protected static final int COL_QUERY_BATCH  = 8;
+    protected static final int COL_QUERY_START  = 9;
+    protected static final int COL_QUERY_STOP   = 10;
+    protected static final int COL_QUERY_FLAGS  = 11;
+    protected static final int COL_QUERY_WEIGHT = 12;
+    protected static final int COL_PARAM_COUNTS = 13;
+    protected static final int COL_OUTPUT       = 14;
+    protected static final int NUM_COLUMNS      = 15;
+
+    protected static final int FLAG_ABORTED     = 0x01;
+    protected static final int FLAG_OUTPUT      = 0x02;
+
+    // ----------------------------------------------------------------------------
+    // VALUE TAGS
+    // ----------------------------------------------------------------------------
+
+    private static final int TAG_NULL       = 0;
+    private static final int TAG_BYTE       = 1;
+    private static final int TAG_SHORT      = 2;
+    private static final int TAG_INT        = 3;
+    private static final int TAG_LONG       = 4;
+    private static final int TAG_DOUBLE     = 5;
+    private static final int TAG_FLOAT      = 6;
+    private static final int TAG_STRING     = 7;
+    private static final int TAG_TIMESTAMP  = 8;
+    private static final int TAG_DECIMAL    = 9;
+    private static final int TAG_BOOLEAN    = 10;
+    private static final int TAG_DATE       = 11;
+    private static final int TAG_OBJECT     = 12;
+    private static final int TAG_ARRAY      = 0x40;
+    private static final int TAG_PRIMITIVE  = 0x20;
+    private static final int TAG_MASK       = 0x1F;
+
+    private static final Class<?> BOXED_CLASSES[] = {
+        null,                   // TAG_NULL
+        Byte.class,             // TAG_BYTE
+        Short.class,            // TAG_SHORT
+        Integer.class,          // TAG_INT
+        Long.class,             // TAG_LONG
+        Double.class,           // TAG_DOUBLE
+        Float.class,            // TAG_FLOAT
+        String.class,           // TAG_STRING
+        TimestampType.class,    // TAG_TIMESTAMP
+        BigDecimal.class,       // TAG_DECIMAL
+        Boolean.class,          // TAG_BOOLEAN
+        Date.class,             // TAG_DATE
+        Object.class,           // TAG_OBJECT
+    };
+    private static final Class<?> PRIMITIVE_CLASSES[] = {
+        null,                   // TAG_NULL
+        Byte.TYPE,              // TAG_BYTE
+        Short.TYPE,             // TAG_SHORT
+        Integer.TYPE,           // TAG_INT
+        Long.TYPE,              // TAG_LONG
+        Double.TYPE,            // TAG_DOUBLE
+        Float.TYPE,             // TAG_FLOAT
+        null,                   // TAG_STRING
+        null,                   // TAG_TIMESTAMP
+        null,                   // TAG_DECIMAL
+        Boolean.TYPE,           // TAG_BOOLEAN
+    };
+
+    private static int getTag(Class<?> clazz) {
+        for (int i = 1; i < BOXED_CLASSES.length; i++) {
+            if (BOXED_CLASSES[i] == clazz) return (i);
+            if (i < PRIMITIVE_CLASSES.length && PRIMITIVE_CLASSES[i] == clazz) return (i);
+        } // FOR
+        if (TimestampType.class.isAssignableFrom(clazz)) return (TAG_TIMESTAMP);
+        if (Date.class.isAssignableFrom(clazz)) return (TAG_DATE);
+        throw new IllegalArgumentException("Unsupported workload trace value type " + clazz.getName());
+    }
+
+    // ----------------------------------------------------------------------------
+    // FILES
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Returns true if the given file starts with the binary trace header
+     * @param path
+     * @return
+     */
+    public static boolean isBinaryTrace(File path) {
+        if (path.exists() == false || path.isFile() == false) return (false);
+        byte header[] = new byte[MAGIC.length];
+        InputStream in = null;
+        try {
+            in = openInput(path);
+            int read = 0;
+            while (read < header.length) {
+                int n = in.read(header, read, header.length - read);
+                if (n < 0) return (false);
+                read += n;
+            } // WHILE
+        } catch (IOException ex) {
+            return (false);
+        } finally {
+            if (in != null) try { in.close(); } catch (IOException ex) { }
+        }
+        return (Arrays.equals(MAGIC, header));
+    }
+
+    protected static InputStream openInput(File path) throws IOException {
+        InputStream in = new FileInputStream(path);
+        if (path.getPath().endsWith(".gz")) {
+            in = new GZIPInputStream(in, 65536);
+        }
+        return (new BufferedInputStream(in, 65536));
+    }
+
+    protected static OutputStream openOutput(File path) throws IOException {
+        OutputStream out = new FileOutputStream(path);
+        if (path.getPath().endsWith(".gz")) {
+            out = new GZIPOutputStream(out, 65536);
+        }
+        return (new BufferedOutputStream(out, 65536));
+    }
+
+    protected static void writeVarInt(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        } // WHILE
+        out.write((int)value);
+    }
+
+    /**
+     * Read a variable-length int from the stream. Returns -1 if we are at the end of the stream.
+     */
+    protected static long readVarInt(InputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                if (shift == 0) return (-1);
+                throw new EOFException("Unexpected end of binary workload trace");
+            }
+            value |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+            shift += 7;
+        } // WHILE
+        return (value);
+    }
+
+    protected static void readFully(InputStream in, byte buffer[]) throws IOException {
+        int read = 0;
+        while (read < buffer.length) {
+            int n = in.read(buffer, read, buffer.length - read);
+            if (n < 0) throw new EOFException("Unexpected end of binary workload trace");
+            read += n;
+        } // WHILE
+    }
+
+    // ----------------------------------------------------------------------------
+    // COLUMN OUTPUT
+    // ----------------------------------------------------------------------------
+
+    /**
+     * A growable buffer for a single column in a block
+     */
+    protected static final class ColumnOutput extends ByteArrayOutputStream {
+
+        public ColumnOutput() {
+            super(1024);
+        }
+
+        public void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                this.write((int)((value & 0x7F) | 0x80));
+                value >>>= 7;
+            } // WHILE
+            this.write((int)value);
+        }
+
+        public void writeZigZag(long value) {
+            this.writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        /**
+         * Write a nullable timestamp relative to the given base
+         */
+        public void writeNullableDelta(Long value, long base) {
+            if (value == null) {
+                this.writeVarLong(0);
+            } else {
+                long delta = value.longValue() - base;
+                this.writeVarLong(((delta << 1) ^ (delta >> 63)) + 1);
+            }
+        }
+
+        public void writeLongBits(long value) {
+            for (int i = 56; i >= 0; i -= 8) {
+                this.write((int)(value >>> i));
+            } // FOR
+        }
+
+        public void writeString(String value) {
+            byte bytes[] = value.getBytes(CHARSET);
+            this.writeVarLong(bytes.length);
+            this.write(bytes, 0, bytes.length);
+        }
+
+        /**
+         * Write a tagged value
+         */
+        public void writeValue(Object value) {
+            if (value == null) {
+                this.write(TAG_NULL);
+                return;
+            }
+            Class<?> clazz = value.getClass();
+            if (clazz.isArray()) {
+                Class<?> component = clazz.getComponentType();
+                boolean primitive = component.isPrimitive();
+                int tag = getTag(component);
+                this.write(TAG_ARRAY | (primitive ? TAG_PRIMITIVE : 0) | tag);
+                int length = Array.getLength(value);
+                this.writeVarLong(length);
+                if (component == Byte.TYPE) {
+                    this.write((byte[])value, 0, length);
+                } else if (primitive) {
+                    for (int i = 0; i < length; i++) {
+                        this.writeScalar(tag, Array.get(value, i));
+                    } // FOR
+                } else {
+                    for (Object o : (Object[])value) {
+                        this.writeValue(o);
+                    } // FOR
+                }
+                return;
+            }
+            int tag = getTag(clazz);
+            this.write(tag);
+            this.writeScalar(tag, value);
+        }
+
+        private void writeScalar(int tag, Object value) {
+            switch (tag) {
+                case TAG_BYTE:
+                    this.write(((Byte)value).byteValue());
+                    break;
+                case TAG_SHORT:
+                case TAG_INT:
+                case TAG_LONG:
+                    this.writeZigZag(((Number)value).longValue());
+                    break;
+                case TAG_DOUBLE:
+                    this.writeLongBits(Double.doubleToLongBits((Double)value));
+                    break;
+                case TAG_FLOAT:
+                    this.writeVarLong(Float.floatToIntBits((Float)value) & 0xFFFFFFFFL);
+                    break;
+                case TAG_STRING:
+                    this.writeString((String)value);
+                    break;
+                case TAG_TIMESTAMP:
+                    this.writeZigZag(((TimestampType)value).getTime());
+                    break;
+                case TAG_DECIMAL:
+                    this.writeString(((BigDecimal)value).toString());
+                    break;
+                case TAG_BOOLEAN:
+                    this.write(((Boolean)value).booleanValue() ? 1 : 0);
+                    break;
+                case TAG_DATE:
+                    this.writeZigZag(((Date)value).getTime());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported workload trace value " + value);
+            } // SWITCH
+        }
+
+        public void writeTo(OutputStream out, boolean withLength) throws IOException {
+            if (withLength) writeVarInt(out, this.count);
+            out.write(this.buf, 0, this.count);
+        }
+    }
+
+    // ----------------------------------------------------------------------------
+    // COLUMN INPUT
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Read-only cursor over a single column in a block
+     */
+    protected static final class ColumnInput {
+        private final byte buffer[];
+        private int position = 0;
+
+        public ColumnInput(byte buffer[]) {
+            this.buffer = buffer;
+        }
+
+        public int readByte() {
+            if (this.position >= this.buffer.length) {
+                throw new IllegalStateException("Read past the end of binary workload trace column");
+            }
+            return (this.buffer[this.position++] & 0xFF);
+        }
+
+        public long readVarLong() {
+            long value = 0;
+            int shift = 0;
+            while (true) {
+                int b = this.readByte();
+                value |= (long)(b & 0x7F) << shift;
+                if ((b & 0x80) == 0) break;
+                shift += 7;
+            } // WHILE
+            return (value);
+        }
+
+        public long readZigZag() {
+            long value = this.readVarLong();
+            return ((value >>> 1) ^ -(value & 1));
+        }
+
+        public Long readNullableDelta(long base) {
+            long value = this.readVarLong();
+            if (value == 0) return (null);
+            value--;
+            return (base + ((value >>> 1) ^ -(value & 1)));
+        }
+
+        public long readLongBits() {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | this.readByte();
+            } // FOR
+            return (value);
+        }
+
+        public String readString() {
+            int length = (int)this.readVarLong();
+            String value = new String(this.buffer, this.position, length, CHARSET);
+            this.position += length;
+            return (value);
+        }
+
+        /**
+         * Read a tagged value
+         */
+        public Object readValue() {
+            int tag = this.readByte();
+            if (tag == TAG_NULL) {
+                return (null);
+            } else if ((tag & TAG_ARRAY) != 0) {
+                boolean primitive = (tag & TAG_PRIMITIVE) != 0;
+                int component = tag & TAG_MASK;
+                int length = (int)this.readVarLong();
+                if (primitive && component == TAG_BYTE) {
+                    byte value[] = Arrays.copyOfRange(this.buffer, this.position, this.position + length);
+                    this.position += length;
+                    return (value);
+                }
+                Object value = Array.newInstance(primitive ? PRIMITIVE_CLASSES[component] : BOXED_CLASSES[component], length);
+                for (int i = 0; i < length; i++) {
+                    Array.set(value, i, primitive ? this.readScalar(component) : this.readValue());
+                } // FOR
+                return (value);
+            }
+            return (this.readScalar(tag));
+        }
+
+        private Object readScalar(int tag) {
+            switch (tag) {
+                case TAG_BYTE:
+                    return Byte.valueOf((byte)this.readByte());
+                case TAG_SHORT:
+                    return Short.valueOf((short)this.readZigZag());
+                case TAG_INT:
+                    return Integer.valueOf((int)this.readZigZag());
+                case TAG_LONG:
+                    return Long.valueOf(this.readZigZag());
+                case TAG_DOUBLE:
+                    return Double.valueOf(Double.longBitsToDouble(this.readLongBits()));
+                case TAG_FLOAT:
+                    return Float.valueOf(Float.intBitsToFloat((int)this.readVarLong()));
+                case TAG_STRING:
+                    return (this.readString());
+                case TAG_TIMESTAMP:
+                    return (new TimestampType(this.readZigZag()));
+                case TAG_DECIMAL:
+                    return (new BigDecimal(this.readString()));
+                case TAG_BOOLEAN:
+                    return Boolean.valueOf(this.readByte() != 0);
+                case TAG_DATE:
+                    return (new Date(this.readZigZag()));
+                default:
+                    throw new IllegalStateException("Invalid value tag " + tag + " in binary workload trace");
+            } // SWITCH
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package edu.brown.workload;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.utils.ArgumentsParser;
+import edu.brown.utils.FileUtil;
+import edu.brown.utils.StringUtil;
+import edu.brown.workload.BinaryTraceUtil.ColumnOutput;
+
+/**
+ * Writes TransactionTraces out in the binary workload trace format.
+ * Transactions are buffered in memory until we have a full block, so
+ * flush() must be called to make sure that everything is written out.
+ * This class can also be used to convert a JSON workload trace into the binary format.
+ * @see BinaryTraceUtil
+ */
+public class BinaryTraceWriter {
+    private static final Logger LOG = Logger.getLogger(BinaryTraceWriter.class);
+    private static final LoggerBoolean debug = new LoggerBoolean();
+    static {
+        LoggerUtil.attachObserver(LOG, debug);
+    }
+
+    /**
+     * The default number of transactions per block
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1000;
+
+    private final OutputStream out;
+    private final int blockSize;
+    private final List<TransactionTrace> pending;
+
+    /**
+     * CatalogItemName -> DictionaryId
+     */
+    private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+    private final List<String> newDictionaryEntries = new ArrayList<String>();
+
+    private long txnCount = 0;
+    private long blockCount = 0;
+    private boolean closed = false;
+
+    // ----------------------------------------------------------------------------
+    // INITIALIZATION
+    // ----------------------------------------------------------------------------
+
+    public BinaryTraceWriter(File path) throws IOException {
+        this(BinaryTraceUtil.openOutput(path), DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Constructor
+     * @param out The stream to write the trace to. It will be closed when this writer is closed.
+     * @param blockSize The max number of transactions per block
+     */
+    public BinaryTraceWriter(OutputStream out, int blockSize) throws IOException {
+        assert(blockSize > 0);
+        this.out = out;
+        this.blockSize = blockSize;
+        this.pending = new ArrayList<TransactionTrace>(blockSize);
+        this.out.write(BinaryTraceUtil.MAGIC);
+        this.out.write(BinaryTraceUtil.VERSION);
+    }
+
+    // ----------------------------------------------------------------------------
+    // WRITING
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Queue the given TransactionTrace to be written out in the next block
+     * @param txn_trace
+     * @throws IOException
+     */
+    public synchronized void write(TransactionTrace txn_trace) throws IOException {
+        if (this.closed) {
+            throw new IOException("Unable to write " + txn_trace + " because the writer is closed");
+        }
+        this.pending.add(txn_trace);
+        if (this.pending.size() >= this.blockSize) {
+            this.writeBlock();
+        }
+    }
+
+    /**
+     * Write out all of the queued TransactionTraces and flush the underlying stream
+     * @throws IOException
+     */
+    public synchronized void flush() throws IOException {
+        if (this.closed) return;
+        if (this.pending.isEmpty() == false) {
+            this.writeBlock();
+        }
+        this.out.flush();
+    }
+
+    public synchronized void close() throws IOException {
+        if (this.closed) return;
+        this.flush();
+        this.closed = true;
+        this.out.close();
+        if (debug.val)
+            LOG.debug(String.format("Wrote %d txns in %d blocks", this.txnCount, this.blockCount));
+    }
+
+    public synchronized long getTransactionCount() {
+        return (this.txnCount + this.pending.size());
+    }
+
+    private int getDictionaryId(String name) {
+        Integer id = this.dictionary.get(name);
+        if (id == null) {
+            id = this.dictionary.size();
+            this.dictionary.put(name, id);
+            this.newDictionaryEntries.add(name);
+        }
+        return (id.intValue());
+    }
+
+    private void writeBlock() throws IOException {
+        ColumnOutput columns[] = new ColumnOutput[BinaryTraceUtil.NUM_COLUMNS];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new ColumnOutput();
+        } // FOR
+        // (DictionaryId << 32 | ParamIndex) -> Column
+        Map<Long, ColumnOutput> paramColumns = new TreeMap<Long, ColumnOutput>();
+
+        int num_queries = 0;
+        long last_txn_id = 0;
+        long last_start = 0;
+        for (TransactionTrace txn_trace : this.pending) {
+            long start = (txn_trace.start_timestamp != null ? txn_trace.start_timestamp : 0);
+            int proc_id = this.getDictionaryId(txn_trace.catalog_item_name);
+            columns[BinaryTraceUtil.COL_TXN_ID].writeZigZag(txn_trace.getTransactionId() - last_txn_id);
+            columns[BinaryTraceUtil.COL_TXN_PROC].writeVarLong(proc_id);
+            columns[BinaryTraceUtil.COL_TXN_START].writeZigZag(start - last_start);
+            columns[BinaryTraceUtil.COL_TXN_STOP].writeNullableDelta(txn_trace.stop_timestamp, start);
+            columns[BinaryTraceUtil.COL_TXN_FLAGS].write(this.getFlags(txn_trace));
+            columns[BinaryTraceUtil.COL_TXN_WEIGHT].writeVarLong(txn_trace.weight);
+            columns[BinaryTraceUtil.COL_TXN_QUERIES].writeVarLong(txn_trace.getQueryCount());
+            this.writeParams(txn_trace, proc_id, columns, paramColumns);
+            last_txn_id = txn_trace.getTransactionId();
+            last_start = start;
+
+            for (QueryTrace query_trace : txn_trace.getQueries()) {
+                long query_start = (query_trace.start_timestamp != null ? query_trace.start_timestamp : start);
+                int stmt_id = this.getDictionaryId(query_trace.catalog_item_name);
+                columns[BinaryTraceUtil.COL_QUERY_STMT].writeVarLong(stmt_id);
+                columns[BinaryTraceUtil.COL_QUERY_BATCH].writeVarLong(query_trace.getBatchId());
+                columns[BinaryTraceUtil.COL_QUERY_START].writeZigZag(query_start - start);
+                columns[BinaryTraceUtil.COL_QUERY_STOP].writeNullableDelta(query_trace.stop_timestamp, query_start);
+                columns[BinaryTraceUtil.COL_QUERY_FLAGS].write(this.getFlags(query_trace));
+                columns[BinaryTraceUtil.COL_QUERY_WEIGHT].writeVarLong(query_trace.weight);
+                this.writeParams(query_trace, stmt_id, columns, paramColumns);
+                num_queries++;
+            } // FOR
+        } // FOR
+
+        // BLOCK HEADER + DICTIONARY
+        this.out.write(BinaryTraceUtil.BLOCK_MARKER);
+        BinaryTraceUtil.writeVarInt(this.out, this.newDictionaryEntries.size());
+        for (String name : this.newDictionaryEntries) {
+            byte bytes[] = name.getBytes(BinaryTraceUtil.CHARSET);
+            BinaryTraceUtil.writeVarInt(this.out, bytes.length);
+            this.out.write(bytes);
+        } // FOR
+        this.newDictionaryEntries.clear();
+        BinaryTraceUtil.writeVarInt(this.out, this.pending.size());
+        BinaryTraceUtil.writeVarInt(this.out, num_queries);
+
+        // FIXED COLUMNS
+        for (ColumnOutput column : columns) {
+            column.writeTo(this.out, true);
+        } // FOR
+
+        // PARAMETER COLUMNS
+        BinaryTraceUtil.writeVarInt(this.out, paramColumns.size());
+        for (Map.Entry<Long, ColumnOutput> e : paramColumns.entrySet()) {
+            BinaryTraceUtil.writeVarInt(this.out, e.getKey().longValue() >>> 32);
+            BinaryTraceUtil.writeVarInt(this.out, e.getKey().longValue() & 0xFFFFFFFFL);
+            e.getValue().writeTo(this.out, true);
+        } // FOR
+
+        if (debug.val)
+            LOG.debug(String.format("Wrote block #%d with %d txns / %d queries / %d param columns",
+                                    this.blockCount, this.pending.size(), num_queries, paramColumns.size()));
+        this.txnCount += this.pending.size();
+        this.blockCount++;
+        this.pending.clear();
+    }
+
+    private int getFlags(AbstractTraceElement<?> element) {
+        int flags = 0;
+        if (element.aborted) flags |= BinaryTraceUtil.FLAG_ABORTED;
+        if (element.output != null) flags |= BinaryTraceUtil.FLAG_OUTPUT;
+        return (flags);
+    }
+
+    private void writeParams(AbstractTraceElement<?> element, int dictId, ColumnOutput columns[], Map<Long, ColumnOutput> paramColumns) {
+        Object params[] = element.params;
+        int num_params = (params != null ? params.length : 0);
+        columns[BinaryTraceUtil.COL_PARAM_COUNTS].writeVarLong(num_params);
+        for (int i = 0; i < num_params; i++) {
+            Long key = ((long)dictId << 32) | i;
+            ColumnOutput column = paramColumns.get(key);
+            if (column == null) {
+                column = new ColumnOutput();
+                paramColumns.put(key, column);
+            }
+            column.writeValue(params[i]);
+        } // FOR
+
+        // OUTPUT
+        if (element.output != null) {
+            ColumnOutput column = columns[BinaryTraceUtil.COL_OUTPUT];
+            column.writeVarLong(element.output.length);
+            for (int i = 0; i < element.output.length; i++) {
+                Object data[][] = element.output[i];
+                if (data == null) {
+                    column.writeVarLong(0);
+                    continue;
+                }
+                int num_cols = (element.output_types[i] != null ? element.output_types[i].length : 0);
+                column.writeVarLong(num_cols + 1);
+                for (int k = 0; k < num_cols; k++) {
+                    column.write(element.output_types[i][k] != null ? element.output_types[i][k].getValue() : 0);
+                } // FOR
+                column.writeVarLong(data.length);
+                for (Object row[] : data) {
+                    column.writeVarLong(row != null ? row.length + 1 : 0);
+                    if (row == null) continue;
+                    for (Object val : row) {
+                        column.writeValue(val);
+                    } // FOR
+                } // FOR
+            } // FOR
+        }
+    }
+
+    // ----------------------------------------------------------------------------
+    // CONVERTER
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Convert the given workload trace into the binary format.
+     * Any of the workload filter parameters are applied while the trace is loaded.
+     * @param vargs
+     * @throws Exception
+     */
+    public static void main(String[] vargs) throws Exception {
+        ArgumentsParser args = ArgumentsParser.load(vargs);
+        args.require(ArgumentsParser.PARAM_CATALOG,
+                     ArgumentsParser.PARAM_WORKLOAD,
+                     ArgumentsParser.PARAM_WORKLOAD_OUTPUT);
+
+        File output_path = args.getFileParam(ArgumentsParser.PARAM_WORKLOAD_OUTPUT);
+        if (output_path.getParent() != null) FileUtil.makeDirIfNotExists(output_path.getParent());
+
+        long start = System.currentTimeMillis();
+        BinaryTraceWriter writer = new BinaryTraceWriter(output_path);
+        for (TransactionTrace txn_trace : args.workload) {
+            writer.write(txn_trace);
+        } // FOR
+        writer.close();
+        LOG.info(String.format("Converted %d txns from '%s' to '%s' in %.1f seconds [%s -> %s]",
+                               writer.getTransactionCount(), args.workload_path, output_path,
+                               (System.currentTimeMillis() - start) / 1000d,
+                               StringUtil.formatSize(args.workload_path.length()), StringUtil.formatSize(output_path.length())));
+    }
+}
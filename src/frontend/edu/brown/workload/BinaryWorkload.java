@@ -0,0 +1,88 @@
+package edu.brown.workload;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+import org.voltdb.catalog.Catalog;
+import org.voltdb.catalog.Database;
+
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+
+/**
+ * A Workload that writes its TransactionTraces out using the binary trace format
+ * instead of JSON. This can be used as the ProcedureProfiler's workload trace at runtime.
+ * Both types of trace files can be loaded with Workload.load()
+ * @see BinaryTraceWriter
+ */
+public class BinaryWorkload extends Workload {
+    private static final Logger LOG = Logger.getLogger(BinaryWorkload.class);
+    private static final LoggerBoolean debug = new LoggerBoolean();
+    static {
+        LoggerUtil.attachObserver(LOG, debug);
+    }
+
+    private BinaryTraceWriter writer;
+
+    public BinaryWorkload() {
+        super();
+    }
+
+    public BinaryWorkload(Catalog catalog) {
+        super(catalog);
+    }
+
+    @Override
+    public void setOutputPath(File path) {
+        try {
+            if (this.writer != null) this.writer.close();
+            this.writer = new BinaryTraceWriter(path);
+            if (debug.val) LOG.debug("Opened file '" + path + "' for logging binary workload trace");
+        } catch (Exception ex) {
+            LOG.fatal("Failed to open binary trace output file: " + path, ex);
+            System.exit(1);
+        }
+    }
+
+    @Override
+    protected void writeTransaction(TransactionTrace xact) {
+        if (this.writer == null) {
+            if (debug.val) LOG.warn("No output path is set. Unable to log trace information to file");
+            return;
+        }
+        try {
+            this.writer.write(xact);
+        } catch (IOException ex) {
+            LOG.fatal("Failed to write " + xact + " out to file", ex);
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Override
+    public void save(Database catalog_db) {
+        LOG.info("Writing out binary workload trace");
+        for (TransactionTrace xact : this) {
+            this.writeTransaction(xact);
+        } // FOR
+        try {
+            this.flush();
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        super.flush();
+        if (this.writer != null) this.writer.flush();
+    }
+
+    @Override
+    protected void finalize() throws Throwable {
+        if (this.writer != null) {
+            this.writer.close();
+        }
+        super.finalize();
+    }
+}
@@ -366,6 +366,11 @@ public class Workload implements WorkloadTrace, Iterable<TransactionTrace> {
         this.input_path = input_path;
         long start = System.currentTimeMillis();
         
+        // Binary traces are decoded in a single thread as we stream through the file
+        if (BinaryTraceUtil.isBinaryTrace(input_path)) {
+            return (this.loadBinary(input_path, catalog_db, filter, start));
+        }
+        
         // HACK: Throw out traces unless they have the procedures that we're looking for
         Pattern temp_pattern = null;
         if (filter != null) {
@@ -431,6 +436,32 @@ public class Workload implements WorkloadTrace, Iterable<TransactionTrace> {
         return (this);
     }
     
+    private Workload loadBinary(File input_path, Database catalog_db, Filter filter, long start) throws Exception {
+        BinaryTraceReader reader = new BinaryTraceReader(input_path, filter);
+        int txn_ctr = 0;
+        int query_ctr = 0;
+        try {
+            for (TransactionTrace xact : reader) {
+                Procedure catalog_proc = xact.getCatalogItem(catalog_db);
+                if (catalog_proc == null) {
+                    LOG.warn("Unexpected procedure '" + xact.getCatalogItemName() + "' for " + xact + ". Ignoring...");
+                    continue;
+                }
+                this.addTransaction(catalog_proc, xact, true);
+                txn_ctr++;
+                query_ctr += xact.getQueryCount();
+            } // FOR
+        } finally {
+            reader.close();
+        }
+        VerifyWorkload.verify(catalog_db, this);
+        
+        long stop = System.currentTimeMillis();
+        LOG.info(String.format("Loaded %d txns / %d queries from binary trace '%s' in %.1f seconds [skipped=%d]",
+                 txn_ctr, query_ctr, input_path.getName(), (stop - start) / 1000d, reader.getSkipCount()));
+        return (this);
+    }
+    
     // ----------------------------------------------------------
     // ITERATORS METHODS
     // ----------------------------------------------------------
@@ -873,16 +904,24 @@ public class Workload implements WorkloadTrace, Iterable<TransactionTrace> {
             if (this.catalog_db == null) {
                 LOG.warn("The database catalog handle is null: " + xact);
             } else {
-                if (this.out == null) {
-                    if (debug.val) LOG.warn("No output path is set. Unable to log trace information to file");
-                } else {
-                    writeTransactionToStream(this.catalog_db, xact, this.out);
-                }
+                this.writeTransaction(xact);
             }
         }
         return;
     }
     
+    /**
+     * Write a finished TransactionTrace out to our output file
+     * @param xact
+     */
+    protected void writeTransaction(TransactionTrace xact) {
+        if (this.out == null) {
+            if (debug.val) LOG.warn("No output path is set. Unable to log trace information to file");
+        } else {
+            writeTransactionToStream(this.catalog_db, xact, this.out);
+        }
+    }
+    
     @Override
     public void abortTransaction(Object xact_handle) {
         if (xact_handle instanceof TransactionTrace) {
@@ -902,11 +941,7 @@ public class Workload implements WorkloadTrace, Iterable<TransactionTrace> {
             if (this.catalog_db == null) {
                 LOG.warn("The database catalog handle is null: " + txn_trace);
             } else {
-                if (this.out == null) {
-                    if (debug.val) LOG.warn("No output path is set. Unable to log trace information to file");
-                } else {
-                    writeTransactionToStream(this.catalog_db, txn_trace, this.out);
-                }
+                this.writeTransaction(txn_trace);
             }
         } else {
             LOG.fatal("Unable to abort transaction trace: Invalid transaction handle");
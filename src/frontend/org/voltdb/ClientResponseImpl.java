@@ -29,6 +29,7 @@ import org.voltdb.messaging.FastSerializer;
 import org.voltdb.types.SpeculationType;
 
 import edu.brown.hstore.HStoreConstants;
+import edu.brown.hstore.HStoreThreadManager;
 import edu.brown.hstore.Hstoreservice.Status;
 import edu.brown.hstore.txns.AbstractTransaction;
 import edu.brown.hstore.txns.LocalTransaction;
@@ -40,6 +41,16 @@ import edu.brown.utils.StringUtil;
  *
  */
 public class ClientResponseImpl implements FastSerializable, ClientResponse {
+    
+    /**
+     * The responses for a batch of invocations are sent back in a single network
+     * message. A batch message starts with this marker where the version byte
+     * would normally be, followed by the number of responses. Each response is
+     * then prefixed by its length.
+     * @see StoredProcedureInvocation#BATCH_MARKER
+     */
+    public static final byte BATCH_MARKER = -1;
+    
     private boolean setProperly = false;
     private Status status;
     private String statusString = null;
@@ -56,6 +67,7 @@ public class ClientResponseImpl implements FastSerializable, ClientResponse {
     private boolean singlepartition = true;
     private int basePartition = -1;
     private int restartCounter = 0;
+    private int redirectSite = HStoreConstants.NULL_SITE_ID;
     private SpeculationType speculative = SpeculationType.NULL;
     private ClientResponseDebug debug = null;
 
@@ -100,6 +112,7 @@ public class ClientResponseImpl implements FastSerializable, ClientResponse {
         this.txn_id = txn_id.longValue();
         this.clientHandle = client_handle;
         this.basePartition = basePartition;
+        this.redirectSite = HStoreConstants.NULL_SITE_ID;
         this.appStatus = appStatus;
         this.appStatusString = appStatusString;
         setResults(status, results, statusString, e);
@@ -122,6 +135,7 @@ public class ClientResponseImpl implements FastSerializable, ClientResponse {
         this.appStatus = appStatus;
         this.appStatusString = appStatusString;
         this.restartCounter = ts.getRestartCounter();
+        this.redirectSite = HStoreConstants.NULL_SITE_ID;
         this.singlepartition = ts.isPredictSinglePartition();
         this.speculative = ts.getSpeculationType();
         this.setResults(status, results, statusString, e);
@@ -139,6 +153,7 @@ public class ClientResponseImpl implements FastSerializable, ClientResponse {
         this.status = null;
         this.results = null;
         this.restartCounter = 0;
+        this.redirectSite = HStoreConstants.NULL_SITE_ID;
     }
     
     private void setResults(Status status, VoltTable[] results, String statusString) {
@@ -173,6 +188,24 @@ public class ClientResponseImpl implements FastSerializable, ClientResponse {
         this.basePartition = val;
     }
     
+    /**
+     * Returns true if this txn was sent to an HStoreSite that did not have
+     * its base partition and was redirected to the site that does.
+     */
+    public boolean isRedirected() {
+        return (this.redirectSite != HStoreConstants.NULL_SITE_ID);
+    }
+    /**
+     * Returns the id of the HStoreSite that this txn was redirected to and executed at.
+     * If the txn was not redirected, then the return value will be HStoreConstants.NULL_SITE_ID.
+     */
+    public int getRedirectSite() {
+        return (this.redirectSite);
+    }
+    public void setRedirectSite(int site_id) {
+        this.redirectSite = site_id;
+    }
+    
     @Override
     public boolean isSinglePartition() {
         return singlepartition;
@@ -198,6 +231,22 @@ public class ClientResponseImpl implements FastSerializable, ClientResponse {
         } // FOR
         return ret;
     }
+    
+    /**
+     * Returns the approximate number of bytes that writeExternal() will need
+     * for this ClientResponse. This is used to size the buffer up front so that
+     * the serializer does not have to grow it while copying the result tables.
+     * @return
+     */
+    public int getEstimatedSerializedSize() {
+        int ret = 32; // Fixed header fields
+        if (this.isRedirected()) ret += 4;
+        if (this.statusString != null) ret += 4 + this.statusString.length();
+        if (this.appStatusString != null) ret += 4 + this.appStatusString.length();
+        if (this.m_exception != null) ret += this.m_exception.getSerializedSize();
+        ret += 2 + (4 * this.results.length) + this.getResultsSize();
+        return (ret);
+    }
 
     public String getStatusString() {
         return statusString;
@@ -295,6 +344,11 @@ public class ClientResponseImpl implements FastSerializable, ClientResponse {
         this.status = Status.valueOf(in.readByte()); // 1 byte
         
         byte presentFields = in.readByte(); // 1 byte
+        if ((presentFields & (1 << 4)) != 0) {
+            this.redirectSite = in.readInt();
+        } else {
+            this.redirectSite = HStoreConstants.NULL_SITE_ID;
+        }
         if ((presentFields & (1 << 5)) != 0) {
             statusString = in.readString();
         } else {
@@ -343,8 +397,14 @@ public class ClientResponseImpl implements FastSerializable, ClientResponse {
         if (statusString != null) {
             presentFields |= 1 << 5;
         }
+        if (this.isRedirected()) {
+            presentFields |= 1 << 4;
+        }
         out.writeByte(presentFields);
         
+        if (this.isRedirected()) {
+            out.writeInt(this.redirectSite);
+        }
         if (statusString != null) {
             out.writeString(statusString);
         }
@@ -377,6 +437,7 @@ public class ClientResponseImpl implements FastSerializable, ClientResponse {
         m.put("Single-Partition", this.singlepartition);
         m.put("Speculative Execution", this.speculative);
         m.put("Base Partition", this.basePartition);
+        m.put("Redirected", (this.isRedirected() ? HStoreThreadManager.formatSiteName(this.redirectSite) : false));
         m.put("Exception", m_exception);
         
         if (this.clientRoundTripTime > 0) {
@@ -457,4 +518,54 @@ public class ClientResponseImpl implements FastSerializable, ClientResponse {
     }
     
     // ----------------------------------------------------------------------------
+    
+    // ----------------------------------------------------------------------------
+    // BATCHES
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * Returns true if the given message contains a batch of responses
+     * instead of a single ClientResponse
+     * @param buffer
+     * @return
+     */
+    public static boolean isBatch(ByteBuffer buffer) {
+        return (buffer.limit() >= 5 && buffer.get(0) == BATCH_MARKER);
+    }
+    
+    /**
+     * Write the header for a batch of responses. Each response must then be
+     * written with writeBatchEntry()
+     * @param out
+     * @param count The number of responses in this batch
+     * @throws IOException
+     */
+    public static void writeBatchHeader(FastSerializer out, int count) throws IOException {
+        out.writeByte(BATCH_MARKER);
+        out.writeInt(count);
+    }
+    
+    /**
+     * Write a single length-prefixed response into a batch
+     * @param out
+     * @param cresponse
+     * @throws IOException
+     */
+    public static void writeBatchEntry(FastSerializer out, ClientResponseImpl cresponse) throws IOException {
+        int start = out.getPosition();
+        out.writeInt(0);
+        cresponse.writeExternal(out);
+        out.writeIntAt(start, out.getPosition() - start - 4);
+    }
+    
+    /**
+     * Split a batch message into the serialized ClientResponses that it contains.
+     * The returned buffers share the same backing array as the original message.
+     * @param buffer
+     * @return
+     */
+    public static ByteBuffer[] getBatch(ByteBuffer buffer) {
+        assert(isBatch(buffer));
+        return (StoredProcedureInvocation.sliceBatch(buffer, 1));
+    }
 }
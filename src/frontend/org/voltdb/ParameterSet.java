@@ -34,6 +34,15 @@ import edu.brown.utils.StringUtil;
 /**
  * The ordered set of parameters of the proper types that is passed into
  * a stored procedure OR a plan fragment.
+ * <p>
+ * When a ParameterSet is deserialized, the numeric and boolean parameters are
+ * kept in primitive slots and are only boxed if somebody asks for toArray().
+ * We also keep a copy of the serialized bytes so that writeExternal() can send
+ * them back out (e.g., to the EE, the command log, or a remote site) without
+ * having to encode each parameter again. Once toArray() has been called, the
+ * returned array is the only copy of the parameters, so both the slots and the
+ * serialized bytes are dropped and any changes that the caller makes to it
+ * will be serialized.
  */
 public class ParameterSet implements FastSerializable, Poolable {
 
@@ -41,8 +50,54 @@ public class ParameterSet implements FastSerializable, Poolable {
     public static final ParameterSet EMPTY = new ParameterSet();
     
     private final boolean m_serializingToEE;
+    
+    /**
+     * The boxed parameters. If m_typed is true, then this only contains the
+     * non-primitive parameters and may be null if there are none of them.
+     */
     private Object m_params[] = new Object[0];
     
+    // ----------------------------------------------------------------------------
+    // PRIMITIVE SLOTS
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * The VoltType of each parameter that was read in by readExternal().
+     * FLOAT parameters are stored in m_values as their raw long bits.
+     * These arrays are reused if this ParameterSet is deserialized again.
+     */
+    private byte m_types[];
+    private long m_values[];
+    
+    /**
+     * The number of parameters that were read in by readExternal()
+     */
+    private int m_size = 0;
+    
+    /**
+     * If true, then the primitive parameters are in m_types/m_values and
+     * have not been boxed into m_params yet.
+     */
+    private volatile boolean m_typed = false;
+    
+    // ----------------------------------------------------------------------------
+    // SERIALIZED BYTES
+    // ----------------------------------------------------------------------------
+    
+    private byte m_raw[];
+    
+    /**
+     * The number of bytes in m_raw. Set to -1 if the serialized bytes
+     * are not valid. These are only used while m_typed is true.
+     */
+    private int m_rawLength = -1;
+    
+    /**
+     * Whether the EE can read the serialized bytes as they are.
+     * The EE does not support byte arrays or decimal strings.
+     */
+    private boolean m_rawEECompatible = false;
+    
     public ParameterSet() {
         this(false);
     }
@@ -64,6 +119,7 @@ public class ParameterSet implements FastSerializable, Poolable {
     @Override
     public void finish() {
         this.m_params = null;
+        this.m_typed = false;
     }
 
     /**
@@ -71,6 +127,7 @@ public class ParameterSet implements FastSerializable, Poolable {
      */
     public ParameterSet setParameters(Object... params) {
         this.m_params = params;
+        this.m_typed = false;
         return (this);
     }
     
@@ -80,25 +137,169 @@ public class ParameterSet implements FastSerializable, Poolable {
      * @return
      */
     public ParameterSet setParameters(ParameterSet other) {
-        this.m_params = other.m_params;
+        this.m_params = other.toArray();
+        this.m_typed = false;
         return (this);
     }
     
     @Override
     public int hashCode() {
-        return Arrays.hashCode(m_params);
+        return Arrays.hashCode(this.toArray());
     }
 
     public void clear() {
         this.m_params = null;
+        this.m_typed = false;
     }
     
+    /**
+     * Returns the parameters as an array of Objects. This will box any
+     * primitive parameters the first time that it is called after readExternal().
+     * Note that this does *not* copy the array, so any changes to it will
+     * be included the next time that this ParameterSet is serialized.
+     */
     public Object[] toArray() {
+        if (m_typed) this.box();
         return m_params;
     }
     
     public int size() {
-        return m_params.length;
+        return (m_typed ? m_size : m_params.length);
+    }
+    
+    /**
+     * Returns the VoltType of the parameter at the given offset without boxing it.
+     * Returns null if the type is unknown.
+     */
+    public VoltType getType(int idx) {
+        if (m_typed) {
+            return (m_types[idx] == ARRAY ? null : VoltType.get(m_types[idx]));
+        }
+        Object obj = m_params[idx];
+        if (obj == null) return (VoltType.NULL);
+        if (obj == VoltType.NULL_STRING) return (VoltType.STRING);
+        if (obj == VoltType.NULL_DECIMAL) return (VoltType.DECIMAL);
+        if (obj.getClass().isArray()) return (null);
+        try {
+            return (VoltType.typeFromClass(obj.getClass()));
+        } catch (VoltTypeException ex) {
+            return (null);
+        }
+    }
+    
+    /**
+     * Returns the parameter at the given offset. Unlike toArray(), this will
+     * only box the requested parameter if it is in a primitive slot.
+     * @param idx
+     * @return
+     */
+    public Object get(int idx) {
+        if (m_typed) {
+            byte type = m_types[idx];
+            if (type == BIGINT) return (Long.valueOf(m_values[idx]));
+            else if (type == INTEGER) return (Integer.valueOf((int)m_values[idx]));
+            else if (type == SMALLINT) return (Short.valueOf((short)m_values[idx]));
+            else if (type == TINYINT) return (Byte.valueOf((byte)m_values[idx]));
+            else if (type == FLOAT) return (Double.valueOf(Double.longBitsToDouble(m_values[idx])));
+            else if (type == BOOLEAN) return (Boolean.valueOf(m_values[idx] != 0));
+        }
+        return (this.getObject(idx));
+    }
+    
+    /**
+     * Returns the integer parameter at the given offset without boxing it.
+     * @param idx
+     * @return
+     */
+    public long getLong(int idx) {
+        if (m_typed && isPrimitive(m_types[idx])) {
+            if (m_types[idx] == FLOAT) return ((long)Double.longBitsToDouble(m_values[idx]));
+            return (m_values[idx]);
+        }
+        Object obj = this.getObject(idx);
+        if (obj == null) return (VoltType.NULL_BIGINT);
+        if (obj instanceof Boolean) return (((Boolean)obj).booleanValue() ? 1 : 0);
+        if (obj instanceof TimestampType) return (((TimestampType)obj).getTime());
+        return (((Number)obj).longValue());
+    }
+    
+    /**
+     * Returns the floating point parameter at the given offset without boxing it.
+     * @param idx
+     * @return
+     */
+    public double getDouble(int idx) {
+        if (m_typed && isPrimitive(m_types[idx])) {
+            if (m_types[idx] == FLOAT) return (Double.longBitsToDouble(m_values[idx]));
+            return (m_values[idx]);
+        }
+        Object obj = this.getObject(idx);
+        if (obj == null) return (VoltType.NULL_FLOAT);
+        return (((Number)obj).doubleValue());
+    }
+    
+    /**
+     * Returns true if writeExternal() will copy the serialized bytes
+     * that this ParameterSet was read from instead of encoding the parameters again.
+     */
+    public boolean hasSerializedBytes() {
+        return (m_typed && m_rawLength >= 0 && (m_serializingToEE == false || m_rawEECompatible));
+    }
+    
+    // ----------------------------------------------------------------------------
+    // PRIMITIVE SLOT METHODS
+    // ----------------------------------------------------------------------------
+    
+    private static final byte TINYINT = VoltType.TINYINT.getValue();
+    private static final byte SMALLINT = VoltType.SMALLINT.getValue();
+    private static final byte INTEGER = VoltType.INTEGER.getValue();
+    private static final byte BIGINT = VoltType.BIGINT.getValue();
+    private static final byte FLOAT = VoltType.FLOAT.getValue();
+    private static final byte BOOLEAN = VoltType.BOOLEAN.getValue();
+    private static final byte DECIMAL_STRING = VoltType.DECIMAL_STRING.getValue();
+    
+    /**
+     * Returns the boxed non-primitive parameter at the given offset.
+     * The Object array is null after readExternal() if all of the
+     * non-primitive parameters were NULL.
+     */
+    private Object getObject(int idx) {
+        Object params[] = m_params;
+        return (params != null ? params[idx] : null);
+    }
+    
+    private static boolean isPrimitive(byte type) {
+        return (type == TINYINT || type == SMALLINT || type == INTEGER ||
+                type == BIGINT || type == FLOAT || type == BOOLEAN);
+    }
+    
+    /**
+     * Create the boxed objects for all of the primitive slots.
+     * After this, m_params is the only copy of the parameters.
+     */
+    private synchronized void box() {
+        if (m_typed == false) return;
+        Object params[] = m_params;
+        if (params == null) params = new Object[m_size];
+        for (int i = 0; i < m_size; i++) {
+            byte type = m_types[i];
+            if (type == BIGINT) params[i] = Long.valueOf(m_values[i]);
+            else if (type == INTEGER) params[i] = Integer.valueOf((int)m_values[i]);
+            else if (type == SMALLINT) params[i] = Short.valueOf((short)m_values[i]);
+            else if (type == TINYINT) params[i] = Byte.valueOf((byte)m_values[i]);
+            else if (type == FLOAT) params[i] = Double.valueOf(Double.longBitsToDouble(m_values[i]));
+            else if (type == BOOLEAN) params[i] = Boolean.valueOf(m_values[i] != 0);
+        } // FOR
+        m_params = params;
+        m_rawLength = -1;
+        m_typed = false;
+    }
+    
+    private void ensureCapacity(int size) {
+        if (m_types == null || m_types.length < size) {
+            m_types = new byte[size];
+            m_values = new long[size];
+        }
     }
 
     static Object getParameterAtIndex(int partitionIndex, ByteBuffer unserializedParams) throws IOException {
@@ -118,136 +319,211 @@ public class ParameterSet implements FastSerializable, Poolable {
 
     @Override
     public void readExternal(FastDeserializer in) throws IOException {
+        int start = in.getPosition();
         int paramLen = in.readShort();
-        m_params = new Object[paramLen];
+        Object params[] = null;
+        this.ensureCapacity(paramLen);
+        boolean eeCompatible = true;
 
         for (int i = 0; i < paramLen; i++) {
-            m_params[i] = readOneParameter(in);
+            byte type = in.readByte();
+            m_types[i] = type;
+            if (type == BIGINT) m_values[i] = in.readLong();
+            else if (type == INTEGER) m_values[i] = in.readInt();
+            else if (type == SMALLINT) m_values[i] = in.readShort();
+            else if (type == TINYINT) m_values[i] = in.readByte();
+            else if (type == FLOAT) m_values[i] = Double.doubleToRawLongBits(in.readDouble());
+            else if (type == BOOLEAN) m_values[i] = (in.readBoolean() ? 1 : 0);
+            else {
+                Object obj = null;
+                if (type == ARRAY) {
+                    byte componentType = in.readByte();
+                    if (componentType == TINYINT) eeCompatible = false;
+                    obj = readArrayParameter(in, componentType);
+                } else {
+                    if (type == DECIMAL_STRING) eeCompatible = false;
+                    obj = readOneParameter(in, type);
+                }
+                // We only need the Object array if there are non-primitive parameters
+                if (obj != null) {
+                    if (params == null) params = new Object[paramLen];
+                    params[i] = obj;
+                }
+            }
+        } // FOR
+        m_params = params;
+        m_size = paramLen;
+        
+        // Keep a copy of the serialized bytes
+        int length = in.getPosition() - start;
+        if (m_raw == null || m_raw.length < length) {
+            m_raw = new byte[length];
         }
+        ByteBuffer buffer = in.buffer().duplicate();
+        buffer.position(start);
+        buffer.get(m_raw, 0, length);
+        m_rawLength = length;
+        m_rawEECompatible = eeCompatible;
+        m_typed = true;
     }
 
     @Override
     public void writeExternal(FastSerializer out) throws IOException {
-        out.writeShort(m_params.length);
-
-        for (Object obj : m_params) {
-            if (obj == null) {
-                VoltType type = VoltType.NULL;
-                out.writeByte(type.getValue());
-                continue;
-            }
-
-            Class<?> cls = obj.getClass();
-            if (cls.isArray()) {
-
-                // EE doesn't support array parameters. Arrays of bytes are
-                // only useful to strings. Special case them here.
-                if (m_serializingToEE && obj instanceof byte[]) {
-                    final byte[] b = (byte[]) obj;
-                    if (b.length > VoltType.MAX_VALUE_LENGTH) {
-                        throw new VoltOverflowException(
-                                "Value of string byte[] larger than allowed max " + VoltType.MAX_VALUE_LENGTH_STR);
-                    }
-                    out.writeByte(VoltType.STRING.getValue());
-                    out.writeInt(b.length);
-                    out.write(b);
+        if (this.hasSerializedBytes()) {
+            out.write(m_raw, 0, m_rawLength);
+            return;
+        }
+        if (m_typed) {
+            // Write the primitives straight out of their slots
+            Object params[] = m_params;
+            out.writeShort(m_size);
+            for (int i = 0; i < m_size; i++) {
+                byte type = m_types[i];
+                if (isPrimitive(type) == false) {
+                    this.writeParameter(out, (params != null ? params[i] : null));
                     continue;
                 }
+                out.writeByte(type);
+                if (type == BIGINT) out.writeLong(m_values[i]);
+                else if (type == INTEGER) out.writeInt((int)m_values[i]);
+                else if (type == SMALLINT) out.writeShort((short)m_values[i]);
+                else if (type == TINYINT) out.writeByte((byte)m_values[i]);
+                else if (type == FLOAT) out.writeDouble(Double.longBitsToDouble(m_values[i]));
+                else if (type == BOOLEAN) out.writeBoolean(m_values[i] != 0);
+            } // FOR
+            return;
+        }
+        
+        Object params[] = m_params;
+        out.writeShort(params.length);
+        for (Object obj : params) {
+            this.writeParameter(out, obj);
+        } // FOR
+    }
+    
+    /**
+     * Serialize a single boxed parameter
+     * @param out
+     * @param obj
+     * @throws IOException
+     */
+    private void writeParameter(FastSerializer out, Object obj) throws IOException {
+        if (obj == null) {
+            VoltType type = VoltType.NULL;
+            out.writeByte(type.getValue());
+            return;
+        }
 
-                out.writeByte(ARRAY);
-                VoltType type = VoltType.typeFromClass(cls.getComponentType());
-                out.writeByte(type.getValue());
-                switch (type) {
-                    case TINYINT:
-                        out.writeArray((byte[])obj);
-                        break;
-                    case SMALLINT:
-                        out.writeArray((short[]) obj);
-                        break;
-                    case INTEGER:
-                        out.writeArray((int[]) obj);
-                        break;
-                    case BIGINT:
-                        out.writeArray((long[]) obj);
-                        break;
-                    case FLOAT:
-                        out.writeArray((double[]) obj);
-                        break;
-                    case STRING:
-                        out.writeArray((String[]) obj);
-                        break;
-                    case TIMESTAMP:
-                        out.writeArray((TimestampType[]) obj);
-                        break;
-                    case DECIMAL:
-                        // converted long128 in serializer api
-                        out.writeArray((BigDecimal[]) obj);
-                        break;
-                    case BOOLEAN:
-                        out.writeArray((boolean[]) obj);
-                        break;
-                    case VOLTTABLE:
-                        out.writeArray((VoltTable[]) obj);
-                        break;
-                    default:
-                        throw new RuntimeException("FIXME: Unsupported type " + type);
-                }
-                continue;
-            }
+        Class<?> cls = obj.getClass();
+        if (cls.isArray()) {
 
-            // Handle NULL mappings not encoded by type.min_value convention
-            if (obj == VoltType.NULL_TIMESTAMP) {
-                out.writeByte(VoltType.TIMESTAMP.getValue());
-                out.writeLong(VoltType.NULL_BIGINT);  // corresponds to EE value.h isNull()
-                continue;
-            }
-            else if (obj == VoltType.NULL_STRING) {
+            // EE doesn't support array parameters. Arrays of bytes are
+            // only useful to strings. Special case them here.
+            if (m_serializingToEE && obj instanceof byte[]) {
+                final byte[] b = (byte[]) obj;
+                if (b.length > VoltType.MAX_VALUE_LENGTH) {
+                    throw new VoltOverflowException(
+                            "Value of string byte[] larger than allowed max " + VoltType.MAX_VALUE_LENGTH_STR);
+                }
                 out.writeByte(VoltType.STRING.getValue());
-                out.writeInt(VoltType.NULL_STRING_LENGTH);
-                continue;
-            }
-            else if (obj == VoltType.NULL_DECIMAL) {
-                out.writeByte(VoltType.DECIMAL.getValue());
-                VoltDecimalHelper.serializeNull(out);
-                continue;
+                out.writeInt(b.length);
+                out.write(b);
+                return;
             }
 
-            VoltType type = VoltType.typeFromClass(cls);
+            out.writeByte(ARRAY);
+            VoltType type = VoltType.typeFromClass(cls.getComponentType());
             out.writeByte(type.getValue());
             switch (type) {
                 case TINYINT:
-                    out.writeByte((Byte)obj);
+                    out.writeArray((byte[])obj);
                     break;
                 case SMALLINT:
-                    out.writeShort((Short)obj);
+                    out.writeArray((short[]) obj);
                     break;
                 case INTEGER:
-                    out.writeInt((Integer) obj);
+                    out.writeArray((int[]) obj);
                     break;
                 case BIGINT:
-                    out.writeLong((Long) obj);
+                    out.writeArray((long[]) obj);
                     break;
                 case FLOAT:
-                    out.writeDouble((Double) obj);
+                    out.writeArray((double[]) obj);
                     break;
                 case STRING:
-                    out.writeString((String) obj);
+                    out.writeArray((String[]) obj);
                     break;
                 case TIMESTAMP:
-                    out.writeTimestamp((TimestampType) obj);
+                    out.writeArray((TimestampType[]) obj);
                     break;
                 case DECIMAL:
-                    VoltDecimalHelper.serializeBigDecimal((BigDecimal)obj, out);
+                    // converted long128 in serializer api
+                    out.writeArray((BigDecimal[]) obj);
                     break;
                 case BOOLEAN:
-                    out.writeBoolean((Boolean)obj);
+                    out.writeArray((boolean[]) obj);
                     break;
                 case VOLTTABLE:
-                    out.writeObject((VoltTable) obj);
+                    out.writeArray((VoltTable[]) obj);
                     break;
                 default:
                     throw new RuntimeException("FIXME: Unsupported type " + type);
             }
+            return;
+        }
+
+        // Handle NULL mappings not encoded by type.min_value convention
+        if (obj == VoltType.NULL_TIMESTAMP) {
+            out.writeByte(VoltType.TIMESTAMP.getValue());
+            out.writeLong(VoltType.NULL_BIGINT);  // corresponds to EE value.h isNull()
+            return;
+        }
+        else if (obj == VoltType.NULL_STRING) {
+            out.writeByte(VoltType.STRING.getValue());
+            out.writeInt(VoltType.NULL_STRING_LENGTH);
+            return;
+        }
+        else if (obj == VoltType.NULL_DECIMAL) {
+            out.writeByte(VoltType.DECIMAL.getValue());
+            VoltDecimalHelper.serializeNull(out);
+            return;
+        }
+
+        VoltType type = VoltType.typeFromClass(cls);
+        out.writeByte(type.getValue());
+        switch (type) {
+            case TINYINT:
+                out.writeByte((Byte)obj);
+                break;
+            case SMALLINT:
+                out.writeShort((Short)obj);
+                break;
+            case INTEGER:
+                out.writeInt((Integer) obj);
+                break;
+            case BIGINT:
+                out.writeLong((Long) obj);
+                break;
+            case FLOAT:
+                out.writeDouble((Double) obj);
+                break;
+            case STRING:
+                out.writeString((String) obj);
+                break;
+            case TIMESTAMP:
+                out.writeTimestamp((TimestampType) obj);
+                break;
+            case DECIMAL:
+                VoltDecimalHelper.serializeBigDecimal((BigDecimal)obj, out);
+                break;
+            case BOOLEAN:
+                out.writeBoolean((Boolean)obj);
+                break;
+            case VOLTTABLE:
+                out.writeObject((VoltTable) obj);
+                break;
+            default:
+                throw new RuntimeException("FIXME: Unsupported type " + type);
         }
     }
 
@@ -255,63 +531,69 @@ public class ParameterSet implements FastSerializable, Poolable {
     public String toString() {
         return String.format("%s{%s}",
                 this.getClass().getSimpleName(),
-                StringUtil.toString(m_params, true, true));
+                StringUtil.toString(this.toArray(), true, true));
     }
     
     static private Object readOneParameter(FastDeserializer in) throws IOException {
         byte nextTypeByte = in.readByte();
         if (nextTypeByte == ARRAY) {
-            VoltType nextType = VoltType.get(in.readByte());
-            if (nextType == null) return null;
-            return in.readArray(nextType.classFromType());
+            return readArrayParameter(in, in.readByte());
         }
-        else {
-            VoltType nextType = VoltType.get(nextTypeByte);
-            switch (nextType) {
-                case NULL:
-                    return null;
-                case TINYINT:
-                    return in.readByte();
-                case SMALLINT:
-                    return in.readShort();
-                case INTEGER:
-                    return in.readInt();
-                case BIGINT:
-                    return in.readLong();
-                case FLOAT:
-                    return in.readDouble();
-                case STRING:
-                    String string_val = in.readString();
-                    if (string_val == null)
-                    {
-                        return VoltType.NULL_STRING;
-                    }
-                    return string_val;
-                case TIMESTAMP:
-                    return in.readTimestamp();
-                case BOOLEAN:
-                    return in.readBoolean();
-                case VOLTTABLE:
-                    return in.readObject(VoltTable.class);
-                case DECIMAL: {
-                    BigDecimal decimal_val = in.readBigDecimal();
-                    if (decimal_val == null)
-                    {
-                        return VoltType.NULL_DECIMAL;
-                    }
-                    return decimal_val;
+        return readOneParameter(in, nextTypeByte);
+    }
+    
+    static private Object readArrayParameter(FastDeserializer in, byte componentTypeByte) throws IOException {
+        VoltType nextType = VoltType.get(componentTypeByte);
+        if (nextType == null) return null;
+        return in.readArray(nextType.classFromType());
+    }
+    
+    static private Object readOneParameter(FastDeserializer in, byte nextTypeByte) throws IOException {
+        VoltType nextType = VoltType.get(nextTypeByte);
+        switch (nextType) {
+            case NULL:
+                return null;
+            case TINYINT:
+                return in.readByte();
+            case SMALLINT:
+                return in.readShort();
+            case INTEGER:
+                return in.readInt();
+            case BIGINT:
+                return in.readLong();
+            case FLOAT:
+                return in.readDouble();
+            case STRING:
+                String string_val = in.readString();
+                if (string_val == null)
+                {
+                    return VoltType.NULL_STRING;
                 }
-                case DECIMAL_STRING: {
-                    BigDecimal decimal_val = in.readBigDecimalFromString();
-                    if (decimal_val == null)
-                    {
-                        return VoltType.NULL_DECIMAL;
-                    }
-                    return decimal_val;
+                return string_val;
+            case TIMESTAMP:
+                return in.readTimestamp();
+            case BOOLEAN:
+                return in.readBoolean();
+            case VOLTTABLE:
+                return in.readObject(VoltTable.class);
+            case DECIMAL: {
+                BigDecimal decimal_val = in.readBigDecimal();
+                if (decimal_val == null)
+                {
+                    return VoltType.NULL_DECIMAL;
                 }
-                default:
-                    throw new RuntimeException("ParameterSet doesn't support type" + nextType);
+                return decimal_val;
+            }
+            case DECIMAL_STRING: {
+                BigDecimal decimal_val = in.readBigDecimalFromString();
+                if (decimal_val == null)
+                {
+                    return VoltType.NULL_DECIMAL;
+                }
+                return decimal_val;
             }
+            default:
+                throw new RuntimeException("ParameterSet doesn't support type" + nextType);
         }
     }
     
@@ -0,0 +1,343 @@
+package org.voltdb;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+
+/**
+ * A pre-built invoker for a VoltProcedure's run() method.
+ * <p>
+ * Instead of going through Method.invoke() for every txn, we build a MethodHandle
+ * for the run() method once when the procedure is first initialized. The handle
+ * takes the procedure's parameter array and converts each entry directly into the
+ * primitive type of the corresponding argument. There is a second handle that reads
+ * the arguments straight out of a ParameterSet's primitive slots, so that the
+ * parameters that we deserialized from the client never have to be boxed.
+ * The invokers are shared by all of the VoltProcedure instances for the same class.
+ * <p>
+ * <B>Note:</B> This requires java.lang.invoke (Java 1.7+).
+ */
+public final class ProcedureInvoker {
+    private static final Logger LOG = Logger.getLogger(ProcedureInvoker.class);
+    private static final LoggerBoolean debug = new LoggerBoolean();
+    private static final LoggerBoolean trace = new LoggerBoolean();
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    /**
+     * The signature of the handle that we will invoke
+     */
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, VoltProcedure.class, Object[].class);
+    private static final MethodType SLOT_INVOKER_TYPE = MethodType.methodType(Object.class, VoltProcedure.class, ParameterSet.class);
+
+    /**
+     * Method -> ProcedureInvoker
+     */
+    private static final Map<Method, ProcedureInvoker> CACHE = new ConcurrentHashMap<Method, ProcedureInvoker>();
+
+    private final Method method;
+    private final MethodHandle handle;
+    private final MethodHandle slotHandle;
+
+    private ProcedureInvoker(Method method, MethodHandle handle, MethodHandle slotHandle) {
+        this.method = method;
+        this.handle = handle;
+        this.slotHandle = slotHandle;
+    }
+
+    /**
+     * Returns the invoker for the given run() method. Returns null if we
+     * were unable to build an invoker, in which case the caller should
+     * fall back to using reflection.
+     * @param method
+     * @return
+     */
+    public static ProcedureInvoker get(Method method) {
+        ProcedureInvoker invoker = CACHE.get(method);
+        if (invoker == null) {
+            MethodHandle handle = null;
+            MethodHandle slotHandle = null;
+            try {
+                MethodHandle target = buildTarget(method);
+                handle = build(method, target);
+                slotHandle = buildSlots(method, target);
+            } catch (Throwable ex) {
+                if (debug.val)
+                    LOG.warn("Failed to build invoker for " + method + ". Falling back to reflection", ex);
+                return (null);
+            }
+            invoker = new ProcedureInvoker(method, handle, slotHandle);
+            CACHE.put(method, invoker);
+            if (debug.val) LOG.debug("Created invoker for " + method);
+        }
+        return (invoker);
+    }
+
+    /**
+     * Invoke the run() method for the given VoltProcedure.
+     * Like Method.invoke(), any exception thrown by the procedure will be
+     * wrapped in an InvocationTargetException, while any problem converting
+     * the parameters into the run() method's arguments will be thrown as an
+     * IllegalArgumentException.
+     * @param proc
+     * @param params
+     * @return
+     * @throws InvocationTargetException
+     */
+    public Object invoke(VoltProcedure proc, Object params[]) throws InvocationTargetException {
+        try {
+            return ((Object)this.handle.invokeExact(proc, params));
+        } catch (Throwable ex) {
+            throw this.convertException(ex);
+        }
+    }
+
+    /**
+     * Invoke the run() method for the given VoltProcedure using the parameters
+     * in the given ParameterSet. The primitive arguments are read directly from
+     * the ParameterSet's slots without boxing them. The caller has to make sure
+     * that the ParameterSet's types already match the run() method's arguments.
+     * @param proc
+     * @param params
+     * @return
+     * @throws InvocationTargetException
+     */
+    public Object invoke(VoltProcedure proc, ParameterSet params) throws InvocationTargetException {
+        try {
+            return ((Object)this.slotHandle.invokeExact(proc, params));
+        } catch (Throwable ex) {
+            throw this.convertException(ex);
+        }
+    }
+
+    /**
+     * Convert anything thrown by one of our handles into what Method.invoke() would throw
+     * @param error
+     * @return
+     * @throws InvocationTargetException
+     */
+    private IllegalArgumentException convertException(Throwable error) throws InvocationTargetException {
+        try {
+            throw error;
+        } catch (InvocationTargetException ex) {
+            // Thrown by the procedure's run() method
+            throw ex;
+        } catch (RuntimeException ex) {
+            // Everything else happened before we got to the run() method
+            String msg = String.format("Invalid parameters for %s: %s", this.method, ex.getMessage());
+            return (new IllegalArgumentException(msg, ex));
+        } catch (Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            String msg = String.format("Unexpected error invoking %s", this.method);
+            return (new IllegalArgumentException(msg, ex));
+        }
+    }
+
+    public Method getMethod() {
+        return (this.method);
+    }
+
+    @Override
+    public String toString() {
+        return (this.getClass().getSimpleName() + "{" + this.method + "}");
+    }
+
+    // ----------------------------------------------------------------------------
+    // HANDLE GENERATION
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Returns a handle for the run() method that takes the VoltProcedure
+     * followed by the run() method's arguments
+     * @param method
+     * @return
+     */
+    private static MethodHandle buildTarget(Method method) throws Exception {
+        MethodHandle handle = null;
+        try {
+            handle = MethodHandles.publicLookup().unreflect(method);
+        } catch (IllegalAccessException ex) {
+            // The procedure's class may not be public
+            method.setAccessible(true);
+            handle = MethodHandles.lookup().unreflect(method);
+        }
+        
+        // Wrap anything that the run() method throws in an InvocationTargetException
+        // so that invoke() can tell it apart from parameter conversion errors
+        MethodHandle wrapper = MethodHandles.lookup().findStatic(ProcedureInvoker.class, "wrapTargetException",
+                                                                 MethodType.methodType(Object.class, Throwable.class));
+        wrapper = wrapper.asType(MethodType.methodType(handle.type().returnType(), Throwable.class));
+        wrapper = MethodHandles.dropArguments(wrapper, 1, handle.type().parameterList());
+        handle = MethodHandles.catchException(handle, Throwable.class, wrapper);
+
+        // Static run() methods do not take the VoltProcedure
+        if (Modifier.isStatic(method.getModifiers())) {
+            handle = MethodHandles.dropArguments(handle, 0, method.getDeclaringClass());
+        }
+        return (handle);
+    }
+
+    private static MethodHandle build(Method method, MethodHandle handle) throws Exception {
+        // Convert each parameter from the Object that we get from the
+        // ParameterSet into the argument's type
+        Class<?> paramTypes[] = method.getParameterTypes();
+        MethodHandle filters[] = new MethodHandle[paramTypes.length];
+        for (int i = 0; i < paramTypes.length; i++) {
+            filters[i] = getConverter(paramTypes[i]);
+        } // FOR
+        handle = MethodHandles.filterArguments(handle, 1, filters);
+
+        // (VoltProcedure, Object[]) -> Object
+        handle = handle.asSpreader(Object[].class, paramTypes.length);
+        return (handle.asType(INVOKER_TYPE));
+    }
+
+    private static MethodHandle buildSlots(Method method, MethodHandle handle) throws Exception {
+        // Read each argument out of the ParameterSet at its offset
+        Class<?> paramTypes[] = method.getParameterTypes();
+        MethodHandle filters[] = new MethodHandle[paramTypes.length];
+        int reorder[] = new int[paramTypes.length + 1];
+        for (int i = 0; i < paramTypes.length; i++) {
+            filters[i] = MethodHandles.insertArguments(getSlotReader(paramTypes[i]), 1, i);
+            reorder[i+1] = 1;
+        } // FOR
+        handle = MethodHandles.filterArguments(handle, 1, filters);
+
+        // (VoltProcedure, ParameterSet) -> Object
+        // Every argument gets the same ParameterSet
+        MethodType mt = MethodType.methodType(handle.type().returnType(), handle.type().parameterType(0), ParameterSet.class);
+        handle = MethodHandles.permuteArguments(handle, mt, reorder);
+        return (handle.asType(SLOT_INVOKER_TYPE));
+    }
+
+    /**
+     * Returns a handle that converts an Object into the given type
+     * @param type
+     * @return
+     */
+    private static MethodHandle getConverter(Class<?> type) throws Exception {
+        String name = null;
+        if (type == long.class) name = "toLong";
+        else if (type == int.class) name = "toInt";
+        else if (type == short.class) name = "toShort";
+        else if (type == byte.class) name = "toByte";
+        else if (type == double.class) name = "toDouble";
+        else if (type == float.class) name = "toFloat";
+        else if (type == boolean.class) name = "toBoolean";
+
+        if (name != null) {
+            MethodType mt = MethodType.methodType(type, Object.class);
+            return (MethodHandles.lookup().findStatic(ProcedureInvoker.class, name, mt));
+        }
+        return (MethodHandles.identity(Object.class).asType(MethodType.methodType(type, Object.class)));
+    }
+
+    /**
+     * Returns a handle that reads the given type out of a ParameterSet at an offset
+     * @param type
+     * @return
+     */
+    private static MethodHandle getSlotReader(Class<?> type) throws Exception {
+        String name = null;
+        if (type == long.class) name = "longAt";
+        else if (type == int.class) name = "intAt";
+        else if (type == short.class) name = "shortAt";
+        else if (type == byte.class) name = "byteAt";
+        else if (type == double.class) name = "doubleAt";
+        else if (type == float.class) name = "floatAt";
+        else if (type == boolean.class) name = "booleanAt";
+
+        if (name != null) {
+            MethodType mt = MethodType.methodType(type, ParameterSet.class, int.class);
+            return (MethodHandles.lookup().findStatic(ProcedureInvoker.class, name, mt));
+        }
+        MethodType mt = MethodType.methodType(Object.class, ParameterSet.class, int.class);
+        MethodHandle reader = MethodHandles.lookup().findStatic(ProcedureInvoker.class, "objectAt", mt);
+        return (reader.asType(MethodType.methodType(type, ParameterSet.class, int.class)));
+    }
+
+    @SuppressWarnings("unused")
+    private static Object wrapTargetException(Throwable ex) throws InvocationTargetException {
+        throw new InvocationTargetException(ex);
+    }
+
+    // VoltProcedure.tryToMakeCompatible() has already checked that
+    // the parameters can be widened to the argument's type.
+
+    @SuppressWarnings("unused")
+    private static long toLong(Object o) {
+        return ((Number)o).longValue();
+    }
+    @SuppressWarnings("unused")
+    private static int toInt(Object o) {
+        return ((Number)o).intValue();
+    }
+    @SuppressWarnings("unused")
+    private static short toShort(Object o) {
+        return ((Number)o).shortValue();
+    }
+    @SuppressWarnings("unused")
+    private static byte toByte(Object o) {
+        return ((Number)o).byteValue();
+    }
+    @SuppressWarnings("unused")
+    private static double toDouble(Object o) {
+        return ((Number)o).doubleValue();
+    }
+    @SuppressWarnings("unused")
+    private static float toFloat(Object o) {
+        return ((Number)o).floatValue();
+    }
+    @SuppressWarnings("unused")
+    private static boolean toBoolean(Object o) {
+        return ((Boolean)o).booleanValue();
+    }
+
+    @SuppressWarnings("unused")
+    private static long longAt(ParameterSet params, int idx) {
+        return params.getLong(idx);
+    }
+    @SuppressWarnings("unused")
+    private static int intAt(ParameterSet params, int idx) {
+        return (int)params.getLong(idx);
+    }
+    @SuppressWarnings("unused")
+    private static short shortAt(ParameterSet params, int idx) {
+        return (short)params.getLong(idx);
+    }
+    @SuppressWarnings("unused")
+    private static byte byteAt(ParameterSet params, int idx) {
+        return (byte)params.getLong(idx);
+    }
+    @SuppressWarnings("unused")
+    private static double doubleAt(ParameterSet params, int idx) {
+        return params.getDouble(idx);
+    }
+    @SuppressWarnings("unused")
+    private static float floatAt(ParameterSet params, int idx) {
+        return (float)params.getDouble(idx);
+    }
+    @SuppressWarnings("unused")
+    private static boolean booleanAt(ParameterSet params, int idx) {
+        return (params.getLong(idx) != 0);
+    }
+    @SuppressWarnings("unused")
+    private static Object objectAt(ParameterSet params, int idx) {
+        // Same as VoltProcedure.tryToMakeCompatible()
+        Object o = params.get(idx);
+        if (o == VoltType.NULL_STRING || o == VoltType.NULL_DECIMAL) return (null);
+        return (o);
+    }
+}
@@ -57,89 +57,89 @@ public class SnapshotSaveAPI
      * @param file_nonce
      * @param block
      * @param startTime
+     * @param txnId The id of the txn that is taking the snapshot
      * @param context
      * @param hostname
      * @return VoltTable describing the results of the snapshot attempt
      */
     public VoltTable startSnapshotting(String file_path, String file_nonce, byte block,
-            long startTime, SystemProcedureExecutionContext context, String hostname)
+            long startTime, long txnId, SystemProcedureExecutionContext context, String hostname)
     {
         //LOG.trace("Creating snapshot target and handing to EEs");
         final VoltTable result = SnapshotSave.constructNodeResultsTable();
 
-        // Each partition does this to accumulate tasks for it
-        createSetup(file_path, file_nonce, startTime, context, hostname, result);
-        
-        //LOG.trace("Stage 0 : at partition : "+context.getPartitionExecutor().getPartitionId());
-        
-        // All sites wait for a permit to start their individual snapshot tasks
-        VoltTable error = acquireSnapshotPermit(context, hostname, result);
-        if (error != null) {
-            return error;
-        }
-
-        Site site = context.getSite();
-        CatalogMap<Partition> partition_map = site.getPartitions();
-        Integer lowest_partition_id = Integer.MAX_VALUE, p_id;        
-        for (Partition pt : partition_map) {
-            p_id = pt.getId();
-            lowest_partition_id = Math.min(p_id, lowest_partition_id);
-        }        
-        assert (lowest_partition_id != Integer.MAX_VALUE);
-        
-        int partition_id = context.getPartitionExecutor().getPartitionId();
-        LOG.trace("Stage 1 : at partition : "+partition_id);        
-        
-        synchronized (SnapshotSiteProcessor.m_taskListsForSites) {
-            // Fetch work for this partition
-            int index = partition_id - lowest_partition_id;
-            final Deque<SnapshotTableTask> m_taskList = SnapshotSiteProcessor.m_taskListsForSites.get(index);
-
-            if (m_taskList == null) {
-                LOG.trace("tasklist null");
-                return result;
-            } else {
-                if (SnapshotSiteProcessor.m_taskListsForSites.isEmpty()) {
-                    //assert(SnapshotSiteProcessor.m_snapshotCreateSetupPermit.availablePermits() == 1);
-                    assert(SnapshotSiteProcessor.m_snapshotPermits.availablePermits() == 0);
+        // The command log can only be truncated if every local partition finishes
+        // a blocking snapshot without any failures. We always have to report back
+        // to SnapshotSiteProcessor, no matter how we leave this method, otherwise
+        // the count of finished partitions will be off for the next snapshot.
+        boolean success = false;
+        try {
+            // Each partition does this to accumulate tasks for it
+            createSetup(file_path, file_nonce, startTime, txnId, context, hostname, result);
+            
+            //LOG.trace("Stage 0 : at partition : "+context.getPartitionExecutor().getPartitionId());
+            
+            // All sites wait for a permit to start their individual snapshot tasks
+            VoltTable error = acquireSnapshotPermit(context, hostname, result);
+            if (error != null) {
+                return error;
+            }
+    
+            Site site = context.getSite();
+            CatalogMap<Partition> partition_map = site.getPartitions();
+            Integer lowest_partition_id = Integer.MAX_VALUE, p_id;        
+            for (Partition pt : partition_map) {
+                p_id = pt.getId();
+                lowest_partition_id = Math.min(p_id, lowest_partition_id);
+            }        
+            assert (lowest_partition_id != Integer.MAX_VALUE);
+            
+            int partition_id = context.getPartitionExecutor().getPartitionId();
+            LOG.trace("Stage 1 : at partition : "+partition_id);        
+            
+            synchronized (SnapshotSiteProcessor.m_taskListsForSites) {
+                // Fetch work for this partition
+                int index = partition_id - lowest_partition_id;
+                final Deque<SnapshotTableTask> m_taskList = SnapshotSiteProcessor.m_taskListsForSites.get(index);
+    
+                if (m_taskList == null) {
+                    LOG.trace("tasklist null");
+                    return result;
+                } else {
+                    if (SnapshotSiteProcessor.m_taskListsForSites.isEmpty()) {
+                        //assert(SnapshotSiteProcessor.m_snapshotCreateSetupPermit.availablePermits() == 1);
+                        assert(SnapshotSiteProcessor.m_snapshotPermits.availablePermits() == 0);
+                    }
+    
+                    LOG.trace("ExecutionSitesCurrentlySnapshotting :"+SnapshotSiteProcessor.ExecutionSitesCurrentlySnapshotting.get());
+                    assert(SnapshotSiteProcessor.ExecutionSitesCurrentlySnapshotting.get() > 0);
+    
+                    context.getPartitionExecutor().initiateSnapshots(m_taskList);
                 }
-
-                LOG.trace("ExecutionSitesCurrentlySnapshotting :"+SnapshotSiteProcessor.ExecutionSitesCurrentlySnapshotting.get());
-                assert(SnapshotSiteProcessor.ExecutionSitesCurrentlySnapshotting.get() > 0);
-
-                context.getPartitionExecutor().initiateSnapshots(m_taskList);
             }
-        }
-
-        //LOG.trace("Stage 2 : at partition : "+context.getPartitionExecutor().getPartitionId());
-        
-        if (block != 0) {
-            Collection<Exception> failures = null;
-            String status = "SUCCESS";
-            String err = "";
-            try {
-                
-                failures = context.getPartitionExecutor().completeSnapshotWork();
-                
-            } catch (InterruptedException e) {
-                status = "FAILURE";
-                err = e.toString();
-            }            
-            final VoltTable blockingResult = SnapshotSave.constructPartitionResultsTable();
-
-            if (failures.isEmpty()) {
-                blockingResult.addRow(
-                        Integer.parseInt(context.getSite().getHost().getTypeName().replaceAll("[\\D]", "")),
-                        hostname,
-                        context.getHStoreSite().getSiteId(), 
-                        context.getPartitionExecutor().getPartitionId(),                     
-                        "",
-                        status,
-                        err);
-            } else {
-                status = "FAILURE";
-                for (Exception e : failures) {
+    
+            //LOG.trace("Stage 2 : at partition : "+context.getPartitionExecutor().getPartitionId());
+            
+            if (block != 0) {
+                Collection<Exception> failures = null;
+                String status = "SUCCESS";
+                String err = "";
+                try {
+                    
+                    failures = context.getPartitionExecutor().completeSnapshotWork();
+                    
+                } catch (InterruptedException e) {
+                    status = "FAILURE";
                     err = e.toString();
+                }            
+                success = (failures != null && failures.isEmpty());
+                final VoltTable blockingResult = SnapshotSave.constructPartitionResultsTable();
+    
+                if (failures != null) {
+                    for (Exception e : failures) {
+                        status = "FAILURE";
+                        err = e.toString();
+                    }
                 }
                 blockingResult.addRow(
                         Integer.parseInt(context.getSite().getHost().getTypeName().replaceAll("[\\D]", "")),
@@ -149,17 +149,19 @@ public class SnapshotSaveAPI
                         "",
                         status,
                         err);
+                return blockingResult;
             }
-            return blockingResult;
+    
+    
+            return result;
+        } finally {
+            SnapshotSiteProcessor.finishSnapshotWork(context.getHStoreSite(), startTime, success);
         }
-
-
-        return result;
     }
 
 
     private void createSetup(String file_path, String file_nonce,
-            long startTime, SystemProcedureExecutionContext context,
+            long startTime, long txnId, SystemProcedureExecutionContext context,
             String hostname, final VoltTable result) {
         {            
             Site site = context.getSite();
@@ -185,7 +187,7 @@ public class SnapshotSaveAPI
                 synchronized (SnapshotSiteProcessor.m_digestWritten) {
                     if (SnapshotSiteProcessor.m_digestWritten.get() == false) {
                         SnapshotSiteProcessor.m_digestWritten.set(true);
-                        SnapshotUtil.recordSnapshotTableList(startTime, file_path, file_nonce, tables);
+                        SnapshotUtil.recordSnapshotTableList(startTime, txnId, file_path, file_nonce, tables);
                         LOG.trace("Digest written at partition " + context.getPartitionExecutor().getPartitionId());
                     }
                 }
@@ -28,6 +28,8 @@ import org.voltdb.jni.ExecutionEngine;
 import org.voltdb.utils.DBBPool.BBContainer;
 
 import edu.brown.hstore.HStore;
+import edu.brown.hstore.HStoreSite;
+import edu.brown.hstore.cmdlog.CommandLogWriter;
 
 /**
  * Encapsulates the state needed to manage an ongoing snapshot at the
@@ -117,6 +119,17 @@ public class SnapshotSiteProcessor {
      */
     public static AtomicBoolean m_finishedSetup = new AtomicBoolean(false);
 
+    /**
+     * Number of local partitions that have finished all of their work
+     * for the current blocking snapshot
+     */
+    private static final AtomicInteger m_partitionsFinished = new AtomicInteger(0);
+    
+    /**
+     * Set to true if any local partition failed the current blocking snapshot
+     */
+    private static final AtomicBoolean m_snapshotFailed = new AtomicBoolean(false);
+
     
     /**
      * A class identifying a table that should be snapshotted as well as the destination
@@ -333,6 +346,33 @@ public class SnapshotSiteProcessor {
         return retval;
     }
 
+    /**
+     * Invoked by each local partition every time that it leaves
+     * SnapshotSaveAPI.startSnapshotting(), whether the snapshot worked or not.
+     * When the last partition at the HStoreSite finishes and none of them failed,
+     * then the snapshot is durable and any command log segments that were written
+     * before it started are no longer needed for recovery.
+     * @param hstore_site
+     * @param snapshotTime The time that the snapshot was started
+     * @param success False if this partition's snapshot failed or was not a blocking snapshot
+     */
+    public static void finishSnapshotWork(HStoreSite hstore_site, long snapshotTime, boolean success) {
+        if (success == false) m_snapshotFailed.set(true);
+        int numLocalPartitions = hstore_site.getLocalPartitionIds().size();
+        if (m_partitionsFinished.incrementAndGet() < numLocalPartitions) return;
+        
+        m_partitionsFinished.set(0);
+        boolean failed = m_snapshotFailed.getAndSet(false);
+        CommandLogWriter cmdlogs[] = hstore_site.getCommandLogWriters();
+        if (failed) {
+            LOG.warn("Not truncating command log because snapshot at " + snapshotTime + " failed");
+        } else if (cmdlogs != null) {
+            for (CommandLogWriter cmdlog : cmdlogs) {
+                cmdlog.truncate(snapshotTime);
+            } // FOR
+        }
+    }
+
     /*
      * Do snapshot work exclusively until there is no more. Also blocks
      * until the fsync() and close() of snapshot data targets has completed.
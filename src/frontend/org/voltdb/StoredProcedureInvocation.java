@@ -35,6 +35,14 @@ import edu.brown.hstore.HStoreConstants;
  */
 public class StoredProcedureInvocation implements FastSerializable {
 
+    /**
+     * A client can pack multiple invocations into a single network message.
+     * A batch message starts with this marker where the restart counter would
+     * normally be, followed by the number of invocations. Each invocation is
+     * then prefixed by its length.
+     */
+    public static final short BATCH_MARKER = -1;
+
     protected int procId = -1;
     protected String procName = null;
     protected ParameterSet params = null;
@@ -348,4 +356,74 @@ public class StoredProcedureInvocation implements FastSerializable {
         buffer.position(buffer.position() + procNameLen);
     }
     
+    // ----------------------------------------------------------------------------
+    // BATCHES
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * Returns true if the given message contains a batch of invocations
+     * instead of a single StoredProcedureInvocation
+     * @param buffer
+     * @return
+     */
+    public static boolean isBatch(ByteBuffer buffer) {
+        return (buffer.limit() >= 6 && buffer.getShort(0) == BATCH_MARKER);
+    }
+    
+    /**
+     * Write the header for a batch of invocations. Each invocation must then be
+     * written with writeBatchEntry()
+     * @param out
+     * @param count The number of invocations in this batch 
+     * @throws IOException
+     */
+    public static void writeBatchHeader(FastSerializer out, int count) throws IOException {
+        out.writeShort(BATCH_MARKER);
+        out.writeInt(count);
+    }
+    
+    /**
+     * Write a single length-prefixed invocation into a batch
+     * @param out
+     * @param invocation
+     * @throws IOException
+     */
+    public static void writeBatchEntry(FastSerializer out, StoredProcedureInvocation invocation) throws IOException {
+        int start = out.getPosition();
+        out.writeInt(0);
+        invocation.writeExternal(out);
+        out.writeIntAt(start, out.getPosition() - start - 4);
+    }
+    
+    /**
+     * Split a batch message into the serialized StoredProcedureInvocations that it contains.
+     * The returned buffers share the same backing array as the original message.
+     * @param buffer ByteBuffer wrapper around a batch of serialized StoredProcedureInvocations 
+     * @return
+     */
+    public static ByteBuffer[] getBatch(ByteBuffer buffer) {
+        assert(isBatch(buffer));
+        return (sliceBatch(buffer, 2));
+    }
+    
+    /**
+     * Split the length-prefixed entries of a batch message whose count
+     * starts at the given offset
+     */
+    static ByteBuffer[] sliceBatch(ByteBuffer buffer, int offset) {
+        ByteBuffer dup = buffer.duplicate();
+        int limit = dup.limit();
+        dup.position(offset);
+        ByteBuffer entries[] = new ByteBuffer[dup.getInt()];
+        for (int i = 0; i < entries.length; i++) {
+            int length = dup.getInt();
+            int end = dup.position() + length;
+            dup.limit(end);
+            entries[i] = dup.slice();
+            dup.limit(limit);
+            dup.position(end);
+        } // FOR
+        return (entries);
+    }
+    
 }
@@ -37,4 +37,6 @@ public enum SysProcSelector {
     ANTICACHE,      // anti-cache manager information
     ANTICACHEEVICTIONS, // anti-cache eviction history
     ANTICACHEACCESS, // anti-cache evicted access history
+    COMMANDLOG,     // command log segment information
+    MARKOVLEARNER,  // markov model learner information
 }
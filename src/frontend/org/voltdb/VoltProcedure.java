@@ -111,6 +111,7 @@ public abstract class VoltProcedure implements Poolable {
 
     // private members reserved exclusively to VoltProcedure
     private Method procMethod;
+    private ProcedureInvoker procInvoker;
     private boolean procMethodNoJava = false;
     private boolean procIsMapReduce = false;
     private Class<?>[] paramTypes;
@@ -342,6 +343,9 @@ public abstract class VoltProcedure implements Poolable {
             if (this.procMethod == null) {
                 LOG.fatal("No good method found in: " + getClass().getName());
             }
+            else if (hstore_conf.site.exec_procedure_invokers && this.procIsMapReduce == false) {
+                this.procInvoker = ProcedureInvoker.get(this.procMethod);
+            }
 
             Field[] fields = getClass().getFields();
             for (final Field f : fields) {
@@ -491,6 +495,35 @@ public abstract class VoltProcedure implements Poolable {
      * @return
      */
     public final ClientResponseImpl call(LocalTransaction txnState, Object... paramList) {
+        return (this.call(txnState, null, paramList));
+    }
+    
+    /**
+     * Execute the VoltProcedure.run() method with the given ParameterSet.
+     * If the types of the parameters already match the run() method's arguments,
+     * then our ProcedureInvoker will read them straight out of the ParameterSet's
+     * primitive slots without boxing them. Otherwise we fall back to toArray().
+     * @param txnState
+     * @param params
+     * @return
+     */
+    public final ClientResponseImpl call(LocalTransaction txnState, ParameterSet params) {
+        if (this.procInvoker != null && this.workloadTraceEnable == false && this.isCompatible(params)) {
+            return (this.call(txnState, params, null));
+        }
+        return (this.call(txnState, null, params.toArray()));
+    }
+    
+    /**
+     * Execute the VoltProcedure.run() method. Only one of paramSet or paramList
+     * should be given. If paramSet is not null, then the caller has already
+     * checked that its parameters match the run() method's arguments.
+     * @param txnState
+     * @param paramSet
+     * @param paramList
+     * @return
+     */
+    private ClientResponseImpl call(LocalTransaction txnState, ParameterSet paramSet, Object paramList[]) {
         ClientResponseImpl response = null;
 //        this.txnState = txnState;
         this.localTxnState = txnState;
@@ -508,9 +541,10 @@ public abstract class VoltProcedure implements Poolable {
         this.last_batchQueryStmtIndex = -1;
         
         if (debug.val) LOG.debug("Starting execution of " + this.localTxnState);
-        if (this.procParams.length != this.paramTypesLength) {
+        int numParams = (paramSet != null ? paramSet.size() : this.procParams.length);
+        if (numParams != this.paramTypesLength) {
             String msg = "PROCEDURE " + procedure_name + " EXPECTS " + String.valueOf(paramTypesLength) +
-                         " PARAMS, BUT RECEIVED " + String.valueOf(this.procParams.length);
+                         " PARAMS, BUT RECEIVED " + String.valueOf(numParams);
             if (debug.val) LOG.error(msg);
             this.status = Status.ABORT_GRACEFUL;
             this.status_msg = msg;
@@ -524,7 +558,7 @@ public abstract class VoltProcedure implements Poolable {
             return (response); 
         }
 
-        for (int i = 0; i < this.paramTypesLength; i++) {
+        for (int i = 0; i < this.paramTypesLength && paramSet == null; i++) {
             try {
                 this.procParams[i] = this.tryToMakeCompatible(i, this.procParams[i]);
             } catch (Exception e) {
@@ -569,7 +603,7 @@ public abstract class VoltProcedure implements Poolable {
             if (trace.val)
                 LOG.trace(String.format("Invoking %s [params=%s, partition=%d]",
                           this.procMethod,
-                          this.procParams + Arrays.toString(this.procParams),
+                          (paramSet != null ? paramSet : this.procParams + Arrays.toString(this.procParams)),
                           this.partitionId));
             try {
                 // ANTI-CACHE TABLE MERGE
@@ -597,7 +631,14 @@ public abstract class VoltProcedure implements Poolable {
                     }
                 }
                 
-                Object rawResult = this.procMethod.invoke(this, this.procParams);
+                Object rawResult = null;
+                if (paramSet != null) {
+                    rawResult = this.procInvoker.invoke(this, paramSet);
+                } else if (this.procInvoker != null) {
+                    rawResult = this.procInvoker.invoke(this, this.procParams);
+                } else {
+                    rawResult = this.procMethod.invoke(this, this.procParams);
+                }
                 this.results = this.getResultsFromRawResults(rawResult);
                 if (this.results == null) results = HStoreConstants.EMPTY_RESULT;
 
@@ -816,6 +857,65 @@ public abstract class VoltProcedure implements Poolable {
         throw new RuntimeException("Procedure didn't return acceptable type.");
     }
 
+    /**
+     * Returns true if every parameter in the given ParameterSet can be passed
+     * to the run() method as it is. This uses the same rules as tryToMakeCompatible()
+     * but never boxes the parameters. If this returns false, then the parameters
+     * have to go through tryToMakeCompatible() instead.
+     * @param params
+     * @return
+     */
+    private boolean isCompatible(ParameterSet params) {
+        if (params.size() != this.paramTypesLength) return (false);
+        for (int i = 0; i < this.paramTypesLength; i++) {
+            if (this.paramTypeIsArray[i]) return (false);
+            VoltType type = params.getType(i);
+            if (type == null) return (false);
+            
+            final Class<?> slot = this.paramTypes[i];
+            boolean match = false;
+            switch (type) {
+                case NULL:
+                    match = (this.paramTypeIsPrimitive[i] == false);
+                    break;
+                case TINYINT:
+                    match = (slot == byte.class);
+                    // FALL THROUGH
+                case SMALLINT:
+                    match = match || (slot == short.class);
+                    // FALL THROUGH
+                case INTEGER:
+                    match = match || (slot == int.class);
+                    // FALL THROUGH
+                case BIGINT:
+                    match = match || (slot == long.class);
+                    break;
+                case FLOAT:
+                    match = (slot == double.class);
+                    break;
+                case BOOLEAN:
+                    match = (slot == boolean.class);
+                    break;
+                case STRING:
+                    match = (slot == String.class);
+                    break;
+                case TIMESTAMP:
+                    match = (slot == TimestampType.class);
+                    break;
+                case DECIMAL:
+                    match = (slot == BigDecimal.class);
+                    break;
+                case VOLTTABLE:
+                    match = (slot == VoltTable.class);
+                    break;
+                default:
+                    match = false;
+            } // SWITCH
+            if (match == false) return (false);
+        } // FOR
+        return (true);
+    }
+
     /** @throws Exception with a message describing why the types are incompatible. */
     final private Object tryToMakeCompatible(int paramTypeIndex, Object param) throws Exception {
         if (param == null || param == VoltType.NULL_STRING ||
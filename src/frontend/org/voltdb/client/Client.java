@@ -19,6 +19,7 @@ package org.voltdb.client;
 
 import java.io.IOException;
 import java.net.UnknownHostException;
+import java.util.Collection;
 
 import org.voltdb.StoredProcedureInvocationHints;
 import org.voltdb.VoltTable;
@@ -169,6 +170,19 @@ public interface Client {
             Object... parameters)
     throws IOException, NoConnectionsException;
 
+    /**
+     * Asynchronously invoke a procedure once for each of the given parameter arrays. The invocations
+     * are packed into a single network message per destination site instead of being sent one by one.
+     * The responses for each message are also sent back together in a single message.
+     * The callback will be invoked once for each invocation's response.
+     * @param callback ProcedureCallback that will be invoked with each procedure's results.
+     * @param procName class name (not qualified by package) of the procedure to execute.
+     * @param parameters the list of parameter values for each invocation.
+     * @return <code>true</code> if the invocations were queued and <code>false</code> otherwise
+     */
+    public boolean callProcedureBatch(ProcedureCallback callback, String procName, Collection<Object[]> parameters)
+    throws IOException, NoConnectionsException;
+
     /**
      * Calculate the size of a stored procedure invocation once it is serialized. This is computationally intensive
      * as the invocation is serialized as part of the calculation.
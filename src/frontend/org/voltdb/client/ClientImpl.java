@@ -19,6 +19,11 @@ package org.voltdb.client;
 
 import java.io.IOException;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -71,11 +76,12 @@ final class ClientImpl implements Client {
 
     /**
      * If we have a catalog, then we'll enable client-side hints
+     * The catalog may be retrieved from the cluster after we are connected,
+     * so m_catalog must always be set last.
      */
-    private Catalog m_catalog;
-    private CatalogContext m_catalogContext;
-    private PartitionEstimator m_pEstimator;
-    private int m_partitionSiteXref[];
+    private volatile Catalog m_catalog;
+    private volatile CatalogContext m_catalogContext;
+    private volatile PartitionEstimator m_pEstimator;
     private final HStoreConf m_hstoreConf;
     private final ProfileMeasurement m_queueTime = new ProfileMeasurement("queue");
 
@@ -122,13 +128,6 @@ final class ClientImpl implements Client {
 
         m_hstoreConf = HStoreConf.singleton(true);
 
-        if (catalog != null && m_hstoreConf.client.txn_hints) {
-            m_catalog = catalog;
-            m_catalogContext = new CatalogContext(m_catalog);
-            m_pEstimator = new PartitionEstimator(m_catalogContext);
-            m_partitionSiteXref = CatalogUtil.getPartitionSiteXrefArray(m_catalog);
-    }
-
         m_distributer = new Distributer(
                 expectedOutgoingMessageSize,
                 maxArenaSizes,
@@ -136,6 +135,42 @@ final class ClientImpl implements Client {
                 m_hstoreConf.global.nanosecond_latencies,
                 statsSettings);
         m_distributer.addClientStatusListener(new CSL());
+        
+        if (catalog != null && m_hstoreConf.client.txn_hints) {
+            this.setCatalog(catalog);
+        }
+    }
+    
+    /**
+     * Initialize the client-side hints from the given catalog
+     * @param catalog
+     */
+    private void setCatalog(Catalog catalog) {
+        m_catalogContext = new CatalogContext(catalog);
+        m_pEstimator = new PartitionEstimator(m_catalogContext);
+        m_distributer.setPartitionSiteXref(CatalogUtil.getPartitionSiteXrefArray(catalog));
+        m_catalog = catalog;
+    }
+    
+    /**
+     * Retrieve the catalog from the cluster so that we can route requests
+     * directly to the site that has their base partition.
+     * If something goes wrong, then we will just keep going without hints.
+     */
+    private synchronized void fetchCatalog() {
+        if (m_catalog != null) return;
+        if (debug.val) LOG.debug("Retrieving catalog from cluster for client-side hints");
+        try {
+            ClientResponse cresponse = this.callProcedure("@GetCatalog");
+            VoltTable vt = cresponse.getResults()[0];
+            boolean adv = vt.advanceRow();
+            assert(adv);
+            Catalog catalog = new Catalog();
+            catalog.execute(vt.getString(0));
+            this.setCatalog(catalog);
+        } catch (Exception ex) {
+            LOG.warn("Failed to retrieve catalog from cluster. Client-side hints will be disabled", ex);
+        }
     }
 
     /**
@@ -153,6 +188,9 @@ final class ClientImpl implements Client {
         String subProgram = "default";
         String subPassword = "password";
         m_distributer.createConnection(null, host, port, subProgram, subPassword);
+        if (m_catalog == null && m_hstoreConf.client.txn_hints && m_hstoreConf.client.txn_hints_fetch_catalog) {
+            this.fetchCatalog();
+        }
     }
     
     /**
@@ -172,6 +210,9 @@ final class ClientImpl implements Client {
         final String subProgram = (program == null) ? "" : program;
         final String subPassword = (password == null) ? "" : password;
         m_distributer.createConnection(site_id, host, port, subProgram, subPassword);
+        if (m_catalog == null && m_hstoreConf.client.txn_hints && m_hstoreConf.client.txn_hints_fetch_catalog) {
+            this.fetchCatalog();
+        }
     }
 
     /**
@@ -208,24 +249,7 @@ final class ClientImpl implements Client {
         final StoredProcedureInvocation invocation =
               new StoredProcedureInvocation(m_handle.getAndIncrement(), procName, parameters);
 
-        Integer site_id = null;
-        if (hints != null && hints.basePartition != HStoreConstants.NULL_PARTITION_ID) {
-            invocation.setBasePartition(hints.basePartition);
-            if (m_partitionSiteXref != null) {
-                site_id = m_partitionSiteXref[hints.basePartition];
-            }
-        }
-        else if (m_catalog != null && procName.startsWith("@") == false) {
-            try {
-                int partition = m_pEstimator.getBasePartition(invocation);
-                if (partition != HStoreConstants.NULL_PARTITION_ID) {
-                    site_id = m_partitionSiteXref[partition];
-                    invocation.setBasePartition(partition);
-                }
-            } catch (Exception ex) {
-                throw new RuntimeException("Failed to estimate base partition for new invocation of '" + procName + "'", ex);
-            }
-        }
+        Integer site_id = this.prepareInvocation(invocation, hints);
 
         long start = ProfileMeasurement.getTime();
         m_distributer.queue(
@@ -310,7 +334,91 @@ final class ClientImpl implements Client {
         }
         StoredProcedureInvocation invocation =
             new StoredProcedureInvocation(m_handle.getAndIncrement(), procName, parameters);
+        Integer site_id = this.prepareInvocation(invocation, hints);
 
+        if (m_blockingQueue) {
+            long start = ProfileMeasurement.getTime();
+            while (!m_distributer.queue(invocation, callback, expectedSerializedSize, true, site_id)) {
+                try {
+                    backpressureBarrier();
+                } catch (InterruptedException e) {
+                    throw new java.io.InterruptedIOException("Interrupted while invoking procedure asynchronously");
+                }
+            }
+            m_queueTime.appendTime(start, ProfileMeasurement.getTime(), 1);
+            return true;
+        } else {
+            long start = ProfileMeasurement.getTime();
+            boolean ret = m_distributer.queue(invocation, callback, expectedSerializedSize, false, site_id);
+            m_queueTime.appendTime(start, ProfileMeasurement.getTime(), 1);
+            return ret;
+        }
+    }
+    
+    @Override
+    public final boolean callProcedureBatch(
+            ProcedureCallback callback,
+            String procName,
+            Collection<Object[]> parameters)
+            throws IOException, NoConnectionsException {
+        if (m_isShutdown) {
+            return false;
+        }
+        if (callback == null) {
+            callback = new NullCallback();
+        }
+        
+        // Group the invocations by the site that they should be sent to
+        // Invocations that we can't route go to whatever connection the Distributer picks
+        Map<Integer, List<StoredProcedureInvocation>> batches = new LinkedHashMap<Integer, List<StoredProcedureInvocation>>();
+        for (Object params[] : parameters) {
+            StoredProcedureInvocation invocation =
+                new StoredProcedureInvocation(m_handle.getAndIncrement(), procName, params);
+            Integer site_id = this.prepareInvocation(invocation, null);
+            List<StoredProcedureInvocation> batch = batches.get(site_id);
+            if (batch == null) {
+                batch = new ArrayList<StoredProcedureInvocation>();
+                batches.put(site_id, batch);
+            }
+            batch.add(invocation);
+        } // FOR
+        if (debug.val)
+            LOG.debug(String.format("Queuing %d invocations of %s in %d batches",
+                      parameters.size(), procName, batches.size()));
+        
+        // Only the first batch is subject to backpressure in non-blocking mode.
+        // That way we either queue all of the invocations or none of them.
+        long start = ProfileMeasurement.getTime();
+        boolean first = true;
+        for (Map.Entry<Integer, List<StoredProcedureInvocation>> e : batches.entrySet()) {
+            if (m_blockingQueue) {
+                while (!m_distributer.queueBatch(e.getValue(), callback, m_expectedOutgoingMessageSize, true, e.getKey())) {
+                    try {
+                        backpressureBarrier();
+                    } catch (InterruptedException ex) {
+                        throw new java.io.InterruptedIOException("Interrupted while invoking procedure batch asynchronously");
+                    }
+                } // WHILE
+            } else if (!m_distributer.queueBatch(e.getValue(), callback, m_expectedOutgoingMessageSize, !first, e.getKey())) {
+                assert(first);
+                return false;
+            }
+            first = false;
+        } // FOR
+        m_queueTime.appendTime(start, ProfileMeasurement.getTime(), parameters.size());
+        return true;
+    }
+    
+    /**
+     * Set the procId and base partition for the given invocation if we have a catalog
+     * or were given hints. Returns the id of the site that the invocation should be sent to.
+     * If the site is not known, then the return value will be null.
+     * @param invocation
+     * @param hints
+     * @return
+     */
+    private Integer prepareInvocation(StoredProcedureInvocation invocation, StoredProcedureInvocationHints hints) {
+        String procName = invocation.getProcName();
         Integer site_id = null;
         if (m_catalog != null) {
             Procedure catalog_proc = m_catalogContext.procedures.getIgnoreCase(procName);
@@ -327,7 +435,7 @@ final class ClientImpl implements Client {
                     try {
                         int partition = m_pEstimator.getBasePartition(invocation);
                         if (partition != HStoreConstants.NULL_PARTITION_ID) {
-                            site_id = m_partitionSiteXref[partition];
+                            site_id = m_distributer.getSiteForPartition(partition);
                             invocation.setBasePartition(partition);
                         }
                     } catch (Exception ex) {
@@ -338,25 +446,9 @@ final class ClientImpl implements Client {
         }
         if (hints != null && hints.basePartition != HStoreConstants.NULL_PARTITION_ID) {
             invocation.setBasePartition(hints.basePartition);
+            site_id = m_distributer.getSiteForPartition(hints.basePartition);
         }
-
-        if (m_blockingQueue) {
-            long start = ProfileMeasurement.getTime();
-            while (!m_distributer.queue(invocation, callback, expectedSerializedSize, true, site_id)) {
-                try {
-                    backpressureBarrier();
-                } catch (InterruptedException e) {
-                    throw new java.io.InterruptedIOException("Interrupted while invoking procedure asynchronously");
-                }
-            }
-            m_queueTime.appendTime(start, ProfileMeasurement.getTime(), 1);
-            return true;
-        } else {
-            long start = ProfileMeasurement.getTime();
-            boolean ret = m_distributer.queue(invocation, callback, expectedSerializedSize, false, site_id);
-            m_queueTime.appendTime(start, ProfileMeasurement.getTime(), 1);
-            return ret;
-        }
+        return (site_id);
     }
 
     public void drain() throws NoConnectionsException, InterruptedException {
@@ -25,6 +25,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -50,6 +51,7 @@ import edu.brown.hstore.HStoreThreadManager;
 import edu.brown.hstore.Hstoreservice.Status;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.statistics.LatencyHistogram;
 import edu.brown.utils.CollectionUtil;
 import edu.brown.utils.StringUtil;
 
@@ -72,6 +74,13 @@ class Distributer {
     
     /** SiteId -> NodeConnection */
     private final Map<Integer, Collection<NodeConnection>> m_connectionSiteXref = new HashMap<Integer, Collection<NodeConnection>>();
+    
+    /**
+     * PartitionId -> SiteId
+     * This is seeded from the catalog (if we have one) and then updated
+     * based on where the cluster tells us that our requests were executed.
+     */
+    private final ConcurrentHashMap<Integer, Integer> m_partitionSiteXref = new ConcurrentHashMap<Integer, Integer>();
 
     private final ArrayList<ClientStatusListener> m_listeners = new ArrayList<ClientStatusListener>();
 
@@ -101,6 +110,10 @@ class Distributer {
     private final ClientStatsLoader m_statsLoader;
     private String m_buildString;
 
+    /** One hour in milliseconds */
+    private static final long LATENCY_HIGHEST_VALUE = 3600000;
+    private static final int LATENCY_DIGITS = 2;
+    
     private static class ProcedureStats {
         private final String m_name;
 
@@ -134,6 +147,12 @@ class Distributer {
         private int m_lastMaxClusterRoundTripTime = Integer.MIN_VALUE;
         private int m_minClusterRoundTripTime = Integer.MAX_VALUE;
         private int m_lastMinClusterRoundTripTime = Integer.MAX_VALUE;
+        
+        // latency distributions for percentiles
+        private final LatencyHistogram m_roundTripTimeHistogram = new LatencyHistogram(LATENCY_HIGHEST_VALUE, LATENCY_DIGITS);
+        private final LatencyHistogram m_lastRoundTripTimeHistogram = new LatencyHistogram(LATENCY_HIGHEST_VALUE, LATENCY_DIGITS);
+        private final LatencyHistogram m_clusterRoundTripTimeHistogram = new LatencyHistogram(LATENCY_HIGHEST_VALUE, LATENCY_DIGITS);
+        private final LatencyHistogram m_lastClusterRoundTripTimeHistogram = new LatencyHistogram(LATENCY_HIGHEST_VALUE, LATENCY_DIGITS);
 
         public ProcedureStats(String name) {
             m_name = name;
@@ -159,6 +178,10 @@ class Distributer {
             }
             m_roundTripTime += roundTripTime;
             m_clusterRoundTripTime += clusterRoundTripTime;
+            m_roundTripTimeHistogram.record(roundTripTime);
+            m_lastRoundTripTimeHistogram.record(roundTripTime);
+            m_clusterRoundTripTimeHistogram.record(clusterRoundTripTime);
+            m_lastClusterRoundTripTimeHistogram.record(clusterRoundTripTime);
             m_restartCounter += restartCounter;
 
             // calculate the latency buckets to increment and increment.
@@ -235,6 +258,26 @@ class Distributer {
             m_connection.writeStream().enqueue(c);
         }
 
+        public void createWork(long now, List<StoredProcedureInvocation> invocations, BBContainer c, ProcedureCallback callback) {
+            synchronized (this) {
+                if (!m_isConnected) {
+                    final ClientResponse r = new ClientResponseImpl(-1, -1, -1, Status.ABORT_CONNECTION_LOST,
+                            new VoltTable[0], "Connection to database host (" + m_hostname +
+                            ") was lost before a response was received");
+                    for (int i = 0, cnt = invocations.size(); i < cnt; i++) {
+                        callback.clientCallback(r);
+                    } // FOR
+                    c.discard();
+                    return;
+                }
+                for (StoredProcedureInvocation invocation : invocations) {
+                    m_callbacks.put(invocation.getClientHandle(), new CallbackValues(now, callback, invocation.getProcName()));
+                } // FOR
+                m_callbacksToInvoke.addAndGet(invocations.size());
+            }
+            m_connection.writeStream().enqueue(c);
+        }
+
         public void createWork(long now, long handle, String name, FastSerializable f, ProcedureCallback callback) {
             synchronized (this) {
                 if (!m_isConnected) {
@@ -267,6 +310,16 @@ class Distributer {
 
         @Override
         public void handleMessage(ByteBuffer buf, Connection c) {
+            if (ClientResponseImpl.isBatch(buf)) {
+                for (ByteBuffer entry : ClientResponseImpl.getBatch(buf)) {
+                    this.handleResponse(entry);
+                } // FOR
+            } else {
+                this.handleResponse(buf);
+            }
+        }
+        
+        private void handleResponse(ByteBuffer buf) {
             ClientResponseImpl response = null;
             FastDeserializer fds = new FastDeserializer(buf);
             try {
@@ -279,6 +332,7 @@ class Distributer {
                 LOG.warn("Got back null ClientResponse. Ignoring...");
                 return;
             }
+            updateRouting(m_hostId, response);
             
             final Long clientHandle = new Long(response.getClientHandle());
             final Status status = response.getStatus();
@@ -614,18 +668,20 @@ class Distributer {
         m_buildString = (String)connectionStuff[2];
         NodeConnection cxn = new NodeConnection(numbers);
         m_connections.add(cxn);
-        if (site_id != null) {
-            if (debug.val)
-                LOG.debug(String.format("Created connection for Site %s: %s", HStoreThreadManager.formatSiteName(site_id), cxn));
-            synchronized (m_connectionSiteXref) {
-                Collection<NodeConnection> nc = m_connectionSiteXref.get(site_id);
-                if (nc == null) {
-                    nc = new ArrayList<NodeConnection>();
-                    m_connectionSiteXref.put(site_id, nc);
-                }
-                nc.add(cxn);    
-            } // SYNCH
-        }
+        
+        // The HStoreSite sends us back its SiteId when we authenticate,
+        // so we always know which site this connection goes to
+        if (site_id == null) site_id = cxn.m_hostId;
+        if (debug.val)
+            LOG.debug(String.format("Created connection for Site %s: %s", HStoreThreadManager.formatSiteName(site_id), cxn));
+        synchronized (m_connectionSiteXref) {
+            Collection<NodeConnection> nc = m_connectionSiteXref.get(site_id);
+            if (nc == null) {
+                nc = new ArrayList<NodeConnection>();
+                m_connectionSiteXref.put(site_id, nc);
+            }
+            nc.add(cxn);    
+        } // SYNCH
         
         Connection c = m_network.registerChannel(aChannel, cxn);
         cxn.m_hostname = c.getHostname();
@@ -637,6 +693,56 @@ class Distributer {
 
 //    private HashMap<String, Long> reportedSizes = new HashMap<String, Long>();
 
+    // ----------------------------------------------------------------------------
+    // ROUTING
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * Seed the PartitionId->SiteId routing table
+     * @param partitionSiteXref
+     */
+    void setPartitionSiteXref(int partitionSiteXref[]) {
+        for (int partition = 0; partition < partitionSiteXref.length; partition++) {
+            m_partitionSiteXref.put(partition, partitionSiteXref[partition]);
+        } // FOR
+    }
+    
+    /**
+     * Returns the SiteId that we believe has the given partition.
+     * If we don't know where the partition is, then the return value will be null.
+     * @param partition
+     * @return
+     */
+    Integer getSiteForPartition(int partition) {
+        return (m_partitionSiteXref.get(partition));
+    }
+    
+    /**
+     * Update the routing table based on the ClientResponse that we got back from 
+     * a connection to the given site. If the txn was redirected, then the response
+     * tells us which site it was executed at. Otherwise, the txn was executed at
+     * the site on the other end of the connection.
+     * @param cxn_site_id The site that the response's connection goes to
+     * @param response
+     */
+    void updateRouting(int cxn_site_id, ClientResponseImpl response) {
+        int partition = response.getBasePartition();
+        Status status = response.getStatus();
+        if (partition < 0 || (status != Status.OK && status != Status.ABORT_USER)) {
+            return;
+        }
+        Integer site_id = Integer.valueOf(response.isRedirected() ? response.getRedirectSite() : cxn_site_id);
+        if (response.isRedirected() && debug.val)
+            LOG.debug(String.format("Txn #%d for partition %d was redirected from %s to %s",
+                      response.getTransactionId(), partition,
+                      HStoreThreadManager.formatSiteName(cxn_site_id), HStoreThreadManager.formatSiteName(site_id)));
+        Integer orig_site = m_partitionSiteXref.put(partition, site_id);
+        if (debug.val && site_id.equals(orig_site) == false)
+            LOG.debug(String.format("Updated route for partition %d from %s to %s [txn=#%d]",
+                      partition, HStoreThreadManager.formatSiteName(orig_site),
+                      HStoreThreadManager.formatSiteName(site_id), response.getTransactionId()));
+    }
+
     /**
      * Queue invocation on first node connection without backpressure. If there is none with without backpressure
      * then return false and don't queue the invocation
@@ -663,9 +769,112 @@ class Distributer {
             final boolean ignoreBackpressure,
             final Integer site_id)
         throws NoConnectionsException {
+        long now = System.currentTimeMillis();
+        if (trace.val) LOG.trace(invocation.toString() + " ::: ignoreBackpressure->" + ignoreBackpressure);
+        NodeConnection cxn = this.getConnection(ignoreBackpressure, site_id);
+        boolean backpressure = (cxn == null);
+        
+        /*
+         * Do the heavy weight serialization outside the synchronized block.
+         * createWork synchronizes on an individual connection which allows for more concurrency
+         */
+        if (cxn != null) {
+            if (debug.val) 
+                LOG.debug(String.format("Queuing new %s Request at %s [clientHandle=%d, siteId=%s]",
+                          invocation.getProcName(), cxn, invocation.getClientHandle(), site_id));
+            
+            if (m_useMultipleThreads) {
+                cxn.createWork(now, invocation.getClientHandle(), invocation.getProcName(), invocation, cb);
+            } else {
+                
+                final FastSerializer fs = new FastSerializer(m_pool, expectedSerializedSize);
+//                FastSerializer fs = this.getSerializer();
+//                fs.reset();
+                BBContainer c = null;
+                try {
+                    c = fs.writeObjectForMessaging(invocation);
+                } catch (IOException e) {
+                    fs.getBBContainer().discard();
+                    throw new RuntimeException(e);
+                }
+                cxn.createWork(now, invocation.getClientHandle(), invocation.getProcName(), c, cb);
+            }
+//            final String invocationName = invocation.getProcName();
+//            if (reportedSizes.containsKey(invocationName)) {
+//                if (reportedSizes.get(invocationName) < c.b.remaining()) {
+//                    System.err.println("Queued invocation for " + invocationName + " is " + c.b.remaining() + " which is greater then last value of " + reportedSizes.get(invocationName));
+//                    reportedSizes.put(invocationName, (long)c.b.remaining());
+//                }
+//            } else {
+//                reportedSizes.put(invocationName, (long)c.b.remaining());
+//                System.err.println("Queued invocation for " + invocationName + " is " + c.b.remaining());
+//            }
+
+
+        }
+
+        return !backpressure;
+    }
+    
+    /**
+     * Queue a batch of invocations that should all be sent to the same site in a single message.
+     * The callback will be invoked separately for each invocation's ClientResponse.
+     * Returns false if the batch was not queued due to backpressure
+     * @param invocations
+     * @param cb
+     * @param expectedSerializedSize The expected size of each invocation
+     * @param ignoreBackpressure
+     * @param site_id
+     * @return
+     * @throws NoConnectionsException
+     */
+    boolean queueBatch(
+            List<StoredProcedureInvocation> invocations,
+            ProcedureCallback cb,
+            int expectedSerializedSize,
+            final boolean ignoreBackpressure,
+            final Integer site_id)
+        throws NoConnectionsException {
+        long now = System.currentTimeMillis();
+        NodeConnection cxn = this.getConnection(ignoreBackpressure, site_id);
+        if (cxn == null) return (false);
+        
+        if (debug.val) 
+            LOG.debug(String.format("Queuing batch of %d requests at %s [siteId=%s]",
+                      invocations.size(), cxn, site_id));
+        
+        final FastSerializer fs = new FastSerializer(m_pool, 4 + 6 + (expectedSerializedSize * invocations.size()));
+        BBContainer c = null;
+        try {
+            fs.writeInt(0);
+            StoredProcedureInvocation.writeBatchHeader(fs, invocations.size());
+            for (StoredProcedureInvocation invocation : invocations) {
+                StoredProcedureInvocation.writeBatchEntry(fs, invocation);
+            } // FOR
+            fs.writeIntAt(0, fs.getPosition() - 4);
+            c = fs.getBBContainer();
+        } catch (IOException e) {
+            fs.getBBContainer().discard();
+            throw new RuntimeException(e);
+        }
+        cxn.createWork(now, invocations, c, cb);
+        return (true);
+    }
+    
+    /**
+     * Get the connection that we should send the next request on. If we were given a site_id,
+     * then we will try to use a direct connection to that site. Otherwise we will use the
+     * next connection in our round-robin order that does not have backpressure.
+     * Returns null if all of the connections have backpressure.
+     * @param ignoreBackpressure
+     * @param site_id
+     * @return
+     * @throws NoConnectionsException
+     */
+    private NodeConnection getConnection(final boolean ignoreBackpressure, final Integer site_id)
+        throws NoConnectionsException {
         NodeConnection cxn = null;
         boolean backpressure = true;
-        long now = System.currentTimeMillis();
         
         final int totalConnections = m_connections.size();
 
@@ -693,8 +902,6 @@ class Distributer {
 //            }
         }
         
-        if (trace.val) LOG.trace(invocation.toString() + " ::: ignoreBackpressure->" + ignoreBackpressure);
-        
         // If we didn't get a direct site connection then we'll grab the next 
         // connection in our round-robin look up
         // Synchronization is necessary to ensure that m_connections is not modified
@@ -729,46 +936,7 @@ class Distributer {
             }
         }
         
-        /*
-         * Do the heavy weight serialization outside the synchronized block.
-         * createWork synchronizes on an individual connection which allows for more concurrency
-         */
-        if (cxn != null) {
-            if (debug.val) 
-                LOG.debug(String.format("Queuing new %s Request at %s [clientHandle=%d, siteId=%s]",
-                          invocation.getProcName(), cxn, invocation.getClientHandle(), site_id));
-            
-            if (m_useMultipleThreads) {
-                cxn.createWork(now, invocation.getClientHandle(), invocation.getProcName(), invocation, cb);
-            } else {
-                
-                final FastSerializer fs = new FastSerializer(m_pool, expectedSerializedSize);
-//                FastSerializer fs = this.getSerializer();
-//                fs.reset();
-                BBContainer c = null;
-                try {
-                    c = fs.writeObjectForMessaging(invocation);
-                } catch (IOException e) {
-                    fs.getBBContainer().discard();
-                    throw new RuntimeException(e);
-                }
-                cxn.createWork(now, invocation.getClientHandle(), invocation.getProcName(), c, cb);
-            }
-//            final String invocationName = invocation.getProcName();
-//            if (reportedSizes.containsKey(invocationName)) {
-//                if (reportedSizes.get(invocationName) < c.b.remaining()) {
-//                    System.err.println("Queued invocation for " + invocationName + " is " + c.b.remaining() + " which is greater then last value of " + reportedSizes.get(invocationName));
-//                    reportedSizes.put(invocationName, (long)c.b.remaining());
-//                }
-//            } else {
-//                reportedSizes.put(invocationName, (long)c.b.remaining());
-//                System.err.println("Queued invocation for " + invocationName + " is " + c.b.remaining());
-//            }
-
-
-        }
-
-        return !backpressure;
+        return (cxn);
     }
     
     /**
@@ -867,7 +1035,13 @@ class Distributer {
             new ColumnInfo( "INVOCATIONS_COMPLETED", VoltType.BIGINT),
             new ColumnInfo( "INVOCATIONS_ABORTED", VoltType.BIGINT),
             new ColumnInfo( "INVOCATIONS_FAILED", VoltType.BIGINT),
-            new ColumnInfo( "TIMES_RESTARTED", VoltType.BIGINT)
+            new ColumnInfo( "TIMES_RESTARTED", VoltType.BIGINT),
+            new ColumnInfo( "ROUNDTRIPTIME_P50", VoltType.INTEGER),
+            new ColumnInfo( "ROUNDTRIPTIME_P99", VoltType.INTEGER),
+            new ColumnInfo( "ROUNDTRIPTIME_P999", VoltType.INTEGER),
+            new ColumnInfo( "CLUSTER_ROUNDTRIPTIME_P50", VoltType.INTEGER),
+            new ColumnInfo( "CLUSTER_ROUNDTRIPTIME_P99", VoltType.INTEGER),
+            new ColumnInfo( "CLUSTER_ROUNDTRIPTIME_P999", VoltType.INTEGER)
     };
 
     @SuppressWarnings("unused")
@@ -899,6 +1073,8 @@ class Distributer {
                         int clusterMinRoundTripTime = stats.m_minClusterRoundTripTime;
                         int clusterMaxRoundTripTime = stats.m_maxClusterRoundTripTime;
                         long restartCounter = stats.m_restartCounter;
+                        LatencyHistogram roundTripTimeHistogram = stats.m_roundTripTimeHistogram;
+                        LatencyHistogram clusterRoundTripTimeHistogram = stats.m_clusterRoundTripTimeHistogram;
 
                         if (interval) {
                             invocationsCompleted = stats.m_invocationsCompleted - stats.m_lastInvocationsCompleted;
@@ -931,6 +1107,12 @@ class Distributer {
 
                             stats.m_lastMaxClusterRoundTripTime = Integer.MIN_VALUE;
                             stats.m_lastMinClusterRoundTripTime = Integer.MAX_VALUE;
+                            
+                            roundTripTimeHistogram = new LatencyHistogram(stats.m_lastRoundTripTimeHistogram);
+                            stats.m_lastRoundTripTimeHistogram.clear();
+                            
+                            clusterRoundTripTimeHistogram = new LatencyHistogram(stats.m_lastClusterRoundTripTimeHistogram);
+                            stats.m_lastClusterRoundTripTimeHistogram.clear();
                         }
                         totalInvocations += invocationsCompleted;
                         totalAbortedInvocations += invocationAborts;
@@ -959,7 +1141,13 @@ class Distributer {
                                 invocationsCompleted,
                                 invocationAborts,
                                 invocationErrors,
-                                restartCounter
+                                restartCounter,
+                                (int)roundTripTimeHistogram.getValueAtPercentile(50d),
+                                (int)roundTripTimeHistogram.getValueAtPercentile(99d),
+                                (int)roundTripTimeHistogram.getValueAtPercentile(99.9d),
+                                (int)clusterRoundTripTimeHistogram.getValueAtPercentile(50d),
+                                (int)clusterRoundTripTimeHistogram.getValueAtPercentile(99d),
+                                (int)clusterRoundTripTimeHistogram.getValueAtPercentile(99.9d)
                                 );
                     }
                 }
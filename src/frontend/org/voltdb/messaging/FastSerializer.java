@@ -21,6 +21,7 @@ import java.io.DataOutput;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.math.BigDecimal;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
@@ -48,6 +49,8 @@ public class FastSerializer implements DataOutput {
     private final BufferGrowCallback callback;
     private final DBBPool m_pool;
     private final boolean isDirect;
+    /** If true, then we are writing into a buffer that we are not allowed to grow */
+    private final boolean isFixed;
 
     /**
      * Create a <code>FastSerializer</code> that is BigEndian and uses a HeapByteBuffer
@@ -113,8 +116,24 @@ public class FastSerializer implements DataOutput {
            assert(pool == null);
         }
         this.callback = callback;
+        this.isFixed = false;
         assert(buffer.b.order() == ByteOrder.BIG_ENDIAN);
     }
+
+    /**
+     * Create a FastSerializer that writes directly into the given buffer starting
+     * at its current position. The buffer will never be grown or replaced, so
+     * writing past its limit will throw a BufferOverflowException.
+     * @param buffer
+     */
+    public FastSerializer(ByteBuffer buffer) {
+        assert(buffer.order() == ByteOrder.BIG_ENDIAN);
+        this.buffer = DBBPool.wrapBB(buffer);
+        this.isDirect = buffer.isDirect();
+        this.isFixed = true;
+        this.m_pool = null;
+        this.callback = null;
+    }
     
     public void reset() {
         if (m_pool != null) {
@@ -138,6 +157,8 @@ public class FastSerializer implements DataOutput {
     /** Resizes the internal byte buffer with a simple doubling policy, if needed. */
     private final void growIfNeeded(int minimumDesired) {
         if (buffer.b.remaining() < minimumDesired) {
+            if (isFixed) throw new BufferOverflowException();
+
             // Compute the size of the new buffer
             int newCapacity = buffer.b.capacity();
             int newRemaining = newCapacity - buffer.b.position();
@@ -543,6 +564,24 @@ public class FastSerializer implements DataOutput {
         throw new UnsupportedOperationException("FastSerializer.writeChars() not supported.");
     }
 
+    /**
+     * Overwrite the int at the given position in the underlying buffer. This is used
+     * to fill in a length prefix once the data that follows it has been written.
+     */
+    public void writeIntAt(int position, int v) {
+        assert(position + 4 <= buffer.b.position());
+        buffer.b.putInt(position, v);
+    }
+
+    /**
+     * Move the position of the underlying buffer back to the given position.
+     * Anything that was written after that position will be overwritten.
+     */
+    public void setPosition(int position) {
+        assert(position <= buffer.b.position());
+        buffer.b.position(position);
+    }
+
     /**
      * return Current position within the underlying buffer, for self-comparison only.
      */
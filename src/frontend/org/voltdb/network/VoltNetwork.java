@@ -74,10 +74,12 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.log4j.Logger;
 import org.voltdb.utils.DBBPool;
+import org.voltdb.utils.EstTime;
 import org.voltdb.utils.EstTimeUpdater;
 import org.voltdb.utils.Pair;
 import org.voltdb.utils.VoltLoggerFactory;
@@ -107,6 +109,16 @@ import edu.brown.hstore.HStoreThreadManager;
     private final ArrayList<WeakReference<Thread>> m_networkThreads = new ArrayList<WeakReference<Thread>>();
     private final ArrayList<DBBPool> m_poolsToClearOnShutdown = new ArrayList<DBBPool>();
 
+    /**
+     * If this VoltNetwork was created with more than one selector, then these are
+     * the VoltNetworks that each own a Selector and the subset of the connections
+     * that were registered with it. A connection stays with the same selector
+     * thread for its entire lifetime. Will be null in single selector mode.
+     */
+    private final VoltNetwork m_selectorNetworks[];
+    private final AtomicInteger m_nextSelector = new AtomicInteger(0);
+    private final HStoreSite m_hstoreSite;
+
     /**
      * Synchronizes registration and unregistration of channels
      */
@@ -125,6 +137,8 @@ import edu.brown.hstore.HStoreThreadManager;
         m_selector = selector;
         m_useBlockingSelect = true;
         m_useExecutorService = false;
+        m_selectorNetworks = null;
+        m_hstoreSite = null;
     }
 
     public VoltNetwork() {
@@ -135,6 +149,18 @@ import edu.brown.hstore.HStoreThreadManager;
         this(true, true, null, hstore_site);
     }
     
+    /**
+     * Create a VoltNetwork for the given HStoreSite that spreads its connections
+     * over the given number of selector threads. Each selector thread reads from and
+     * writes to its connections inline, so there is no hand-off to an executor.
+     * If numSelectors is one, then this is the same as VoltNetwork(HStoreSite)
+     * @param hstore_site
+     * @param numSelectors
+     */
+    public VoltNetwork(HStoreSite hstore_site, int numSelectors) {
+        this(numSelectors <= 1, true, null, hstore_site, numSelectors);
+    }
+    
     public VoltNetwork(boolean useExecutorService, boolean blockingSelect, Integer threads) {
         this(useExecutorService, blockingSelect, threads, null);
     }
@@ -145,9 +171,14 @@ import edu.brown.hstore.HStoreThreadManager;
      * and runOnce should be called periodically
      **/
     public VoltNetwork(boolean useExecutorService, boolean blockingSelect, Integer threads, final HStoreSite hstore_site) {
+        this(useExecutorService, blockingSelect, threads, hstore_site, 1);
+    }
+
+    private VoltNetwork(boolean useExecutorService, boolean blockingSelect, Integer threads, final HStoreSite hstore_site, int numSelectors) {
         m_thread = new Thread(this, "Volt Network");
         m_thread.setDaemon(true);
         m_useBlockingSelect = blockingSelect;
+        m_hstoreSite = hstore_site;
 
         try {
             m_selector = Selector.open();
@@ -156,6 +187,16 @@ import edu.brown.hstore.HStoreThreadManager;
             throw new RuntimeException(ex);
         }
 
+        if (numSelectors > 1) {
+            m_selectorNetworks = new VoltNetwork[numSelectors];
+            for (int ii = 0; ii < numSelectors; ii++) {
+                m_selectorNetworks[ii] = new VoltNetwork(false, blockingSelect, null, hstore_site, 1);
+            }
+            m_logger.debug("Network Selector Threads: " + numSelectors);
+        } else {
+            m_selectorNetworks = null;
+        }
+
         final int availableProcessors = Runtime.getRuntime().availableProcessors();
         //Single thread is plenty for 4 cores.
         if (availableProcessors <= 4) {
@@ -312,6 +353,11 @@ import edu.brown.hstore.HStoreThreadManager;
 
     /** Instruct the network to stop after the current loop */
     public void shutdown() throws InterruptedException {
+        if (m_selectorNetworks != null) {
+            for (VoltNetwork network : m_selectorNetworks) {
+                network.shutdown();
+            }
+        }
         if (m_thread != null) {
             synchronized (this) {
                 m_shouldStop = true;
@@ -338,6 +384,12 @@ import edu.brown.hstore.HStoreThreadManager;
             SocketChannel channel,
             InputHandler handler,
             int interestOps) throws IOException {
+        if (m_selectorNetworks != null) {
+            // Assign the connection to the next selector in round-robin order.
+            // The VoltPort will only ever talk to that VoltNetwork from now on.
+            int idx = (m_nextSelector.getAndIncrement() & Integer.MAX_VALUE) % m_selectorNetworks.length;
+            return m_selectorNetworks[idx].registerChannel(channel, handler, interestOps);
+        }
         channel.configureBlocking (false);
         channel.socket().setKeepAlive(true);
 
@@ -405,6 +457,10 @@ import edu.brown.hstore.HStoreThreadManager;
 
     @Override
     public void run() {
+        if (m_selectorNetworks != null) {
+            runSelectors();
+            return;
+        }
         try {
             while (m_shouldStop == false) {
                 try {
@@ -418,6 +474,10 @@ import edu.brown.hstore.HStoreThreadManager;
                         installInterests();
                         invokeCallbacks();
                         EstTimeUpdater.update(System.currentTimeMillis());
+                        if (m_useExecutorService == false) {
+                            // Give back the network buffers that we haven't needed in a while
+                            VoltPort.m_pool.get().trim(EstTime.currentTimeMillis());
+                        }
                     }
                 } catch (Exception ex) {
                     m_logger.error(null, ex);
@@ -428,6 +488,47 @@ import edu.brown.hstore.HStoreThreadManager;
         }
     }
 
+    /**
+     * Start a thread for each of our selectors and then wait for all of them to stop.
+     * The first selector will run in the calling thread.
+     */
+    private void runSelectors() {
+        final Thread threads[] = new Thread[m_selectorNetworks.length];
+        for (int ii = 1; ii < m_selectorNetworks.length; ii++) {
+            final VoltNetwork network = m_selectorNetworks[ii];
+            final String threadName = String.format("%s-%02d", HStoreConstants.THREAD_NAME_VOLTNETWORK, ii);
+            threads[ii] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    // Pin this thread using the HStoreThreadManager if we have one
+                    if (m_hstoreSite != null) {
+                        m_hstoreSite.getThreadManager().registerProcessingThread();
+                    }
+                    network.run();
+                }
+            });
+            threads[ii].setName(m_hstoreSite != null ?
+                                HStoreThreadManager.getThreadName(m_hstoreSite, threadName) : threadName);
+            threads[ii].setDaemon(true);
+            threads[ii].setUncaughtExceptionHandler(Thread.currentThread().getUncaughtExceptionHandler());
+            synchronized (m_networkThreads) {
+                m_networkThreads.add(new WeakReference<Thread>(threads[ii]));
+            }
+            threads[ii].start();
+        }
+
+        try {
+            // The first selector runs in this thread
+            if (m_hstoreSite != null) {
+                m_hstoreSite.getThreadManager().registerProcessingThread();
+            }
+            m_selectorNetworks[0].run();
+        } finally {
+            // Our p_shutdown() will wait for the other selector threads
+            p_shutdown();
+        }
+    }
+
     private synchronized void p_shutdown() {
         //Synchronized so the interruption won't interrupt the network thread
         //while it is waiting for the executor service to shutdown
@@ -600,7 +701,17 @@ import edu.brown.hstore.HStoreThreadManager;
         selectedKeys.clear();
     }
 
+    /**
+     * Returns the IO stats for each connection. The GLOBAL totals are stored at id -1.
+     * If we have multiple selectors, then the totals for each selector are stored at
+     * ids -2, -3, ... with the name "SELECTOR-XX".
+     * @param interval
+     * @return
+     */
     public Map<Long, Pair<String, long[]>> getIOStats(boolean interval) {
+        if (m_selectorNetworks != null) {
+            return getSelectorIOStats(interval);
+        }
         final HashMap<Long, Pair<String, long[]>> retval =
             new HashMap<Long, Pair<String, long[]>>();
         long totalRead = 0;
@@ -639,6 +750,25 @@ import edu.brown.hstore.HStoreThreadManager;
         return retval;
     }
 
+    private Map<Long, Pair<String, long[]>> getSelectorIOStats(boolean interval) {
+        final HashMap<Long, Pair<String, long[]>> retval =
+            new HashMap<Long, Pair<String, long[]>>();
+        final long totals[] = new long[4];
+        for (int ii = 0; ii < m_selectorNetworks.length; ii++) {
+            final Map<Long, Pair<String, long[]>> stats = m_selectorNetworks[ii].getIOStats(interval);
+            final Pair<String, long[]> global = stats.remove(-1L);
+            for (int jj = 0; jj < totals.length; jj++) {
+                totals[jj] += global.getSecond()[jj];
+            }
+            retval.putAll(stats);
+            retval.put(
+                    -2L - ii,
+                    Pair.of(String.format("SELECTOR-%02d", ii), global.getSecond()));
+        }
+        retval.put(-1L, Pair.of("GLOBAL", totals));
+        return retval;
+    }
+
     public ArrayList<Long> getThreadIds() {
         ArrayList<Long> ids = new ArrayList<Long>();
         if (m_thread != null) {
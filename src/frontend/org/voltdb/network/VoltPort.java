@@ -29,6 +29,7 @@ import java.util.ArrayDeque;
 import org.apache.log4j.Logger;
 import org.voltdb.utils.DBBPool;
 import org.voltdb.utils.DBBPool.BBContainer;
+import org.voltdb.utils.DirectBufferSlabPool;
 
 /** Encapsulates a socket registration for a VoltNetwork */
 public class VoltPort implements Callable<VoltPort>, Connection
@@ -79,11 +80,11 @@ public class VoltPort implements Callable<VoltPort>, Connection
     /**
      * Package private so that the thread factory in VoltNetwork can clear the pool when the threads exit.
      */
-    static final ThreadLocal<DBBPool> m_pool =
-        new ThreadLocal<DBBPool>() {
+    static final ThreadLocal<DirectBufferSlabPool> m_pool =
+        new ThreadLocal<DirectBufferSlabPool>() {
             @Override
-            protected DBBPool initialValue() {
-                return new DBBPool();
+            protected DirectBufferSlabPool initialValue() {
+                return new DirectBufferSlabPool();
             }
     };
 
@@ -59,6 +59,10 @@ public class SysProcFragmentId {
     public static final int PF_plannerProfilerAggregator = 37;
     public static final int PF_anticacheProfilerData = 38;
     public static final int PF_anticacheProfilerAggregator = 39;
+    public static final int PF_commandLogData = 40;
+    public static final int PF_commandLogAggregator = 41;
+    public static final int PF_markovLearnerData = 42;
+    public static final int PF_markovLearnerAggregator = 43;
 
     // @Shutdown
     public static final int PF_shutdownCommand = 50;
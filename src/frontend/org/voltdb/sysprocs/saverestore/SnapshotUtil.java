@@ -53,8 +53,10 @@ public class SnapshotUtil {
 
     /**
      * Create a digest for a snapshot containing the time of the snapshot and the list of tables included.
-     * The first item in the comma separated list is the time in milliseconds as a string.
+     * The first item in the comma separated list is the time in milliseconds as a string, followed
+     * by a colon and the id of the txn that took the snapshot.
      * @param snapshotTime
+     * @param txnId
      * @param path
      * @param nonce
      * @param tables
@@ -63,6 +65,7 @@ public class SnapshotUtil {
     public static void
         recordSnapshotTableList(
             long snapshotTime,
+            long txnId,
             String path,
             String nonce,
             List<Table> tables) throws IOException {
@@ -75,6 +78,8 @@ public class SnapshotUtil {
         FileOutputStream fos = new FileOutputStream(f);
         StringWriter sw = new StringWriter();
         sw.append(Long.toString(snapshotTime));
+        sw.append(':');
+        sw.append(Long.toString(txnId));
         if (!tables.isEmpty()) {
             sw.append(',');
         }
@@ -114,10 +119,23 @@ public class SnapshotUtil {
         String tableNames[] = tableList.split(",");
         String actualTableNames[] = new String[tableNames.length - 1];
         System.arraycopy( tableNames, 1, actualTableNames, 0, tableNames.length - 1);
-        return Pair.of(Long.valueOf(tableNames[0]),
+        return Pair.of(Long.valueOf(tableNames[0].split(":")[0]),
                        java.util.Arrays.asList(actualTableNames));
     }
 
+    /**
+     * Retrieve the id of the txn that took the snapshot from a digest.
+     * Returns -1 if the digest was written without the txn id.
+     * @param f
+     * @throws Exception
+     */
+    public static long retrieveSnapshotTxnId(File f) throws Exception {
+        String tableList = CRCCheck(f);
+        String header[] = tableList.split(",")[0].split(":");
+        if (header.length < 2) return (-1);
+        return Long.parseLong(header[1]);
+    }
+
     /**
      * Check if the CRC of the snapshot file matches the digest.
      * @param f The snapshot file object
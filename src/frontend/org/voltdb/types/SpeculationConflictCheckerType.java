@@ -33,7 +33,14 @@ public enum SpeculationConflictCheckerType {
     /**
      * Optimistic Concurrency Control
      */
-    OPTIMISTIC
+    OPTIMISTIC,
+    /**
+     * Key-level Conflict Detection
+     * Use the KeyConflictChecker to compare the primary key values that queued transactions
+     * will access against the keys that the current distributed transaction has already
+     * read and written. This requires the ParameterMappingsSet for the catalog.
+     */
+    KEY
     ;
 
     private static final Map<String, SpeculationConflictCheckerType> name_lookup = new HashMap<String, SpeculationConflictCheckerType>();
@@ -34,7 +34,7 @@ import edu.brown.hstore.HStore;
  * Buffers are stored in Arenas that are powers of 2. The smallest arena is 16 bytes.
  * Arenas will shrink every 60 seconds if some of the memory isn't being used.
  */
-public final class DBBPool {
+public class DBBPool {
 
     /**
      * An Arena that maintains allocated memory for a specific size of buffer.
@@ -590,6 +590,23 @@ public final class DBBPool {
         m_arenas = initDBBPool();
     }
 
+    /**
+     * Constructor for subclasses that manage their own buffers and therefore
+     * do not need any {@link Arena}s.
+     * @param loadNativeLib
+     */
+    protected DBBPool(boolean loadNativeLib) {
+        if (loadNativeLib) {
+            foundNativeSupport = org.voltdb.EELibraryLoader.loadExecutionEngineLibrary(false);
+        } else {
+            foundNativeSupport = false;
+        }
+        m_allocateOnHeap = false;
+        m_maxArenaSizes = new int[0];
+        m_arenas = new Arena[0];
+        poolLocation.fillInStackTrace();
+    }
+
     /**
      * Acquire a byte buffer from the pool that has at least <tt>minSize</tt> capacity.
      * If the size is greater then the size of this pools allocation a dummy allocation
@@ -647,6 +664,15 @@ public final class DBBPool {
         return null;
     }
 
+    /**
+     * Record that a subclass allocated (or released, if negative) direct memory
+     * outside of the {@link Arena}s
+     * @param delta Number of bytes
+     */
+    protected static final void trackBytesAllocatedGlobally(long delta) {
+        bytesAllocatedGlobally.getAndAdd(delta);
+    }
+
     public long bytesAllocatedGlobally() {
         return bytesAllocatedGlobally.longValue();
     }
@@ -0,0 +1,374 @@
+package org.voltdb.utils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.apache.log4j.Logger;
+
+import edu.brown.hstore.HStore;
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+
+/**
+ * A DBBPool that hands out slices of large DirectByteBuffers (slabs) that are
+ * grouped by power-of-two size classes. Unlike the regular DBBPool, the largest size
+ * class is not limited to DBBPool.MAX_ALLOCATION_SIZE, so large network messages and
+ * serialized responses do not fall back to short-lived HeapByteBuffers.
+ * <P>
+ * A pool is meant to be owned by a single thread (see VoltPort.m_pool), so the lock
+ * is only contended when a buffer is discarded by a different thread.
+ * Slabs that have not been used in a while are released back to the JVM one at a
+ * time per size class so that the pool shrinks gradually after a burst.
+ * The pool keeps track of the high-water marks for the number of bytes that it has
+ * allocated and loaned out.
+ */
+public class DirectBufferSlabPool extends DBBPool {
+    private static final Logger LOG = Logger.getLogger(DirectBufferSlabPool.class);
+    private static final LoggerBoolean debug = new LoggerBoolean();
+    static {
+        LoggerUtil.attachObserver(LOG, debug);
+    }
+
+    /**
+     * The smallest size class. Must be a power of 2.
+     */
+    public static final int MIN_ALLOCATION_SIZE = 64;
+
+    /**
+     * The default largest size class. Must be a power of 2.
+     * Anything larger than this is allocated on the heap.
+     */
+    public static final int DEFAULT_MAX_ALLOCATION_SIZE = 8388608;
+
+    /**
+     * The default size of a slab. Size classes that are larger than this
+     * get one buffer per slab.
+     */
+    public static final int DEFAULT_SLAB_SIZE = 262144;
+
+    /**
+     * The default amount of time (in ms) that a slab has to go unused before
+     * we will release it.
+     */
+    public static final long DEFAULT_IDLE_TIME = 5000;
+
+    /**
+     * How often (in ms) we will look for idle slabs to release
+     */
+    private static final long TRIM_INTERVAL = 1000;
+
+    /**
+     * A slice of a Slab that is loaned out by the pool
+     */
+    private final class SlabContainer extends BBContainer {
+        private final Slab slab;
+        private boolean loaned = false;
+
+        private SlabContainer(Slab slab, ByteBuffer b) {
+            super(b, 0);
+            this.slab = slab;
+        }
+
+        @Override
+        public void discard() {
+            DirectBufferSlabPool.this.release(this);
+        }
+    }
+
+    /**
+     * A single DirectByteBuffer that is diced up into equal-sized slices
+     */
+    private final class Slab {
+        private final SizeClass sizeClass;
+        private final ByteBuffer buffer;
+        private final SlabContainer slices[];
+        private int numFree;
+        private long lastUsed;
+
+        private Slab(SizeClass sizeClass, int slabSize) {
+            this.sizeClass = sizeClass;
+            this.buffer = allocateSlab(slabSize);
+            this.slices = new SlabContainer[slabSize / sizeClass.allocationSize];
+            for (int i = 0; i < this.slices.length; i++) {
+                this.buffer.limit(sizeClass.allocationSize * (i + 1));
+                this.buffer.position(sizeClass.allocationSize * i);
+                this.slices[i] = new SlabContainer(this, this.buffer.slice());
+            } // FOR
+            this.buffer.clear();
+            this.numFree = this.slices.length;
+        }
+
+        private boolean isIdle() {
+            return (this.numFree == this.slices.length);
+        }
+    }
+
+    /**
+     * All of the slabs for a single allocation size
+     */
+    private final class SizeClass {
+        private final int allocationSize;
+        private final int slabSize;
+        private final ArrayList<Slab> slabs = new ArrayList<Slab>();
+        /** Slabs with free slices. The most recently used slab is at the front. */
+        private final ArrayDeque<Slab> available = new ArrayDeque<Slab>();
+        private int loaned = 0;
+        private int loanedHighWaterMark = 0;
+
+        private SizeClass(int allocationSize, int slabSize) {
+            this.allocationSize = allocationSize;
+            this.slabSize = Math.max(allocationSize, slabSize);
+        }
+    }
+
+    private final SizeClass sizeClasses[];
+    private final int maxAllocationSize;
+    private final long idleTime;
+
+    private long bytesAllocated = 0;
+    private long bytesAllocatedHighWaterMark = 0;
+    private long bytesLoaned = 0;
+    private long bytesLoanedHighWaterMark = 0;
+    private long slabsReleased = 0;
+    private long heapAllocations = 0;
+    private long lastTrim;
+
+    // ----------------------------------------------------------------------------
+    // INITIALIZATION
+    // ----------------------------------------------------------------------------
+
+    public DirectBufferSlabPool() {
+        this(DEFAULT_MAX_ALLOCATION_SIZE, DEFAULT_SLAB_SIZE, DEFAULT_IDLE_TIME);
+    }
+
+    /**
+     * Constructor
+     * @param maxAllocationSize The largest size class. Must be a power of 2.
+     * @param slabSize The size of the DirectByteBuffers that are diced up for the smaller size classes
+     * @param idleTime How long (in ms) a slab has to go unused before it is released
+     */
+    public DirectBufferSlabPool(int maxAllocationSize, int slabSize, long idleTime) {
+        super(false);
+        if (maxAllocationSize < MIN_ALLOCATION_SIZE || Integer.bitCount(maxAllocationSize) != 1) {
+            throw new IllegalArgumentException("Invalid max allocation size " + maxAllocationSize);
+        }
+        this.maxAllocationSize = maxAllocationSize;
+        this.idleTime = idleTime;
+        this.sizeClasses = new SizeClass[this.getSizeClassIndex(maxAllocationSize) + 1];
+        for (int i = 0; i < this.sizeClasses.length; i++) {
+            this.sizeClasses[i] = new SizeClass(MIN_ALLOCATION_SIZE << i, slabSize);
+        } // FOR
+        this.lastTrim = EstTime.currentTimeMillis();
+    }
+
+    private int getSizeClassIndex(int minSize) {
+        if (minSize <= MIN_ALLOCATION_SIZE) return (0);
+        return (32 - Integer.numberOfLeadingZeros(minSize - 1)) -
+               (32 - Integer.numberOfLeadingZeros(MIN_ALLOCATION_SIZE - 1));
+    }
+
+    private ByteBuffer allocateSlab(int size) {
+        try {
+            ByteBuffer b = ByteBuffer.allocateDirect(size);
+            this.bytesAllocated += size;
+            DBBPool.trackBytesAllocatedGlobally(size);
+            if (this.bytesAllocated > this.bytesAllocatedHighWaterMark) {
+                this.bytesAllocatedHighWaterMark = this.bytesAllocated;
+            }
+            return (b);
+        } catch (OutOfMemoryError ex) {
+            LOG.fatal("Failed to allocate a new slab of " + size + " bytes " +
+                      "[globalAllocated=" + this.bytesAllocatedGlobally() + "]\n" + this, ex);
+            HStore.crashDB();
+        }
+        return (null);
+    }
+
+    // ----------------------------------------------------------------------------
+    // ALLOCATION
+    // ----------------------------------------------------------------------------
+
+    @Override
+    public synchronized BBContainer acquire(final int minSize) {
+        assert(minSize > 0);
+        if (minSize > this.maxAllocationSize) {
+            this.heapAllocations++;
+            return DBBPool.wrapBB(ByteBuffer.allocate(minSize));
+        }
+        final long now = EstTime.currentTimeMillis();
+        this.trim(now);
+
+        final SizeClass sc = this.sizeClasses[this.getSizeClassIndex(minSize)];
+        Slab slab = sc.available.peek();
+        if (slab == null) {
+            slab = new Slab(sc, sc.slabSize);
+            sc.slabs.add(slab);
+            sc.available.push(slab);
+            if (debug.val)
+                LOG.debug(String.format("Allocated new %d byte slab for size class %d [numSlabs=%d]",
+                                        sc.slabSize, sc.allocationSize, sc.slabs.size()));
+        }
+        final SlabContainer c = slab.slices[--slab.numFree];
+        if (slab.numFree == 0) {
+            sc.available.poll();
+        }
+        slab.lastUsed = now;
+        assert(c.loaned == false);
+        c.loaned = true;
+
+        if (++sc.loaned > sc.loanedHighWaterMark) {
+            sc.loanedHighWaterMark = sc.loaned;
+        }
+        this.bytesLoaned += sc.allocationSize;
+        if (this.bytesLoaned > this.bytesLoanedHighWaterMark) {
+            this.bytesLoanedHighWaterMark = this.bytesLoaned;
+        }
+        return (c);
+    }
+
+    private synchronized void release(final SlabContainer c) {
+        if (c.loaned == false) {
+            throw new RuntimeException("Attempted to discard a " + c.b.capacity() + " byte buffer twice");
+        }
+        c.loaned = false;
+        c.b.clear();
+        final Slab slab = c.slab;
+        final SizeClass sc = slab.sizeClass;
+        slab.slices[slab.numFree++] = c;
+        if (slab.numFree == 1) {
+            sc.available.push(slab);
+        }
+        slab.lastUsed = EstTime.currentTimeMillis();
+        sc.loaned--;
+        this.bytesLoaned -= sc.allocationSize;
+    }
+
+    // ----------------------------------------------------------------------------
+    // RELEASING SLABS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Release idle slabs if we have not checked for them recently.
+     * This is invoked automatically by acquire(), but the thread that owns the pool
+     * should also call it when it is otherwise idle.
+     * @param now The current time in ms
+     * @return The number of slabs that were released
+     */
+    public synchronized int trim(long now) {
+        if (now - this.lastTrim < TRIM_INTERVAL) return (0);
+        return (this.releaseIdleSlabs(now));
+    }
+
+    /**
+     * Release at most one idle slab per size class back to the JVM.
+     * A size class that has not been used at all in a while will eventually
+     * give up all of its slabs.
+     * @param now The current time in ms
+     * @return The number of slabs that were released
+     */
+    public synchronized int releaseIdleSlabs(long now) {
+        this.lastTrim = now;
+        int released = 0;
+        for (SizeClass sc : this.sizeClasses) {
+            Iterator<Slab> it = sc.available.descendingIterator();
+            while (it.hasNext()) {
+                Slab slab = it.next();
+                if (slab.isIdle() && now - slab.lastUsed >= this.idleTime) {
+                    it.remove();
+                    this.freeSlab(slab);
+                    released++;
+                    break;
+                }
+            } // WHILE
+        } // FOR
+        this.slabsReleased += released;
+        if (debug.val && released > 0)
+            LOG.debug(String.format("Released %d idle slabs [bytesAllocated=%d]", released, this.bytesAllocated));
+        return (released);
+    }
+
+    private void freeSlab(Slab slab) {
+        slab.sizeClass.slabs.remove(slab);
+        this.bytesAllocated -= slab.buffer.capacity();
+        DBBPool.trackBytesAllocatedGlobally(-slab.buffer.capacity());
+    }
+
+    /**
+     * Release all of the slabs that do not have any buffers loaned out
+     */
+    @Override
+    public synchronized void clear() {
+        for (SizeClass sc : this.sizeClasses) {
+            Iterator<Slab> it = sc.available.iterator();
+            while (it.hasNext()) {
+                Slab slab = it.next();
+                if (slab.isIdle()) {
+                    it.remove();
+                    this.freeSlab(slab);
+                }
+            } // WHILE
+        } // FOR
+        super.clear();
+    }
+
+    // ----------------------------------------------------------------------------
+    // STATISTICS
+    // ----------------------------------------------------------------------------
+
+    @Override
+    public synchronized long bytesAllocatedLocally() {
+        return (this.bytesAllocated);
+    }
+    @Override
+    public synchronized long bytesLoanedLocally() {
+        return (this.bytesLoaned);
+    }
+    public synchronized long getBytesAllocatedHighWaterMark() {
+        return (this.bytesAllocatedHighWaterMark);
+    }
+    public synchronized long getBytesLoanedHighWaterMark() {
+        return (this.bytesLoanedHighWaterMark);
+    }
+    public synchronized long getSlabsReleased() {
+        return (this.slabsReleased);
+    }
+    public synchronized long getHeapAllocations() {
+        return (this.heapAllocations);
+    }
+    public synchronized int getSlabCount() {
+        int ctr = 0;
+        for (SizeClass sc : this.sizeClasses) {
+            ctr += sc.slabs.size();
+        } // FOR
+        return (ctr);
+    }
+
+    /**
+     * Reset the high-water marks to the current amount of memory allocated and loaned out
+     */
+    public synchronized void resetHighWaterMarks() {
+        this.bytesAllocatedHighWaterMark = this.bytesAllocated;
+        this.bytesLoanedHighWaterMark = this.bytesLoaned;
+        for (SizeClass sc : this.sizeClasses) {
+            sc.loanedHighWaterMark = sc.loaned;
+        } // FOR
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%s: allocated=%d [hwm=%d] / loaned=%d [hwm=%d] / released=%d / heap=%d",
+                                this.getClass().getSimpleName(),
+                                this.bytesAllocated, this.bytesAllocatedHighWaterMark,
+                                this.bytesLoaned, this.bytesLoanedHighWaterMark,
+                                this.slabsReleased, this.heapAllocations));
+        for (SizeClass sc : this.sizeClasses) {
+            if (sc.slabs.isEmpty() && sc.loanedHighWaterMark == 0) continue;
+            sb.append(String.format("\n  %8d: slabs=%d / loaned=%d [hwm=%d]",
+                                    sc.allocationSize, sc.slabs.size(), sc.loaned, sc.loanedHighWaterMark));
+        } // FOR
+        return (sb.toString());
+    }
+}
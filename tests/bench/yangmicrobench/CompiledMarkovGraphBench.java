@@ -0,0 +1,125 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.voltdb.catalog.ProcParameter;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+import org.voltdb.catalog.StmtParameter;
+
+import edu.brown.BaseTestCase;
+import edu.brown.benchmark.tm1.procedures.UpdateSubscriberData;
+import edu.brown.hstore.estimators.EstimatorUtil;
+import edu.brown.hstore.estimators.markov.MarkovEstimate;
+import edu.brown.hstore.estimators.markov.MarkovPathEstimator;
+import edu.brown.mappings.ParameterMapping;
+import edu.brown.markov.CompiledMarkovGraph;
+import edu.brown.markov.MarkovGraph;
+import edu.brown.utils.ProjectType;
+import edu.brown.workload.QueryTrace;
+import edu.brown.workload.TransactionTrace;
+
+/**
+ * Compares the latency of estimating a txn's path through a MarkovGraph with
+ * estimating it through the same graph's CompiledMarkovGraph.
+ * We extend BaseTestCase only to get the TM1 catalog for the graph.
+ */
+public class CompiledMarkovGraphBench extends BaseTestCase {
+
+    private static final int NUM_PARTITIONS = 8;
+    private static final int NUM_TXNS = 1000;
+    private static final int NUM_ESTIMATIONS = 200000;
+    private static final int NUM_TRIALS = 3;
+
+    private Procedure catalog_proc;
+    private MarkovGraph markov;
+    private final List<Object[]> txnParams = new ArrayList<Object[]>();
+
+    /**
+     * Build a MarkovGraph with a mix of commit, abort, and multi-partition txns.
+     * This is the same graph that TestCompiledMarkovGraph uses.
+     */
+    private void init() throws Exception {
+        super.setUp(ProjectType.TM1);
+        this.addPartitions(NUM_PARTITIONS);
+        this.catalog_proc = this.getProcedure(UpdateSubscriberData.class);
+        Statement update1 = this.getStatement(this.catalog_proc, "update1");
+        Statement update2 = this.getStatement(this.catalog_proc, "update2");
+
+        // UpdateSubscriberData's S_ID is used in both of its queries
+        ProcParameter proc_param = this.catalog_proc.getParameters().get(0);
+        for (Statement catalog_stmt : new Statement[]{ update1, update2 }) {
+            StmtParameter stmt_param = catalog_stmt.getParameters().get(1);
+            catalogContext.paramMappings.add(new ParameterMapping(catalog_stmt, 0, stmt_param, proc_param, 0, 1.0d));
+        } // FOR
+
+        Random rand = new Random(0);
+        this.markov = new MarkovGraph(this.catalog_proc).initialize();
+        for (int i = 0; i < NUM_TXNS; i++) {
+            long s_id = rand.nextInt(1000);
+            Object params[] = { s_id, 1l, 2l, 3l };
+            TransactionTrace txn_trace = new TransactionTrace(i, this.catalog_proc, params);
+            txn_trace.addQuery(new QueryTrace(update1, new Object[]{ 1l, s_id }, 0));
+            int type = rand.nextInt(10);
+            if (type < 2) {
+                txn_trace.abort();
+            } else {
+                long other_s_id = (type == 9 ? s_id + 1 : s_id);
+                txn_trace.addQuery(new QueryTrace(update2, new Object[]{ 2l, other_s_id, 3l }, 1));
+            }
+            for (QueryTrace query_trace : txn_trace.getQueries()) {
+                query_trace.stop();
+            } // FOR
+            txn_trace.stop();
+            this.markov.processTransaction(txn_trace, p_estimator);
+            this.txnParams.add(params);
+        } // FOR
+        this.markov.calculateProbabilities(catalogContext.getAllPartitionIds());
+    }
+
+    public static void main(String[] args) throws Exception {
+        CompiledMarkovGraphBench bench = new CompiledMarkovGraphBench();
+        bench.init();
+
+        MarkovGraph markov = bench.markov;
+        CompiledMarkovGraph compiled = markov.getCompiledGraph();
+        MarkovPathEstimator pathEstimator = new MarkovPathEstimator(bench.catalogContext, bench.p_estimator);
+        pathEstimator.setForceTraversal(true);
+        MarkovEstimate est = new MarkovEstimate(bench.catalogContext);
+        int base_partitions[] = new int[bench.txnParams.size()];
+        for (int i = 0; i < base_partitions.length; i++) {
+            base_partitions[i] = bench.p_estimator.getBasePartition(bench.catalog_proc, bench.txnParams.get(i));
+        } // FOR
+
+        long graphTime = 0;
+        long compiledTime = 0;
+        for (int trial = 0; trial <= NUM_TRIALS; trial++) {
+            for (int compile = 0; compile < 2; compile++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < NUM_ESTIMATIONS; i++) {
+                    int offset = i % base_partitions.length;
+                    est.init(markov.getStartVertex(), EstimatorUtil.INITIAL_ESTIMATE_BATCH);
+                    if (compile == 0) {
+                        pathEstimator.init(markov, est, bench.txnParams.get(offset), base_partitions[offset]);
+                        pathEstimator.traverse(markov.getStartVertex());
+                    } else {
+                        pathEstimator.init(compiled, est, bench.txnParams.get(offset), base_partitions[offset]);
+                        pathEstimator.traverse(CompiledMarkovGraph.START_INDEX);
+                    }
+                    pathEstimator.finish();
+                    est.finish();
+                } // FOR
+                long elapsed = System.nanoTime() - start;
+                // The first trial is just to warm up the JIT
+                if (trial == 0) continue;
+                if (compile == 0) graphTime += elapsed;
+                else compiledTime += elapsed;
+            } // FOR
+        } // FOR
+        double graphLatency = graphTime / (double)(NUM_TRIALS * NUM_ESTIMATIONS);
+        double compiledLatency = compiledTime / (double)(NUM_TRIALS * NUM_ESTIMATIONS);
+        System.out.println(String.format("%s: %.0f ns/txn", MarkovGraph.class.getSimpleName(), graphLatency));
+        System.out.println(String.format("%s: %.0f ns/txn", CompiledMarkovGraph.class.getSimpleName(), compiledLatency));
+        System.out.println(String.format("Speedup: %.2fx", graphLatency / compiledLatency));
+    }
+}
@@ -0,0 +1,191 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.voltdb.TransactionIdManager;
+import org.voltdb.catalog.Procedure;
+
+import edu.brown.BaseTestCase;
+import edu.brown.benchmark.tm1.procedures.DeleteCallForwarding;
+import edu.brown.hstore.MockHStoreSite;
+import edu.brown.hstore.PartitionLockQueue;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.hstore.txns.AbstractTransaction;
+import edu.brown.hstore.txns.LocalTransaction;
+import edu.brown.utils.PartitionSet;
+import edu.brown.utils.ProjectType;
+
+/**
+ * Compares the enqueue/dequeue throughput of the PartitionLockQueue with the
+ * original implementation's synchronization scheme: a PriorityBlockingQueue
+ * behind a fair lock that tracks boxed txn ids.
+ * We extend BaseTestCase only to get the TM1 catalog for the txns.
+ */
+public class PartitionLockQueueBench extends BaseTestCase {
+
+    private static final int NUM_TXNS = 200000;
+    private static final int NUM_PRODUCERS = 4;
+    private static final int NUM_TRIALS = 3;
+
+    /**
+     * The operations that the benchmark needs from a lock queue
+     */
+    private interface LockQueue {
+        long note(long txnId);
+        boolean offer(AbstractTransaction ts);
+        AbstractTransaction poll();
+    }
+
+    /**
+     * The original PartitionLockQueue's hot path.
+     */
+    private static class BaselineLockQueue implements LockQueue {
+        private final PriorityBlockingQueue<AbstractTransaction> queue = new PriorityBlockingQueue<AbstractTransaction>();
+        private final ReentrantLock lock = new ReentrantLock(true);
+        private Long lastSeenTxnId = -1l;
+        private Long lastSafeTxnId = -1l;
+        private Long lastTxnPopped = -1l;
+
+        @Override
+        public long note(long txnId) {
+            this.lastSeenTxnId = txnId;
+            this.lock.lock();
+            try {
+                if (this.lastTxnPopped.compareTo(txnId) > 0) {
+                    return (this.lastTxnPopped);
+                }
+                if (this.lastSafeTxnId.compareTo(txnId) > 0) {
+                    this.lastSafeTxnId = txnId;
+                }
+            } finally {
+                this.lock.unlock();
+            }
+            return (this.lastSafeTxnId);
+        }
+        @Override
+        public boolean offer(AbstractTransaction ts) {
+            this.queue.offer(ts);
+            this.lock.lock();
+            try {
+                this.checkQueueState();
+            } finally {
+                this.lock.unlock();
+            }
+            return (true);
+        }
+        @Override
+        public AbstractTransaction poll() {
+            AbstractTransaction ts = null;
+            this.lock.lock();
+            try {
+                ts = this.queue.poll();
+                if (ts != null) this.lastTxnPopped = ts.getTransactionId();
+                this.checkQueueState();
+            } finally {
+                this.lock.unlock();
+            }
+            return (ts);
+        }
+        private void checkQueueState() {
+            AbstractTransaction ts = this.queue.peek();
+            if (ts != null) this.lastSafeTxnId = ts.getTransactionId();
+        }
+    } // CLASS
+
+    private static class NewLockQueue implements LockQueue {
+        private final PartitionLockQueue queue;
+
+        private NewLockQueue() {
+            this.queue = new PartitionLockQueue(0, 0, Integer.MAX_VALUE, 1.0);
+        }
+        @Override
+        public long note(long txnId) {
+            return (this.queue.noteTransactionRecievedAndReturnLastSafeTxnId(txnId));
+        }
+        @Override
+        public boolean offer(AbstractTransaction ts) {
+            return (this.queue.offer(ts, false));
+        }
+        @Override
+        public AbstractTransaction poll() {
+            return (this.queue.poll());
+        }
+    } // CLASS
+
+    private final List<AbstractTransaction> txns = new ArrayList<AbstractTransaction>();
+
+    private void init() throws Exception {
+        super.setUp(ProjectType.TM1);
+        MockHStoreSite hstore_site = new MockHStoreSite(0, catalogContext, HStoreConf.singleton());
+        TransactionIdManager idManager = hstore_site.getTransactionIdManager(0);
+        Procedure catalog_proc = this.getProcedure(DeleteCallForwarding.class);
+        for (int i = 0; i < NUM_TXNS; i++) {
+            LocalTransaction ts = new LocalTransaction(hstore_site);
+            ts.testInit(idManager.getNextUniqueTransactionId(), 0, new PartitionSet(0), catalog_proc);
+            this.txns.add(ts);
+        } // FOR
+    }
+
+    /**
+     * Have NUM_PRODUCERS threads add all of our txns to the queue while
+     * the current thread pulls them out. Returns the number of txns per second.
+     */
+    private double run(final LockQueue queue) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger rejected = new AtomicInteger(0);
+        for (int p = 0; p < NUM_PRODUCERS; p++) {
+            final int offset = p;
+            Thread t = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    for (int i = offset; i < NUM_TXNS; i += NUM_PRODUCERS) {
+                        AbstractTransaction ts = txns.get(i);
+                        long txnId = ts.getTransactionId().longValue();
+                        if (queue.note(txnId) > txnId || queue.offer(ts) == false) {
+                            rejected.incrementAndGet();
+                        }
+                    } // FOR
+                }
+            };
+            t.setDaemon(true);
+            t.start();
+        } // FOR
+
+        long startTime = System.nanoTime();
+        start.countDown();
+        int polled = 0;
+        while (polled + rejected.get() < NUM_TXNS) {
+            if (queue.poll() != null) polled++;
+        } // WHILE
+        long elapsed = System.nanoTime() - startTime;
+        return (NUM_TXNS / (elapsed / 1000000000d));
+    }
+
+    public static void main(String[] args) throws Exception {
+        PartitionLockQueueBench bench = new PartitionLockQueueBench();
+        bench.init();
+
+        double baseline = 0;
+        double current = 0;
+        for (int trial = 0; trial <= NUM_TRIALS; trial++) {
+            double b = bench.run(new BaselineLockQueue());
+            double c = bench.run(new NewLockQueue());
+            // The first trial is just to warm up the JIT
+            if (trial == 0) continue;
+            baseline += b;
+            current += c;
+        } // FOR
+        baseline /= NUM_TRIALS;
+        current /= NUM_TRIALS;
+        System.out.println(String.format("%s: %.0f txn/sec", BaselineLockQueue.class.getSimpleName(), baseline));
+        System.out.println(String.format("%s: %.0f txn/sec", PartitionLockQueue.class.getSimpleName(), current));
+        System.out.println(String.format("Speedup: %.2fx", current / baseline));
+    }
+}
@@ -0,0 +1,67 @@
+import java.lang.reflect.Method;
+
+import org.voltdb.ParameterSet;
+import org.voltdb.ProcedureInvoker;
+import org.voltdb.VoltProcedure;
+import org.voltdb.messaging.FastDeserializer;
+import org.voltdb.messaging.FastSerializer;
+
+/**
+ * Compares the cost of invoking a stored procedure's run() method through
+ * reflection with the pre-built ProcedureInvoker.
+ */
+public class ProcedureInvokerBench {
+    
+    public static class BenchProcedure extends VoltProcedure {
+        public long run(long a_id, int b_id, String name, double amount) {
+            return (a_id + b_id);
+        }
+    }
+    
+    public static void main(String[] args) throws Exception {
+        BenchProcedure proc = new BenchProcedure();
+        Method method = BenchProcedure.class.getMethod("run", long.class, int.class, String.class, double.class);
+        ProcedureInvoker invoker = ProcedureInvoker.get(method);
+        Object params[] = { 1l, 2, "xyz", 3.0d };
+        ParameterSet paramSet = new ParameterSet();
+        paramSet.readExternal(new FastDeserializer(FastSerializer.serialize(new ParameterSet(params))));
+
+        int loops = 10000000;
+        long total = 0;
+
+        // Warm up the JIT for all four paths
+        for (int i = 0; i < loops; i++) {
+            total += proc.run(i, 2, "xyz", 3.0d);
+            total += (Long)method.invoke(proc, params);
+            total += (Long)invoker.invoke(proc, params);
+            total += (Long)invoker.invoke(proc, paramSet);
+        }
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < loops; i++) {
+            total += proc.run(i, 2, "xyz", 3.0d);
+        }
+        System.out.println( loops + " regular run() calls:" + (System.currentTimeMillis() - start) + " milliseconds." );
+
+        start = System.currentTimeMillis();
+        for (int i = 0; i < loops; i++) {
+            total += (Long)method.invoke(proc, params);
+        }
+        System.out.println( loops + " reflective run() calls:" + (System.currentTimeMillis() - start) + " milliseconds." );
+
+        start = System.currentTimeMillis();
+        for (int i = 0; i < loops; i++) {
+            total += (Long)invoker.invoke(proc, params);
+        }
+        System.out.println( loops + " ProcedureInvoker run() calls:" + (System.currentTimeMillis() - start) + " milliseconds." );
+
+        start = System.currentTimeMillis();
+        for (int i = 0; i < loops; i++) {
+            total += (Long)invoker.invoke(proc, paramSet);
+        }
+        System.out.println( loops + " ProcedureInvoker ParameterSet run() calls:" + (System.currentTimeMillis() - start) + " milliseconds." );
+
+        // Make sure the JIT does not throw away the loops
+        System.out.println("checksum:" + total);
+    }
+}
@@ -40,6 +40,7 @@ public class TestHStoreCoordinator extends BaseTestCase {
     private final int NUM_SITES_PER_HOST      = 4;
     private final int NUM_PARTITIONS_PER_SITE = 2;
     private final int NUM_SITES               = (NUM_HOSTS * NUM_SITES_PER_HOST);
+    private final int NUM_EVENT_LOOPS         = 2;
     
     private MockHStoreSite hstore_sites[] = new MockHStoreSite[NUM_SITES];
     private HStoreCoordinator coordinators[] = new HStoreCoordinator[NUM_SITES];
@@ -56,6 +57,7 @@ public class TestHStoreCoordinator extends BaseTestCase {
         
         this.hstore_conf = HStoreConf.singleton(); 
         hstore_conf.site.coordinator_sync_time = false;
+        hstore_conf.site.coordinator_event_loops = NUM_EVENT_LOOPS;
         hstore_conf.site.status_enable = false;
         
         // Create a fake cluster of two HStoreSites, each with two partitions
@@ -250,6 +252,28 @@ public class TestHStoreCoordinator extends BaseTestCase {
         } // FOR
     }
 
+    /**
+     * testEventLoops
+     */
+    @Test
+    public void testEventLoops() throws Exception {
+        for (HStoreCoordinator m : this.coordinators) {
+            Thread threads[] = m.getListenerThreads();
+            assertEquals(NUM_EVENT_LOOPS, threads.length);
+            for (Thread t : threads) {
+                assertTrue(t.getName(), t.isAlive());
+            } // FOR
+        } // FOR
+        
+        // Make sure that the threads for every loop go away
+        HStoreCoordinator m = this.coordinators[0];
+        m.prepareShutdown(false);
+        m.shutdown();
+        for (Thread t : m.getListenerThreads()) {
+            assertEquals(t.getName(), State.TERMINATED, t.getState());
+        } // FOR
+    }
+    
     /**
      * testStopConnection
      */
@@ -25,6 +25,8 @@ import org.voltdb.client.ClientResponse;
 import org.voltdb.regressionsuites.specexecprocs.DtxnTester;
 import org.voltdb.sysprocs.ExecutorStatus;
 import org.voltdb.sysprocs.Statistics;
+import org.voltdb.utils.DBBPool.BBContainer;
+import org.voltdb.utils.DirectBufferSlabPool;
 import org.voltdb.utils.EstTime;
 import org.voltdb.utils.VoltTableUtil;
 
@@ -533,6 +535,41 @@ public class TestHStoreSite extends BaseTestCase {
         assertEquals(cresponse.getClientHandle(), clone.getClientHandle());
     }
     
+    /**
+     * testTrimBufferPools
+     */
+    @Test
+    public void testTrimBufferPools() throws Exception {
+        DirectBufferSlabPool localPool = hstore_site.getBufferPool();
+        assertTrue(hstore_site.getBufferPools().contains(localPool));
+        
+        // Have another thread grab a buffer from its own pool and then exit
+        final DirectBufferSlabPool pools[] = new DirectBufferSlabPool[1];
+        final BBContainer buffers[] = new BBContainer[1];
+        Thread t = new Thread() {
+            public void run() {
+                pools[0] = hstore_site.getBufferPool();
+                buffers[0] = pools[0].acquire(1024);
+            }
+        };
+        t.start();
+        t.join();
+        assertNotNull(buffers[0]);
+        assertNotSame(localPool, pools[0]);
+        assertTrue(hstore_site.getBufferPools().contains(pools[0]));
+        
+        // The exited thread's pool should get removed, but the buffer
+        // that it loaned out is still good
+        hstore_site.trimBufferPools(EstTime.currentTimeMillis());
+        assertFalse(hstore_site.getBufferPools().contains(pools[0]));
+        assertTrue(hstore_site.getBufferPools().contains(localPool));
+        assertEquals(1, pools[0].getSlabCount());
+        buffers[0].b.putInt(1234);
+        buffers[0].discard();
+        pools[0].clear();
+        assertEquals(0, pools[0].getSlabCount());
+    }
+    
 //    /**
 //     * testAbortReject
 //     */
@@ -1,6 +1,7 @@
 package edu.brown.hstore;
 
 import java.util.Collection;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
@@ -29,11 +30,13 @@ import edu.brown.HStoreSiteTestUtil;
 import edu.brown.HStoreSiteTestUtil.LatchableProcedureCallback;
 import edu.brown.benchmark.tm1.TM1Constants;
 import edu.brown.benchmark.tm1.TM1ProjectBuilder;
+import edu.brown.benchmark.tm1.procedures.GetAccessData;
 import edu.brown.benchmark.tm1.procedures.GetSubscriberData;
 import edu.brown.catalog.CatalogUtil;
 import edu.brown.hstore.Hstoreservice.Status;
 import edu.brown.hstore.conf.HStoreConf;
 import edu.brown.hstore.specexec.checkers.AbstractConflictChecker;
+import edu.brown.hstore.specexec.checkers.KeyConflictChecker;
 import edu.brown.hstore.txns.AbstractTransaction;
 import edu.brown.hstore.txns.LocalTransaction;
 import edu.brown.hstore.util.TransactionCounter;
@@ -179,6 +182,7 @@ public class TestPartitionExecutorSpecExec extends BaseTestCase {
     
     @Override
     protected void tearDown() throws Exception {
+        if (this.hstore_conf != null) this.hstore_conf.site.specexec_dtxn = false;
         if (this.client != null) this.client.close();
         if (this.hstore_site != null) this.hstore_site.shutdown();
         // HACK: Delete JAR
@@ -213,6 +217,61 @@ public class TestPartitionExecutorSpecExec extends BaseTestCase {
         assertNotNull(dtxn);
     }
     
+    /**
+     * Create a distributed txn that touches all of the partitions and insert it
+     * into the remote partition's lock queue. We never send it any work, so the
+     * remote partition will only know about it through its lock queue.
+     */
+    private LocalTransaction queueDistributedTransaction(Procedure catalog_proc, Object...params) {
+        Long txnId = this.hstore_site.getTransactionIdManager(BASE_PARTITION).getNextUniqueTransactionId();
+        LocalTransaction ts = new LocalTransaction(this.hstore_site);
+        ts.testInit(txnId, BASE_PARTITION, catalogContext.getAllPartitionIds(), catalog_proc, params);
+        ts.getInitCallback().init(ts, ts.getPredictTouchedPartitions());
+        ts.getFinishCallback().init(ts, Status.OK);
+        
+        int partition = this.remoteExecutor.getPartitionId();
+        Status status = this.hstore_site.getTransactionQueueManager().lockQueueInsert(ts, partition, ts.getInitCallback());
+        assertEquals(Status.OK, status);
+        return (ts);
+    }
+    
+    /**
+     * Start a read-only dtxn (T1) at the remote partition and then queue a second
+     * dtxn (T2) that is allowed to start there before T1 finishes.
+     */
+    private LocalTransaction[] startSpeculativeDtxn() {
+        this.hstore_conf.site.specexec_dtxn = true;
+        PartitionExecutor.Debug remoteDebug = this.remoteExecutor.getDebugContext();
+        
+        LocalTransaction dtxn0 = this.queueDistributedTransaction(this.spProc, Long.valueOf(BASE_PARTITION+1));
+        int tries = 10;
+        while (tries-- > 0 && remoteDebug.getCurrentDtxn() != dtxn0) {
+            ThreadUtil.sleep(NOTIFY_TIMEOUT / 10);
+        } // WHILE
+        assertEquals(dtxn0, remoteDebug.getCurrentDtxn());
+        
+        Procedure catalog_proc = this.getProcedure(GetAccessData.class);
+        LocalTransaction dtxn1 = this.queueDistributedTransaction(catalog_proc, Long.valueOf(BASE_PARTITION+1), 1l);
+        tries = 10;
+        while (tries-- > 0 && remoteDebug.getSpeculativeDtxn() != dtxn1) {
+            ThreadUtil.sleep(NOTIFY_TIMEOUT / 10);
+        } // WHILE
+        assertEquals(dtxn1, remoteDebug.getSpeculativeDtxn());
+        assertEquals(dtxn0, remoteDebug.getCurrentDtxn());
+        return (new LocalTransaction[]{ dtxn0, dtxn1 });
+    }
+    
+    /**
+     * Block until the remote partition has processed everything in its work queue
+     */
+    private void waitForRemoteExecutor() {
+        int tries = 10;
+        while (tries-- > 0 && this.remoteExecutor.getDebugContext().getWorkQueueSize() > 0) {
+            ThreadUtil.sleep(NOTIFY_TIMEOUT / 10);
+        } // WHILE
+        ThreadUtil.sleep(NOTIFY_TIMEOUT / 10);
+    }
+    
     private void checkClientResponses(Collection<ClientResponse> responses, Status status, boolean speculative, Integer restarts) {
         for (ClientResponse cr : responses) {
             assertNotNull(cr);
@@ -468,6 +527,86 @@ public class TestPartitionExecutorSpecExec extends BaseTestCase {
         assertEquals(NUM_SPECEXEC_TXNS, spCallback1.responses.size());
     }
     
+    /**
+     * testKeyConflictTracking
+     */
+    @Test
+    public void testKeyConflictTracking() throws Throwable {
+        // Make sure that the remote partition tells the KeyConflictChecker
+        // what rows the dtxn accessed when it executes a query there
+        PartitionExecutor.Debug remoteDebug = this.remoteExecutor.getDebugContext();
+        remoteDebug.setConflictChecker(KeyConflictChecker.singleton(catalogContext));
+        
+        Object params[] = new Object[]{ BASE_PARTITION };
+        this.client.callProcedure(this.dtxnCallback, this.dtxnProc.getName(), params);
+        this.lockBefore.release();
+        boolean result = this.notifyAfter.tryAcquire(NOTIFY_TIMEOUT, TimeUnit.MILLISECONDS);
+        assertTrue(result);
+        this.checkCurrentDtxn();
+        
+        // The dtxn updated every SUBSCRIBER record, so we should have
+        // recorded that it wrote to the table at the remote partition
+        AbstractTransaction dtxn = remoteDebug.getCurrentDtxn();
+        Table catalog_tbl = this.getTable(TM1Constants.TABLENAME_SUBSCRIBER);
+        Set<Object> keys = dtxn.getKeysWritten(this.remoteExecutor.getPartitionId(), catalog_tbl.getRelativeIndex());
+        assertNotNull(keys);
+        assertFalse(keys.isEmpty());
+        
+        this.lockAfter.release();
+        result = this.dtxnLatch.await(NOTIFY_TIMEOUT, TimeUnit.MILLISECONDS);
+        assertTrue("DTXN LATCH"+this.dtxnLatch, result);
+        assertEquals(Status.OK, this.dtxnResponse.getStatus());
+    }
+    
+    /**
+     * testSpeculativeDtxnFinishesFirst
+     */
+    @Test
+    public void testSpeculativeDtxnFinishesFirst() throws Exception {
+        // The dtxn that started early finishes before the current dtxn.
+        // It should be committed by itself and the current dtxn should
+        // still hold on to the partition.
+        LocalTransaction dtxns[] = this.startSpeculativeDtxn();
+        PartitionExecutor.Debug remoteDebug = this.remoteExecutor.getDebugContext();
+        int partition = this.remoteExecutor.getPartitionId();
+        
+        this.remoteExecutor.queueFinish(dtxns[1], Status.OK);
+        this.waitForRemoteExecutor();
+        assertTrue(dtxns[1].isMarkedFinished(partition));
+        assertNull(remoteDebug.getSpeculativeDtxn());
+        assertEquals(dtxns[0], remoteDebug.getCurrentDtxn());
+        
+        // Then when the current dtxn finishes, the partition should be idle
+        this.remoteExecutor.queueFinish(dtxns[0], Status.OK);
+        this.waitForRemoteExecutor();
+        assertTrue(dtxns[0].isMarkedFinished(partition));
+        assertNull(remoteDebug.getSpeculativeDtxn());
+        assertNull(remoteDebug.getCurrentDtxn());
+    }
+    
+    /**
+     * testSpeculativeDtxnPromoted
+     */
+    @Test
+    public void testSpeculativeDtxnPromoted() throws Exception {
+        // When the current dtxn finishes first, the dtxn that started early
+        // should become the current dtxn at the partition.
+        LocalTransaction dtxns[] = this.startSpeculativeDtxn();
+        PartitionExecutor.Debug remoteDebug = this.remoteExecutor.getDebugContext();
+        int partition = this.remoteExecutor.getPartitionId();
+        
+        this.remoteExecutor.queueFinish(dtxns[0], Status.OK);
+        this.waitForRemoteExecutor();
+        assertTrue(dtxns[0].isMarkedFinished(partition));
+        assertNull(remoteDebug.getSpeculativeDtxn());
+        assertEquals(dtxns[1], remoteDebug.getCurrentDtxn());
+        
+        this.remoteExecutor.queueFinish(dtxns[1], Status.OK);
+        this.waitForRemoteExecutor();
+        assertTrue(dtxns[1].isMarkedFinished(partition));
+        assertNull(remoteDebug.getCurrentDtxn());
+    }
+    
 //    /**
 //     * testDtxnAbort
 //     */
@@ -462,6 +462,28 @@ public class TestPartitionLockQueue extends BaseTestCase {
         assertEquals(added.size(), found.size());
     }
     
+    /**
+     * testPollIfNext
+     */
+    public void testPollIfNext() throws Exception {
+        Collection<AbstractTransaction> added = this.loadQueue(NUM_TXNS);
+        assertEquals(added.size(), this.queue.size());
+        ThreadUtil.sleep(TXN_DELAY);
+        this.queueDbg.checkQueueState();
+        
+        // We should not be able to release anything that is not next in the queue
+        Iterator<AbstractTransaction> it = added.iterator();
+        AbstractTransaction first = it.next();
+        AbstractTransaction second = it.next();
+        assertNull(this.queue.pollIfNext(second));
+        assertEquals(added.size(), this.queue.size());
+        assertTrue(this.queue.contains(second));
+        
+        assertEquals(first, this.queue.pollIfNext(first));
+        assertFalse(this.queue.contains(first));
+        assertEquals(added.size()-1, this.queue.size());
+    }
+    
     /**
      * testPoll
      */
@@ -0,0 +1,101 @@
+package edu.brown.hstore;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.voltdb.TransactionIdManager;
+import org.voltdb.catalog.Procedure;
+
+import edu.brown.BaseTestCase;
+import edu.brown.benchmark.tm1.procedures.DeleteCallForwarding;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.hstore.txns.AbstractTransaction;
+import edu.brown.hstore.txns.LocalTransaction;
+import edu.brown.utils.PartitionSet;
+import edu.brown.utils.ProjectType;
+
+/**
+ * Hammer the PartitionLockQueue with multiple producer threads while a
+ * single consumer pulls txns out, and make sure that nothing gets lost.
+ */
+public class TestPartitionLockQueueConcurrency extends BaseTestCase {
+
+    private static final int NUM_TXNS = 20000;
+    private static final int NUM_PRODUCERS = 4;
+    private static final long TIMEOUT = 30000; // ms
+
+    private final List<AbstractTransaction> txns = new ArrayList<AbstractTransaction>();
+    private PartitionLockQueue queue;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TM1);
+        MockHStoreSite hstore_site = new MockHStoreSite(0, catalogContext, HStoreConf.singleton());
+        TransactionIdManager idManager = hstore_site.getTransactionIdManager(0);
+        Procedure catalog_proc = this.getProcedure(DeleteCallForwarding.class);
+        for (int i = 0; i < NUM_TXNS; i++) {
+            LocalTransaction ts = new LocalTransaction(hstore_site);
+            ts.testInit(idManager.getNextUniqueTransactionId(), 0, new PartitionSet(0), catalog_proc);
+            this.txns.add(ts);
+        } // FOR
+        this.queue = new PartitionLockQueue(0, 0, Integer.MAX_VALUE, 1.0);
+    }
+
+    /**
+     * testConcurrentProducers
+     */
+    public void testConcurrentProducers() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(NUM_PRODUCERS);
+        final AtomicInteger rejected = new AtomicInteger(0);
+        final AtomicInteger errors = new AtomicInteger(0);
+        for (int p = 0; p < NUM_PRODUCERS; p++) {
+            final int offset = p;
+            Thread t = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    for (int i = offset; i < NUM_TXNS; i += NUM_PRODUCERS) {
+                        AbstractTransaction ts = txns.get(i);
+                        long txnId = ts.getTransactionId().longValue();
+                        if (queue.noteTransactionRecievedAndReturnLastSafeTxnId(txnId) > txnId) {
+                            rejected.incrementAndGet();
+                        } else if (queue.offer(ts, false) == false) {
+                            errors.incrementAndGet();
+                        }
+                    } // FOR
+                    done.countDown();
+                }
+            };
+            t.setDaemon(true);
+            t.start();
+        } // FOR
+
+        start.countDown();
+        Set<Long> polled = new HashSet<Long>();
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (polled.size() + rejected.get() + errors.get() < NUM_TXNS) {
+            assertTrue("Timed out after polling " + polled.size() + " txns",
+                       System.currentTimeMillis() < deadline);
+            AbstractTransaction ts = queue.poll();
+            if (ts != null) {
+                // Every txn should only come out once
+                assertTrue(ts.toString(), polled.add(ts.getTransactionId()));
+            }
+        } // WHILE
+        assertTrue(done.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        assertEquals(0, errors.get());
+        assertEquals(NUM_TXNS, polled.size() + rejected.get());
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+}
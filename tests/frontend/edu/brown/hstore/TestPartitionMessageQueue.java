@@ -1,14 +1,21 @@
 package edu.brown.hstore;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import org.voltdb.catalog.Procedure;
 
 import edu.brown.BaseTestCase;
+import edu.brown.benchmark.tm1.TM1Constants;
 import edu.brown.benchmark.tm1.procedures.UpdateLocation;
 import edu.brown.hstore.Hstoreservice.WorkFragment;
 import edu.brown.hstore.conf.HStoreConf;
 import edu.brown.hstore.internal.InternalMessage;
 import edu.brown.hstore.internal.StartTxnMessage;
 import edu.brown.hstore.internal.UtilityWorkMessage;
+import edu.brown.hstore.internal.UtilityWorkMessage.TableStatsRequestMessage;
 import edu.brown.hstore.internal.WorkFragmentMessage;
 import edu.brown.hstore.txns.LocalTransaction;
 import edu.brown.utils.PartitionSet;
@@ -122,4 +129,138 @@ public class TestPartitionMessageQueue extends BaseTestCase {
         assertEquals(start0, next);
     }
     
+    /**
+     * testTableStatsFirst
+     */
+    public void testTableStatsFirst() throws Exception {
+        TableStatsRequestMessage statsMsg = new TableStatsRequestMessage(this.getTable(TM1Constants.TABLENAME_SUBSCRIBER));
+        InternalMessage messages[] = { utilMsg, startMsg, workMsg };
+        this.checkOutputOrder(statsMsg, messages);
+    }
+    
+    /**
+     * testConcurrentProducers
+     */
+    public void testConcurrentProducers() throws Exception {
+        final int num_producers = 4;
+        final int num_messages = 2500;
+        final List<LocalTransaction> txns = new ArrayList<LocalTransaction>();
+        for (int i = 0; i < num_producers * num_messages; i++) {
+            LocalTransaction ts = new LocalTransaction(this.hstore_site);
+            ts.testInit(NEXT_TXN_ID++, BASE_PARTITION, null, new PartitionSet(BASE_PARTITION), catalog_proc);
+            txns.add(ts);
+        } // FOR
+        
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(num_producers);
+        this.queue.clear();
+        for (int p = 0; p < num_producers; p++) {
+            final int offset = p;
+            Thread t = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    for (int i = offset; i < txns.size(); i += num_producers) {
+                        queue.offer(new StartTxnMessage(txns.get(i)));
+                    } // FOR
+                    done.countDown();
+                };
+            };
+            t.setDaemon(true);
+            t.start();
+        } // FOR
+        
+        // Consume everything while the producers are still running
+        start.countDown();
+        int total = 0;
+        while (total < txns.size()) {
+            InternalMessage msg = this.queue.poll(1, TimeUnit.SECONDS);
+            assertNotNull("Timed out after " + total + " messages", msg);
+            total++;
+        } // WHILE
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(txns.size(), total);
+        assertTrue(this.queue.isEmpty());
+        assertNull(this.queue.poll());
+        
+        // Now fill it up completely and make sure that we drain them in order
+        for (int i = txns.size() - 1; i >= 0; i--) {
+            this.queue.add(new StartTxnMessage(txns.get(i)));
+        } // FOR
+        assertEquals(txns.size(), this.queue.size());
+        List<InternalMessage> drained = new ArrayList<InternalMessage>();
+        assertEquals(txns.size(), this.queue.drainTo(drained));
+        Long lastTxnId = null;
+        for (InternalMessage msg : drained) {
+            Long txnId = ((StartTxnMessage)msg).getTransactionId();
+            if (lastTxnId != null) assertTrue(lastTxnId < txnId);
+            lastTxnId = txnId;
+        } // FOR
+        assertTrue(this.queue.isEmpty());
+    }
+    
+    /**
+     * testRemove
+     */
+    public void testRemove() throws Exception {
+        List<StartTxnMessage> msgs = new ArrayList<StartTxnMessage>();
+        for (int i = 0; i < 10; i++) {
+            LocalTransaction ts = new LocalTransaction(this.hstore_site);
+            ts.testInit(NEXT_TXN_ID++, BASE_PARTITION, null, new PartitionSet(BASE_PARTITION), catalog_proc);
+            msgs.add(new StartTxnMessage(ts));
+        } // FOR
+        for (int i = msgs.size() - 1; i >= 0; i--) {
+            this.queue.add(msgs.get(i));
+        } // FOR
+        this.queue.add(utilMsg);
+        
+        assertTrue(this.queue.remove(utilMsg));
+        assertFalse(this.queue.remove(utilMsg));
+        StartTxnMessage removed = msgs.remove(3);
+        assertTrue(this.queue.remove(removed));
+        assertFalse(this.queue.contains(removed));
+        assertEquals(msgs.size(), this.queue.size());
+        
+        // The rest should still come out in txn id order
+        for (StartTxnMessage expected : msgs) {
+            assertEquals(expected, this.queue.poll());
+        } // FOR
+        assertTrue(this.queue.isEmpty());
+    }
+    
+    /**
+     * testPeekWhileWaiting
+     */
+    public void testPeekWhileWaiting() throws Exception {
+        // A thread that is blocked in poll() should not prevent other
+        // threads from looking at the queue
+        final CountDownLatch polled = new CountDownLatch(1);
+        final InternalMessage result[] = { null };
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    result[0] = queue.poll(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    // Ignore
+                }
+                polled.countDown();
+            };
+        };
+        t.setDaemon(true);
+        t.start();
+        
+        while (t.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(10);
+        } // WHILE
+        assertNull(this.queue.peek());
+        assertEquals(0, this.queue.drainTo(new ArrayList<InternalMessage>()));
+        
+        this.queue.add(startMsg);
+        assertTrue(polled.await(10, TimeUnit.SECONDS));
+        assertEquals(startMsg, result[0]);
+    }
+    
 }
@@ -56,6 +56,7 @@ public class TestSpecExecScheduler extends BaseTestCase {
         HStoreConf hstore_conf = HStoreConf.singleton();
         hstore_conf.site.specexec_profiling = true;
         hstore_conf.site.specexec_profiling_sample = 1.0;
+        hstore_conf.site.specexec_scheduler_index = false;
         
         this.checker = new TableConflictChecker(catalogContext);
         this.hstore_site = new MockHStoreSite(0, catalogContext, HStoreConf.singleton());
@@ -115,6 +116,17 @@ public class TestSpecExecScheduler extends BaseTestCase {
         return (tsWithoutEstimatorState);
     }
     
+    private Procedure getWriteWriteConflictProcedure() {
+        Procedure dtxnProc = dtxn.getProcedure();
+        for (Procedure p : catalogContext.getRegularProcedures()) {
+            Collection<Procedure> c = ConflictSetUtil.getWriteWriteConflicts(p);
+            if (c.contains(dtxnProc)) {
+                return (p);
+            }
+        } // FOR
+        return (null);
+    }
+    
     private LocalTransaction addToQueue(LocalTransaction ts) {
         this.work_queue.offer(ts, false);
         return (ts);
@@ -347,5 +359,162 @@ public class TestSpecExecScheduler extends BaseTestCase {
         next = this.scheduler.next(this.dtxn, SpeculationType.SP2_REMOTE_AFTER);
         assertNull(next);
     }
+    
+    /**
+     * testIndexedFirstMatchPolicy
+     */
+    public void testIndexedFirstMatchPolicy() throws Exception {
+        SpecExecProfiler profiler = this.schedulerDebug.getProfiler(SpeculationType.SP2_REMOTE_BEFORE);
+        assertTrue(this.scheduler.enableCandidateIndex(true));
+        this.populateQueue(this.addedTxns, 10);
+        assertEquals(this.addedTxns.size(), this.work_queue.getCandidateIndex().size());
+        
+        this.scheduler.setPolicyType(SpecExecSchedulerPolicyType.FIRST);
+        for (LocalTransaction expected : this.addedTxns) {
+            LocalTransaction next = this.scheduler.next(this.dtxn, SpeculationType.SP2_REMOTE_BEFORE);
+            assertNotNull(next);
+            assertEquals(expected, next);
+            assertFalse(this.work_queue.contains(next));
+        } // FOR
+        assertNull(this.scheduler.next(this.dtxn, SpeculationType.SP2_REMOTE_BEFORE));
+        assertEquals(0, this.work_queue.getCandidateIndex().size());
+        assertEquals(this.addedTxns.size(), profiler.success);
+    }
+    
+    /**
+     * testIndexedLastMatchPolicy
+     */
+    public void testIndexedLastMatchPolicy() throws Exception {
+        assertTrue(this.scheduler.enableCandidateIndex(true));
+        this.scheduler.setPolicyType(SpecExecSchedulerPolicyType.LAST);
+        this.populateQueue(this.addedTxns, 10);
+        LocalTransaction next = this.scheduler.next(this.dtxn, SpeculationType.SP2_REMOTE_BEFORE);
+        assertNotNull(next);
+        assertEquals(CollectionUtil.last(this.addedTxns), next);
+        assertFalse(this.work_queue.contains(next));
+    }
+    
+    /**
+     * testIndexedRemove
+     */
+    public void testIndexedRemove() throws Exception {
+        // Txns that get removed from the queue by somebody else should
+        // never get returned by the scheduler
+        this.populateQueue(this.addedTxns, 10);
+        assertTrue(this.scheduler.enableCandidateIndex(true));
+        assertEquals(this.addedTxns.size(), this.work_queue.getCandidateIndex().size());
+        LocalTransaction first = CollectionUtil.first(this.addedTxns);
+        assertTrue(this.work_queue.remove(first));
+        assertEquals(this.addedTxns.size()-1, this.work_queue.getCandidateIndex().size());
+        
+        LocalTransaction next = this.scheduler.next(this.dtxn, SpeculationType.SP2_REMOTE_BEFORE);
+        assertNotNull(next);
+        assertNotSame(first, next);
+        assertEquals(this.addedTxns.get(1), next);
+    }
+    
+    /**
+     * testIndexedDeepQueue
+     */
+    public void testIndexedDeepQueue() throws Exception {
+        // Put a bunch of txns that conflict with the dtxn at the front of the queue
+        // and then a single non-conflicting txn at the end. Both search methods should
+        // find it but the index should only have to check one txn per Procedure.
+        final int num_conflicting = 100;
+        Procedure proc = this.getWriteWriteConflictProcedure();
+        assertNotNull(proc);
+        ConflictSet cs = proc.getConflicts().get(dtxn.getProcedure().getName());
+        Collection<Table> conflictTables = ConflictSetUtil.getAllTables(cs.getWritewriteconflicts());
+        dtxn.markTableWritten(BASE_PARTITION, CollectionUtil.first(conflictTables));
+        
+        SpecExecProfiler profiler = this.schedulerDebug.getProfiler(SpeculationType.SP2_REMOTE_AFTER);
+        int comparisons[] = new int[2];
+        for (int i = 0; i < comparisons.length; i++) {
+            boolean useIndex = (i == 1);
+            this.addedTxns.clear();
+            for (int j = 0; j < num_conflicting; j++) {
+                LocalTransaction ts = new LocalTransaction(this.hstore_site);
+                ts.testInit(this.idManager.getNextUniqueTransactionId(), BASE_PARTITION, null,
+                            catalogContext.getPartitionSetSingleton(BASE_PARTITION), proc);
+                this.addToQueue(ts);
+            } // FOR
+            this.populateQueue(this.addedTxns, 1);
+            assertEquals(useIndex, this.scheduler.enableCandidateIndex(useIndex));
+            
+            profiler.num_comparisons.clear();
+            LocalTransaction next = this.scheduler.next(this.dtxn, SpeculationType.SP2_REMOTE_AFTER);
+            assertNotNull(next);
+            assertEquals(CollectionUtil.first(this.addedTxns), next);
+            comparisons[i] = profiler.num_comparisons.getMaxValue().intValue();
+            this.work_queue.clear();
+        } // FOR
+        // The linear search has to check every txn in the queue, while the index
+        // only checks the head of the conflicting and the non-conflicting Procedures
+        assertEquals(num_conflicting + 1, comparisons[0]);
+        assertEquals(2, comparisons[1]);
+        assertEquals(0, this.work_queue.getCandidateIndex().size());
+    }
+
+    
+    /**
+     * testCanStartDistributed
+     */
+    public void testCanStartDistributed() throws Exception {
+        // Find a read-only procedure and then another procedure that it does not
+        // conflict with and one that it does
+        Procedure readOnlyProc = null;
+        Procedure otherProc = null;
+        Procedure conflictProc = null;
+        for (Procedure p : catalogContext.getRegularProcedures()) {
+            if (p.getReadonly() == false) continue;
+            Collection<Procedure> conflicts = ConflictSetUtil.getAllConflicts(p);
+            otherProc = null;
+            conflictProc = null;
+            for (Procedure other : catalogContext.getRegularProcedures()) {
+                if (conflicts.contains(other) || ConflictSetUtil.getAllConflicts(other).contains(p)) {
+                    if (conflictProc == null) conflictProc = other;
+                } else if (otherProc == null) {
+                    otherProc = other;
+                }
+            } // FOR
+            if (otherProc != null && conflictProc != null) {
+                readOnlyProc = p;
+                break;
+            }
+        } // FOR
+        assertNotNull(readOnlyProc);
+        
+        LocalTransaction readOnlyDtxn = new LocalTransaction(this.hstore_site);
+        readOnlyDtxn.testInit(this.idManager.getNextUniqueTransactionId(), BASE_PARTITION, null,
+                              catalogContext.getAllPartitionIds(), readOnlyProc);
+        int remotePartition = (BASE_PARTITION + 1) % NUM_PARTITIONS;
+        
+        LocalTransaction ts = new LocalTransaction(this.hstore_site);
+        ts.testInit(this.idManager.getNextUniqueTransactionId(), remotePartition, null,
+                    catalogContext.getAllPartitionIds(), otherProc);
+        assertTrue(this.scheduler.canStartDistributed(readOnlyDtxn, ts));
+        
+        // We can't start if the current dtxn is not read-only
+        assertFalse(this.dtxn.getProcedure().getReadonly());
+        assertFalse(this.scheduler.canStartDistributed(this.dtxn, ts));
+        
+        // Or if there is a conflict
+        LocalTransaction conflictTs = new LocalTransaction(this.hstore_site);
+        conflictTs.testInit(this.idManager.getNextUniqueTransactionId(), remotePartition, null,
+                            catalogContext.getAllPartitionIds(), conflictProc);
+        assertFalse(this.scheduler.canStartDistributed(readOnlyDtxn, conflictTs));
+        
+        // Or if the txn's base partition is our partition
+        LocalTransaction localTs = new LocalTransaction(this.hstore_site);
+        localTs.testInit(this.idManager.getNextUniqueTransactionId(), BASE_PARTITION, null,
+                         catalogContext.getAllPartitionIds(), otherProc);
+        assertFalse(this.scheduler.canStartDistributed(readOnlyDtxn, localTs));
+        
+        // Or if it's single-partitioned
+        LocalTransaction spTs = new LocalTransaction(this.hstore_site);
+        spTs.testInit(this.idManager.getNextUniqueTransactionId(), remotePartition, null,
+                      catalogContext.getPartitionSetSingleton(remotePartition), otherProc);
+        assertFalse(this.scheduler.canStartDistributed(readOnlyDtxn, spTs));
+    }
 
 }
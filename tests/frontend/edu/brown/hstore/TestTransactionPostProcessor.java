@@ -0,0 +1,241 @@
+package edu.brown.hstore;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.voltdb.ClientResponseImpl;
+import org.voltdb.catalog.Site;
+import org.voltdb.messaging.FastDeserializer;
+import org.voltdb.network.MockConnection;
+
+import com.google.protobuf.RpcCallback;
+
+import edu.brown.BaseTestCase;
+import edu.brown.hstore.Hstoreservice.Status;
+import edu.brown.hstore.TransactionPostProcessor.QueuedResponse;
+import edu.brown.hstore.callbacks.ClientResponseCallback;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.utils.CollectionUtil;
+import edu.brown.utils.ProjectType;
+
+public class TestTransactionPostProcessor extends BaseTestCase {
+
+    static final AtomicLong TXN_ID = new AtomicLong(1000);
+    static final int BASE_PARTITION = 0;
+    static final int MESSAGE_SIZE = 100;
+
+    /**
+     * ClientResponseCallback that records how many buffers had already been
+     * written to its Connection when the backpressure for its request was released.
+     */
+    private static class MockResponseCallback extends ClientResponseCallback {
+        private final MockConnection conn;
+        private int writesAtRelease = -1;
+
+        public MockResponseCallback(MockConnection conn) {
+            super(null, conn, MESSAGE_SIZE);
+            this.conn = conn;
+        }
+        @Override
+        public void reduceBackpressure() {
+            assertEquals(-1, this.writesAtRelease);
+            this.writesAtRelease = this.conn.writeStream().getWrites().size();
+        }
+    } // CLASS
+
+    /**
+     * Some other kind of callback that records what had already been
+     * written to the given Connections when it was invoked
+     */
+    private static class MockOtherCallback implements RpcCallback<ClientResponseImpl> {
+        private final MockConnection conns[];
+        private final List<Integer> writesAtRun = new ArrayList<Integer>();
+        private ClientResponseImpl cresponse;
+
+        public MockOtherCallback(MockConnection...conns) {
+            this.conns = conns;
+        }
+        @Override
+        public void run(ClientResponseImpl parameter) {
+            assertNull(this.cresponse);
+            this.cresponse = parameter;
+            for (MockConnection conn : this.conns) {
+                this.writesAtRun.add(conn.writeStream().getWrites().size());
+            } // FOR
+        }
+    } // CLASS
+
+    private HStoreSite hstore_site;
+    private BlockingQueue<QueuedResponse> queue;
+    private TransactionPostProcessor processor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TM1);
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        hstore_conf.site.exec_postprocessing_batch_size = 64;
+
+        Site catalog_site = CollectionUtil.first(catalogContext.sites);
+        this.hstore_site = new MockHStoreSite(catalog_site.getId(), catalogContext, hstore_conf);
+        this.queue = new LinkedBlockingQueue<QueuedResponse>();
+        this.processor = new TransactionPostProcessor(this.hstore_site, this.queue);
+    }
+
+    private ClientResponseImpl queueResponse(RpcCallback<ClientResponseImpl> callback) {
+        long txnId = TXN_ID.incrementAndGet();
+        ClientResponseImpl cresponse = new ClientResponseImpl(txnId,
+                                                              txnId,
+                                                              BASE_PARTITION,
+                                                              Status.OK,
+                                                              HStoreConstants.EMPTY_RESULT,
+                                                              "");
+        this.queue.add(new QueuedResponse(cresponse, callback, System.currentTimeMillis(), 0));
+        return (cresponse);
+    }
+
+    /**
+     * Have the TransactionPostProcessor process everything in the queue as a single batch
+     */
+    private void processBatch() {
+        this.processor.processingCallback(this.queue.poll());
+        assertTrue(this.queue.isEmpty());
+    }
+
+    /**
+     * Split the given buffer back into its length-prefixed ClientResponses
+     * and return their txn ids
+     */
+    private List<Long> readResponses(ByteBuffer buffer) throws Exception {
+        List<Long> txnIds = new ArrayList<Long>();
+        ByteBuffer b = buffer.duplicate();
+        while (b.hasRemaining()) {
+            int length = b.getInt();
+            assertTrue(length > 0);
+            assertTrue(length <= b.remaining());
+            ByteBuffer message = b.slice();
+            message.limit(length);
+            ClientResponseImpl cresponse = new ClientResponseImpl();
+            cresponse.readExternal(new FastDeserializer(message));
+            assertEquals(Status.OK, cresponse.getStatus());
+            assertEquals(cresponse.getTransactionId(), cresponse.getClientHandle());
+            txnIds.add(cresponse.getTransactionId());
+            b.position(b.position() + length);
+        } // WHILE
+        return (txnIds);
+    }
+
+    /**
+     * testPerConnectionFraming
+     */
+    @Test
+    public void testPerConnectionFraming() throws Exception {
+        MockConnection conns[] = { new MockConnection("client0"), new MockConnection("client1") };
+        List<List<Long>> expected = new ArrayList<List<Long>>();
+        List<MockResponseCallback> callbacks = new ArrayList<MockResponseCallback>();
+        for (int i = 0; i < conns.length; i++) {
+            expected.add(new ArrayList<Long>());
+        } // FOR
+        for (int i = 0; i < 10; i++) {
+            MockResponseCallback callback = new MockResponseCallback(conns[i % conns.length]);
+            ClientResponseImpl cresponse = this.queueResponse(callback);
+            expected.get(i % conns.length).add(cresponse.getTransactionId());
+            callbacks.add(callback);
+        } // FOR
+        this.processBatch();
+
+        // Each connection should get all of its responses in a single
+        // buffer in the order that they were queued
+        for (int i = 0; i < conns.length; i++) {
+            List<ByteBuffer> writes = conns[i].writeStream().getWrites();
+            assertEquals(conns[i].toString(), 1, writes.size());
+            assertEquals(conns[i].toString(), expected.get(i), this.readResponses(writes.get(0)));
+        } // FOR
+        for (MockResponseCallback callback : callbacks) {
+            assertEquals(callback.getConnection().toString(), 1, callback.writesAtRelease);
+        } // FOR
+    }
+
+    /**
+     * testFlushBeforeOtherCallback
+     */
+    @Test
+    public void testFlushBeforeOtherCallback() throws Exception {
+        MockConnection conn0 = new MockConnection("client0");
+        MockConnection conn1 = new MockConnection("client1");
+        MockResponseCallback callbacks[] = {
+            new MockResponseCallback(conn0),
+            new MockResponseCallback(conn1),
+            new MockResponseCallback(conn0),
+            null,
+            new MockResponseCallback(conn0),
+        };
+        MockOtherCallback other = new MockOtherCallback(conn0, conn1);
+        long txnIds[] = new long[callbacks.length];
+        for (int i = 0; i < callbacks.length; i++) {
+            ClientResponseImpl cresponse;
+            if (callbacks[i] != null) {
+                cresponse = this.queueResponse(callbacks[i]);
+            } else {
+                cresponse = this.queueResponse(other);
+            }
+            txnIds[i] = cresponse.getTransactionId();
+        } // FOR
+        this.processBatch();
+
+        // We don't know where the other callback sends its response, so
+        // everything that was buffered before it must already be written out
+        assertNotNull(other.cresponse);
+        assertEquals(txnIds[3], other.cresponse.getTransactionId());
+        assertEquals(1, other.writesAtRun.get(0).intValue());
+        assertEquals(1, other.writesAtRun.get(1).intValue());
+
+        List<ByteBuffer> writes0 = conn0.writeStream().getWrites();
+        assertEquals(2, writes0.size());
+        List<Long> expected = new ArrayList<Long>();
+        expected.add(txnIds[0]);
+        expected.add(txnIds[2]);
+        assertEquals(expected, this.readResponses(writes0.get(0)));
+        expected.clear();
+        expected.add(txnIds[4]);
+        assertEquals(expected, this.readResponses(writes0.get(1)));
+
+        List<ByteBuffer> writes1 = conn1.writeStream().getWrites();
+        assertEquals(1, writes1.size());
+        expected.clear();
+        expected.add(txnIds[1]);
+        assertEquals(expected, this.readResponses(writes1.get(0)));
+
+        // The backpressure for each request is only released once the
+        // buffer with its response was handed off to the connection
+        assertEquals(1, callbacks[0].writesAtRelease);
+        assertEquals(1, callbacks[1].writesAtRelease);
+        assertEquals(1, callbacks[2].writesAtRelease);
+        assertEquals(2, callbacks[4].writesAtRelease);
+    }
+
+    /**
+     * testBackpressureReleasedAfterEnqueue
+     */
+    @Test
+    public void testBackpressureReleasedAfterEnqueue() throws Exception {
+        MockConnection conn = new MockConnection("client0");
+        List<MockResponseCallback> callbacks = new ArrayList<MockResponseCallback>();
+        for (int batch = 0; batch < 3; batch++) {
+            for (int i = 0; i < 5; i++) {
+                MockResponseCallback callback = new MockResponseCallback(conn);
+                this.queueResponse(callback);
+                callbacks.add(callback);
+            } // FOR
+            this.processBatch();
+            assertEquals(batch + 1, conn.writeStream().getWrites().size());
+            for (MockResponseCallback callback : callbacks.subList(batch * 5, callbacks.size())) {
+                assertEquals(batch + 1, callback.writesAtRelease);
+            } // FOR
+        } // FOR
+    }
+}
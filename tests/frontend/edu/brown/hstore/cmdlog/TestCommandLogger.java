@@ -26,6 +26,14 @@
 package edu.brown.hstore.cmdlog;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.Test;
@@ -34,6 +42,8 @@ import org.voltdb.VoltProcedure;
 import org.voltdb.catalog.Procedure;
 import org.voltdb.catalog.Site;
 
+import com.google.protobuf.RpcCallback;
+
 import edu.brown.BaseTestCase;
 import edu.brown.benchmark.tm1.procedures.UpdateLocation;
 import edu.brown.benchmark.tm1.procedures.UpdateSubscriberData;
@@ -42,8 +52,10 @@ import edu.brown.hstore.HStoreSite;
 import edu.brown.hstore.Hstoreservice.Status;
 import edu.brown.hstore.MockHStoreSite;
 import edu.brown.hstore.cmdlog.CommandLogReader;
+import edu.brown.hstore.cmdlog.CommandLogReplayer;
 import edu.brown.hstore.cmdlog.CommandLogWriter;
 import edu.brown.hstore.cmdlog.LogEntry;
+import edu.brown.hstore.cmdlog.LogSegment;
 import edu.brown.hstore.conf.HStoreConf;
 import edu.brown.hstore.txns.LocalTransaction;
 import edu.brown.utils.CollectionUtil;
@@ -106,6 +118,361 @@ public class TestCommandLogger extends BaseTestCase {
             outputFile.delete();
     }
     
+    private long[] writeTxns(int num_txns) throws Exception {
+        long txnId[] = new long[num_txns];
+        for (int i = 0; i < num_txns; i++) {
+            LocalTransaction ts = new LocalTransaction(hstore_site);
+            txnId[i] = TXN_ID.incrementAndGet(); 
+            ts.testInit(txnId[i],
+                        BASE_PARTITION,
+                        new PartitionSet(BASE_PARTITION),
+                        catalog_procs[i % 2],
+                        TARGET_PARAMS[i % 2]);
+            ClientResponseImpl cresponse = new ClientResponseImpl(txnId[i],
+                                                                  0l,
+                                                                  BASE_PARTITION,
+                                                                  Status.OK,
+                                                                  HStoreConstants.EMPTY_RESULT,
+                                                                  "");
+            boolean ret = logger.appendToLog(ts, cresponse);
+            assertFalse(ret);
+        } // FOR
+        logger.flush(); //This makes sure everything is written to the file
+        return (txnId);
+    }
+    
+    /**
+     * testBatchIterator
+     */
+    @Test
+    public void testBatchIterator() throws Exception {
+        long txnId[] = this.writeTxns(1000);
+        logger.shutdown(); // This closes the file
+        
+        CommandLogReader reader = new CommandLogReader(outputFile.getAbsolutePath());
+        Iterator<List<LogEntry>> it = reader.batchIterator();
+        int ctr = 0;
+        while (it.hasNext()) {
+            List<LogEntry> batch = it.next();
+            assertNotNull(batch);
+            assertFalse(batch.isEmpty());
+            for (LogEntry entry : batch) {
+                assertEquals(txnId[ctr], entry.getTransactionId().longValue());
+                assertEquals(BASE_PARTITION, entry.getBasePartition());
+                ctr++;
+            } // FOR
+        } // WHILE
+        assertEquals(txnId.length, ctr);
+    }
+    
+    /**
+     * testPipeline
+     */
+    @Test
+    public void testPipeline() throws Exception {
+        // Replace our default logger with one whose sync thread we can stall
+        // while it is sending out the responses for the first batch
+        logger.shutdown();
+        outputFile.delete();
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        int origTimeout = hstore_conf.site.commandlog_timeout;
+        hstore_conf.site.commandlog_timeout = 50;
+        final CountDownLatch syncing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Long> responses = Collections.synchronizedList(new ArrayList<Long>());
+        Site catalog_site = CollectionUtil.first(catalogContext.sites);
+        hstore_site = new MockHStoreSite(catalog_site.getId(), catalogContext, hstore_conf) {
+            @Override
+            public void responseSend(ClientResponseImpl cresponse,
+                                     RpcCallback<ClientResponseImpl> clientCallback,
+                                     long initiateTime,
+                                     int restartCounter) {
+                syncing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException(ex);
+                }
+                responses.add(cresponse.getTransactionId());
+            }
+        };
+        try {
+            outputFile = FileUtil.getTempFile("log");
+            logger = new CommandLogWriter(hstore_site, outputFile);
+            loggerThread = new Thread(this.logger);
+            loggerThread.setDaemon(true);
+            loggerThread.start();
+            
+            int num_txns = 100;
+            long txnId[] = new long[num_txns * 2];
+            for (int b = 0; b < 2; b++) {
+                for (int i = 0; i < num_txns; i++) {
+                    int idx = (b * num_txns) + i;
+                    LocalTransaction ts = new LocalTransaction(hstore_site);
+                    txnId[idx] = TXN_ID.incrementAndGet(); 
+                    ts.testInit(txnId[idx],
+                                BASE_PARTITION,
+                                new PartitionSet(BASE_PARTITION),
+                                catalog_procs[idx % 2],
+                                TARGET_PARAMS[idx % 2]);
+                    ClientResponseImpl cresponse = new ClientResponseImpl(txnId[idx],
+                                                                          0l,
+                                                                          BASE_PARTITION,
+                                                                          Status.OK,
+                                                                          HStoreConstants.EMPTY_RESULT,
+                                                                          "");
+                    assertFalse(logger.appendToLog(ts, cresponse));
+                } // FOR
+                
+                // Wait until the sync thread is stuck on the first batch
+                if (b == 0) assertTrue(syncing.await(10, TimeUnit.SECONDS));
+            } // FOR
+            
+            // The writer thread should be able to serialize the second batch and 
+            // hand it off while the sync thread is still working on the first one
+            long deadline = System.currentTimeMillis() + 10000;
+            while (logger.getCommitBatchCount() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            } // WHILE
+            assertEquals(2, logger.getCommitBatchCount());
+            assertEquals(0, logger.getSyncedBatchCount());
+            assertTrue(responses.isEmpty());
+            
+            // Once we let the sync thread go, flush() should not return until
+            // it has sent out the responses for both batches in order
+            release.countDown();
+            logger.flush();
+            assertEquals(2, logger.getSyncedBatchCount());
+            assertEquals(txnId.length, responses.size());
+            for (int i = 0; i < txnId.length; i++) {
+                assertEquals(txnId[i], responses.get(i).longValue());
+            } // FOR
+            logger.shutdown();
+            
+            CommandLogReader reader = new CommandLogReader(outputFile.getAbsolutePath());
+            int ctr = 0;
+            for (LogEntry entry : reader) {
+                assertEquals(txnId[ctr++], entry.getTransactionId().longValue());
+            } // FOR
+            assertEquals(txnId.length, ctr);
+        } finally {
+            release.countDown();
+            hstore_conf.site.commandlog_timeout = origTimeout;
+        }
+    }
+    
+    /**
+     * testCommitWindow
+     */
+    @Test
+    public void testCommitWindow() throws Exception {
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        int origTimeout = hstore_conf.site.commandlog_timeout;
+        int origTarget = hstore_conf.site.commandlog_target_latency;
+        hstore_conf.site.commandlog_timeout = 1000;
+        hstore_conf.site.commandlog_target_latency = 500;
+        File files[] = new File[3];
+        CommandLogWriter writers[] = new CommandLogWriter[files.length];
+        try {
+            // We don't start these writers, so nobody else will update their windows
+            for (int i = 0; i < writers.length; i++) {
+                files[i] = FileUtil.getTempFile("log");
+                writers[i] = new CommandLogWriter(hstore_site, files[i]);
+            } // FOR
+            
+            // The window is whatever is left over from the target after the fsync
+            // 50 txns in 10 ms -> 5 txn/ms * 0.2 = 1 txn/ms
+            CommandLogWriter writer = writers[0];
+            writer.updateFsyncTime(100);
+            writer.updateFsyncTime(100);
+            double avgFsync = writer.getAverageFsyncTime();
+            assertEquals(36.0, avgFsync, 0.0001);
+            double avgRate = 1.0;
+            assertTrue((writer.getEntriesPerPartition() / 2.0) / avgRate > 500 - avgFsync);
+            writer.updateCommitWindow(50, 10);
+            assertEquals(Math.round(500 - avgFsync), writer.getCommitWindow());
+            
+            // If we don't expect another txn to show up before the window is over,
+            // then there is no point in waiting for it
+            // 1 txn in 1000 ms -> 0.001 txn/ms * 0.2 = 0.0002 txn/ms
+            writer = writers[1];
+            writer.updateCommitWindow(1, 1000);
+            assertEquals(1, writer.getCommitWindow());
+            
+            // If txns are arriving fast enough that the partitions' buffers would
+            // be more than half full at the end of the window, then it gets cut short
+            writer = writers[2];
+            avgRate = (writer.getEntriesPerPartition() / 2.0) / 100.0;
+            writer.updateCommitWindow((int)Math.round(avgRate * 5 * 10), 10);
+            assertEquals(100, writer.getCommitWindow());
+            assertTrue(writer.getCommitWindow() < 500);
+            
+            // And it is never longer than ${site.commandlog_timeout}
+            hstore_conf.site.commandlog_target_latency = 5000;
+            writers[0].updateCommitWindow(50, 10);
+            assertEquals(hstore_conf.site.commandlog_timeout, writers[0].getCommitWindow());
+            
+            // Disabling the target latency always uses ${site.commandlog_timeout}
+            hstore_conf.site.commandlog_target_latency = -1;
+            writers[1].updateCommitWindow(1, 1000);
+            assertEquals(hstore_conf.site.commandlog_timeout, writers[1].getCommitWindow());
+        } finally {
+            hstore_conf.site.commandlog_timeout = origTimeout;
+            hstore_conf.site.commandlog_target_latency = origTarget;
+            for (int i = 0; i < writers.length; i++) {
+                if (writers[i] != null) writers[i].shutdown();
+                if (files[i] != null) files[i].delete();
+            } // FOR
+        }
+    }
+    
+    /**
+     * testGetLogStreams
+     */
+    @Test
+    public void testGetLogStreams() throws Exception {
+        File dir = outputFile.getParentFile();
+        String ext = CommandLogWriter.LOG_OUTPUT_EXT;
+        File stream0[] = {
+            new File(dir, "h00_1000" + ext),
+            new File(dir, "h00_1000_00001" + ext),
+            new File(dir, "h00_1000_00002" + ext),
+        };
+        File stream1[] = {
+            new File(dir, "h00_1000-s1" + ext),
+            new File(dir, "h00_1000-s1_00001" + ext),
+        };
+        List<File> files = new ArrayList<File>();
+        files.add(stream1[1]);
+        files.add(stream0[2]);
+        files.add(stream0[0]);
+        files.add(stream1[0]);
+        files.add(stream0[1]);
+        
+        Collection<List<File>> streams = CommandLogReplayer.getLogStreams(files);
+        assertEquals(2, streams.size());
+        for (List<File> stream : streams) {
+            File expected[] = (stream.size() == stream0.length ? stream0 : stream1);
+            assertEquals(Arrays.asList(expected), stream);
+        } // FOR
+    }
+    
+    /**
+     * testMemoryMapped
+     */
+    @Test
+    public void testMemoryMapped() throws Exception {
+        // Replace our default logger with one that uses memory-mapped files
+        logger.shutdown();
+        outputFile.delete();
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        hstore_conf.site.commandlog_mmap = true;
+        try {
+            outputFile = FileUtil.getTempFile("log");
+            logger = new CommandLogWriter(hstore_site, outputFile);
+            loggerThread = new Thread(this.logger);
+            loggerThread.setDaemon(true);
+            loggerThread.start();
+            
+            // The file should be pre-allocated before we write anything
+            assertTrue(outputFile.length() >= hstore_conf.site.commandlog_segment_size);
+            
+            long txnIds[] = new long[0];
+            for (int b = 0; b < 3; b++) {
+                long batch[] = this.writeTxns(100);
+                long temp[] = new long[txnIds.length + batch.length];
+                System.arraycopy(txnIds, 0, temp, 0, txnIds.length);
+                System.arraycopy(batch, 0, temp, txnIds.length, batch.length);
+                txnIds = temp;
+            } // FOR
+            logger.shutdown();
+            
+            CommandLogReader reader = new CommandLogReader(outputFile.getAbsolutePath());
+            int ctr = 0;
+            Iterator<List<LogEntry>> it = reader.batchIterator();
+            while (it.hasNext()) {
+                for (LogEntry entry : it.next()) {
+                    assertEquals(txnIds[ctr++], entry.getTransactionId().longValue());
+                    assertEquals(BASE_PARTITION, entry.getBasePartition());
+                } // FOR
+            } // WHILE
+            assertEquals(txnIds.length, ctr);
+        } finally {
+            hstore_conf.site.commandlog_mmap = false;
+        }
+    }
+    
+    /**
+     * testSegments
+     */
+    @Test
+    public void testSegments() throws Exception {
+        // Replace our default logger with one that uses tiny segments
+        logger.shutdown();
+        outputFile.delete();
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        long origSegmentSize = hstore_conf.site.commandlog_segment_size;
+        hstore_conf.site.commandlog_segment_size = 1024;
+        try {
+            outputFile = FileUtil.getTempFile("log");
+            logger = new CommandLogWriter(hstore_site, outputFile);
+            loggerThread = new Thread(this.logger);
+            loggerThread.setDaemon(true);
+            loggerThread.start();
+            
+            int num_batches = 5;
+            int num_txns = 100;
+            long txnId[] = new long[num_txns * num_batches];
+            for (int b = 0; b < num_batches; b++) {
+                for (int i = 0; i < num_txns; i++) {
+                    int idx = (b * num_txns) + i;
+                    LocalTransaction ts = new LocalTransaction(hstore_site);
+                    txnId[idx] = TXN_ID.incrementAndGet(); 
+                    ts.testInit(txnId[idx],
+                                BASE_PARTITION,
+                                new PartitionSet(BASE_PARTITION),
+                                catalog_procs[idx % 2],
+                                TARGET_PARAMS[idx % 2]);
+                    ClientResponseImpl cresponse = new ClientResponseImpl(txnId[idx],
+                                                                          0l,
+                                                                          BASE_PARTITION,
+                                                                          Status.OK,
+                                                                          HStoreConstants.EMPTY_RESULT,
+                                                                          "");
+                    assertFalse(logger.appendToLog(ts, cresponse));
+                } // FOR
+                logger.flush();
+            } // FOR
+            
+            List<LogSegment> segments = logger.getSegments();
+            assertTrue(segments.toString(), segments.size() > 1);
+            assertEquals(outputFile, segments.get(0).getFile());
+            assertFalse(CollectionUtil.last(segments).isClosed());
+            
+            // Make sure that we can read everything back in order
+            int ctr = 0;
+            for (LogSegment segment : segments) {
+                assertTrue(segment.getFile().exists());
+                CommandLogReader reader = new CommandLogReader(segment.getFile().getAbsolutePath());
+                for (LogEntry entry : reader) {
+                    assertEquals(txnId[ctr++], entry.getTransactionId().longValue());
+                } // FOR
+            } // FOR
+            
+            // Truncating should remove everything except for the active segment
+            int removed = logger.truncate(Long.MAX_VALUE);
+            assertEquals(segments.size() - 1, removed);
+            assertEquals(1, logger.getSegments().size());
+            for (int i = 0; i < segments.size() - 1; i++) {
+                assertFalse(segments.get(i).getFile().exists());
+            } // FOR
+            logger.shutdown();
+            CollectionUtil.last(segments).getFile().delete();
+        } finally {
+            hstore_conf.site.commandlog_segment_size = origSegmentSize;
+        }
+    }
+    
     @Test
     public void testWithGroupCommit() throws Exception {
         // Write out a new txn invocation to the log
@@ -140,6 +507,7 @@ public class TestCommandLogger extends BaseTestCase {
             assertNotNull(entry);
             assertEquals(txnId[ctr], entry.getTransactionId().longValue());
             assertEquals(catalog_procs[ctr % 2].getId(), entry.getProcedureId());
+            assertEquals(BASE_PARTITION, entry.getBasePartition());
             
             Object[] entryParams = entry.getProcedureParams().toArray();
             assertEquals(TARGET_PARAMS[ctr % 2].length, entryParams.length);
@@ -0,0 +1,185 @@
+package edu.brown.hstore.estimators.markov;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+
+import edu.brown.BaseTestCase;
+import edu.brown.benchmark.tm1.procedures.UpdateSubscriberData;
+import edu.brown.hstore.MockHStoreSite;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.markov.MarkovGraph;
+import edu.brown.markov.MarkovVertex;
+import edu.brown.markov.containers.MarkovGraphsContainer;
+import edu.brown.utils.PartitionSet;
+import edu.brown.utils.ProjectType;
+import edu.brown.workload.QueryTrace;
+import edu.brown.workload.TransactionTrace;
+
+public class TestMarkovLearner extends BaseTestCase {
+
+    private static final int NUM_PARTITIONS = 4;
+    private static final int NUM_TXNS = 100;
+    private static final int BASE_PARTITION = 0;
+
+    private Procedure catalog_proc;
+    private Statement update1;
+    private MarkovGraph markov;
+    private MarkovGraphsContainer markovs;
+    private MockHStoreSite hstore_site;
+    private final BlockingQueue<MarkovLearner.QueuedPath> queue = new LinkedBlockingQueue<MarkovLearner.QueuedPath>();
+    private MarkovLearner learner;
+    private int origPublishInterval;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TM1);
+        this.addPartitions(NUM_PARTITIONS);
+        this.catalog_proc = this.getProcedure(UpdateSubscriberData.class);
+        this.update1 = this.getStatement(this.catalog_proc, "update1");
+
+        Random rand = new Random(0);
+        this.markov = new MarkovGraph(this.catalog_proc).initialize();
+        for (int i = 0; i < NUM_TXNS; i++) {
+            long s_id = rand.nextInt(1000);
+            Object params[] = { s_id, 1l, 2l, 3l };
+            TransactionTrace txn_trace = new TransactionTrace(i, this.catalog_proc, params);
+            txn_trace.addQuery(new QueryTrace(this.update1, new Object[]{ 1l, s_id }, 0));
+            for (QueryTrace query_trace : txn_trace.getQueries()) {
+                query_trace.stop();
+            } // FOR
+            txn_trace.stop();
+            this.markov.processTransaction(txn_trace, p_estimator);
+        } // FOR
+        this.markov.calculateProbabilities(catalogContext.getAllPartitionIds());
+        this.markovs = new MarkovGraphsContainer();
+        this.markovs.put(BASE_PARTITION, this.markov);
+
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        this.origPublishInterval = hstore_conf.site.markov_learning_publish_interval;
+        hstore_conf.site.markov_learning_publish_interval = 0;
+        this.hstore_site = new MockHStoreSite(0, catalogContext, hstore_conf);
+        this.learner = new MarkovLearner(this.hstore_site, this.queue);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        HStoreConf.singleton().site.markov_learning_publish_interval = this.origPublishInterval;
+        super.tearDown();
+    }
+
+    /**
+     * Create a path through the graph with a query vertex that does not exist yet
+     */
+    private List<MarkovVertex> createNewPath(MarkovGraph markov) {
+        PartitionSet partitions = new PartitionSet();
+        partitions.add(NUM_PARTITIONS - 1);
+        List<MarkovVertex> path = new ArrayList<MarkovVertex>();
+        path.add(markov.getStartVertex());
+        path.add(new MarkovVertex(this.update1, MarkovVertex.Type.QUERY, 0, partitions, new PartitionSet()));
+        path.add(markov.getCommitVertex());
+        return (path);
+    }
+
+    /**
+     * testPublish
+     */
+    public void testPublish() throws Exception {
+        int origVertexCount = this.markov.getVertexCount();
+        int origEdgeCount = this.markov.getEdgeCount();
+        long origStartHits = this.markov.getStartVertex().getTotalHits();
+        List<MarkovVertex> path = this.createNewPath(this.markov);
+        assertFalse(this.markov.containsVertex(path.get(1)));
+
+        this.learner.queuePath(this.markovs, this.markov, path);
+        assertEquals(1, this.learner.getQueueSize());
+        this.learner.processingCallback(this.queue.poll());
+        assertEquals(0, this.learner.getQueueSize());
+        assertEquals(1, this.learner.getPathCount());
+        assertEquals(1, this.learner.getPublishCount());
+        assertEquals(1, this.learner.getShadowCount());
+
+        // The original graph should not have been modified
+        assertEquals(origVertexCount, this.markov.getVertexCount());
+        assertEquals(origEdgeCount, this.markov.getEdgeCount());
+        assertEquals(origStartHits, this.markov.getStartVertex().getTotalHits());
+        assertFalse(this.markov.containsVertex(path.get(1)));
+
+        // But the published one should have the new path
+        MarkovGraph published = this.markovs.get(BASE_PARTITION, this.catalog_proc);
+        assertNotSame(this.markov, published);
+        assertTrue(this.markovs.contains(published));
+        assertFalse(this.markovs.contains(this.markov));
+        assertEquals(origVertexCount + 1, published.getVertexCount());
+        assertEquals(origEdgeCount + 2, published.getEdgeCount());
+        assertEquals(origStartHits + 1, published.getStartVertex().getTotalHits());
+        assertTrue(published.containsVertex(path.get(1)));
+        assertTrue(published.isValid());
+        for (MarkovVertex v : this.markov.getVertices()) {
+            assertTrue(v.toString(), published.containsVertex(v));
+            for (MarkovVertex other : published.getVertices()) {
+                assertNotSame(v, other);
+            } // FOR
+        } // FOR
+
+        // A txn that started with the original graph should still get
+        // applied to the same shadow graph
+        this.learner.queuePath(this.markovs, this.markov, this.createNewPath(this.markov));
+        this.learner.processingCallback(this.queue.poll());
+        assertEquals(2, this.learner.getPathCount());
+        assertEquals(2, this.learner.getPublishCount());
+        assertEquals(1, this.learner.getShadowCount());
+        MarkovGraph published2 = this.markovs.get(BASE_PARTITION, this.catalog_proc);
+        assertNotSame(published, published2);
+        assertEquals(origVertexCount + 1, published2.getVertexCount());
+        assertEquals(origStartHits + 2, published2.getStartVertex().getTotalHits());
+        assertEquals(origStartHits + 1, published.getStartVertex().getTotalHits());
+    }
+
+    /**
+     * testQueueRecompute
+     */
+    public void testQueueRecompute() throws Exception {
+        this.learner.queueRecompute(this.markovs, this.markov);
+        this.learner.processingCallback(this.queue.poll());
+        assertEquals(0, this.learner.getPathCount());
+        assertEquals(1, this.learner.getPublishCount());
+
+        MarkovGraph published = this.markovs.get(BASE_PARTITION, this.catalog_proc);
+        assertNotSame(this.markov, published);
+        assertEquals(this.markov.getVertexCount(), published.getVertexCount());
+        assertEquals(this.markov.getEdgeCount(), published.getEdgeCount());
+        assertEquals(this.markov.getRecomputeCount() + 1, published.getRecomputeCount());
+    }
+
+    /**
+     * testPublishWhenIdle
+     */
+    public void testPublishWhenIdle() throws Exception {
+        int interval = 50;
+        this.hstore_site.getHStoreConf().site.markov_learning_publish_interval = interval;
+        this.learner = new MarkovLearner(this.hstore_site, this.queue);
+        assertTrue(this.learner.getPollTimeout() < 0);
+
+        // The shadow was just created, so the change should not get published yet
+        this.learner.queuePath(this.markovs, this.markov, this.createNewPath(this.markov));
+        this.learner.processingCallback(this.queue.poll());
+        assertEquals(1, this.learner.getPathCount());
+        assertEquals(0, this.learner.getPublishCount());
+        assertSame(this.markov, this.markovs.get(BASE_PARTITION, this.catalog_proc));
+
+        // Nothing else is coming in, so the thread should wake up on its own
+        // and publish the pending change once the interval has passed
+        assertEquals(interval, this.learner.getPollTimeout());
+        Thread.sleep(interval * 2);
+        this.learner.idleCallback();
+        assertEquals(1, this.learner.getPublishCount());
+        assertNotSame(this.markov, this.markovs.get(BASE_PARTITION, this.catalog_proc));
+        assertTrue(this.learner.getPollTimeout() < 0);
+    }
+}
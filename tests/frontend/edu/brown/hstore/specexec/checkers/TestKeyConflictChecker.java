@@ -0,0 +1,191 @@
+package edu.brown.hstore.specexec.checkers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.voltdb.ParameterSet;
+import org.voltdb.catalog.PlanFragment;
+import org.voltdb.catalog.ProcParameter;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+import org.voltdb.catalog.StmtParameter;
+import org.voltdb.catalog.Table;
+
+import edu.brown.BaseTestCase;
+import edu.brown.benchmark.ycsb.YCSBConstants;
+import edu.brown.benchmark.ycsb.procedures.ReadRecord;
+import edu.brown.benchmark.ycsb.procedures.ScanRecord;
+import edu.brown.benchmark.ycsb.procedures.UpdateRecord;
+import edu.brown.hstore.HStoreSite;
+import edu.brown.hstore.MockHStoreSite;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.hstore.txns.LocalTransaction;
+import edu.brown.mappings.ParameterMapping;
+import edu.brown.mappings.ParametersUtil;
+import edu.brown.utils.CollectionUtil;
+import edu.brown.utils.PartitionSet;
+import edu.brown.utils.ProjectType;
+
+public class TestKeyConflictChecker extends BaseTestCase {
+
+    private static final int NUM_PARTITIONS = 4;
+    private static final int BASE_PARTITION = 1;
+    private static final long TARGET_KEY = 1234l;
+
+    private HStoreSite hstore_site;
+    private KeyConflictChecker checker;
+    private Table catalog_tbl;
+    private long nextTxnId = 1000;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp(ProjectType.YCSB);
+        this.addPartitions(NUM_PARTITIONS);
+        assertNotNull(catalogContext.paramMappings);
+
+        this.hstore_site = new MockHStoreSite(0, catalogContext, HStoreConf.singleton());
+        this.checker = new KeyConflictChecker(catalogContext);
+        this.catalog_tbl = this.getTable(YCSBConstants.TABLE_NAME);
+    }
+
+    // ----------------------------------------------------------------------------------
+    // HELPER METHODS
+    // ----------------------------------------------------------------------------------
+
+    private LocalTransaction createTransaction(Procedure catalog_proc, Object params[]) throws Exception {
+        PartitionSet partitions = new PartitionSet(BASE_PARTITION);
+        LocalTransaction ts = new LocalTransaction(this.hstore_site);
+        ts.testInit(this.nextTxnId++,
+                    BASE_PARTITION,
+                    partitions,
+                    catalog_proc,
+                    params);
+        return (ts);
+    }
+
+    private Object[] makeUpdateParams(long key) {
+        return new Object[]{ key, new String[YCSBConstants.NUM_COLUMNS] };
+    }
+
+    /**
+     * Pretend that the txn executed the given Statement at the base partition
+     */
+    private void executeStatement(LocalTransaction ts, Statement catalog_stmt, Object stmtParams[]) {
+        PlanFragment catalog_frag = CollectionUtil.first(catalog_stmt.getFragments());
+        assertNotNull(catalog_frag);
+        if (catalog_frag.getReadonly()) {
+            ts.markTableRead(BASE_PARTITION, this.catalog_tbl);
+        } else {
+            ts.markTableWritten(BASE_PARTITION, this.catalog_tbl);
+        }
+        this.checker.trackQuery(ts, BASE_PARTITION, catalog_frag.getId(), new ParameterSet(stmtParams));
+    }
+
+    // ----------------------------------------------------------------------------------
+    // TESTS
+    // ----------------------------------------------------------------------------------
+
+    /**
+     * testTrackQuery
+     */
+    public void testTrackQuery() throws Exception {
+        Procedure proc = this.getProcedure(ReadRecord.class);
+        LocalTransaction ts = this.createTransaction(proc, new Object[]{ TARGET_KEY });
+        Statement stmt = this.getStatement(proc, "readStmt");
+
+        // The StmtParameter is an Integer here but the key should still
+        // be stored as a Long so that it matches the ProcParameter
+        this.executeStatement(ts, stmt, new Object[]{ Integer.valueOf((int)TARGET_KEY) });
+        assertNotNull(ts.getKeysRead(BASE_PARTITION, this.catalog_tbl.getRelativeIndex()));
+        assertTrue(ts.getKeysRead(BASE_PARTITION, this.catalog_tbl.getRelativeIndex()).contains(TARGET_KEY));
+        assertNull(ts.getKeysWritten(BASE_PARTITION, this.catalog_tbl.getRelativeIndex()));
+    }
+
+    /**
+     * testReadAfterWrite
+     */
+    public void testReadAfterWrite() throws Exception {
+        Procedure dtxnProc = this.getProcedure(UpdateRecord.class);
+        LocalTransaction dtxn = this.createTransaction(dtxnProc, this.makeUpdateParams(TARGET_KEY));
+        Statement dtxnStmt = this.getStatement(dtxnProc, "updateAllStmt");
+        Object stmtParams[] = new Object[dtxnStmt.getParameters().size()];
+        stmtParams[stmtParams.length-1] = TARGET_KEY;
+        this.executeStatement(dtxn, dtxnStmt, stmtParams);
+
+        Procedure proc = this.getProcedure(ReadRecord.class);
+        LocalTransaction same = this.createTransaction(proc, new Object[]{ TARGET_KEY });
+        assertTrue(this.checker.hasConflictBefore(dtxn, same, BASE_PARTITION));
+
+        LocalTransaction other = this.createTransaction(proc, new Object[]{ TARGET_KEY + 1 });
+        assertFalse(this.checker.hasConflictBefore(dtxn, other, BASE_PARTITION));
+    }
+
+    /**
+     * testWriteAfterRead
+     */
+    public void testWriteAfterRead() throws Exception {
+        Procedure dtxnProc = this.getProcedure(ReadRecord.class);
+        LocalTransaction dtxn = this.createTransaction(dtxnProc, new Object[]{ TARGET_KEY });
+        this.executeStatement(dtxn, this.getStatement(dtxnProc, "readStmt"), new Object[]{ TARGET_KEY });
+
+        Procedure proc = this.getProcedure(UpdateRecord.class);
+        LocalTransaction same = this.createTransaction(proc, this.makeUpdateParams(TARGET_KEY));
+        assertTrue(this.checker.hasConflictBefore(dtxn, same, BASE_PARTITION));
+
+        LocalTransaction other = this.createTransaction(proc, this.makeUpdateParams(TARGET_KEY + 1));
+        assertFalse(this.checker.hasConflictBefore(dtxn, other, BASE_PARTITION));
+    }
+
+    /**
+     * testRangeScan
+     */
+    public void testRangeScan() throws Exception {
+        // We don't know what keys a range scan will read, so it should
+        // always conflict with a candidate that updates the table
+        Procedure dtxnProc = this.getProcedure(ScanRecord.class);
+        LocalTransaction dtxn = this.createTransaction(dtxnProc, new Object[]{ TARGET_KEY, 10l });
+        this.executeStatement(dtxn, this.getStatement(dtxnProc, "scanStmt"), new Object[]{ TARGET_KEY, TARGET_KEY + 10 });
+
+        Procedure proc = this.getProcedure(UpdateRecord.class);
+        LocalTransaction other = this.createTransaction(proc, this.makeUpdateParams(TARGET_KEY + 1000));
+        assertTrue(this.checker.hasConflictBefore(dtxn, other, BASE_PARTITION));
+    }
+
+    /**
+     * testNoTableAccess
+     */
+    public void testNoTableAccess() throws Exception {
+        // If the dtxn hasn't executed anything yet, then there is no conflict
+        Procedure dtxnProc = this.getProcedure(UpdateRecord.class);
+        LocalTransaction dtxn = this.createTransaction(dtxnProc, this.makeUpdateParams(TARGET_KEY));
+
+        Procedure proc = this.getProcedure(UpdateRecord.class);
+        LocalTransaction same = this.createTransaction(proc, this.makeUpdateParams(TARGET_KEY));
+        assertFalse(this.checker.hasConflictBefore(dtxn, same, BASE_PARTITION));
+    }
+
+    /**
+     * testAmbiguousMappings
+     */
+    public void testAmbiguousMappings() throws Exception {
+        Procedure proc = this.getProcedure(ScanRecord.class);
+        Statement stmt = this.getStatement(proc, "scanStmt");
+        StmtParameter stmtParam = stmt.getParameters().get(0);
+        ProcParameter procParam0 = proc.getParameters().get(0);
+        ProcParameter procParam1 = proc.getParameters().get(1);
+
+        // Inexact mappings are always ignored
+        List<ParameterMapping> mappings = new ArrayList<ParameterMapping>();
+        mappings.add(new ParameterMapping(stmt, 0, stmtParam, procParam1, ParametersUtil.NULL_PROC_PARAMETER_OFFSET, 0.5));
+        assertNull(KeyConflictChecker.getExactSource(mappings));
+
+        mappings.add(new ParameterMapping(stmt, 0, stmtParam, procParam0, ParametersUtil.NULL_PROC_PARAMETER_OFFSET, 1.0));
+        assertEquals(procParam0, KeyConflictChecker.getExactSource(mappings));
+
+        // If the key could come from more than one ProcParameter, then
+        // we don't know which one the txn will actually use
+        mappings.add(new ParameterMapping(stmt, 0, stmtParam, procParam1, ParametersUtil.NULL_PROC_PARAMETER_OFFSET, 1.0));
+        assertNull(KeyConflictChecker.getExactSource(mappings));
+    }
+}
@@ -0,0 +1,146 @@
+package edu.brown.hstore.specexec.checkers;
+
+import org.junit.Before;
+import org.voltdb.ParameterSet;
+import org.voltdb.benchmark.tpcc.TPCCConstants;
+import org.voltdb.benchmark.tpcc.procedures.neworder;
+import org.voltdb.catalog.PlanFragment;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+import org.voltdb.catalog.Table;
+import org.voltdb.types.TimestampType;
+
+import edu.brown.BaseTestCase;
+import edu.brown.hstore.HStoreSite;
+import edu.brown.hstore.MockHStoreSite;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.hstore.txns.LocalTransaction;
+import edu.brown.utils.CollectionUtil;
+import edu.brown.utils.PartitionSet;
+import edu.brown.utils.ProjectType;
+
+/**
+ * KeyConflictChecker tests for tables with composite primary keys
+ * that are accessed using array ProcParameters.
+ */
+public class TestKeyConflictCheckerTPCC extends BaseTestCase {
+
+    private static final int NUM_PARTITIONS = 4;
+    private static final int BASE_PARTITION = 1;
+    private static final short TARGET_W_ID = 1;
+    private static final int TARGET_I_ID = 1234;
+
+    private HStoreSite hstore_site;
+    private KeyConflictChecker checker;
+    private Procedure catalog_proc;
+    private Table catalog_tbl;
+    private long nextTxnId = 1000;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp(ProjectType.TPCC);
+        this.addPartitions(NUM_PARTITIONS);
+        assertNotNull(catalogContext.paramMappings);
+
+        this.hstore_site = new MockHStoreSite(0, catalogContext, HStoreConf.singleton());
+        this.checker = new KeyConflictChecker(catalogContext);
+        this.catalog_proc = this.getProcedure(neworder.class);
+        this.catalog_tbl = this.getTable(TPCCConstants.TABLENAME_STOCK);
+    }
+
+    // ----------------------------------------------------------------------------------
+    // HELPER METHODS
+    // ----------------------------------------------------------------------------------
+
+    private LocalTransaction createTransaction(int itemIds[], short supplyWarehouses[]) throws Exception {
+        Object params[] = new Object[]{
+            TARGET_W_ID,                        // W_ID
+            (byte)1,                            // D_ID
+            1,                                  // C_ID
+            new TimestampType(),                // TIMESTAMP
+            itemIds,                            // ITEM_ID
+            supplyWarehouses,                   // SUPPLY_W_ID
+            new int[itemIds.length],            // QUANTITY
+        };
+        PartitionSet partitions = new PartitionSet(BASE_PARTITION);
+        LocalTransaction ts = new LocalTransaction(this.hstore_site);
+        ts.testInit(this.nextTxnId++,
+                    BASE_PARTITION,
+                    partitions,
+                    this.catalog_proc,
+                    params);
+        return (ts);
+    }
+
+    /**
+     * Pretend that the txn updated the STOCK record for the given key at the base partition
+     */
+    private void updateStock(LocalTransaction ts, short w_id, int i_id) {
+        Statement catalog_stmt = this.getStatement(this.catalog_proc, "updateStock");
+        PlanFragment catalog_frag = CollectionUtil.first(catalog_stmt.getFragments());
+        assertNotNull(catalog_frag);
+        Object stmtParams[] = new Object[]{ 10, 1.0d, 1, 0, i_id, w_id };
+        ts.markTableWritten(BASE_PARTITION, this.catalog_tbl);
+        this.checker.trackQuery(ts, BASE_PARTITION, catalog_frag.getId(), new ParameterSet(stmtParams));
+    }
+
+    // ----------------------------------------------------------------------------------
+    // TESTS
+    // ----------------------------------------------------------------------------------
+
+    /**
+     * testCompositeKey
+     */
+    public void testCompositeKey() throws Exception {
+        LocalTransaction dtxn = this.createTransaction(new int[]{ TARGET_I_ID }, new short[]{ TARGET_W_ID });
+        this.updateStock(dtxn, TARGET_W_ID, TARGET_I_ID);
+        assertNotNull(dtxn.getKeysWritten(BASE_PARTITION, this.catalog_tbl.getRelativeIndex()));
+
+        // One of the items in the candidate's arrays is the same STOCK record
+        LocalTransaction same = this.createTransaction(new int[]{ TARGET_I_ID + 1, TARGET_I_ID },
+                                                       new short[]{ TARGET_W_ID, TARGET_W_ID });
+        assertTrue(this.checker.hasConflictBefore(dtxn, same, BASE_PARTITION));
+
+        // Different items at the same warehouse
+        LocalTransaction otherItem = this.createTransaction(new int[]{ TARGET_I_ID + 1, TARGET_I_ID + 2 },
+                                                            new short[]{ TARGET_W_ID, TARGET_W_ID });
+        assertFalse(this.checker.hasConflictBefore(dtxn, otherItem, BASE_PARTITION));
+
+        // The same item but at a different warehouse
+        LocalTransaction otherWarehouse = this.createTransaction(new int[]{ TARGET_I_ID },
+                                                                 new short[]{ TARGET_W_ID + 1 });
+        assertFalse(this.checker.hasConflictBefore(dtxn, otherWarehouse, BASE_PARTITION));
+    }
+
+    /**
+     * testMaxCandidateKeys
+     */
+    public void testMaxCandidateKeys() throws Exception {
+        LocalTransaction dtxn = this.createTransaction(new int[]{ TARGET_I_ID }, new short[]{ TARGET_W_ID });
+        this.updateStock(dtxn, TARGET_W_ID, TARGET_I_ID);
+
+        // The combinations of the item and warehouse arrays are just
+        // under the limit, so we should still check every key
+        int num_items = (int)Math.sqrt(KeyConflictChecker.MAX_CANDIDATE_KEYS);
+        int itemIds[] = new int[num_items];
+        short supplyWarehouses[] = new short[num_items];
+        for (int i = 0; i < num_items; i++) {
+            itemIds[i] = TARGET_I_ID + 1 + i;
+            supplyWarehouses[i] = TARGET_W_ID;
+        } // FOR
+        LocalTransaction under = this.createTransaction(itemIds, supplyWarehouses);
+        assertFalse(this.checker.hasConflictBefore(dtxn, under, BASE_PARTITION));
+
+        // Once there are too many combinations, we have to assume that
+        // the candidate could touch any STOCK record
+        num_items++;
+        itemIds = new int[num_items];
+        supplyWarehouses = new short[num_items];
+        for (int i = 0; i < num_items; i++) {
+            itemIds[i] = TARGET_I_ID + 1 + i;
+            supplyWarehouses[i] = TARGET_W_ID;
+        } // FOR
+        LocalTransaction over = this.createTransaction(itemIds, supplyWarehouses);
+        assertTrue(this.checker.hasConflictBefore(dtxn, over, BASE_PARTITION));
+    }
+}
@@ -0,0 +1,135 @@
+package edu.brown.hstore.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.voltdb.catalog.Procedure;
+
+import edu.brown.BaseTestCase;
+import edu.brown.benchmark.tm1.procedures.DeleteCallForwarding;
+import edu.brown.hstore.MockHStoreSite;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.hstore.txns.AbstractTransaction;
+import edu.brown.hstore.txns.LocalTransaction;
+import edu.brown.utils.PartitionSet;
+import edu.brown.utils.ProjectType;
+
+public class TestTxnIdPriorityQueue extends BaseTestCase {
+
+    private static final int NUM_TXNS = 1000;
+    private static final int NUM_THREADS = 4;
+    private static final Random random = new Random(0);
+
+    private final TxnIdPriorityQueue queue = new TxnIdPriorityQueue();
+    private final List<AbstractTransaction> txns = new ArrayList<AbstractTransaction>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TM1);
+        MockHStoreSite hstore_site = new MockHStoreSite(0, catalogContext, HStoreConf.singleton());
+        Procedure catalog_proc = this.getProcedure(DeleteCallForwarding.class);
+        for (long i = 0; i < NUM_TXNS; i++) {
+            LocalTransaction ts = new LocalTransaction(hstore_site);
+            ts.testInit(1000 + i, 0, new PartitionSet(0), catalog_proc);
+            this.txns.add(ts);
+        } // FOR
+    }
+
+    /**
+     * testOrder
+     */
+    public void testOrder() throws Exception {
+        List<AbstractTransaction> shuffled = new ArrayList<AbstractTransaction>(this.txns);
+        Collections.shuffle(shuffled, random);
+        for (AbstractTransaction ts : shuffled) {
+            assertTrue(this.queue.offer(ts));
+        } // FOR
+        assertEquals(NUM_TXNS, this.queue.size());
+
+        // The iterator should be sorted too
+        Iterator<AbstractTransaction> it = this.queue.iterator();
+        for (AbstractTransaction expected : this.txns) {
+            assertEquals(expected, it.next());
+        } // FOR
+        assertFalse(it.hasNext());
+
+        for (AbstractTransaction expected : this.txns) {
+            assertEquals(expected, this.queue.peek());
+            assertEquals(expected, this.queue.poll());
+        } // FOR
+        assertTrue(this.queue.isEmpty());
+        assertNull(this.queue.poll());
+    }
+
+    /**
+     * testRemove
+     */
+    public void testRemove() throws Exception {
+        for (AbstractTransaction ts : this.txns) {
+            assertTrue(this.queue.offer(ts));
+        } // FOR
+
+        // Remove every other txn from the middle of the heap
+        List<AbstractTransaction> expected = new ArrayList<AbstractTransaction>();
+        for (int i = 0; i < NUM_TXNS; i++) {
+            AbstractTransaction ts = this.txns.get(i);
+            if (i % 2 == 1) {
+                assertTrue(this.queue.contains(ts));
+                assertTrue(this.queue.remove(ts));
+                assertFalse(this.queue.contains(ts));
+                assertFalse(this.queue.remove(ts));
+            } else {
+                expected.add(ts);
+            }
+        } // FOR
+        assertEquals(expected.size(), this.queue.size());
+        for (AbstractTransaction ts : expected) {
+            assertEquals(ts, this.queue.poll());
+        } // FOR
+        assertTrue(this.queue.isEmpty());
+    }
+
+    /**
+     * testConcurrentOffer
+     */
+    public void testConcurrentOffer() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(NUM_THREADS);
+        for (int t = 0; t < NUM_THREADS; t++) {
+            final int offset = t;
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    for (int i = offset; i < NUM_TXNS; i += NUM_THREADS) {
+                        queue.offer(txns.get(i));
+                    } // FOR
+                    done.countDown();
+                }
+            };
+            thread.setDaemon(true);
+            thread.start();
+        } // FOR
+
+        // Keep polling while the other threads are adding txns
+        start.countDown();
+        int polled = 0;
+        while (polled < NUM_TXNS) {
+            if (this.queue.poll() != null) {
+                polled++;
+            } else if (done.getCount() == 0) {
+                assertEquals(NUM_TXNS - polled, this.queue.size());
+            }
+        } // WHILE
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(this.queue.isEmpty());
+    }
+}
@@ -0,0 +1,202 @@
+package edu.brown.markov;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.voltdb.catalog.ProcParameter;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+import org.voltdb.catalog.StmtParameter;
+
+import edu.brown.BaseTestCase;
+import edu.brown.benchmark.tm1.procedures.UpdateSubscriberData;
+import edu.brown.hstore.estimators.EstimatorUtil;
+import edu.brown.hstore.estimators.markov.MarkovEstimate;
+import edu.brown.hstore.estimators.markov.MarkovPathEstimator;
+import edu.brown.mappings.ParameterMapping;
+import edu.brown.utils.FileUtil;
+import edu.brown.utils.ProjectType;
+import edu.brown.workload.QueryTrace;
+import edu.brown.workload.TransactionTrace;
+
+public class TestCompiledMarkovGraph extends BaseTestCase {
+
+    private static final int NUM_PARTITIONS = 8;
+    private static final int NUM_TXNS = 1000;
+
+    private Procedure catalog_proc;
+    private MarkovGraph markov;
+    private final List<Object[]> txnParams = new ArrayList<Object[]>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TM1);
+        this.addPartitions(NUM_PARTITIONS);
+        this.catalog_proc = this.getProcedure(UpdateSubscriberData.class);
+        Statement update1 = this.getStatement(this.catalog_proc, "update1");
+        Statement update2 = this.getStatement(this.catalog_proc, "update2");
+
+        // UpdateSubscriberData's S_ID is used in both of its queries
+        assertNotNull(catalogContext.paramMappings);
+        ProcParameter proc_param = this.catalog_proc.getParameters().get(0);
+        for (Statement catalog_stmt : new Statement[]{ update1, update2 }) {
+            StmtParameter stmt_param = catalog_stmt.getParameters().get(1);
+            catalogContext.paramMappings.add(new ParameterMapping(catalog_stmt, 0, stmt_param, proc_param, 0, 1.0d));
+        } // FOR
+
+        // Build a MarkovGraph with a mix of commit, abort, and multi-partition txns
+        Random rand = new Random(0);
+        this.markov = new MarkovGraph(this.catalog_proc).initialize();
+        for (int i = 0; i < NUM_TXNS; i++) {
+            long s_id = rand.nextInt(1000);
+            Object params[] = { s_id, 1l, 2l, 3l };
+            TransactionTrace txn_trace = new TransactionTrace(i, this.catalog_proc, params);
+            txn_trace.addQuery(new QueryTrace(update1, new Object[]{ 1l, s_id }, 0));
+            int type = rand.nextInt(10);
+            if (type < 2) {
+                txn_trace.abort();
+            } else {
+                long other_s_id = (type == 9 ? s_id + 1 : s_id);
+                txn_trace.addQuery(new QueryTrace(update2, new Object[]{ 2l, other_s_id, 3l }, 1));
+            }
+            for (QueryTrace query_trace : txn_trace.getQueries()) {
+                query_trace.stop();
+            } // FOR
+            txn_trace.stop();
+            this.markov.processTransaction(txn_trace, p_estimator);
+            this.txnParams.add(params);
+        } // FOR
+        this.markov.calculateProbabilities(catalogContext.getAllPartitionIds());
+    }
+
+    private MarkovEstimate estimate(MarkovGraph markov, Object params[]) throws Exception {
+        MarkovEstimate est = new MarkovEstimate(catalogContext);
+        est.init(markov.getStartVertex(), EstimatorUtil.INITIAL_ESTIMATE_BATCH);
+        MarkovPathEstimator pathEstimator = new MarkovPathEstimator(catalogContext, p_estimator);
+        pathEstimator.setForceTraversal(true);
+        pathEstimator.init(markov, est, params, p_estimator.getBasePartition(this.catalog_proc, params));
+        pathEstimator.traverse(markov.getStartVertex());
+        return (est);
+    }
+
+    private MarkovEstimate estimate(CompiledMarkovGraph compiled, Object params[]) throws Exception {
+        MarkovEstimate est = new MarkovEstimate(catalogContext);
+        est.init(this.markov.getStartVertex(), EstimatorUtil.INITIAL_ESTIMATE_BATCH);
+        MarkovPathEstimator pathEstimator = new MarkovPathEstimator(catalogContext, p_estimator);
+        pathEstimator.setForceTraversal(true);
+        pathEstimator.init(compiled, est, params, p_estimator.getBasePartition(this.catalog_proc, params));
+        pathEstimator.traverse(CompiledMarkovGraph.START_INDEX);
+        return (est);
+    }
+
+    private void assertEstimateEquals(MarkovEstimate expected, MarkovEstimate actual) {
+        assertEquals(expected.getMarkovPath(), actual.getMarkovPath());
+        assertEquals(expected.getConfidenceCoefficient(), actual.getConfidenceCoefficient(), MarkovGraph.PROBABILITY_EPSILON);
+        assertEquals(expected.getAbortProbability(), actual.getAbortProbability(), MarkovGraph.PROBABILITY_EPSILON);
+        for (int partition : catalogContext.getAllPartitionIds().values()) {
+            assertEquals(expected.getDoneProbability(partition), actual.getDoneProbability(partition), MarkovGraph.PROBABILITY_EPSILON);
+            assertEquals(expected.getWriteProbability(partition), actual.getWriteProbability(partition), MarkovGraph.PROBABILITY_EPSILON);
+            assertEquals(expected.getTouchedCounter(partition), actual.getTouchedCounter(partition));
+        } // FOR
+    }
+
+    /**
+     * testCompile
+     */
+    public void testCompile() throws Exception {
+        CompiledMarkovGraph compiled = this.markov.getCompiledGraph();
+        assertNotNull(compiled);
+        assertSame(compiled, this.markov.getCompiledGraph());
+        assertEquals(this.markov.getVertexCount(), compiled.getVertexCount());
+        assertEquals(this.markov.getEdgeCount(), compiled.getEdgeCount());
+        assertEquals(this.markov.getStartVertex(), compiled.getVertex(CompiledMarkovGraph.START_INDEX));
+        assertEquals(this.markov.getCommitVertex(), compiled.getVertex(CompiledMarkovGraph.COMMIT_INDEX));
+        assertEquals(this.markov.getAbortVertex(), compiled.getVertex(CompiledMarkovGraph.ABORT_INDEX));
+
+        for (MarkovVertex v : this.markov.getVertices()) {
+            int idx = compiled.getVertexIndex(v);
+            assertSame(v, compiled.getVertex(idx));
+            assertEquals(v.getTotalHits(), compiled.getTotalHits(idx));
+            assertEquals(v.getAbortProbability(), compiled.getAbortProbability(idx));
+            for (int partition : catalogContext.getAllPartitionIds().values()) {
+                assertEquals(v.getDoneProbability(partition), compiled.getDoneProbability(idx, partition));
+                assertEquals(v.getWriteProbability(partition), compiled.getWriteProbability(idx, partition));
+            } // FOR
+            assertEquals(this.markov.getSuccessorCount(v), compiled.getEdgesEnd(idx) - compiled.getEdgesStart(idx));
+            float last = 1.0f;
+            for (int e = compiled.getEdgesStart(idx); e < compiled.getEdgesEnd(idx); e++) {
+                MarkovVertex dest = compiled.getVertex(compiled.getEdgeDest(e));
+                assertEquals(this.markov.findEdge(v, dest).getProbability(), compiled.getEdgeProbability(e));
+                assertTrue(compiled.getEdgeProbability(e) <= last);
+                last = compiled.getEdgeProbability(e);
+            } // FOR
+        } // FOR
+
+        // Recalculating the probabilities should invalidate the compiled graph
+        this.markov.calculateProbabilities(catalogContext.getAllPartitionIds());
+        assertNotSame(compiled, this.markov.getCompiledGraph());
+    }
+
+    /**
+     * testTraverse
+     */
+    public void testTraverse() throws Exception {
+        CompiledMarkovGraph compiled = this.markov.getCompiledGraph();
+        for (Object params[] : this.txnParams) {
+            MarkovEstimate expected = this.estimate(this.markov, params);
+            MarkovEstimate actual = this.estimate(compiled, params);
+            assertFalse(actual.getMarkovPath().isEmpty());
+            assertEstimateEquals(expected, actual);
+        } // FOR
+    }
+
+    /**
+     * testSaveLoad
+     */
+    public void testSaveLoad() throws Exception {
+        CompiledMarkovGraph compiled = this.markov.getCompiledGraph();
+        File path = FileUtil.getTempFile("markov", true);
+        compiled.save(path);
+        CompiledMarkovGraph clone = CompiledMarkovGraph.load(path, catalogContext.database);
+        assertEquals(compiled.getProcedure(), clone.getProcedure());
+        assertEquals(compiled.getGraphId(), clone.getGraphId());
+        assertEquals(compiled.getVertexCount(), clone.getVertexCount());
+        assertEquals(compiled.getEdgeCount(), clone.getEdgeCount());
+
+        // The vertices in the loaded graph are recreated from the arrays
+        for (int v = 0; v < compiled.getVertexCount(); v++) {
+            MarkovVertex expected = compiled.getVertex(v);
+            MarkovVertex actual = clone.getVertex(v);
+            assertNotSame(expected, actual);
+            assertEquals(expected, actual);
+            assertEquals(v, clone.getVertexIndex(actual));
+            assertEquals(expected.getTotalHits(), actual.getTotalHits());
+            assertEquals(expected.getAbortProbability(), actual.getAbortProbability());
+        } // FOR
+        for (Object params[] : this.txnParams) {
+            assertEstimateEquals(this.estimate(compiled, params), this.estimate(clone, params));
+        } // FOR
+    }
+
+    /**
+     * testReuseEstimator
+     */
+    public void testReuseEstimator() throws Exception {
+        // Reusing the same MarkovPathEstimator and MarkovEstimate for back-to-back
+        // txns on the compiled graph must not leak any state between them
+        CompiledMarkovGraph compiled = this.markov.getCompiledGraph();
+        MarkovPathEstimator pathEstimator = new MarkovPathEstimator(catalogContext, p_estimator);
+        pathEstimator.setForceTraversal(true);
+        MarkovEstimate est = new MarkovEstimate(catalogContext);
+        for (Object params[] : this.txnParams) {
+            est.init(this.markov.getStartVertex(), EstimatorUtil.INITIAL_ESTIMATE_BATCH);
+            pathEstimator.init(compiled, est, params, p_estimator.getBasePartition(this.catalog_proc, params));
+            pathEstimator.traverse(CompiledMarkovGraph.START_INDEX);
+            assertEstimateEquals(this.estimate(this.markov, params), est);
+            pathEstimator.finish();
+            est.finish();
+        } // FOR
+    }
+}
@@ -49,8 +49,31 @@ public class ProtoConnectionTest {
         assertEquals(2, channel.lastWrites.size());
     }
 
-    
-    
+    @Test
+    public void testBufferWrite() throws IOException {
+        final int NUM_MESSAGES = 3;
+        for (int i = 0; i < NUM_MESSAGES; i++) {
+            connection.bufferWrite(Counter.Value.newBuilder().setValue(i).build());
+        }
+        assertTrue(channel.lastWrites.isEmpty());
+
+        // All of the messages should go out in a single write
+        assertFalse(connection.tryFlush());
+        assertEquals(1, channel.lastWrites.size());
+
+        // And the other side should be able to pull them out one at a time
+        MockByteChannel other = new MockByteChannel();
+        ProtoConnection receiver = new ProtoConnection(new NonBlockingConnection(null, other));
+        other.setNextRead(channel.lastWrites.get(0));
+        assertTrue(receiver.readAllAvailable());
+        for (int i = 0; i < NUM_MESSAGES; i++) {
+            Counter.Value.Builder builder = Counter.Value.newBuilder();
+            assertTrue(receiver.readBufferedMessage(builder));
+            assertEquals(i, builder.build().getValue());
+        }
+        assertFalse(receiver.readBufferedMessage(Counter.Value.newBuilder()));
+    }
+
     @Test
     public void testReadBufferedMessage() throws IOException {
         Counter.Value.Builder builder = Counter.Value.newBuilder();
@@ -0,0 +1,94 @@
+package edu.brown.statistics;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TestLatencyHistogram extends TestCase {
+
+    private static final long HIGHEST_VALUE = 3600000l;
+    private static final int SIGNIFICANT_DIGITS = 2;
+    private static final int NUM_VALUES = 10000;
+    
+    private final Random rand = new Random(0);
+    private final LatencyHistogram h = new LatencyHistogram(HIGHEST_VALUE, SIGNIFICANT_DIGITS);
+    private final long values[] = new long[NUM_VALUES];
+    
+    @Override
+    protected void setUp() throws Exception {
+        for (int i = 0; i < NUM_VALUES; i++) {
+            // Exponential distribution so that we have a long tail
+            values[i] = (long)(-Math.log(1.0 - rand.nextDouble()) * 1000);
+            h.record(values[i]);
+        } // FOR
+        Arrays.sort(values);
+    }
+    
+    private long exactPercentile(double percentile) {
+        int idx = (int)Math.ceil((percentile / 100d) * values.length) - 1;
+        return (values[Math.max(0, idx)]);
+    }
+    
+    /**
+     * testPercentiles
+     */
+    public void testPercentiles() throws Exception {
+        assertEquals(NUM_VALUES, h.getCount());
+        assertEquals(values[0], h.getMinValue());
+        assertEquals(values[values.length-1], h.getMaxValue());
+        for (double percentile : new double[]{ 50d, 90d, 99d, 99.9d }) {
+            long expected = exactPercentile(percentile);
+            long actual = h.getValueAtPercentile(percentile);
+            double error = Math.abs(actual - expected) / (double)Math.max(1, expected);
+            assertTrue(String.format("P%.1f: expected=%d / actual=%d", percentile, expected, actual), error < 0.01);
+        } // FOR
+        assertEquals(h.getMaxValue(), h.getValueAtPercentile(100d));
+    }
+    
+    /**
+     * testMerge
+     */
+    public void testMerge() throws Exception {
+        LatencyHistogram h0 = new LatencyHistogram(HIGHEST_VALUE, SIGNIFICANT_DIGITS);
+        LatencyHistogram h1 = new LatencyHistogram(HIGHEST_VALUE, SIGNIFICANT_DIGITS);
+        for (int i = 0; i < NUM_VALUES; i++) {
+            (i % 2 == 0 ? h0 : h1).record(values[i]);
+        } // FOR
+        h0.add(h1);
+        assertEquals(h.getCount(), h0.getCount());
+        assertEquals(h.getMinValue(), h0.getMinValue());
+        assertEquals(h.getMaxValue(), h0.getMaxValue());
+        assertEquals(h.getMean(), h0.getMean(), 0.0001);
+        for (double percentile : new double[]{ 50d, 99d, 99.9d }) {
+            assertEquals(h.getValueAtPercentile(percentile), h0.getValueAtPercentile(percentile));
+        } // FOR
+        
+        try {
+            h0.add(new LatencyHistogram(HIGHEST_VALUE * 2, SIGNIFICANT_DIGITS));
+            fail("Merged histograms with different configurations");
+        } catch (IllegalArgumentException ex) {
+            // Expected
+        }
+    }
+    
+    /**
+     * testHighestTrackableValue
+     */
+    public void testHighestTrackableValue() throws Exception {
+        LatencyHistogram h0 = new LatencyHistogram(1000, SIGNIFICANT_DIGITS);
+        int length = h0.getCountsLength();
+        h0.record(10);
+        h0.record(1000);
+        h0.record(1000000);
+        assertEquals(length, h0.getCountsLength());
+        assertEquals(3, h0.getCount());
+        assertEquals(1000000, h0.getMaxValue());
+        assertEquals(1000000, h0.getValueAtPercentile(100d));
+        assertEquals(10, h0.getValueAtPercentile(10d));
+        
+        h0.clear();
+        assertTrue(h0.isEmpty());
+        assertEquals(0, h0.getValueAtPercentile(99d));
+    }
+}
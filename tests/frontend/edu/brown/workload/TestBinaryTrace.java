@@ -0,0 +1,150 @@
+package edu.brown.workload;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.voltdb.types.TimestampType;
+
+import edu.brown.utils.FileUtil;
+import edu.brown.workload.filters.Filter;
+import edu.brown.workload.filters.ProcedureNameFilter;
+import edu.brown.workload.filters.ProcedureLimitFilter;
+
+public class TestBinaryTrace extends TestCase {
+
+    static final int NUM_TXNS = 2500;
+    static final int BLOCK_SIZE = 100;
+    static final String PROC_NAMES[] = { "neworder", "payment", "delivery" };
+
+    List<TransactionTrace> txns = new ArrayList<TransactionTrace>();
+
+    @Override
+    protected void setUp() throws Exception {
+        long timestamp = 1000000l;
+        for (int i = 0; i < NUM_TXNS; i++) {
+            String proc_name = PROC_NAMES[i % PROC_NAMES.length];
+            Object params[] = {
+                Long.valueOf(i * 1000l),
+                Integer.valueOf(-i),
+                "txn" + i,
+                new long[]{ i, i + 1, i + 2 },
+                new String[]{ "a" + i, null },
+                (i % 5 == 0 ? null : new TimestampType(timestamp)),
+                Double.valueOf(i / 3d),
+                new byte[]{ 1, 2, (byte)i },
+                new BigDecimal("1234.5678"),
+                Boolean.valueOf(i % 2 == 0),
+            };
+            TransactionTrace txn_trace = new TransactionTrace();
+            txn_trace.catalog_item_name = proc_name;
+            txn_trace.params = params;
+            txn_trace.setTransactionId(10000 + i * 7);
+            txn_trace.setTimestamps(timestamp, (i % 11 == 0 ? null : timestamp + 500));
+            txn_trace.setWeight(1 + (i % 3));
+            if (i % 13 == 0) txn_trace.aborted = true;
+
+            for (int q = 0; q < i % 4; q++) {
+                QueryTrace query_trace = new QueryTrace(proc_name + ":query" + q, new Object[]{ i, "q" + q }, q / 2);
+                query_trace.setTimestamps(timestamp + q * 10, timestamp + q * 10 + 5);
+                if (q == 1) query_trace.setOutput(new Object[][]{ { 1l, "x" }, { 2l, "y" } });
+                txn_trace.addQuery(query_trace);
+            } // FOR
+            if (i % 17 == 0) txn_trace.setOutput(new Object[][]{ { (long)i } });
+            this.txns.add(txn_trace);
+            timestamp += 1000 + (i % 7);
+        } // FOR
+    }
+
+    private File writeTrace(String ext) throws Exception {
+        File path = FileUtil.getTempFile(ext, true);
+        BinaryTraceWriter writer = new BinaryTraceWriter(BinaryTraceUtil.openOutput(path), BLOCK_SIZE);
+        for (TransactionTrace txn_trace : this.txns) {
+            writer.write(txn_trace);
+        } // FOR
+        writer.close();
+        assertEquals(NUM_TXNS, writer.getTransactionCount());
+        assertTrue(BinaryTraceUtil.isBinaryTrace(path));
+        return (path);
+    }
+
+    private void assertElementEquals(AbstractTraceElement<?> expected, AbstractTraceElement<?> actual) {
+        assertEquals(expected.catalog_item_name, actual.catalog_item_name);
+        assertEquals(expected.getStartTimestamp(), actual.getStartTimestamp());
+        assertEquals(expected.getStopTimestamp(), actual.getStopTimestamp());
+        assertEquals(expected.isAborted(), actual.isAborted());
+        assertEquals(expected.getWeight(), actual.getWeight());
+        assertEquals(expected.getParamCount(), actual.getParamCount());
+        assertTrue(Arrays.deepEquals(expected.getParams(), actual.getParams()));
+        for (int i = 0; i < expected.getParamCount(); i++) {
+            Object param = expected.getParam(i);
+            if (param != null) assertEquals(param.getClass(), actual.getParam(i).getClass());
+        } // FOR
+        assertEquals(expected.hasOutput(), actual.hasOutput());
+        if (expected.hasOutput()) {
+            assertTrue(Arrays.deepEquals(expected.getOutput(), actual.getOutput()));
+            for (int i = 0; i < expected.getOutput().length; i++) {
+                assertTrue(Arrays.equals(expected.getOutputTypes(i), actual.getOutputTypes(i)));
+            } // FOR
+        }
+    }
+
+    /**
+     * testReadWrite
+     */
+    public void testReadWrite() throws Exception {
+        for (String ext : new String[]{ "trace", "trace.gz" }) {
+            File path = this.writeTrace(ext);
+            BinaryTraceReader reader = new BinaryTraceReader(path);
+            int ctr = 0;
+            for (TransactionTrace txn_trace : reader) {
+                TransactionTrace expected = this.txns.get(ctr++);
+                assertEquals(expected.getTransactionId(), txn_trace.getTransactionId());
+                assertElementEquals(expected, txn_trace);
+                assertEquals(expected.getQueryCount(), txn_trace.getQueryCount());
+                assertEquals(expected.getBatchCount(), txn_trace.getBatchCount());
+                for (int q = 0; q < expected.getQueryCount(); q++) {
+                    QueryTrace expected_q = expected.getQuery(q);
+                    QueryTrace actual_q = txn_trace.getQuery(q);
+                    assertEquals(expected_q.getBatchId(), actual_q.getBatchId());
+                    assertElementEquals(expected_q, actual_q);
+                } // FOR
+            } // FOR
+            assertEquals(NUM_TXNS, ctr);
+            assertEquals(NUM_TXNS, reader.getTransactionCount());
+        } // FOR
+    }
+
+    /**
+     * testFilter
+     */
+    public void testFilter() throws Exception {
+        File path = this.writeTrace("trace");
+
+        // ProcedureNameFilter
+        ProcedureNameFilter nameFilter = new ProcedureNameFilter(false);
+        nameFilter.include(PROC_NAMES[1]);
+        int ctr = 0;
+        for (TransactionTrace txn_trace : new BinaryTraceReader(path, nameFilter)) {
+            assertEquals(PROC_NAMES[1], txn_trace.getCatalogItemName());
+            ctr++;
+        } // FOR
+        assertEquals(NUM_TXNS / PROC_NAMES.length, ctr);
+
+        // ProcedureLimitFilter should HALT
+        int limit = 123;
+        Filter limitFilter = new ProcedureLimitFilter(limit);
+        BinaryTraceReader reader = new BinaryTraceReader(path, limitFilter);
+        ctr = 0;
+        for (TransactionTrace txn_trace : reader) {
+            assertEquals(this.txns.get(ctr).getTransactionId(), txn_trace.getTransactionId());
+            ctr++;
+        } // FOR
+        assertEquals(limit, ctr);
+        assertTrue(reader.getTransactionCount() < NUM_TXNS);
+    }
+}
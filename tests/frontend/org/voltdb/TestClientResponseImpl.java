@@ -8,6 +8,7 @@ import org.voltdb.messaging.FastDeserializer;
 import org.voltdb.messaging.FastSerializer;
 import org.voltdb.utils.DBBPool;
 
+import edu.brown.hstore.HStoreConstants;
 import edu.brown.hstore.Hstoreservice.Status;
 
 public class TestClientResponseImpl extends TestCase {
@@ -61,6 +62,26 @@ public class TestClientResponseImpl extends TestCase {
         } // FOR
     }
     
+    /**
+     * testSetRedirectSite
+     */
+    public void testSetRedirectSite() throws Exception {
+        assertFalse(cr.isRedirected());
+        for (int site_id : new int[]{ 1, HStoreConstants.NULL_SITE_ID, 0 }) {
+            cr.setRedirectSite(site_id);
+            assertEquals(site_id != HStoreConstants.NULL_SITE_ID, cr.isRedirected());
+            byte[] invocation_bytes = FastSerializer.serialize(cr);
+            assertNotNull(invocation_bytes);
+            FastDeserializer fds = new FastDeserializer(invocation_bytes);
+            ClientResponseImpl clone = fds.readObject(ClientResponseImpl.class);
+            assertNotNull(clone);
+            assertEquals(cr.isRedirected(), clone.isRedirected());
+            assertEquals(site_id, clone.getRedirectSite());
+            assertEquals(cr.getStatusString(), clone.getStatusString());
+            assertEquals(cr.getResults().length, clone.getResults().length);
+        } // FOR
+    }
+
     /**
      * testSetStatus
      */
@@ -78,4 +99,68 @@ public class TestClientResponseImpl extends TestCase {
         } // FOR
     }
     
+    
+    /**
+     * testSerializeForMessaging
+     */
+    public void testSerializeForMessaging() throws Exception {
+        DBBPool pool = new DBBPool(false, false);
+        VoltTable vt = new VoltTable(new VoltTable.ColumnInfo("A", VoltType.BIGINT),
+                                     new VoltTable.ColumnInfo("B", VoltType.STRING));
+        for (int i = 0; i < 100; i++) {
+            vt.addRow(i, "row" + i);
+        } // FOR
+        cr = new ClientResponseImpl(txn_id, client_handle, 1, status, new VoltTable[]{ vt }, statusString);
+        
+        int size = 4 + cr.getEstimatedSerializedSize();
+        FastSerializer fs = new FastSerializer(pool, size);
+        DBBPool.BBContainer c = fs.writeObjectForMessaging(cr);
+        assertNotNull(c);
+        assertTrue(c.b.isDirect());
+        
+        // The estimate should have been big enough that we never grew the buffer
+        assertTrue(c.b.remaining() + " > " + size, c.b.remaining() <= size);
+        assertEquals(c.b.remaining() - 4, c.b.getInt(0));
+        
+        byte bytes[] = new byte[c.b.remaining() - 4];
+        c.b.position(4);
+        c.b.get(bytes);
+        c.discard();
+        
+        FastDeserializer fds = new FastDeserializer(bytes);
+        ClientResponseImpl clone = fds.readObject(ClientResponseImpl.class);
+        assertNotNull(clone);
+        assertEquals(cr.getTransactionId(), clone.getTransactionId());
+        assertEquals(cr.getStatusString(), clone.getStatusString());
+        assertEquals(1, clone.getResults().length);
+        assertEquals(vt.getRowCount(), clone.getResults()[0].getRowCount());
+        assertEquals(vt.getUnderlyingBufferSize(), clone.getResults()[0].getUnderlyingBufferSize());
+    }
+    
+    /**
+     * testBatch
+     */
+    public void testBatch() throws Exception {
+        int num_responses = 5;
+        FastSerializer fs = new FastSerializer();
+        ClientResponseImpl.writeBatchHeader(fs, num_responses);
+        for (int i = 0; i < num_responses; i++) {
+            ClientResponseImpl.writeBatchEntry(fs, new ClientResponseImpl(txn_id + i, client_handle + i, i, status, results, statusString));
+        } // FOR
+        ByteBuffer buffer = ByteBuffer.wrap(fs.getBytes());
+        assertTrue(ClientResponseImpl.isBatch(buffer));
+        assertFalse(ClientResponseImpl.isBatch(ByteBuffer.wrap(FastSerializer.serialize(cr))));
+        
+        ByteBuffer entries[] = ClientResponseImpl.getBatch(buffer);
+        assertEquals(num_responses, entries.length);
+        for (int i = 0; i < num_responses; i++) {
+            FastDeserializer fds = new FastDeserializer(entries[i]);
+            ClientResponseImpl clone = fds.readObject(ClientResponseImpl.class);
+            assertNotNull(clone);
+            assertEquals(txn_id + i, clone.getTransactionId());
+            assertEquals(client_handle + i, clone.getClientHandle());
+            assertEquals(i, clone.getBasePartition());
+            assertEquals(statusString, clone.getStatusString());
+        } // FOR
+    }
 }
@@ -53,6 +53,7 @@ package org.voltdb;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import org.voltdb.ParameterSet;
 import org.voltdb.messaging.FastDeserializer;
@@ -106,6 +107,133 @@ public class TestParameterSet extends TestCase {
         assertEquals(bin[0], 'f'); assertEquals(bin[1], 'o'); assertEquals(bin[2], 'o');
     }
 
+    public void testPrimitives() throws IOException {
+        params.setParameters(new Object[]{ 1l, 2, (short)3, (byte)4, 5.5d, true, "foo", null });
+        ByteBuffer buf = ByteBuffer.wrap(FastSerializer.serialize(params));
+        buf.rewind();
+
+        ParameterSet out = new ParameterSet();
+        out.readExternal(new FastDeserializer(buf));
+        assertEquals(8, out.size());
+        assertEquals(VoltType.BIGINT, out.getType(0));
+        assertEquals(VoltType.INTEGER, out.getType(1));
+        assertEquals(VoltType.FLOAT, out.getType(4));
+        assertEquals(VoltType.NULL, out.getType(7));
+        assertEquals(1l, out.getLong(0));
+        assertEquals(2l, out.getLong(1));
+        assertEquals(3l, out.getLong(2));
+        assertEquals(4l, out.getLong(3));
+        assertEquals(5.5d, out.getDouble(4));
+        assertEquals(1l, out.getLong(5));
+
+        // The boxed values should have the same types as the originals
+        Object expected[] = params.toArray();
+        Object actual[] = out.toArray();
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual[i]);
+        }
+    }
+
+    public void testNullWithPrimitives() throws IOException {
+        // There are no non-primitive parameters here other than the NULLs
+        params.setParameters(new Object[]{ 1l, null, 2.5d, null });
+        ParameterSet out = new ParameterSet();
+        out.readExternal(new FastDeserializer(FastSerializer.serialize(params)));
+        assertEquals(4, out.size());
+        assertEquals(VoltType.NULL, out.getType(1));
+        assertEquals(1l, out.getLong(0));
+        assertEquals(VoltType.NULL_BIGINT, out.getLong(1));
+        assertEquals(2.5d, out.getDouble(2));
+        assertEquals(VoltType.NULL_FLOAT, out.getDouble(3));
+
+        Object actual[] = out.toArray();
+        assertEquals(4, actual.length);
+        assertEquals(1l, actual[0]);
+        assertNull(actual[1]);
+        assertNull(actual[3]);
+        assertEquals(VoltType.NULL_BIGINT, out.getLong(1));
+        assertEquals(VoltType.NULL_FLOAT, out.getDouble(3));
+    }
+
+    public void testSerializeTyped() throws IOException {
+        params.setParameters(new Object[]{ 1l, "foo", new long[]{ 1, 2, 3 }, 2.5d, false, (byte)7, null });
+        byte orig[] = FastSerializer.serialize(params);
+
+        // Put some junk in front of the ParameterSet to make sure
+        // that we only read its bytes
+        ByteBuffer buf = ByteBuffer.allocate(orig.length + 3);
+        buf.put(new byte[]{ 9, 9, 9 });
+        buf.put(orig);
+        buf.position(3);
+
+        // Copying the serialized bytes should produce the same bytes
+        ParameterSet out = new ParameterSet();
+        out.readExternal(new FastDeserializer(buf));
+        assertTrue(out.hasSerializedBytes());
+        assertTrue(Arrays.equals(orig, FastSerializer.serialize(out)));
+
+        // And so should writing out the boxed parameters
+        out.toArray();
+        assertFalse(out.hasSerializedBytes());
+        assertTrue(Arrays.equals(orig, FastSerializer.serialize(out)));
+    }
+
+    public void testSerializedBytesToEE() throws IOException {
+        // The EE can take the serialized bytes as they are
+        params.setParameters(new Object[]{ 1l, "foo", 2.5d, null });
+        byte orig[] = FastSerializer.serialize(params);
+        ParameterSet out = new ParameterSet(true);
+        out.readExternal(new FastDeserializer(orig));
+        assertTrue(out.hasSerializedBytes());
+        assertTrue(Arrays.equals(orig, FastSerializer.serialize(out)));
+
+        // But not if there is a decimal string
+        FastSerializer fs = new FastSerializer();
+        fs.writeShort(2);
+        fs.writeByte(VoltType.BIGINT.getValue());
+        fs.writeLong(1l);
+        fs.writeByte(VoltType.DECIMAL_STRING.getValue());
+        fs.writeString("1.5");
+        out.readExternal(new FastDeserializer(fs.getBytes()));
+        assertFalse(out.hasSerializedBytes());
+
+        ParameterSet expected = new ParameterSet(true);
+        expected.setParameters(new Object[]{ 1l, new BigDecimal("1.5") });
+        assertTrue(Arrays.equals(FastSerializer.serialize(expected), FastSerializer.serialize(out)));
+    }
+
+    public void testSerializeAfterChange() throws IOException {
+        params.setParameters(new Object[]{ 1l, "foo" });
+        ParameterSet out = new ParameterSet();
+        out.readExternal(new FastDeserializer(FastSerializer.serialize(params)));
+
+        // Changing the array returned by toArray() should change what gets serialized
+        out.toArray()[0] = 2l;
+        ParameterSet copy = new ParameterSet();
+        copy.readExternal(new FastDeserializer(FastSerializer.serialize(out)));
+        assertEquals(2, copy.size());
+        assertEquals(2l, copy.getLong(0));
+
+        // And so should setting new parameters
+        out.setParameters(new Object[]{ 3l });
+        copy.readExternal(new FastDeserializer(FastSerializer.serialize(out)));
+        assertEquals(1, copy.size());
+        assertEquals(3l, copy.getLong(0));
+    }
+
+    public void testByteArrayToEE() throws IOException {
+        // The EE wants byte arrays as strings
+        params.setParameters(new Object[]{ new byte[]{'f', 'o', 'o'} });
+        ParameterSet out = new ParameterSet(true);
+        out.readExternal(new FastDeserializer(FastSerializer.serialize(params)));
+        assertFalse(out.hasSerializedBytes());
+
+        ParameterSet expected = new ParameterSet(true);
+        expected.setParameters(new Object[]{ new byte[]{'f', 'o', 'o'} });
+        assertTrue(Arrays.equals(FastSerializer.serialize(expected), FastSerializer.serialize(out)));
+    }
+
     private boolean arrayLengthTester(Object[] objs)
     {
         params = new ParameterSet();
@@ -0,0 +1,123 @@
+package org.voltdb;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import org.voltdb.messaging.FastDeserializer;
+import org.voltdb.messaging.FastSerializer;
+
+import junit.framework.TestCase;
+
+public class TestProcedureInvoker extends TestCase {
+
+    public static class PrimitiveProcedure extends VoltProcedure {
+        public long run(long a, int b, short c, byte d, double e, boolean f, String g) {
+            if (f == false || g == null) return (-1);
+            return (a + b + c + d + (long)e);
+        }
+    }
+    
+    static class StaticProcedure extends VoltProcedure {
+        public static VoltTable[] run(long a) {
+            if (a < 0) throw new VoltAbortException("negative");
+            return new VoltTable[0];
+        }
+    }
+    
+    private static Method getRunMethod(Class<?> clazz) {
+        for (Method m : clazz.getMethods()) {
+            if (m.getName().equals("run")) return (m);
+        } // FOR
+        return (null);
+    }
+    
+    /**
+     * testPrimitiveArguments
+     */
+    public void testPrimitiveArguments() throws Exception {
+        Method method = getRunMethod(PrimitiveProcedure.class);
+        ProcedureInvoker invoker = ProcedureInvoker.get(method);
+        assertNotNull(invoker);
+        assertSame(invoker, ProcedureInvoker.get(method));
+        
+        // The smaller integer types should be widened just like Method.invoke()
+        PrimitiveProcedure proc = new PrimitiveProcedure();
+        Object params[] = { 1, (short)2, (byte)3, (byte)4, 5.0d, true, "xyz" };
+        assertEquals(method.invoke(proc, params), invoker.invoke(proc, params));
+        assertEquals(15l, invoker.invoke(proc, params));
+    }
+    
+    /**
+     * testParameterSetSlots
+     */
+    public void testParameterSetSlots() throws Exception {
+        Method method = getRunMethod(PrimitiveProcedure.class);
+        ProcedureInvoker invoker = ProcedureInvoker.get(method);
+        assertNotNull(invoker);
+        PrimitiveProcedure proc = new PrimitiveProcedure();
+        
+        // The arguments should come straight out of the deserialized primitive slots
+        Object params[] = { 1l, 2, (short)3, (byte)4, 5.0d, true, "xyz" };
+        ParameterSet orig = new ParameterSet(params);
+        ParameterSet paramSet = new ParameterSet();
+        paramSet.readExternal(new FastDeserializer(FastSerializer.serialize(orig)));
+        assertEquals(method.invoke(proc, params), invoker.invoke(proc, paramSet));
+        assertEquals(15l, invoker.invoke(proc, paramSet));
+        
+        // Reading the slots should not box the parameters
+        assertTrue(paramSet.hasSerializedBytes());
+        
+        // A NULL string should be passed in as null
+        params[params.length-1] = VoltType.NULL_STRING;
+        paramSet.readExternal(new FastDeserializer(FastSerializer.serialize(new ParameterSet(params))));
+        assertEquals(-1l, invoker.invoke(proc, paramSet));
+        
+        // And it should work on a ParameterSet that was never serialized
+        assertEquals(-1l, invoker.invoke(proc, new ParameterSet(params)));
+    }
+    
+    /**
+     * testStaticMethod
+     */
+    public void testStaticMethod() throws Exception {
+        ProcedureInvoker invoker = ProcedureInvoker.get(getRunMethod(StaticProcedure.class));
+        assertNotNull(invoker);
+        StaticProcedure proc = new StaticProcedure();
+        Object result = invoker.invoke(proc, new Object[]{ 1l });
+        assertTrue(result instanceof VoltTable[]);
+        
+        // Exceptions should be wrapped just like Method.invoke()
+        try {
+            invoker.invoke(proc, new Object[]{ -1l });
+            fail();
+        } catch (InvocationTargetException ex) {
+            assertTrue(ex.getCause() instanceof VoltProcedure.VoltAbortException);
+        }
+    }
+    
+    /**
+     * testInvalidParameters
+     */
+    public void testInvalidParameters() throws Exception {
+        Method method = getRunMethod(PrimitiveProcedure.class);
+        ProcedureInvoker invoker = ProcedureInvoker.get(method);
+        assertNotNull(invoker);
+        PrimitiveProcedure proc = new PrimitiveProcedure();
+        
+        // Conversion problems are not the procedure's fault, so they
+        // should not be wrapped like the procedure's own exceptions
+        Object badParams[][] = {
+            { "xyz", 2, (short)3, (byte)4, 5.0d, true, "xyz" },  // Wrong type
+            { null, 2, (short)3, (byte)4, 5.0d, true, "xyz" },   // Null primitive
+            { 1l, 2 },                                           // Wrong number
+        };
+        for (Object params[] : badParams) {
+            try {
+                invoker.invoke(proc, params);
+                fail("Expected IllegalArgumentException");
+            } catch (IllegalArgumentException ex) {
+                // Expected
+            }
+        } // FOR
+    }
+}
@@ -44,6 +44,35 @@ public class TestStoredProcedureInvocation extends BaseTestCase {
         ByteBuffer buffer = ByteBuffer.wrap(invocation_bytes);
         assertEquals(catalog_proc.getId(), StoredProcedureInvocation.getProcedureId(buffer));
     }
+    
+    /**
+     * testBatch
+     */
+    public void testBatch() throws Exception {
+        int num_invocations = 5;
+        FastSerializer fs = new FastSerializer();
+        StoredProcedureInvocation.writeBatchHeader(fs, num_invocations);
+        for (int i = 0; i < num_invocations; i++) {
+            StoredProcedureInvocation invocation = new StoredProcedureInvocation(CLIENT_HANDLE + i, TARGET_PROCEDURE, PARAMS);
+            invocation.setBasePartition(i);
+            StoredProcedureInvocation.writeBatchEntry(fs, invocation);
+        } // FOR
+        ByteBuffer buffer = ByteBuffer.wrap(fs.getBytes());
+        assertTrue(StoredProcedureInvocation.isBatch(buffer));
+        
+        ByteBuffer entries[] = StoredProcedureInvocation.getBatch(buffer);
+        assertEquals(num_invocations, entries.length);
+        for (int i = 0; i < num_invocations; i++) {
+            assertFalse(StoredProcedureInvocation.isBatch(entries[i]));
+            assertEquals(CLIENT_HANDLE + i, StoredProcedureInvocation.getClientHandle(entries[i]));
+            assertEquals(i, StoredProcedureInvocation.getBasePartition(entries[i]));
+            assertEquals(TARGET_PROCEDURE, StoredProcedureInvocation.getProcedureName(entries[i]));
+            
+            ParameterSet params = new ParameterSet();
+            params.readExternal(new FastDeserializer(StoredProcedureInvocation.getParameterSet(entries[i])));
+            assertArrayEquals(PARAMS, params.toArray());
+        } // FOR
+    }
 //    
 //    /**
 //     * testIsSysProc
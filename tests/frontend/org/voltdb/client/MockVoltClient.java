@@ -52,6 +52,7 @@ package org.voltdb.client;
 
 import java.io.IOException;
 import java.net.UnknownHostException;
+import java.util.Collection;
 
 import org.voltdb.ClientResponseDebug;
 import org.voltdb.StoredProcedureInvocationHints;
@@ -210,6 +211,13 @@ public class MockVoltClient implements Client {
         return false;
     }
 
+    @Override
+    public boolean callProcedureBatch(ProcedureCallback callback, String procName,
+            Collection<Object[]> parameters) throws NoConnectionsException {
+        // TODO Auto-generated method stub
+        return false;
+    }
+
     @Override
     public void createConnection(String host, int port) throws UnknownHostException, IOException {
         // TODO Auto-generated method stub
@@ -397,5 +397,47 @@ public class TestDistributer extends TestCase {
         }
     }
 
+    @Test
+    public void testUpdateRouting() throws Exception {
+        Distributer dist = new Distributer();
+        try {
+            // Partitions 0+1 are at site 0 and partitions 2+3 are at site 1.
+            // But our catalog thinks that partition 2 is still at site 0
+            dist.setPartitionSiteXref(new int[]{ 0, 0, 0, 1 });
+            assertEquals(0, dist.getSiteForPartition(2).intValue());
+
+            // A txn for partition 2 that we sent to site 0 was redirected to site 1,
+            // so we should now send partition 2's txns directly to site 1
+            ClientResponseImpl cr = new ClientResponseImpl(1000, 1, 2, Status.OK, HStoreConstants.EMPTY_RESULT, "");
+            cr.setRedirectSite(1);
+            dist.updateRouting(0, cr);
+            assertEquals(1, dist.getSiteForPartition(2).intValue());
+
+            // A txn that was not redirected was executed at the site on the 
+            // other end of its connection
+            cr = new ClientResponseImpl(1001, 2, 3, Status.OK, HStoreConstants.EMPTY_RESULT, "");
+            dist.updateRouting(1, cr);
+            assertEquals(1, dist.getSiteForPartition(3).intValue());
+            
+            // We don't learn anything from txns that failed or that did not have a base partition
+            cr = new ClientResponseImpl(1002, 3, 0, Status.ABORT_UNEXPECTED, HStoreConstants.EMPTY_RESULT, "");
+            cr.setRedirectSite(1);
+            dist.updateRouting(0, cr);
+            assertEquals(0, dist.getSiteForPartition(0).intValue());
+            cr = new ClientResponseImpl(1003, 4, HStoreConstants.NULL_PARTITION_ID, Status.OK, HStoreConstants.EMPTY_RESULT, "");
+            dist.updateRouting(1, cr);
+            assertNull(dist.getSiteForPartition(HStoreConstants.NULL_PARTITION_ID));
+            
+            // Partitions that were not in the catalog are learned from the responses
+            assertNull(dist.getSiteForPartition(4));
+            cr = new ClientResponseImpl(1004, 5, 4, Status.OK, HStoreConstants.EMPTY_RESULT, "");
+            cr.setRedirectSite(2);
+            dist.updateRouting(1, cr);
+            assertEquals(2, dist.getSiteForPartition(4).intValue());
+        } finally {
+            dist.shutdown();
+        }
+    }
+
 }
 
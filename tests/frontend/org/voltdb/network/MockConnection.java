@@ -0,0 +1,137 @@
+package org.voltdb.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.voltdb.messaging.FastSerializable;
+import org.voltdb.messaging.FastSerializer;
+import org.voltdb.utils.DBBPool;
+import org.voltdb.utils.DBBPool.BBContainer;
+import org.voltdb.utils.DeferredSerialization;
+
+/**
+ * Fake client Connection whose write stream keeps a copy of everything that
+ * is enqueued to it instead of writing it out to a socket.
+ * This lives in org.voltdb.network because NIOWriteStream's constructors
+ * are package-private.
+ */
+public class MockConnection implements Connection {
+
+    /**
+     * WriteStream that records every buffer that is enqueued to it
+     */
+    public static class MockWriteStream extends NIOWriteStream {
+        private final List<ByteBuffer> writes = Collections.synchronizedList(new ArrayList<ByteBuffer>());
+        private final DBBPool pool = new DBBPool();
+
+        private MockWriteStream() {
+            super(null);
+        }
+
+        /**
+         * Returns a copy of each buffer that was enqueued, in the order
+         * that they were enqueued
+         */
+        public List<ByteBuffer> getWrites() {
+            return (this.writes);
+        }
+
+        private boolean record(ByteBuffer b) {
+            ByteBuffer copy = ByteBuffer.allocate(b.remaining());
+            copy.put(b.duplicate());
+            copy.flip();
+            this.writes.add(copy);
+            return (true);
+        }
+
+        @Override
+        public boolean enqueue(BBContainer c) {
+            if (c.b.remaining() == 0) {
+                c.discard();
+                return (false);
+            }
+            this.record(c.b);
+            c.discard();
+            return (true);
+        }
+
+        @Override
+        public boolean enqueue(FastSerializable f) {
+            return (this.enqueue(f, 2048));
+        }
+
+        @Override
+        public boolean enqueue(FastSerializable f, int expectedSize) {
+            FastSerializer fs = new FastSerializer(this.pool, expectedSize);
+            try {
+                return (this.enqueue(fs.writeObjectForMessaging(f)));
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
+        @Override
+        public boolean enqueue(DeferredSerialization ds) {
+            try {
+                return (this.enqueue(ds.serialize(this.pool)));
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
+        @Override
+        public boolean enqueue(ByteBuffer b) {
+            return (this.record(b));
+        }
+    } // CLASS
+
+    private final String hostname;
+    private final MockWriteStream writeStream = new MockWriteStream();
+
+    public MockConnection(String hostname) {
+        this.hostname = hostname;
+    }
+
+    @Override
+    public MockWriteStream writeStream() {
+        return (this.writeStream);
+    }
+
+    @Override
+    public NIOReadStream readStream() {
+        return (null);
+    }
+
+    @Override
+    public void disableReadSelection() {
+        // Nothing to do
+    }
+
+    @Override
+    public void enableReadSelection() {
+        // Nothing to do
+    }
+
+    @Override
+    public String getHostname() {
+        return (this.hostname);
+    }
+
+    @Override
+    public void scheduleRunnable(Runnable r) {
+        r.run();
+    }
+
+    @Override
+    public void unregister() {
+        // Nothing to do
+    }
+
+    @Override
+    public String toString() {
+        return (this.getClass().getSimpleName() + "[" + this.hostname + "]");
+    }
+}
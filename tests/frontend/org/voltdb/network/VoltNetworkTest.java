@@ -24,13 +24,23 @@
 package org.voltdb.network;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.SelectorProvider;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.HashSet;
+
+import org.voltdb.utils.Pair;
+
+import edu.brown.hstore.HStoreSite;
 import junit.framework.*;
 
 public class VoltNetworkTest extends TestCase {
@@ -289,4 +299,42 @@ public class VoltNetworkTest extends TestCase {
         vn.shutdown();
         assertEquals(SelectionKey.OP_ACCEPT, vp.readyOps());
     }
+
+    public void testMultipleSelectors() throws Exception {
+        final int numSelectors = 3;
+        VoltNetwork vn = new VoltNetwork((HStoreSite)null, numSelectors);
+        Thread t = new Thread(vn);
+        t.setDaemon(true);
+        t.start();
+
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress("localhost", 0));
+        List<SocketChannel> clients = new ArrayList<SocketChannel>();
+        Set<Selector> selectors = new HashSet<Selector>();
+        for (int i = 0; i < numSelectors * 2; i++) {
+            clients.add(SocketChannel.open(server.socket().getLocalSocketAddress()));
+            SocketChannel channel = server.accept();
+            VoltPort port = (VoltPort)vn.registerChannel(channel, new MockInputHandler());
+            selectors.add(port.getKey().selector());
+        } // FOR
+        // The connections should be spread out over all of the selectors
+        assertEquals(numSelectors, selectors.size());
+
+        Map<Long, Pair<String, long[]>> stats = vn.getIOStats(false);
+        assertEquals("GLOBAL", stats.get(-1L).getFirst());
+        for (int i = 0; i < numSelectors; i++) {
+            Pair<String, long[]> p = stats.get(-2L - i);
+            assertNotNull(p);
+            assertEquals(String.format("SELECTOR-%02d", i), p.getFirst());
+            assertEquals(4, p.getSecond().length);
+        } // FOR
+
+        vn.shutdown();
+        t.join(10000);
+        assertFalse(t.isAlive());
+        for (SocketChannel c : clients) {
+            c.close();
+        } // FOR
+        server.close();
+    }
 }
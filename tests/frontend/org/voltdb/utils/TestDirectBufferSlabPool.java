@@ -0,0 +1,164 @@
+package org.voltdb.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.voltdb.messaging.FastSerializer;
+import org.voltdb.utils.DBBPool.BBContainer;
+
+public class TestDirectBufferSlabPool extends TestCase {
+
+    static final int MAX_ALLOCATION_SIZE = 1048576;
+    static final int SLAB_SIZE = 65536;
+    static final long IDLE_TIME = 100;
+
+    DirectBufferSlabPool pool;
+
+    @Override
+    protected void setUp() throws Exception {
+        pool = new DirectBufferSlabPool(MAX_ALLOCATION_SIZE, SLAB_SIZE, IDLE_TIME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        pool.clear();
+    }
+
+    /**
+     * testAcquire
+     */
+    public void testAcquire() throws Exception {
+        for (int size : new int[]{ 1, 64, 65, 8192, 262145, MAX_ALLOCATION_SIZE }) {
+            BBContainer c = pool.acquire(size);
+            assertTrue(c.b.isDirect());
+            assertTrue(size + " > " + c.b.capacity(), c.b.capacity() >= size);
+            assertTrue(c.b.capacity() < size * 2 || c.b.capacity() == DirectBufferSlabPool.MIN_ALLOCATION_SIZE);
+            assertEquals(0, c.b.position());
+            assertEquals(c.b.capacity(), c.b.limit());
+            c.discard();
+        } // FOR
+        assertEquals(0, pool.bytesLoanedLocally());
+        assertEquals(0, pool.getHeapAllocations());
+
+        // Anything bigger than the largest size class goes on the heap
+        BBContainer c = pool.acquire(MAX_ALLOCATION_SIZE + 1);
+        assertFalse(c.b.isDirect());
+        c.discard();
+        assertEquals(1, pool.getHeapAllocations());
+    }
+
+    /**
+     * testRecycle
+     */
+    public void testRecycle() throws Exception {
+        int size = 8192;
+        List<BBContainer> containers = new ArrayList<BBContainer>();
+        for (int i = 0; i < (SLAB_SIZE / size) * 3; i++) {
+            BBContainer c = pool.acquire(size);
+            c.b.putLong(0, i);
+            containers.add(c);
+        } // FOR
+        assertEquals(3, pool.getSlabCount());
+        assertEquals(SLAB_SIZE * 3, pool.bytesAllocatedLocally());
+        assertEquals(size * containers.size(), pool.bytesLoanedLocally());
+
+        // The slices should not overlap
+        for (int i = 0; i < containers.size(); i++) {
+            assertEquals(i, containers.get(i).b.getLong(0));
+        } // FOR
+        for (BBContainer c : containers) {
+            c.discard();
+        } // FOR
+        assertEquals(0, pool.bytesLoanedLocally());
+        assertEquals(size * containers.size(), pool.getBytesLoanedHighWaterMark());
+
+        // Getting the same number of buffers again should not allocate any more slabs
+        containers.clear();
+        for (int i = 0; i < (SLAB_SIZE / size) * 3; i++) {
+            containers.add(pool.acquire(size));
+        } // FOR
+        assertEquals(3, pool.getSlabCount());
+        for (BBContainer c : containers) {
+            c.discard();
+        } // FOR
+
+        // Discarding twice is not allowed
+        try {
+            containers.get(0).discard();
+            fail("Discarded the same buffer twice");
+        } catch (RuntimeException ex) {
+            // Expected
+        }
+    }
+
+    /**
+     * testReleaseIdleSlabs
+     */
+    public void testReleaseIdleSlabs() throws Exception {
+        int size = SLAB_SIZE / 2;
+        List<BBContainer> containers = new ArrayList<BBContainer>();
+        for (int i = 0; i < 8; i++) {
+            containers.add(pool.acquire(size));
+        } // FOR
+        assertEquals(4, pool.getSlabCount());
+        long hwm = pool.getBytesAllocatedHighWaterMark();
+        assertEquals(SLAB_SIZE * 4, hwm);
+
+        // Slabs that still have buffers loaned out can't be released
+        long now = EstTime.currentTimeMillis() + IDLE_TIME * 10;
+        assertEquals(0, pool.releaseIdleSlabs(now));
+
+        for (BBContainer c : containers) {
+            c.discard();
+        } // FOR
+        // The slabs were just used, so they aren't idle yet
+        assertEquals(0, pool.releaseIdleSlabs(EstTime.currentTimeMillis()));
+
+        // We only give back one slab at a time, but eventually all of them go away
+        long globalAllocated = pool.bytesAllocatedGlobally();
+        assertEquals(1, pool.releaseIdleSlabs(now));
+        assertEquals(3, pool.getSlabCount());
+        assertEquals(globalAllocated - SLAB_SIZE, pool.bytesAllocatedGlobally());
+        assertEquals(1, pool.releaseIdleSlabs(now));
+        assertEquals(1, pool.releaseIdleSlabs(now));
+        assertEquals(1, pool.releaseIdleSlabs(now));
+        assertEquals(0, pool.releaseIdleSlabs(now));
+        assertEquals(0, pool.getSlabCount());
+        assertEquals(4, pool.getSlabsReleased());
+        assertEquals(0, pool.bytesAllocatedLocally());
+        assertEquals(globalAllocated - SLAB_SIZE * 4, pool.bytesAllocatedGlobally());
+        assertEquals(hwm, pool.getBytesAllocatedHighWaterMark());
+
+        // The size class can still be used after all of its slabs were released
+        BBContainer c = pool.acquire(size);
+        assertEquals(1, pool.getSlabCount());
+        c.discard();
+
+        pool.resetHighWaterMarks();
+        assertEquals(SLAB_SIZE, pool.getBytesAllocatedHighWaterMark());
+        assertEquals(0, pool.getBytesLoanedHighWaterMark());
+    }
+
+    /**
+     * testFastSerializer
+     */
+    public void testFastSerializer() throws Exception {
+        FastSerializer fs = new FastSerializer(pool, 128);
+        byte data[] = new byte[DBBPool.MAX_ALLOCATION_SIZE * 2];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)i;
+        } // FOR
+        fs.write(data);
+
+        // The buffer should have grown without falling back to the heap
+        BBContainer c = fs.getBBContainer();
+        assertTrue(c.b.isDirect());
+        assertEquals(data.length, c.b.remaining());
+        assertEquals(data[data.length - 1], c.b.get(data.length - 1));
+        c.discard();
+        assertEquals(0, pool.bytesLoanedLocally());
+        assertEquals(0, pool.getHeapAllocations());
+    }
+}